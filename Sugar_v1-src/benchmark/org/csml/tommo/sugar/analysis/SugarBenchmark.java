@@ -0,0 +1,898 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.analysis;
+
+import java.awt.Rectangle;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.samtools.util.BlockCompressedOutputStream;
+
+import org.csml.tommo.sugar.SugarApplication;
+import org.csml.tommo.sugar.heatmap.LinearPaintScale;
+import org.csml.tommo.sugar.heatmap.MappingQualityMatrix;
+import org.csml.tommo.sugar.heatmap.MeanQualityMatrix;
+import org.csml.tommo.sugar.heatmap.QualityCounterStore;
+import org.csml.tommo.sugar.modules.ClearBasesInLowQClusters;
+import org.csml.tommo.sugar.modules.EClearLowQClustersMethod;
+import org.csml.tommo.sugar.modules.ELowQClustersSelectionMethdod;
+import org.csml.tommo.sugar.modules.QualityHeatMapsPerTileAndBase;
+import org.csml.tommo.sugar.sequence.BGZFBlockReader;
+import org.csml.tommo.sugar.sequence.ParallelBGZFReader;
+import org.csml.tommo.sugar.sequence.SequenceCoordinates;
+import org.csml.tommo.sugar.sequence.TileCoordinates;
+import org.csml.tommo.sugar.utils.AtomicUtils;
+import org.csml.tommo.sugar.utils.Options;
+import org.csml.tommo.sugar.utils.StripedThread;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+
+import uk.ac.babraham.FastQC.Modules.QCModule;
+import uk.ac.babraham.FastQC.Sequence.Sequence;
+import uk.ac.babraham.FastQC.Sequence.SequenceFactory;
+import uk.ac.babraham.FastQC.Sequence.SequenceFile;
+
+/**
+ * Class SugarBenchmark
+ *
+ * Measures the speed of the hot paths of SUGAR, so the results of two releases can be compared:
+ *
+ * - parsing of the read coordinates (SequenceCoordinates.getSequenceCoordinates)
+ * - counting of the qualities (MeanQualityMatrix.addQualityValue, MappingQualityMatrix.addQualityValue,
+ *   QualityHeatMapsPerTileAndBase.processSequence)
+ * - writing of the cleared reads (ClearBasesInLowQClusters.processSequence)
+ * - rendering of the heat-maps (MeanQualityMatrix.createBufferedImage)
+ * - the cache (OpenedFileCache write and read)
+ * - the scaling of the shared (concurrent) heatmaps and of the TilePartitionedPipeline with the number of threads, 
+ *   the results of each run are compared with the results of one thread (stress test of the atomic counters)
+ * - the scaling of the inflating of a bgzip compressed FASTQ file (ParallelBGZFReader) with the number of threads
+ *
+ * The reads are generated - one lane with the given number of tiles, the quality drops with the cycle
+ * and in a spot of each tile. Each benchmark runs for every combination of the matrix sizes and read lengths.
+ *
+ * Each measurement is repeated (after the warm-up iterations), the time per operation is printed
+ * and written to a JSON file.
+ *
+ * usage: SugarBenchmark [matrix sizes (10,50)] [read lengths (101,151)] [tiles (96)] [reads per tile (1000)] [output file (sugar_benchmark.json)]
+ *                       [threads of the concurrent benchmarks (1,2,4,8,16,32)]
+ *
+ * The matrices of 96 tiles x 151 cycles with N=50 take about 450 MB, run with -Xmx2g or more.
+ *
+ * The benchmark is kept in the benchmark source folder (in the package of the classes it measures), so it is not
+ * part of Sugar.jar. It is built and run by the Ant target 'benchmark': ant benchmark -Dbenchmark.args="10,50 101,151"
+ * The folder also holds ReadNameParserBenchmark (parsing speed of the read names) and QualityCounterHeapBenchmark
+ * (heap of the counters for a lane), run with java -cp outbin:outbin-benchmark, and SugarChecks (the results of the modes
+ * and of the merges compared with one thread), run by the Ant target 'check'.
+ *
+ */
+public class SugarBenchmark {
+
+	public static final String DEFAULT_OUTPUT_FILE = "sugar_benchmark.json";
+
+	public static final int WARMUP_ITERATIONS = 2;
+	public static final int ITERATIONS = 5;
+
+	private static final int QUALITY_THRESHOLD = Options.DEFAULT_QUALITY_THRESHOLD;
+	private static final int PHRED_OFFSET = 33;
+
+	// the size of a HiSeq tile
+	private static final int MAX_X = 20000;
+	private static final int MAX_Y = 200000;
+
+	private static final String JSON_ATTR_VERSION = "sugarVersion";
+	private static final String JSON_ATTR_JAVA_VERSION = "javaVersion";
+	private static final String JSON_ATTR_DATE = "date";
+	private static final String JSON_ATTR_WARMUP_ITERATIONS = "warmupIterations";
+	private static final String JSON_ATTR_ITERATIONS = "iterations";
+	private static final String JSON_ATTR_RESULTS = "results";
+	private static final String JSON_ATTR_BENCHMARK = "benchmark";
+	private static final String JSON_ATTR_PARAMS = "params";
+	private static final String JSON_ATTR_MATRIX_SIZE = "matrixSize";
+	private static final String JSON_ATTR_READ_LENGTH = "readLength";
+	private static final String JSON_ATTR_TILES = "tiles";
+	private static final String JSON_ATTR_READS_PER_TILE = "readsPerTile";
+	private static final String JSON_ATTR_UNIT = "unit";
+	private static final String JSON_ATTR_SCORE = "score";
+	private static final String JSON_ATTR_MIN = "min";
+	private static final String JSON_ATTR_MAX = "max";
+	private static final String JSON_ATTR_STDEV = "stdev";
+	private static final String JSON_ATTR_OPERATIONS = "operations";
+
+	private final int tiles;
+	private final int readsPerTile;
+	private final int[] threadCounts;
+	private final File tempDir;
+
+	private final JSONArray results = new JSONArray();
+
+	/**
+	 * the module with all reads of the current ReadSet, shared by the benchmarks which need the results
+	 */
+	private QualityHeatMapsPerTileAndBase processedModule;
+
+	/**
+	 * keeps the results of the benchmarks, so the JIT cannot remove the measured code
+	 */
+	private long checksum = 0;
+
+	public SugarBenchmark(int tiles, int readsPerTile) throws IOException {
+		this(tiles, readsPerTile, new int[] {1, 2, 4, 8, 16, 32});
+	}
+
+	public SugarBenchmark(int tiles, int readsPerTile, int[] threadCounts) throws IOException {
+		this.tiles = tiles;
+		this.readsPerTile = readsPerTile;
+		this.threadCounts = threadCounts;
+
+		tempDir = File.createTempFile("sugar", "benchmark");
+		tempDir.delete();
+		tempDir.mkdirs();
+	}
+
+	public void run(int matrixSize, int readLength) throws Exception {
+
+		System.setProperty(Options.MATRIX_SIZE_OPTION, Integer.toString(matrixSize));
+
+		ReadSet reads = new ReadSet(tiles, readsPerTile, readLength);
+		reads.writeFastQ(new File(tempDir, "reads_" + readLength + ".fastq"));
+		reads.writeBGZF(new File(tempDir, "reads_" + readLength + ".fastq.gz"));
+
+		JSONObject params = new JSONObject();
+		params.put(JSON_ATTR_MATRIX_SIZE, matrixSize);
+		params.put(JSON_ATTR_READ_LENGTH, readLength);
+		params.put(JSON_ATTR_TILES, tiles);
+		params.put(JSON_ATTR_READS_PER_TILE, readsPerTile);
+
+		for (Benchmark benchmark : createBenchmarks(reads, matrixSize))
+			results.add(measure(benchmark, params));
+
+		processedModule = null;
+	}
+
+	private List<Benchmark> createBenchmarks(final ReadSet reads, final int matrixSize) {
+
+		List<Benchmark> result = new ArrayList<Benchmark>();
+
+		result.add(new Benchmark("SequenceCoordinates.getSequenceCoordinates", TimeUnit.NANOSECONDS) {
+			@Override
+			long run() {
+				for (Sequence seq : reads.sequences)
+					checksum += SequenceCoordinates.getSequenceCoordinates(seq.getID()).getX();
+				return reads.sequences.size();
+			}
+		});
+
+		result.add(new Benchmark("MeanQualityMatrix.addQualityValue", TimeUnit.NANOSECONDS) {
+
+			MeanQualityMatrix[][] matrices;
+
+			@Override
+			void setup() {
+				QualityCounterStore store = new QualityCounterStore(matrixSize);
+				matrices = new MeanQualityMatrix[tiles][reads.readLength];
+				for (int t = 0; t < tiles; t++)
+				{
+					for (int i = 0; i < reads.readLength; i++)
+						matrices[t][i] = new MeanQualityMatrix(reads.ranges[t], QUALITY_THRESHOLD, store);
+				}
+			}
+
+			@Override
+			long run() {
+				for (int r = 0; r < reads.size(); r++)
+				{
+					MeanQualityMatrix[] tileMatrices = matrices[reads.tileIndexes[r]];
+					byte[] qualities = reads.qualities[r];
+					for (int i = 0; i < qualities.length; i++)
+						checksum += tileMatrices[i].addQualityValue(reads.x[r], reads.y[r], qualities[i] - PHRED_OFFSET);
+				}
+				return (long) reads.size() * reads.readLength;
+			}
+
+			@Override
+			void tearDown() {
+				matrices = null;
+			}
+		});
+
+		result.add(new Benchmark("MappingQualityMatrix.addQualityValue", TimeUnit.NANOSECONDS) {
+
+			MappingQualityMatrix[] matrices;
+
+			@Override
+			void setup() {
+				matrices = new MappingQualityMatrix[tiles];
+				for (int t = 0; t < tiles; t++)
+					matrices[t] = new MappingQualityMatrix(reads.ranges[t], matrixSize);
+			}
+
+			@Override
+			long run() {
+				for (int r = 0; r < reads.size(); r++)
+					matrices[reads.tileIndexes[r]].addQualityValue(reads.x[r], reads.y[r], reads.mappingQualities[r]);
+				return reads.size();
+			}
+
+			@Override
+			void tearDown() {
+				matrices = null;
+			}
+		});
+
+		result.add(new Benchmark("QualityHeatMapsPerTileAndBase.processSequence", TimeUnit.NANOSECONDS) {
+
+			QualityHeatMapsPerTileAndBase module;
+
+			@Override
+			void setup() {
+				module = createTileTreeModule(reads);
+			}
+
+			@Override
+			long run() {
+				for (Sequence seq : reads.sequences)
+					module.processSequence(seq);
+				checksum += module.getMaxMatrixDensity();
+				return reads.size();
+			}
+
+			@Override
+			void tearDown() {
+				module = null;
+			}
+		});
+
+		for (final int threads : threadCounts)
+		{
+			result.add(new Benchmark("QualityHeatMapsPerTileAndBase.processRead shared x" + threads, TimeUnit.NANOSECONDS) {
+
+				QualityHeatMapsPerTileAndBase module;
+
+				@Override
+				void setup() {
+					module = createTileTreeModule(reads);
+				}
+
+				@Override
+				long run() throws Exception {
+					module.setConcurrent(true, threads);
+					runConcurrently(threads, reads.size(), new Batch() {
+						@Override
+						void process(int start, int end) {
+							ReadContext read = new ReadContext();
+							for (int r = start; r < end; r++)
+							{
+								Sequence seq = reads.sequences.get(r);
+								if (read.set(seq))
+									module.processRead(read);
+								else
+									module.processSequence(seq);
+							}
+						}
+					});
+					module.setConcurrent(false, threads);
+					checksum += module.getMaxMatrixDensity();
+					return reads.size();
+				}
+
+				@Override
+				void tearDown() {
+					checkConcurrentResults(module, getProcessedModule(reads), reads);
+					module = null;
+				}
+			});
+		}
+
+		for (final int threads : threadCounts)
+		{
+			result.add(new Benchmark("QualityHeatMapsPerTileAndBase.processRead by tile x" + threads, TimeUnit.NANOSECONDS) {
+
+				QualityHeatMapsPerTileAndBase module;
+
+				@Override
+				void setup() {
+					module = createTileTreeModule(reads);
+				}
+
+				@Override
+				long run() {
+					List<QCModule> modules = new ArrayList<QCModule>();
+					modules.add(module);
+					TilePartitionedPipeline pipeline = new TilePartitionedPipeline(modules, threads);
+					pipeline.start();
+					for (Sequence seq : reads.sequences)
+						pipeline.add(seq);
+					pipeline.finish();
+					checksum += module.getMaxMatrixDensity();
+					return reads.size();
+				}
+
+				@Override
+				void tearDown() {
+					checkConcurrentResults(module, getProcessedModule(reads), reads);
+					module = null;
+				}
+			});
+		}
+
+		for (final int threads : threadCounts)
+		{
+			result.add(new Benchmark("MappingQualityMatrix.addQualityValue shared x" + threads, TimeUnit.NANOSECONDS) {
+
+				MappingQualityMatrix[] matrices;
+
+				@Override
+				void setup() {
+					matrices = new MappingQualityMatrix[tiles];
+					for (int t = 0; t < tiles; t++)
+					{
+						matrices[t] = new MappingQualityMatrix(reads.ranges[t], matrixSize);
+						matrices[t].setConcurrent(true, AtomicUtils.getStripes(threads));
+					}
+				}
+
+				@Override
+				long run() throws Exception {
+					runConcurrently(threads, reads.size(), new Batch() {
+						@Override
+						void process(int start, int end) {
+							for (int r = start; r < end; r++)
+								matrices[reads.tileIndexes[r]].addQualityValue(reads.x[r], reads.y[r], reads.mappingQualities[r]);
+						}
+					});
+					return reads.size();
+				}
+
+				@Override
+				void tearDown() {
+					checkConcurrentResults(matrices, reads, matrixSize);
+					matrices = null;
+				}
+			});
+		}
+
+		for (final int threads : threadCounts)
+		{
+			result.add(new Benchmark("ParallelBGZFReader.next x" + threads, TimeUnit.NANOSECONDS) {
+
+				@Override
+				long run() throws Exception {
+					long length = 0;
+					RandomAccessFile file = new RandomAccessFile(reads.bgzfFile, "r");
+					ParallelBGZFReader reader = new ParallelBGZFReader(file.getChannel(), 0, threads);
+					try {
+						ParallelBGZFReader.Block block;
+						while ((block = reader.next()) != null)
+						{
+							length += block.getLength();
+							reader.release(block);
+						}
+					} finally {
+						reader.close();
+						file.close();
+					}
+
+					if (length != reads.file.length())
+						throw new IllegalStateException("The inflated BGZF file differs from the FASTQ file");
+					checksum += length;
+					return reads.size();
+				}
+			});
+		}
+
+		result.add(new Benchmark("ClearBasesInLowQClusters.processSequence", TimeUnit.NANOSECONDS) {
+
+			ClearBasesInLowQClusters module;
+			SequenceFile sequenceFile;
+			File outputFile = new File(tempDir, "cleared.fastq");
+
+			@Override
+			void setup() throws Exception {
+				if (sequenceFile == null)
+					sequenceFile = SequenceFactory.getSequenceFile(reads.file);
+				module = new ClearBasesInLowQClusters(getProcessedModule(reads), sequenceFile,
+						EClearLowQClustersMethod.CHANGE, ELowQClustersSelectionMethdod.AUTO, null, outputFile);
+			}
+
+			@Override
+			long run() {
+				for (Sequence seq : reads.sequences)
+					module.processSequence(seq);
+				module.closeWriter();
+				return reads.size();
+			}
+
+			@Override
+			void tearDown() {
+				module.getOutputFile().delete();
+				module.getOutputLowQFile().delete();
+				module = null;
+			}
+		});
+
+		result.add(new Benchmark("MeanQualityMatrix.createBufferedImage", TimeUnit.NANOSECONDS) {
+
+			List<MeanQualityMatrix> matrices = new ArrayList<MeanQualityMatrix>();
+
+			@Override
+			void setup() {
+				matrices.clear();
+				for (TileCoordinates tile : reads.tileCoordinates)
+					matrices.addAll(getProcessedModule(reads).getMeanQualityMatrixList(tile));
+			}
+
+			@Override
+			long run() {
+				for (MeanQualityMatrix m : matrices)
+					checksum += m.createBufferedImage(LinearPaintScale.PAINT_SCALE).getRGB(0, 0);
+				return matrices.size();
+			}
+
+			@Override
+			void tearDown() {
+				matrices.clear();
+			}
+		});
+
+		result.add(new Benchmark("OpenedFileCache.writeModulesToCache+readModulesFromCache", TimeUnit.MILLISECONDS) {
+
+			OpenedFileCache cache;
+			File cacheDir = new File(tempDir, "cache");
+
+			@Override
+			void setup() {
+				cache = new OpenedFileCache();
+				cache.cache.clear();
+				OpenedFileCache.CACHE_DIR = cacheDir;
+				OpenedFileCache.CACHE_MAP_FILE = new File(OpenedFileCache.getCACHE_DIR(), "openedFileCache");
+			}
+
+			@Override
+			long run() {
+				QualityHeatMapsPerTileAndBase processed = getProcessedModule(reads);
+				QCModule[] modules = new QCModule[] {processed.getTileTree(), processed};
+				cache.writeModulesToCache(reads.file, modules, null, matrixSize, QUALITY_THRESHOLD);
+
+				QualityHeatMapsPerTileAndBase module = new QualityHeatMapsPerTileAndBase(QUALITY_THRESHOLD);
+				modules = new QCModule[] {module.getTileTree(), module};
+				if (!cache.readModulesFromCache(reads.file, modules, null, matrixSize, QUALITY_THRESHOLD))
+					throw new IllegalStateException("The modules could not be read from the cache");
+
+				checksum += module.getMaxMatrixDensity();
+				return 1;
+			}
+
+			@Override
+			void tearDown() {
+				deleteFiles(cacheDir);
+			}
+		});
+
+		return result;
+	}
+
+	private static QualityHeatMapsPerTileAndBase createTileTreeModule(ReadSet reads) {
+		QualityHeatMapsPerTileAndBase module = new QualityHeatMapsPerTileAndBase(QUALITY_THRESHOLD);
+		for (Sequence seq : reads.sequences)
+			module.getTileTree().processSequence(seq);
+		return module;
+	}
+
+	private QualityHeatMapsPerTileAndBase getProcessedModule(ReadSet reads) {
+		if (processedModule == null)
+		{
+			processedModule = createTileTreeModule(reads);
+			for (Sequence seq : reads.sequences)
+				processedModule.processSequence(seq);
+			processedModule.selectRedAreas();
+		}
+		return processedModule;
+	}
+
+	/**
+	 * Processes the reads by the threads, each thread takes the next batch of ModulePipeline.BATCH_SIZE reads
+	 */
+	private static void runConcurrently(int threads, final int size, final Batch batch) throws InterruptedException {
+		final AtomicInteger nextRead = new AtomicInteger();
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++)
+		{
+			workers[t] = new StripedThread("SUGAR benchmark " + t, t) {
+				@Override
+				public void run() {
+					int start;
+					while ((start = nextRead.getAndAdd(ModulePipeline.BATCH_SIZE)) < size)
+						batch.process(start, Math.min(start + ModulePipeline.BATCH_SIZE, size));
+				}
+			};
+			workers[t].start();
+		}
+		for (Thread worker : workers)
+			worker.join();
+	}
+
+	/**
+	 * The results of the shared (or merged) module must be the same as the results of the module loaded by one thread
+	 */
+	private static void checkConcurrentResults(QualityHeatMapsPerTileAndBase module, QualityHeatMapsPerTileAndBase expected, ReadSet reads) {
+		boolean same = module.getMaxMatrixDensity() == expected.getMaxMatrixDensity() &&
+				module.getMaxSequenceLength().equals(expected.getMaxSequenceLength());
+		
+		for (TileCoordinates tile : reads.tileCoordinates)
+		{
+			List<MeanQualityMatrix> matrices = module.getMeanQualityMatrixList(tile);
+			List<MeanQualityMatrix> expectedMatrices = expected.getMeanQualityMatrixList(tile);
+			same &= matrices.size() == expectedMatrices.size();
+			for (int i = 0; same && i < matrices.size(); i++)
+			{
+				MeanQualityMatrix m = matrices.get(i);
+				MeanQualityMatrix e = expectedMatrices.get(i);
+				for (int x = 0; x < m.getSize(); x++)
+				{
+					for (int y = 0; y < m.getSize(); y++)
+						same &= m.getTotalValue(x, y) == e.getTotalValue(x, y);
+				}
+				same &= Arrays.deepEquals(m.getMeanValues(), e.getMeanValues()) && 
+						Arrays.deepEquals(m.getAverageQualityMatrix(), e.getAverageQualityMatrix());
+			}
+		}
+		
+		if (!same)
+			throw new IllegalStateException("The results of the concurrent module differ from the results of one thread");
+	}
+
+	private static void checkConcurrentResults(MappingQualityMatrix[] matrices, ReadSet reads, int matrixSize) {
+		boolean same = true;
+		for (int t = 0; t < matrices.length; t++)
+		{
+			MappingQualityMatrix expected = new MappingQualityMatrix(reads.ranges[t], matrixSize);
+			for (int r = 0; r < reads.size(); r++)
+			{
+				if (reads.tileIndexes[r] == t)
+					expected.addQualityValue(reads.x[r], reads.y[r], reads.mappingQualities[r]);
+			}
+			
+			matrices[t].setConcurrent(false, 1);
+			same &= Arrays.deepEquals(matrices[t].getMeanValues(), expected.getMeanValues());
+			for (int threshold : MappingQualityMatrix.THRESHOLDS)
+				same &= Arrays.deepEquals(matrices[t].getMeanMatrixByThreshold(threshold), expected.getMeanMatrixByThreshold(threshold));
+		}
+		
+		if (!same)
+			throw new IllegalStateException("The results of the concurrent matrices differ from the results of one thread");
+	}
+
+	private JSONObject measure(Benchmark benchmark, JSONObject params) throws Exception {
+
+		for (int i = 0; i < WARMUP_ITERATIONS; i++)
+			benchmark.measure();
+
+		double[] scores = new double[ITERATIONS];
+		long operations = 0;
+		for (int i = 0; i < ITERATIONS; i++)
+		{
+			long time = benchmark.measure();
+			operations = benchmark.operations;
+			scores[i] = (double) time / operations / benchmark.unit.toNanos(1);
+		}
+
+		double sum = 0;
+		double min = Double.MAX_VALUE;
+		double max = 0;
+		for (double score : scores)
+		{
+			sum += score;
+			min = Math.min(min, score);
+			max = Math.max(max, score);
+		}
+		double mean = sum / ITERATIONS;
+
+		double variance = 0;
+		for (double score : scores)
+			variance += (score - mean) * (score - mean);
+		double stdev = Math.sqrt(variance / Math.max(1, ITERATIONS - 1));
+
+		String unit = getUnitName(benchmark.unit) + "/op";
+
+		System.out.println(String.format("%-58s N=%-3d length=%-4d %12.3f +- %.3f %s",
+				benchmark.name, params.get(JSON_ATTR_MATRIX_SIZE), params.get(JSON_ATTR_READ_LENGTH), mean, stdev, unit));
+
+		JSONObject result = new JSONObject();
+		result.put(JSON_ATTR_BENCHMARK, benchmark.name);
+		result.put(JSON_ATTR_PARAMS, params);
+		result.put(JSON_ATTR_UNIT, unit);
+		result.put(JSON_ATTR_SCORE, mean);
+		result.put(JSON_ATTR_MIN, min);
+		result.put(JSON_ATTR_MAX, max);
+		result.put(JSON_ATTR_STDEV, stdev);
+		result.put(JSON_ATTR_OPERATIONS, operations);
+		return result;
+	}
+
+	private static String getUnitName(TimeUnit unit) {
+		if (unit == TimeUnit.NANOSECONDS)
+			return "ns";
+		if (unit == TimeUnit.MICROSECONDS)
+			return "us";
+		if (unit == TimeUnit.MILLISECONDS)
+			return "ms";
+		return "s";
+	}
+
+	public JSONObject toJSONObject() {
+		JSONObject obj = new JSONObject();
+		obj.put(JSON_ATTR_VERSION, SugarApplication.VERSION);
+		obj.put(JSON_ATTR_JAVA_VERSION, System.getProperty("java.version"));
+		obj.put(JSON_ATTR_DATE, System.currentTimeMillis());
+		obj.put(JSON_ATTR_WARMUP_ITERATIONS, WARMUP_ITERATIONS);
+		obj.put(JSON_ATTR_ITERATIONS, ITERATIONS);
+		obj.put(JSON_ATTR_RESULTS, results);
+		return obj;
+	}
+
+	public void toJSONFile(File file) throws IOException {
+		Writer writer = new BufferedWriter(new FileWriter(file));
+		try {
+			JSONValue.writeJSONString(toJSONObject(), writer);
+		} finally {
+			writer.close();
+		}
+	}
+
+	public void cleanup() {
+		deleteFiles(tempDir);
+		tempDir.delete();
+	}
+
+	private static void deleteFiles(File dir) {
+		File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		for (File f : files)
+		{
+			if (f.isDirectory())
+				deleteFiles(f);
+			f.delete();
+		}
+	}
+
+	public long getChecksum() {
+		return checksum;
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		int[] matrixSizes = parseIntList(args.length > 0 ? args[0] : "10,50");
+		int[] readLengths = parseIntList(args.length > 1 ? args[1] : "101,151");
+		int tiles = args.length > 2 ? Integer.parseInt(args[2]) : 96;
+		int readsPerTile = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+		File outputFile = new File(args.length > 4 ? args[4] : DEFAULT_OUTPUT_FILE);
+		int[] threadCounts = parseIntList(args.length > 5 ? args[5] : "1,2,4,8,16,32");
+
+		System.setProperty(Options.HEADLESS_ENVIRONMENT, Options.TRUE);
+
+		SugarBenchmark benchmark = new SugarBenchmark(tiles, readsPerTile, threadCounts);
+		try {
+			for (int matrixSize : matrixSizes)
+			{
+				for (int readLength : readLengths)
+					benchmark.run(matrixSize, readLength);
+			}
+			benchmark.toJSONFile(outputFile);
+		} finally {
+			benchmark.cleanup();
+		}
+
+		System.out.println("Results written to " + outputFile.getAbsolutePath() + " (checksum " + benchmark.getChecksum() + ")");
+	}
+
+	private static int[] parseIntList(String list) {
+		String[] parts = list.split(",");
+		int[] result = new int[parts.length];
+		for (int i = 0; i < parts.length; i++)
+			result[i] = Integer.parseInt(parts[i].trim());
+		return result;
+	}
+
+	/**
+	 * Processes the reads of one batch in a thread of runConcurrently()
+	 */
+	private abstract static class Batch {
+
+		abstract void process(int start, int end);
+	}
+
+	/**
+	 * One measured operation, setup() and tearDown() are not measured
+	 */
+	private abstract static class Benchmark {
+
+		final String name;
+		final TimeUnit unit;
+		long operations;
+
+		Benchmark(String name, TimeUnit unit) {
+			this.name = name;
+			this.unit = unit;
+		}
+
+		void setup() throws Exception {
+		}
+
+		/**
+		 * @return the number of operations
+		 */
+		abstract long run() throws Exception;
+
+		void tearDown() throws Exception {
+		}
+
+		/**
+		 * @return the time of run() in nanoseconds
+		 */
+		long measure() throws Exception {
+			setup();
+			long startTime = System.nanoTime();
+			operations = run();
+			long time = System.nanoTime() - startTime;
+			tearDown();
+			return time;
+		}
+	}
+
+	/**
+	 * The generated reads of one lane, sorted by tile (the same as in the sequence files)
+	 */
+	private static class ReadSet {
+
+		final int readLength;
+		final List<Sequence> sequences = new ArrayList<Sequence>();
+		final TileCoordinates[] tileCoordinates;
+		final Rectangle[] ranges;
+
+		// the same reads, parsed
+		final int[] tileIndexes;
+		final int[] x;
+		final int[] y;
+		final int[] mappingQualities;
+		final byte[][] qualities;
+
+		File file;
+		File bgzfFile;
+
+		ReadSet(int tiles, int readsPerTile, int readLength) {
+			this.readLength = readLength;
+
+			int size = tiles * readsPerTile;
+			tileCoordinates = new TileCoordinates[tiles];
+			ranges = new Rectangle[tiles];
+			tileIndexes = new int[size];
+			x = new int[size];
+			y = new int[size];
+			mappingQualities = new int[size];
+			qualities = new byte[size][];
+
+			Random random = new Random(tiles * 31 + readLength);
+			char[] bases = new char[readLength];
+			char[] quality = new char[readLength];
+
+			int r = 0;
+			for (int t = 0; t < tiles; t++)
+			{
+				// HiSeq numbering: surface, swath, tile
+				int tile = (1 + t / 48) * 1000 + (1 + (t / 16) % 3) * 100 + 1 + t % 16;
+				tileCoordinates[t] = new TileCoordinates("FCBENCH", 1, tile);
+
+				// a spot with low qualities in each tile
+				int spotX = random.nextInt(MAX_X);
+				int spotY = random.nextInt(MAX_Y);
+
+				int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = 0, maxY = 0;
+				for (int i = 0; i < readsPerTile; i++, r++)
+				{
+					x[r] = 1000 + random.nextInt(MAX_X);
+					y[r] = 1000 + random.nextInt(MAX_Y);
+					tileIndexes[r] = t;
+					mappingQualities[r] = random.nextInt(61);
+
+					boolean inSpot = Math.abs(x[r] - spotX) < MAX_X / 10 && Math.abs(y[r] - spotY) < MAX_Y / 10;
+					for (int c = 0; c < readLength; c++)
+					{
+						bases[c] = "ACGT".charAt(random.nextInt(4));
+						int q = 38 - 15 * c / readLength - random.nextInt(inSpot ? 30 : 10);
+						quality[c] = (char) (PHRED_OFFSET + Math.max(2, q));
+					}
+					qualities[r] = new String(quality).getBytes();
+
+					String id = "@SIM:1:FCBENCH:1:" + tile + ":" + x[r] + ":" + y[r] + " 1:N:0:ATCACG";
+					sequences.add(new Sequence(null, new String(bases), new String(quality), id));
+
+					minX = Math.min(minX, x[r]);
+					minY = Math.min(minY, y[r]);
+					maxX = Math.max(maxX, x[r]);
+					maxY = Math.max(maxY, y[r]);
+				}
+				ranges[t] = new Rectangle(minX, minY, maxX - minX, maxY - minY);
+			}
+		}
+
+		int size() {
+			return sequences.size();
+		}
+
+		void writeFastQ(File file) throws IOException {
+			this.file = file;
+			BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+			try {
+				for (Sequence seq : sequences)
+				{
+					writer.write(seq.getID());
+					writer.newLine();
+					writer.write(seq.getSequence());
+					writer.newLine();
+					writer.write("+");
+					writer.newLine();
+					writer.write(seq.getQualityString());
+					writer.newLine();
+				}
+			} finally {
+				writer.close();
+			}
+		}
+
+		/**
+		 * Compresses the FASTQ file written by writeFastQ() by bgzip
+		 */
+		void writeBGZF(File bgzfFile) throws IOException {
+			this.bgzfFile = bgzfFile;
+			InputStream in = new FileInputStream(file);
+			OutputStream out = new BlockCompressedOutputStream(bgzfFile);
+			try {
+				byte[] buffer = new byte[BGZFBlockReader.MAX_BLOCK_SIZE];
+				int n;
+				while ((n = in.read(buffer)) > 0)
+					out.write(buffer, 0, n);
+			} finally {
+				in.close();
+				out.close();
+			}
+		}
+	}
+}
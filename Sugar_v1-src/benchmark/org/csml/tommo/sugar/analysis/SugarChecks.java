@@ -0,0 +1,808 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.analysis;
+
+import java.awt.Rectangle;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import net.sf.samtools.util.BlockCompressedOutputStream;
+
+import org.csml.tommo.sugar.heatmap.MappingQualityMatrix;
+import org.csml.tommo.sugar.heatmap.MeanQualityMatrix;
+import org.csml.tommo.sugar.heatmap.SubtileBinner;
+import org.csml.tommo.sugar.modules.MappingQuality;
+import org.csml.tommo.sugar.modules.QualityHeatMapsPerTileAndBase;
+import org.csml.tommo.sugar.modules.TileTree;
+import org.csml.tommo.sugar.sequence.BAMRecordReader;
+import org.csml.tommo.sugar.sequence.BGZFBlockReader;
+import org.csml.tommo.sugar.sequence.FastQShardReader;
+import org.csml.tommo.sugar.sequence.LaneCoordinates;
+import org.csml.tommo.sugar.sequence.ReadNameParser;
+import org.csml.tommo.sugar.sequence.SyntheticReadGenerator;
+import org.csml.tommo.sugar.sequence.TileCoordinates;
+import org.csml.tommo.sugar.utils.Options;
+import org.kohsuke.args4j.CmdLineParser;
+
+import uk.ac.babraham.FastQC.Analysis.AnalysisListener;
+import uk.ac.babraham.FastQC.Modules.QCModule;
+import uk.ac.babraham.FastQC.Sequence.Sequence;
+import uk.ac.babraham.FastQC.Sequence.SequenceFactory;
+import uk.ac.babraham.FastQC.Sequence.SequenceFile;
+
+/**
+ * Class SugarChecks
+ *
+ * Deterministic checks of the results of SUGAR on the reads of the SyntheticReadGenerator (FASTQ, BGZF compressed FASTQ
+ * and BAM). The modes of the SugarAnalysisRunner must give the same heatmaps as one thread:
+ *
+ * - the threads (-t), the shared accumulators, the tile partitioning, the input sharding and the read rate
+ * - the single pass and the two passes
+ * - the partial results of the shards of a file merged by the PartialResultMerger (--tile_ranges, --partial, --merge)
+ * - the BAM records read by the BAMRecordReader and by the BAMFile of FastQC
+ *
+ * and the parts, on which the modes rely:
+ *
+ * - ReadNameParser (String and bytes) on the known read name formats
+ * - FastQShardReader: every record is read by exactly one shard, wherever the file is split
+ * - FastQShardReader.skipRecord and BAMRecordReader.skipRecord skip the same records as nextRecord
+ * - SubtileBinner gives the same bins as the division
+ * - MergeableModule.merge of the partial modules gives the results of one module
+ *
+ * A check throws an IllegalStateException at the first difference. The checks are kept in the benchmark source folder
+ * (see SugarBenchmark) and run by the Ant target 'check', which fails, if any check fails:
+ * ant check -Dcheck.args="threads PartialResultMerger"
+ *
+ * usage: SugarChecks [names of the checks (all)]
+ *
+ */
+public class SugarChecks {
+
+	private static final int QUALITY_THRESHOLD = Options.DEFAULT_QUALITY_THRESHOLD;
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private static final int READS = 60000;
+	private static final int READ_LENGTH = 50;
+	private static final int THREADS = 3;
+	private static final int SHARDS = 3;
+
+	private final File tempDir;
+
+	private File fastQFile;
+	private File bgzfFile;
+	private File bamFile;
+
+	/**
+	 * the modules of the FASTQ file loaded by one thread - the expected results of the other modes
+	 */
+	private QCModule[] expectedModules;
+
+	public SugarChecks() throws IOException {
+		tempDir = File.createTempFile("sugar", "checks");
+		tempDir.delete();
+		tempDir.mkdirs();
+	}
+
+	private List<Check> createChecks() {
+
+		List<Check> result = new ArrayList<Check>();
+
+		result.add(new Check("ReadNameParser") {
+			@Override
+			void run() {
+				checkReadName("@HWUSI-EAS100R:6:73:941:1973#0/1", "", 6, 73, 941, 1973);
+				checkReadName("@HWUSI-EAS100R:6:73:941:1973", "", 6, 73, 941, 1973);
+				checkReadName("@EAS139:136:FC706VJ:2:2104:15343:197393 1:Y:18:ATCACG", "FC706VJ", 2, 2104, 15343, 197393);
+				checkReadName("@EAS139:136:FC706VJ:2:2104:15343:197393", "FC706VJ", 2, 2104, 15343, 197393);
+				checkReadName("@SIM:1:FCSYNTH:8:2316:0:2147483647 1:N:0:ATCACG", "FCSYNTH", 8, 2316, 0, Integer.MAX_VALUE);
+				checkReadName("@SRR001666.1 071112_SLXA-EAS1_s_7:5:1:817:345 length=36", "", 5, 1, 817, 345);
+				checkReadName("@A:1:2:3:4:", "", 1, 2, 3, 4);
+				checkReadName("@read1", null, 0, 0, 0, 0);
+				checkReadName("@A:1:2", null, 0, 0, 0, 0);
+				checkReadName("@A:1:2:3:4:5", null, 0, 0, 0, 0);
+				checkReadNameError("@A:x:2:3:4");
+				checkReadNameError("@EAS139:136:FC706VJ:2:2104::197393");
+			}
+		});
+
+		result.add(new Check("FastQShardReader") {
+			@Override
+			void run() throws Exception {
+				List<String> ids = readIds(getFastQFile());
+				checkShards(getFastQFile(), ids);
+				checkShards(getBGZFFile(), ids);
+				checkSkipRecord(getFastQFile(), ids);
+			}
+		});
+
+		result.add(new Check("BAMRecordReader.skipRecord") {
+			@Override
+			void run() throws Exception {
+				checkSkipRecord(getBAMFile());
+			}
+		});
+
+		result.add(new Check("SubtileBinner") {
+			@Override
+			void run() {
+				Random random = new Random(1);
+				for (int size : new int[] {1, 2, 3, 10, 17, 50, 100})
+				{
+					for (int i = 0; i < 200; i++)
+					{
+						int width = (i < 20) ? i : random.nextInt(i < 100 ? 1000 : 200000);
+						int height = (i < 20) ? 20 - i : random.nextInt(i < 100 ? 1000 : 200000);
+						checkBinner(new Rectangle(random.nextInt(5000), random.nextInt(5000), width, height), size, random);
+					}
+				}
+			}
+		});
+
+		result.add(new Check("MergeableModule.merge") {
+			@Override
+			void run() throws Exception {
+				List<Sequence> sequences = readSequences(getFastQFile());
+
+				QualityHeatMapsPerTileAndBase whole = new QualityHeatMapsPerTileAndBase(QUALITY_THRESHOLD);
+				for (Sequence seq : sequences)
+					whole.getTileTree().processSequence(seq);
+				for (Sequence seq : sequences)
+					whole.processSequence(seq);
+
+				// the tile trees and the heatmaps of the shards, the tiles of the shards overlap
+				QualityHeatMapsPerTileAndBase merged = new QualityHeatMapsPerTileAndBase(QUALITY_THRESHOLD);
+				TileTree mergedTileTree = merged.getTileTree();
+				List<List<Sequence>> shards = split(sequences, SHARDS);
+				for (List<Sequence> shard : shards)
+				{
+					TileTree partial = (TileTree) mergedTileTree.createPartial();
+					for (Sequence seq : shard)
+						partial.processSequence(seq);
+					mergedTileTree.merge(partial);
+				}
+				for (List<Sequence> shard : shards)
+				{
+					QualityHeatMapsPerTileAndBase partial = (QualityHeatMapsPerTileAndBase) merged.createPartial();
+					for (Sequence seq : shard)
+						partial.processSequence(seq);
+					merged.merge(partial);
+				}
+
+				compare("merged modules", describe(whole.getTileTree(), whole, null), describe(mergedTileTree, merged, null));
+			}
+		});
+
+		result.add(new Check("threads") {
+			@Override
+			void run() throws Exception {
+				compareModes(getFastQFile(), Options.THREADS_OPTION + "=" + THREADS);
+				compareModes(getFastQFile(), Options.THREADS_OPTION + "=" + THREADS, Options.SHARED_ACCUMULATORS + "=" + Options.TRUE);
+				compareModes(getFastQFile(), Options.THREADS_OPTION + "=" + THREADS, Options.TILE_PARTITIONING + "=" + Options.TRUE);
+				compareModes(getBGZFFile(), Options.THREADS_OPTION + "=" + THREADS);
+			}
+		});
+
+		result.add(new Check("shard_input") {
+			@Override
+			void run() throws Exception {
+				compareModes(getFastQFile(), Options.THREADS_OPTION + "=" + THREADS, Options.SHARD_INPUT + "=" + Options.TRUE);
+				compareModes(getBGZFFile(), Options.THREADS_OPTION + "=" + THREADS, Options.SHARD_INPUT + "=" + Options.TRUE);
+			}
+		});
+
+		result.add(new Check("single_pass") {
+			@Override
+			void run() throws Exception {
+				compareModes(getFastQFile(), Options.SINGLE_PASS + "=" + Options.TRUE);
+			}
+		});
+
+		result.add(new Check("read_rate") {
+			@Override
+			void run() throws Exception {
+				String readRate = Options.READ_RATE_OPTION + "=7";
+				String expected = describe(analyse(getFastQFile(), readRate));
+				compare("-r 7 -t " + THREADS, expected, describe(analyse(getFastQFile(), readRate, Options.THREADS_OPTION + "=" + THREADS)));
+				compare("-r 7 --single_pass", expected, describe(analyse(getFastQFile(), readRate, Options.SINGLE_PASS + "=" + Options.TRUE)));
+			}
+		});
+
+		result.add(new Check("PartialResultMerger") {
+			@Override
+			void run() throws Exception {
+				checkMergedShards(getFastQFile());
+			}
+		});
+
+		result.add(new Check("BAM") {
+			@Override
+			void run() throws Exception {
+				// one thread reads the file by the BAMFile of FastQC, more threads by the BAMRecordReader
+				String expected = describe(analyse(getBAMFile()));
+				compare("-t " + THREADS, expected, describe(analyse(getBAMFile(), Options.THREADS_OPTION + "=" + THREADS)));
+			}
+		});
+
+		return result;
+	}
+
+	/**
+	 * The read name must be parsed the same way from the String and from the bytes
+	 *
+	 * @param flowCell - the expected flow cell or null, if the read name is not recognized
+	 */
+	private static void checkReadName(String id, String flowCell, int lane, int tile, int x, int y) {
+		byte[] bytes = id.getBytes(ISO_8859_1);
+		for (int i = 0; i < 2; i++)
+		{
+			ReadNameParser parser = new ReadNameParser();
+			boolean parsed = (i == 0) ? parser.parse(id) : parser.parse(bytes, 0, bytes.length);
+			String source = (i == 0) ? " (String)" : " (bytes)";
+			check(parsed == (flowCell != null), id + source + (parsed ? " is parsed" : " is not parsed"));
+			if (parsed)
+			{
+				check(parser.getFlowCell().equals(flowCell) && parser.getLane() == lane && parser.getTile() == tile &&
+						parser.getX() == x && parser.getY() == y,
+						id + source + " is parsed as " + parser.getFlowCell() + ":" + parser.getLane() + ":" +
+						parser.getTile() + ":" + parser.getX() + ":" + parser.getY());
+			}
+		}
+	}
+
+	private static void checkReadNameError(String id) {
+		byte[] bytes = id.getBytes(ISO_8859_1);
+		for (int i = 0; i < 2; i++)
+		{
+			ReadNameParser parser = new ReadNameParser();
+			try {
+				if (i == 0)
+					parser.parse(id);
+				else
+					parser.parse(bytes, 0, bytes.length);
+			}
+			catch (NumberFormatException e) {
+				continue;
+			}
+			throw new IllegalStateException(id + ((i == 0) ? " (String)" : " (bytes)") + " is parsed without a NumberFormatException");
+		}
+	}
+
+	/**
+	 * The shards must read all records of the file in order, each one once. A plain file is split at the offsets
+	 * around the record boundaries (the quality lines of the generated reads often start with '@'), a BGZF file
+	 * at the offsets of FastQShardReader.split.
+	 */
+	private static void checkShards(File file, List<String> ids) throws IOException {
+		FastQShardReader probe = new FastQShardReader(file, null, 0, file.length());
+		boolean bgzf = probe.isBGZF();
+		probe.close();
+
+		if (bgzf)
+		{
+			for (int shards = 2; shards <= 16; shards++)
+				checkShards(file, FastQShardReader.split(file, shards), ids);
+			return;
+		}
+
+		// the offsets in the first records and a few offsets spread over the file
+		long size = file.length();
+		for (long offset = 1; offset < Math.min(2000, size); offset += 7)
+			checkShards(file, new long[] {0, offset, size}, ids);
+		Random random = new Random(1);
+		for (int i = 0; i < 20; i++)
+		{
+			long a = (long) (random.nextDouble() * size);
+			long b = (long) (random.nextDouble() * size);
+			checkShards(file, new long[] {0, Math.min(a, b), Math.max(a, b), size}, ids);
+		}
+		checkShards(file, FastQShardReader.split(file, SHARDS), ids);
+	}
+
+	private static void checkShards(File file, long[] ranges, List<String> ids) throws IOException {
+		int index = 0;
+		for (int s = 0; s + 1 < ranges.length; s++)
+		{
+			FastQShardReader reader = new FastQShardReader(file, null, ranges[s], ranges[s + 1]);
+			try {
+				while (reader.nextRecord())
+				{
+					String id = reader.toSequence().getID();
+					check(index < ids.size() && ids.get(index).equals(id),
+							file.getName() + " split at " + Arrays.toString(ranges) + ": read " + index + " is " + id);
+					index++;
+				}
+			}
+			finally {
+				reader.close();
+			}
+		}
+		check(index == ids.size(), file.getName() + " split at " + Arrays.toString(ranges) + ": " + index + " of " + ids.size() + " reads");
+	}
+
+	/**
+	 * Every third record is read, the other ones are skipped - the records read must be the same as by nextRecord
+	 */
+	private static void checkSkipRecord(File file, List<String> ids) throws IOException {
+		FastQShardReader reader = new FastQShardReader(file, null, 0, file.length());
+		try {
+			int index = 0;
+			while (index % 3 == 0 ? reader.nextRecord() : reader.skipRecord())
+			{
+				check(index < ids.size(), file.getName() + ": more records skipped than read");
+				if (index % 3 == 0)
+					check(ids.get(index).equals(reader.toSequence().getID()), file.getName() + ": read " + index + " after skipRecord");
+				index++;
+			}
+			check(index == ids.size(), file.getName() + ": " + index + " of " + ids.size() + " records skipped");
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	private static void checkSkipRecord(File file) throws IOException {
+		BAMRecordReader all = new BAMRecordReader(file);
+		BAMRecordReader skipping = new BAMRecordReader(file);
+		try {
+			int index = 0;
+			while (all.nextRecord())
+			{
+				boolean skip = index % 3 != 0;
+				check(skip ? skipping.skipRecord() : skipping.nextRecord(), file.getName() + ": record " + index + " is not skipped");
+				check(skipping.getVirtualOffset() == all.getVirtualOffset() && skipping.getFlag() == all.getFlag() &&
+						skipping.isFiltered(true) == all.isFiltered(true), file.getName() + ": record " + index + " after skipRecord");
+				if (!skip)
+					check(skipping.toSequence(null).getID().equals(all.toSequence(null).getID()), file.getName() + ": read " + index);
+				index++;
+			}
+			check(index > 0 && !skipping.skipRecord(), file.getName() + ": " + index + " records");
+		}
+		finally {
+			all.close();
+			skipping.close();
+		}
+	}
+
+	/**
+	 * The bins of all coordinates of the range (and of a few coordinates outside) must be the same as by the division
+	 */
+	private static void checkBinner(Rectangle range, int size, Random random) {
+		SubtileBinner binner = new SubtileBinner(range, size);
+		check(binner.isBinning(range), range + " is not binned by its binner");
+
+		boolean[] usedX = new boolean[size];
+		boolean[] usedY = new boolean[size];
+		for (int d = -3; d <= Math.max(range.width, range.height) + 3; d = (d < 2000) ? d + 1 : d + 1 + random.nextInt(50))
+		{
+			int x = range.x + d;
+			int y = range.y + d;
+			int expectedX = (range.width == 0) ? size/2 : (int) ((long) size * (x - range.x) / (range.width + 1));
+			int expectedY = (range.height == 0) ? size/2 : (int) ((long) size * (y - range.y) / (range.height + 1));
+			check(binner.binX(x) == expectedX, range + " N=" + size + ": x " + x + " in the bin " + binner.binX(x) + " instead of " + expectedX);
+			check(binner.binY(y) == expectedY, range + " N=" + size + ": y " + y + " in the bin " + binner.binY(y) + " instead of " + expectedY);
+			if (d >= 0 && d <= range.width)
+				usedX[expectedX] = true;
+			if (d >= 0 && d <= range.height)
+				usedY[expectedY] = true;
+		}
+
+		// the empty bins can be checked only, if every coordinate was binned
+		if (range.width < 2000 && range.height < 2000)
+		{
+			for (int i = 0; i < size; i++)
+			{
+				for (int j = 0; j < size; j++)
+					check(binner.isEmpty(i, j) == !(usedX[i] && usedY[j]), range + " N=" + size + ": the bin " + i + "," + j + " is " +
+							(binner.isEmpty(i, j) ? "empty" : "not empty"));
+			}
+		}
+	}
+
+	/**
+	 * The file is split into shards, which split the tiles. The shards are analysed with the tile ranges of the file
+	 * and their partial results are merged - the merged modules must be the same as the modules of the whole file.
+	 *
+	 * The generator writes the corners of a tile first, so the shards are split after the first read of a tile -
+	 * the tile has another range in both shards, if they are analysed without the tile ranges.
+	 */
+	private void checkMergedShards(File file) throws Exception {
+		QCModule[] expected = getExpectedModules();
+
+		File rangesFile = new File(tempDir, "tile_ranges.json");
+		((TileTree) expected[0]).toJSONFile(rangesFile);
+
+		List<String> lines = readLines(file);
+		List<Integer> tileStarts = new ArrayList<Integer>();
+		ReadNameParser parser = new ReadNameParser();
+		int lastTile = -1;
+		for (int i = 0; i < lines.size(); i += 4)
+		{
+			check(parser.parse(lines.get(i)), "Failed to parse " + lines.get(i));
+			if (parser.getTile() != lastTile)
+				tileStarts.add(i / 4);
+			lastTile = parser.getTile();
+		}
+		check(tileStarts.size() > SHARDS, "Less tiles than shards: " + tileStarts.size());
+
+		List<File> shardFiles = new ArrayList<File>();
+		int start = 0;
+		for (int s = 1; s <= SHARDS; s++)
+		{
+			int end = (s < SHARDS) ? tileStarts.get(tileStarts.size() * s / SHARDS) + 1 : lines.size() / 4;
+			File shardFile = new File(tempDir, "shard" + s + ".fastq");
+			writeLines(shardFile, lines.subList(4 * start, 4 * end));
+			shardFiles.add(shardFile);
+			start = end;
+		}
+
+		PartialResultMerger merger = new PartialResultMerger(file);
+		List<File> partialFiles = new ArrayList<File>();
+		for (File shardFile : shardFiles)
+		{
+			QCModule[] modules = analyse(shardFile, Options.TILE_RANGES + "=" + rangesFile.getPath());
+			File partialFile = new File(tempDir, shardFile.getName() + PartialResultFile.PARTIAL_FILE_SUFFIX);
+			PartialResultFile.write(partialFile, SequenceFactory.getSequenceFile(shardFile), modules);
+			merger.add(partialFile);
+			partialFiles.add(partialFile);
+		}
+
+		compare("merged partial results", describe(expected), describe(merger.getModules()));
+
+		// a shard analysed without the tile ranges of the file can not be merged
+		File shardFile = shardFiles.get(1);
+		File partialFile = new File(tempDir, shardFile.getName() + ".noranges" + PartialResultFile.PARTIAL_FILE_SUFFIX);
+		PartialResultFile.write(partialFile, SequenceFactory.getSequenceFile(shardFile), analyse(shardFile));
+		merger = new PartialResultMerger(file);
+		merger.add(partialFiles.get(0));
+		try {
+			merger.add(partialFile);
+		}
+		catch (IOException e) {
+			return;
+		}
+		throw new IllegalStateException("The partial results with the other tile ranges are merged");
+	}
+
+	/**
+	 * The modules loaded with the options must be the same as the modules loaded by one thread
+	 */
+	private void compareModes(File file, String... options) throws Exception {
+		compare(file.getName() + " " + Arrays.toString(options), describe(getExpectedModules()), describe(analyse(file, options)));
+	}
+
+	/**
+	 * Runs the analysis of the file as the SugarOfflineRunner does, the options are set as the system properties
+	 * (name=value, see Options) during the analysis
+	 *
+	 * @return the TileTree, the QualityHeatMapsPerTileAndBase and the MappingQuality
+	 */
+	private static QCModule[] analyse(File file, String... options) throws Exception {
+		Properties properties = (Properties) System.getProperties().clone();
+		try {
+			for (String option : options)
+			{
+				int separator = option.indexOf('=');
+				System.setProperty(option.substring(0, separator), option.substring(separator + 1));
+			}
+
+			SequenceFile sequenceFile = SequenceFactory.getSequenceFile(file);
+			SugarAnalysisRunner runner = new SugarAnalysisRunner(new File[] {file}, sequenceFile, QUALITY_THRESHOLD);
+			final List<Exception> errors = new ArrayList<Exception>();
+			runner.addAnalysisListener(new AnalysisListener() {
+				public void analysisStarted(SequenceFile file) {
+				}
+
+				public void analysisUpdated(SequenceFile file, int sequencesProcessed, int percentComplete) {
+				}
+
+				public void analysisComplete(SequenceFile file, QCModule[] results) {
+				}
+
+				public void analysisExceptionReceived(SequenceFile file, Exception e) {
+					errors.add(e);
+				}
+			});
+
+			QualityHeatMapsPerTileAndBase heatMap = new QualityHeatMapsPerTileAndBase(QUALITY_THRESHOLD);
+			MappingQuality mappingQuality = new MappingQuality(heatMap.getTileTree(), sequenceFile);
+			QCModule[] modules = new QCModule[] {heatMap.getTileTree(), heatMap, mappingQuality};
+			runner.runAnalysis(modules);
+
+			if (!errors.isEmpty())
+				throw new IllegalStateException("Failed to analyse " + file.getName() + ": " + errors.get(0).getMessage(), errors.get(0));
+			return modules;
+		}
+		finally {
+			System.setProperties(properties);
+		}
+	}
+
+	private QCModule[] getExpectedModules() throws Exception {
+		if (expectedModules == null)
+		{
+			expectedModules = analyse(getFastQFile());
+			check(((TileTree) expectedModules[0]).getFlowCells().size() > 0, "No tiles in the generated reads");
+		}
+		return expectedModules;
+	}
+
+	private static String describe(QCModule[] modules) {
+		return describe((TileTree) modules[0], (QualityHeatMapsPerTileAndBase) modules[1], (MappingQuality) modules[2]);
+	}
+
+	/**
+	 * @return the ranges, the counters and the mean values of all tiles, one line per tile and matrix
+	 */
+	private static String describe(TileTree tileTree, QualityHeatMapsPerTileAndBase heatMap, MappingQuality mappingQuality) {
+		StringBuilder result = new StringBuilder();
+		result.append("encoding ").append(tileTree.getPhredEncoding().offset()).append(", max density ").append(heatMap.getMaxMatrixDensity())
+			.append(", max length ").append(heatMap.getMaxSequenceLength()).append('\n');
+
+		for (String flowCell : tileTree.getFlowCells())
+		{
+			for (Integer lane : tileTree.getLanes(flowCell))
+			{
+				for (Integer tile : tileTree.getTiles(new LaneCoordinates(flowCell, lane)))
+				{
+					TileCoordinates tileCoordinates = new TileCoordinates(flowCell, lane, tile);
+					result.append(tileCoordinates).append(' ').append(tileTree.getRange(tileCoordinates)).append('\n');
+
+					List<MeanQualityMatrix> matrices = heatMap.getMeanQualityMatrixList(tileCoordinates);
+					for (int i = 0; matrices != null && i < matrices.size(); i++)
+					{
+						MeanQualityMatrix m = matrices.get(i);
+						result.append(tileCoordinates).append(" cycle ").append(i + 1).append(':');
+						for (int x = 0; x < m.getSize(); x++)
+						{
+							for (int y = 0; y < m.getSize(); y++)
+								result.append(' ').append(m.getTotalValue(x, y));
+						}
+						result.append(' ').append(Arrays.deepToString(m.getMeanValues()))
+							.append(' ').append(Arrays.deepToString(m.getAverageQualityMatrix())).append('\n');
+					}
+
+					MappingQualityMatrix mappingMatrix = (mappingQuality != null) ? mappingQuality.getMeanQualityMatrix(tileCoordinates) : null;
+					if (mappingMatrix != null)
+					{
+						result.append(tileCoordinates).append(" mapping quality: ").append(Arrays.deepToString(mappingMatrix.getMeanValues()));
+						for (int threshold : MappingQualityMatrix.THRESHOLDS)
+							result.append(' ').append(Arrays.deepToString(mappingMatrix.getMeanMatrixByThreshold(threshold)));
+						result.append('\n');
+					}
+				}
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Throws an IllegalStateException with the first line, which differs
+	 */
+	private static void compare(String name, String expected, String actual) {
+		if (expected.equals(actual))
+			return;
+
+		String[] expectedLines = expected.split("\n");
+		String[] actualLines = actual.split("\n");
+		for (int i = 0; i < Math.max(expectedLines.length, actualLines.length); i++)
+		{
+			String e = i < expectedLines.length ? expectedLines[i] : "<none>";
+			String a = i < actualLines.length ? actualLines[i] : "<none>";
+			if (!e.equals(a))
+				throw new IllegalStateException("The results of " + name + " differ from the results of one thread:\n  expected " +
+						abbreviate(e) + "\n  found    " + abbreviate(a));
+		}
+	}
+
+	private static String abbreviate(String line) {
+		return line.length() > 200 ? line.substring(0, 200) + "..." : line;
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new IllegalStateException(message);
+	}
+
+	/**
+	 * @return the generated reads: one MiSeq lane with the random low quality bubbles
+	 */
+	private File getFastQFile() throws Exception {
+		if (fastQFile == null)
+			fastQFile = generate("reads.fastq");
+		return fastQFile;
+	}
+
+	/**
+	 * @return the reads of getFastQFile() compressed by bgzip
+	 */
+	private File getBGZFFile() throws Exception {
+		if (bgzfFile == null)
+		{
+			File file = new File(tempDir, "reads.fastq.gz");
+			InputStream in = new FileInputStream(getFastQFile());
+			OutputStream out = new BlockCompressedOutputStream(file);
+			try {
+				byte[] buffer = new byte[BGZFBlockReader.MAX_BLOCK_SIZE];
+				int n;
+				while ((n = in.read(buffer)) > 0)
+					out.write(buffer, 0, n);
+			} finally {
+				in.close();
+				out.close();
+			}
+			bgzfFile = file;
+		}
+		return bgzfFile;
+	}
+
+	private File getBAMFile() throws Exception {
+		if (bamFile == null)
+			bamFile = generate("reads.bam");
+		return bamFile;
+	}
+
+	private File generate(String name) throws Exception {
+		File file = new File(tempDir, name);
+		SyntheticReadGenerator generator = new SyntheticReadGenerator();
+		new CmdLineParser(generator).parseArgument(new String[] {
+				"-p", "MISEQ", "-n", Integer.toString(READS), "-l", Integer.toString(READ_LENGTH),
+				"--random_bubbles", "10", "--selection_file", new File(tempDir, name + ".lowq.json").getPath(), file.getPath()});
+		generator.generate();
+		return file;
+	}
+
+	private static List<String> readIds(File file) throws IOException {
+		List<String> result = new ArrayList<String>();
+		List<String> lines = readLines(file);
+		for (int i = 0; i < lines.size(); i += 4)
+			result.add(lines.get(i));
+		return result;
+	}
+
+	private static List<Sequence> readSequences(File file) throws IOException {
+		List<Sequence> result = new ArrayList<Sequence>();
+		FastQShardReader reader = new FastQShardReader(file, null, 0, file.length());
+		try {
+			while (reader.nextRecord())
+				result.add(reader.toSequence());
+		}
+		finally {
+			reader.close();
+		}
+		return result;
+	}
+
+	private static List<String> readLines(File file) throws IOException {
+		List<String> result = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null)
+				result.add(line);
+		}
+		finally {
+			reader.close();
+		}
+		return result;
+	}
+
+	private static void writeLines(File file, List<String> lines) throws IOException {
+		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		try {
+			for (String line : lines)
+			{
+				writer.write(line);
+				writer.newLine();
+			}
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * @return the list split into the parts of the same size (the parts are copies)
+	 */
+	private static <T> List<List<T>> split(List<T> list, int parts) {
+		List<List<T>> result = new ArrayList<List<T>>();
+		for (int p = 0; p < parts; p++)
+			result.add(new ArrayList<T>(list.subList(list.size() * p / parts, list.size() * (p + 1) / parts)));
+		return result;
+	}
+
+	public void cleanup() {
+		File[] files = tempDir.listFiles();
+		if (files != null)
+		{
+			for (File f : files)
+				f.delete();
+		}
+		tempDir.delete();
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		System.setProperty(Options.HEADLESS_ENVIRONMENT, Options.TRUE);
+		System.setProperty(Options.QUIET_OPTION, Options.TRUE);
+		System.setProperty(Options.NO_CACHE, Options.TRUE);
+
+		List<String> names = Arrays.asList(args);
+		SugarChecks checks = new SugarChecks();
+		int failures = 0;
+		int count = 0;
+		try {
+			for (Check check : checks.createChecks())
+			{
+				if (!names.isEmpty() && !names.contains(check.name))
+					continue;
+
+				count++;
+				long startTime = System.currentTimeMillis();
+				try {
+					check.run();
+					System.out.println("OK     " + check.name + " (" + (System.currentTimeMillis() - startTime) + " ms)");
+				}
+				catch (Throwable t) {
+					failures++;
+					System.out.println("FAILED " + check.name + ": " + t);
+					t.printStackTrace();
+				}
+			}
+		} finally {
+			checks.cleanup();
+		}
+
+		System.out.println((count - failures) + " of " + count + " checks passed");
+		System.exit(failures > 0 ? 1 : 0);
+	}
+
+	/**
+	 * One check, it throws an exception at the first difference
+	 */
+	private abstract static class Check {
+
+		final String name;
+
+		Check(String name) {
+			this.name = name;
+		}
+
+		abstract void run() throws Exception;
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.heatmap;
+
+import java.awt.Rectangle;
+
+/**
+ * Class QualityCounterHeapBenchmark
+ *
+ * Measures the heap used by the counters of the MeanQualityMatrix objects of a lane: the previous layout
+ * (three int[N][N] per matrix), the shared blocks of the QualityCounterStore (matrices without a tile ordinal)
+ * and the blocks per tile ordinal (as the QualityHeatMapsPerTileAndBase allocates them).
+ * Not part of Sugar.jar (see SugarBenchmark).
+ *
+ * usage: QualityCounterHeapBenchmark [matrix size (50)] [tiles (704 = NovaSeq S4 lane)] [cycles (302 = 2 x 151)] [sample tiles (0)]
+ *
+ * With the sample 0 all matrices of the lane are allocated and measured (e.g. -Xmx2g for N=10),
+ * otherwise the heap of the sample tiles is scaled to the lane.
+ */
+public class QualityCounterHeapBenchmark {
+
+	public static void main(String[] args) {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 50;
+		int tiles = args.length > 1 ? Integer.parseInt(args[1]) : 704;
+		int cycles = args.length > 2 ? Integer.parseInt(args[2]) : 302;
+		int sample = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+		int measuredTiles = (sample > 0) ? Math.min(sample, tiles) : tiles;
+		double scale = (double) tiles / measuredTiles;
+		long matrices = (long) tiles * cycles;
+
+		// warm-up (class loading)
+		measureArrays(size, 1, 1);
+		measureStore(size, 1, 1, false);
+
+		System.out.println("Matrix size: " + size + ", matrices: " + tiles + " tiles x " + cycles + " cycles = " + matrices + 
+				(sample > 0 ? " (scaled from " + measuredTiles + " tiles)" : " (all measured)"));
+		print("int[N][N] counters", measureArrays(size, measuredTiles, cycles) * scale, matrices);
+		print("QualityCounterStore, shared blocks", measureStore(size, measuredTiles, cycles, false) * scale, matrices);
+		print("QualityCounterStore, blocks per tile", measureStore(size, measuredTiles, cycles, true) * scale, matrices);
+	}
+
+	private static void print(String layout, double bytes, long matrices) {
+		System.out.println(layout + ": " + (long) (bytes / matrices) + " bytes per matrix, " + (long) (bytes / (1024 * 1024)) + " MB");
+	}
+
+	/**
+	 * The previous layout: the matrix objects are left out, so the difference to the store is a lower bound
+	 */
+	private static long measureArrays(int size, int tiles, int cycles) {
+		long before = usedMemory();
+		int[][][][][] counters = new int[tiles][cycles][][][];
+		for (int t = 0; t < tiles; t++)
+		{
+			for (int c = 0; c < cycles; c++)
+				counters[t][c] = new int[][][] {new int[size][size], new int[size][size], new int[size][size]};
+		}
+		long after = usedMemory();
+
+		if (counters[tiles - 1][cycles - 1][0][0].length != size)
+			throw new IllegalStateException();
+		return after - before;
+	}
+
+	private static long measureStore(int size, int tiles, int cycles, boolean byTile) {
+		Rectangle range = new Rectangle(0, 0, 1000, 1000);
+		long before = usedMemory();
+		QualityCounterStore store = new QualityCounterStore(size);
+		MeanQualityMatrix[][] matrices = new MeanQualityMatrix[tiles][cycles];
+		for (int t = 0; t < tiles; t++)
+		{
+			if (byTile)
+				store.reserve(t, cycles);
+			for (int c = 0; c < cycles; c++)
+				matrices[t][c] = byTile ? 
+						new MeanQualityMatrix(range, 20, store, t) : 
+						new MeanQualityMatrix(range, 20, store);
+		}
+		long after = usedMemory();
+
+		if (matrices[tiles - 1][cycles - 1].getSize() != size)
+			throw new IllegalStateException();
+		return after - before;
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
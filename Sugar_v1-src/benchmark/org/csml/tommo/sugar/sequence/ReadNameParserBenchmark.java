@@ -0,0 +1,149 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.sequence;
+
+import java.nio.charset.Charset;
+
+import org.csml.tommo.sugar.utils.StringUtils;
+
+/**
+ * Class ReadNameParserBenchmark
+ *
+ * Compares the parsing speed of the ReadNameParser (String and bytes) with the previous split of the id line.
+ * Not part of Sugar.jar (see SugarBenchmark).
+ *
+ * usage: ReadNameParserBenchmark [reads (10000000)]
+ */
+public class ReadNameParserBenchmark {
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	public static void main(String[] args) {
+		int count = args.length > 0 ? Integer.parseInt(args[0]) : 10 * 1000 * 1000;
+
+		String[] ids = new String[1024];
+		for (int i = 0; i < ids.length; i++)
+		{
+			ids[i] = (i % 2 == 0) ?
+					"@EAS139:136:FC706VJ:" + (1 + i % 8) + ":" + (1101 + i % 16) + ":" + (1000 + 7 * i) + ":" + (2000 + 13 * i) + " 1:N:0:ATCACG" :
+					"@HWUSI-EAS100R:" + (1 + i % 8) + ":" + (1 + i % 120) + ":" + (900 + 7 * i) + ":" + (1900 + 13 * i) + "#0/1";
+		}
+
+		// warm-up
+		testSplit(ids, count / 10);
+		testParser(ids, count / 10);
+		testByteParser(ids, count / 10);
+
+		testSplit(ids, count);
+		testParser(ids, count);
+		testByteParser(ids, count);
+	}
+
+	public static void testSplit(String[] ids, int count) {
+		long sT = System.currentTimeMillis();
+
+		long checksum = 0;
+		for (int i = 0; i < count; i++)
+		{
+			SequenceCoordinates seqCoord = splitSequenceCoordinates(ids[i % ids.length]);
+			checksum += seqCoord.getX() + seqCoord.getY();
+		}
+
+		printSpeed("Split", count, System.currentTimeMillis() - sT, checksum);
+	}
+
+	/**
+	 * the previous implementation of SequenceCoordinates.getSequenceCoordinates - for comparison only
+	 */
+	private static SequenceCoordinates splitSequenceCoordinates(String seqeunceIdLine) {
+		String[] lineParts = StringUtils.splitString(seqeunceIdLine, ":");
+
+		if (lineParts.length == 5)
+		{
+			String lastCoordinate = lineParts[4];
+			if(lastCoordinate.contains("#")){
+				lastCoordinate = lastCoordinate.substring(0, lastCoordinate.indexOf("#"));
+			}
+			if(lastCoordinate.contains(" ")){
+				lastCoordinate = lastCoordinate.substring(0, lastCoordinate.indexOf(" "));
+			}
+			return new SequenceCoordinates(
+					Integer.valueOf(lineParts[1]),
+					Integer.valueOf(lineParts[2]),
+					Integer.valueOf(lineParts[3]),
+					Integer.valueOf(lastCoordinate));
+		}
+
+		String lastCoordinate = lineParts[6];
+		if(lastCoordinate.contains(" ")){
+			lastCoordinate = lastCoordinate.substring(0, lastCoordinate.indexOf(" "));
+		}
+		return new SequenceCoordinates(
+				lineParts[2],
+				Integer.valueOf(lineParts[3]),
+				Integer.valueOf(lineParts[4]),
+				Integer.valueOf(lineParts[5]),
+				Integer.valueOf(lastCoordinate));
+	}
+
+	public static void testParser(String[] ids, int count) {
+		ReadNameParser parser = new ReadNameParser();
+		long sT = System.currentTimeMillis();
+
+		long checksum = 0;
+		for (int i = 0; i < count; i++)
+		{
+			parser.parse(ids[i % ids.length]);
+			checksum += parser.getX() + parser.getY();
+		}
+
+		printSpeed("ReadNameParser", count, System.currentTimeMillis() - sT, checksum);
+	}
+
+	public static void testByteParser(String[] ids, int count) {
+		byte[][] idBytes = new byte[ids.length][];
+		for (int i = 0; i < ids.length; i++)
+			idBytes[i] = ids[i].getBytes(ISO_8859_1);
+
+		ReadNameParser parser = new ReadNameParser();
+		long sT = System.currentTimeMillis();
+
+		long checksum = 0;
+		for (int i = 0; i < count; i++)
+		{
+			byte[] id = idBytes[i % idBytes.length];
+			parser.parse(id, 0, id.length);
+			checksum += parser.getX() + parser.getY();
+		}
+
+		printSpeed("ReadNameParser (bytes)", count, System.currentTimeMillis() - sT, checksum);
+	}
+
+	private static void printSpeed(String name, int count, long time, long checksum) {
+		long readsPerSecond = time > 0 ? 1000L * count / time : 0;
+		System.out.println(name + " time: " + time + " ms, " + readsPerSecond + " reads/s (checksum " + checksum + ")");
+	}
+}
@@ -47,6 +47,7 @@ import javax.swing.ToolTipManager;
 import javax.swing.UIManager;
 
 import org.csml.tommo.sugar.analysis.SugarAnalysisRunner;
+import org.csml.tommo.sugar.analysis.SugarMetrics;
 import org.csml.tommo.sugar.analysis.SugarOfflineRunner;
 import org.csml.tommo.sugar.dialogs.FileOptionsPanel;
 import org.csml.tommo.sugar.dialogs.SaveClearedFileOptionsPanel;
@@ -193,8 +194,15 @@ public class SugarApplication extends JFrame {
 				
 				Integer[] qualityArray = optionsPanel.getHeatmapQualityThresholdArray();
 				
-				for (Integer quality : qualityArray)
+				// #40: all thresholds are computed in one pass from the quality histograms
+				EClearLowQClustersMethod clearLowQClustersMethod = optionsPanel.getClearLowQClustersMethod();
+				boolean onePass = QualityHeatMapsPerTileAndBase.isHistogramSupported(qualityArray) &&
+						(clearLowQClustersMethod == null || clearLowQClustersMethod == EClearLowQClustersMethod.NONE);
+				int runs = onePass ? 1 : qualityArray.length;
+				
+				for (int q = 0; q < runs; q++)
 				{				
+					Integer quality = qualityArray[q];
 					SugarAnalysisRunner runner = new SugarAnalysisRunner(filesToProcess, sequenceFile, quality);
 					runner.initOptions(optionsPanel);
 					ResultsPanel rp = new ResultsPanel(sequenceFile);
@@ -203,7 +211,9 @@ public class SugarApplication extends JFrame {
 					String titleLabel = sequenceFile.name() + " - Waiting...";
 					fileTabs.addTab(titleLabel , rp);
 					
-					QualityHeatMapsPerTileAndBase heatMap = new QualityHeatMapsPerTileAndBase(quality);
+					QualityHeatMapsPerTileAndBase heatMap = onePass ? 
+							new QualityHeatMapsPerTileAndBase(qualityArray) : 
+							new QualityHeatMapsPerTileAndBase(quality);
 					heatMap.initOptions(optionsPanel);
 					
 					MappingQuality mappingQuality = new MappingQuality(heatMap.getTileTree(), sequenceFile);
@@ -246,6 +256,7 @@ public class SugarApplication extends JFrame {
 			ResultsPanel selectedPanel = (ResultsPanel)fileTabs.getSelectedComponent();
 			
 			try {
+				SugarMetrics.startReport(selectedPanel.sequenceFile().getFile());
 				new SugarHTMLReportArchive(selectedPanel.sequenceFile(), selectedPanel.modules(), reportFile);
 			} 
 			catch (IOException e) {
@@ -68,7 +68,7 @@ public class SugarArgs {
 	@Option(name="-f", aliases="--format", usage="Bypasses the normal sequence file format detection and forces the program to use the specified format. Valid formats are bam,sam,bam_mapped,sam_mapped and fastq")
 	private ESequenceFormat format = null;
 	
-	@Option(name="-t", aliases="--threads", usage="Specifies the number of files which can be processed simultaneously.  Each thread will be allocated 250MB of memory so you shouldn't run more threads than your available memory will cope with, and not more than 6 threads on a 32 bit machine")
+	@Option(name="-t", aliases="--threads", usage="Specifies the number of files which can be processed simultaneously. If there are fewer files than threads, the remaining threads are shared by the analysis of each file.  Each thread will be allocated 250MB of memory so you shouldn't run more threads than your available memory will cope with, and not more than 6 threads on a 32 bit machine")
 	private Integer threads = null;
 
 	@Option(name="-q", aliases="--quiet", usage="Supress all progress messages on stdout and only report errors.")
@@ -92,6 +92,55 @@ public class SugarArgs {
 	@Option(name="-nocache", aliases="--nocache", usage="Disable caching of results for loaded files.")
 	private boolean noCache = false;
 
+	@Option(name="-single_pass", aliases="--single_pass", usage="Build the tile tree and the heatmaps in one pass over the input file. Falls back to two passes, if the reads are not grouped by tile.")
+	private boolean singlePass = false;
+
+	@Option(name="-shared_accumulators", aliases="--shared_accumulators", usage="With more than one thread, the worker threads add the reads to the same heatmaps (lock-free atomic counters, striped per thread, so the counters take up to 8 times their memory) instead of merging the partial heatmaps of each thread.")
+	private boolean sharedAccumulators = false;
+
+	@Option(name="-tile_partitioning", aliases="--tile_partitioning", usage="With more than one thread, the reads are routed by tile, so each thread loads the heatmaps of its own tiles. Not used with --clear_lowq_clusters.")
+	private boolean tilePartitioning = false;
+
+	@Option(name="-shard_input", aliases="--shard_input", usage="With more than one thread, a single plain or bgzip compressed FASTQ file is split into byte ranges, which are read and analysed in parallel. " +
+			"A BAM file with an index (.bai) is split at the windows of the index. " +
+			"Other files (e.g. plain gzip) are read by one thread.")
+	private boolean shardInput = false;
+
+	@Option(name="-cell_sample", aliases="--cell_sample", metaVar="n", usage="Quick-look heatmaps: use at most n reads in each subtile of each tile and stop reading, when all subtiles have n reads. " +
+			"The rest of a tile is skipped in plain and bgzip compressed FASTQ files sorted by tile, an indexed BAM file is read in turns from the chunks of its index. " +
+			"The report lists the 95% confidence interval of each subtile.")
+	private Integer cellSample = null;
+
+	@Option(name="-converge", aliases="--converge", metaVar="confidence", usage="Stop reading, when the low quality ratio of every subtile is known to be above or below the red threshold " +
+			"with the confidence in percent (e.g. 95) for all subtiles and all checks together (Bonferroni correction, alpha spending over the checks). The report states the fraction of the file read.")
+	private Double converge = null;
+
+	@Option(name="-bam_preview", aliases="--bam_preview", metaVar="n", usage="Preview a coordinate sorted BAM file with an index (.bai): the heatmaps are built from n reads taken from " +
+			"chunks evenly spaced across the references and from the unmapped reads at the end. Other files are read as before.")
+	private Integer bamPreview = null;
+
+	@Option(name="-partial", aliases="--partial", usage="Write the partial results (the raw counters of the heatmaps and of the tile tree) to a .partial file instead of the report. " +
+			"The partial results of the shards of an input (e.g. lanes or Casava chunk files) can be merged by --merge.")
+	private boolean partial = false;
+
+	@Option(name="-write_tile_ranges", aliases="--write_tile_ranges", metaVar="file", usage="Read the x-, y-ranges of the tiles and the quality encoding of all input files, " +
+			"write them to the file and exit. The shards of an input are given to --tile_ranges with this file.")
+	private File writeTileRanges = null;
+
+	@Option(name="-tile_ranges", aliases="--tile_ranges", metaVar="file", usage="Bin the subtiles on the tile ranges of the file (written by --write_tile_ranges) " +
+			"instead of the ranges found in the input, so the partial results of the shards, which split the tiles (e.g. byte ranges or Casava chunk files), can be merged. " +
+			"The tile tree pass is skipped, a read out of the ranges fails the analysis.")
+	private File tileRanges = null;
+
+	@Option(name="-merge", aliases="--merge", metaVar="name", usage="Merge the .partial files given as arguments and write one report with this name. " +
+			"The partial files are read one at a time. A tile found in several partial files must have the same x-, y-range in each of them, " +
+			"so the shards, which split the tiles, are analysed with the same --tile_ranges.")
+	private String merge = null;
+
+	@Option(name="-metrics", aliases="--metrics", usage="Measure the throughput and the time of the analysis stages (one in 64 reads is timed) and publish them as a JMX MBean " +
+			"and as sugar_metrics.json in the report.")
+	private boolean metrics = false;
+
 	@Option(name="-samtools", aliases="--samtools", usage="Use samtools instead of picard java library")
 	private boolean samTools = false;
 
@@ -241,8 +290,77 @@ public class SugarArgs {
 			System.setProperty(Options.NO_CACHE, Options.TRUE);
 		}
 		
+		if (sugarArgs.isSinglePass()) {
+			System.setProperty(Options.SINGLE_PASS, Options.TRUE);
+		}
+		
+		if (sugarArgs.isSharedAccumulators()) {
+			System.setProperty(Options.SHARED_ACCUMULATORS, Options.TRUE);
+		}
+		
+		if (sugarArgs.isTilePartitioning()) {
+			System.setProperty(Options.TILE_PARTITIONING, Options.TRUE);
+		}
+		
+		if (sugarArgs.isShardInput()) {
+			System.setProperty(Options.SHARD_INPUT, Options.TRUE);
+		}
+		
+		if (sugarArgs.isMetrics()) {
+			System.setProperty(Options.METRICS, Options.TRUE);
+		}
+		
+		if (sugarArgs.getCellSample() != null) {
+			if (sugarArgs.getCellSample() < 1)
+			{
+				System.err.println("$cell_sample must be a positive integer");
+				System.exit(1);
+			}
+			System.setProperty(Options.CELL_SAMPLE, String.valueOf(sugarArgs.getCellSample()));
+		}
+		
+		if (sugarArgs.getConverge() != null) {
+			if (sugarArgs.getConverge() <= 0 || sugarArgs.getConverge() >= 100)
+			{
+				System.err.println("$converge must be a percentage between 0 and 100");
+				System.exit(1);
+			}
+			System.setProperty(Options.CONVERGE, String.valueOf(sugarArgs.getConverge()));
+		}
+		
+		if (sugarArgs.getBamPreview() != null) {
+			if (sugarArgs.getBamPreview() < 1)
+			{
+				System.err.println("$bam_preview must be a positive integer");
+				System.exit(1);
+			}
+			System.setProperty(Options.BAM_PREVIEW, String.valueOf(sugarArgs.getBamPreview()));
+		}
+		
+		if (sugarArgs.isPartial()) {
+			System.setProperty(Options.PARTIAL, Options.TRUE);
+		}
+		
+		if (sugarArgs.getMerge() != null) {
+			System.setProperty(Options.MERGE, sugarArgs.getMerge());
+		}
+		
+		if (sugarArgs.getWriteTileRanges() != null) {
+			System.setProperty(Options.WRITE_TILE_RANGES, sugarArgs.getWriteTileRanges().toString());
+		}
+		
+		if (sugarArgs.getTileRanges() != null) {
+			File tileRangesFile = sugarArgs.getTileRanges(); 
+			if (!tileRangesFile.isFile())
+			{
+				System.err.println("Specified tile_ranges file does not exist: " + tileRangesFile);
+				System.exit(1);				
+			}	
+			System.setProperty(Options.TILE_RANGES, tileRangesFile.toString());
+		}
+		
 		if (sugarArgs.isSamTools()) {
-			System.setProperty("sugar.samtools", Options.TRUE);
+			System.setProperty(Options.SAMTOOLS, Options.TRUE);
 		}
 			
 		if (sugarArgs.getSamToolsPath() != null) {
@@ -311,6 +429,9 @@ public class SugarArgs {
 		printStream.println("Examples: ");
 		printStream.println(" start GUI: java -jar Sugar.jar [options]");
 		printStream.println(" run Console: java -jar Sugar.jar [options] seqfile1 seqfile2 ... seqfileN");
+		printStream.println(" split tiles: java -jar Sugar.jar --write_tile_ranges ranges.json shard1 ... shardN");
+		printStream.println("              java -jar Sugar.jar [options] --partial --tile_ranges ranges.json shardI");
+		printStream.println(" merge shards: java -jar Sugar.jar [options] --merge name shard1.partial ... shardN.partial");
 		printStream.println();
 		printStream.println("Usage:");
 		printStream.println(" java -jar Sugar.jar [options] [seqfile1] [seqfile2] ... [seqfileN]");
@@ -409,6 +530,64 @@ public class SugarArgs {
 	}
 
 
+	public boolean isSinglePass() {
+		return singlePass;
+	}
+
+	public boolean isSharedAccumulators() {
+		return sharedAccumulators;
+	}
+
+	public boolean isTilePartitioning() {
+		return tilePartitioning;
+	}
+
+
+	public boolean isShardInput() {
+		return shardInput;
+	}
+
+
+	public boolean isMetrics() {
+		return metrics;
+	}
+
+
+	public Integer getCellSample() {
+		return cellSample;
+	}
+
+
+	public Double getConverge() {
+		return converge;
+	}
+
+
+	public Integer getBamPreview() {
+		return bamPreview;
+	}
+
+
+	public boolean isPartial() {
+		return partial;
+	}
+
+
+	public String getMerge() {
+		return merge;
+	}
+
+
+	public File getWriteTileRanges() {
+		return writeTileRanges;
+	}
+
+
+	public File getTileRanges() {
+		return tileRanges;
+	}
+
+
 	public boolean isSamTools() {
 		return samTools;
 	}
@@ -0,0 +1,152 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.analysis;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.csml.tommo.sugar.sequence.BAMIndex;
+import org.csml.tommo.sugar.sequence.BAMRecordReader;
+
+/**
+ * Class BAMChunkReader
+ *
+ * The records of a coordinate sorted BAM file read in turns from its chunks (--cell_sample): the file is split
+ * at BAMPreview.CHUNKS windows of the BAMIndex and at the unplaced reads, the reader seeks to each chunk in turn
+ * and reads at most TURN_RECORDS records of it. The reads of a tile are spread over the whole file, so when
+ * the SubtileSampler is saturated early, its reads come from all references and from the unplaced reads
+ * (not only from the first reference, as by reading the file from the start).
+ *
+ */
+public class BAMChunkReader {
+
+	public static final int TURN_RECORDS = 10000;
+
+	private final BAMRecordReader reader;
+
+	/**
+	 * the virtual offset of the next record of each chunk (equal to the end, when the chunk is read)
+	 */
+	private final long[] positions;
+	private final long[] ends;
+
+	private int chunk = -1;
+	private int turnRecords = 0;
+	private long turnStart = 0;
+	private long readBytes = 0;
+
+	public BAMChunkReader(BAMRecordReader reader, BAMIndex index) {
+		this.reader = reader;
+
+		long[] windows = index.getSampleOffsets(BAMPreview.CHUNKS);
+		long unplaced = index.getUnplacedOffset();
+		boolean tail = windows.length == 0 || unplaced > windows[windows.length - 1];
+
+		positions = new long[Math.max(windows.length, 1) + (tail && windows.length > 0 ? 1 : 0)];
+		ends = new long[positions.length];
+		for (int i = 0; i < windows.length; i++)
+			positions[i] = windows[i];
+		if (tail && windows.length > 0)
+			positions[windows.length] = unplaced;
+
+		// the first chunk starts at the first record, the last one ends at the end of the file
+		positions[0] = reader.getFirstRecordOffset();
+		for (int i = 0; i < positions.length; i++)
+			ends[i] = i + 1 < positions.length ? positions[i + 1] : Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return the chunk reader of the file or null, if the file is not a BAM file with an index
+	 */
+	public static BAMChunkReader create(File file, BAMRecordReader reader) {
+		File indexFile = BAMIndex.find(file);
+		if (indexFile == null)
+			return null;
+
+		try {
+			return new BAMChunkReader(reader, new BAMIndex(indexFile));
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the next record of the current chunk or seeks to the next chunk, which is not read yet
+	 *
+	 * @param skip - true, if the record is only skipped (BAMRecordReader.skipRecord())
+	 * @return false, when all chunks are read
+	 */
+	public boolean nextRecord(boolean skip) throws IOException {
+		while (true)
+		{
+			if (chunk >= 0 && turnRecords < TURN_RECORDS && reader.getVirtualOffset() < ends[chunk])
+			{
+				if (skip ? reader.skipRecord() : reader.nextRecord())
+				{
+					turnRecords++;
+					return true;
+				}
+				// the end of the file
+				ends[chunk] = reader.getVirtualOffset();
+			}
+			if (!nextChunk())
+				return false;
+		}
+	}
+
+	/**
+	 * @return the compressed bytes read from all chunks so far
+	 */
+	public long getReadBytes() {
+		long current = (chunk >= 0) ? (reader.getVirtualOffset() >>> 16) - (turnStart >>> 16) : 0;
+		return readBytes + Math.max(current, 0);
+	}
+
+	private boolean nextChunk() throws IOException {
+		if (chunk >= 0)
+		{
+			positions[chunk] = Math.min(reader.getVirtualOffset(), ends[chunk]);
+			readBytes += Math.max((positions[chunk] >>> 16) - (turnStart >>> 16), 0);
+		}
+
+		for (int i = 1; i <= positions.length; i++)
+		{
+			int next = (chunk + i) % positions.length;
+			if (positions[next] < ends[next])
+			{
+				chunk = next;
+				turnRecords = 0;
+				turnStart = positions[next];
+				reader.seek(turnStart);
+				return true;
+			}
+		}
+		chunk = -1;
+		return false;
+	}
+
+}
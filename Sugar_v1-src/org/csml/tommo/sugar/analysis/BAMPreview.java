@@ -0,0 +1,138 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.analysis;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.csml.tommo.sugar.sequence.BAMIndex;
+import org.csml.tommo.sugar.sequence.BAMRecordReader;
+
+/**
+ * Class BAMPreview
+ *
+ * The chunks of a coordinate sorted BAM file read by the preview (--bam_preview): CHUNKS chunks start at the windows
+ * of the BAMIndex evenly spaced across all references, one more chunk starts at the unplaced reads after the last reference.
+ * The reads of the preview are shared by the chunks in proportion to the placed and the unplaced reads of the index.
+ * A chunk ends before the start of the next chunk, so no read is used twice.
+ *
+ */
+public class BAMPreview {
+
+	public static final int CHUNKS = 100;
+
+	private final File file;
+	private final long[] offsets;
+	private final int[] reads;
+	private final boolean onlyMapped;
+
+	public BAMPreview(File file, BAMIndex index, int previewReads, boolean onlyMapped) {
+		this.file = file;
+		this.onlyMapped = onlyMapped;
+
+		long[] windows = index.getSampleOffsets(CHUNKS);
+		long placed = index.getPlacedReads();
+		long unplaced = onlyMapped ? 0 : index.getUnplacedReads();
+		int tailReads = (placed + unplaced > 0) ? (int) (previewReads * unplaced / (placed + unplaced)) : 0;
+		boolean tail = tailReads > 0 && index.getUnplacedOffset() > 0;
+		if (windows.length == 0)
+			tailReads = previewReads;
+
+		offsets = new long[windows.length + (tail ? 1 : 0)];
+		reads = new int[offsets.length];
+		for (int i = 0; i < windows.length; i++)
+		{
+			offsets[i] = windows[i];
+			reads[i] = (previewReads - tailReads + windows.length - 1) / windows.length;
+		}
+		if (tail)
+		{
+			offsets[windows.length] = index.getUnplacedOffset();
+			reads[windows.length] = tailReads;
+		}
+	}
+
+	/**
+	 * @return the preview of the file or null, if the file is not a BAM file with an index
+	 */
+	public static BAMPreview create(File file, int previewReads) {
+		File indexFile = BAMIndex.find(file);
+		if (indexFile == null || !BAMRecordReader.isBAM(file))
+			return null;
+
+		try {
+			return new BAMPreview(file, new BAMIndex(indexFile), previewReads, isOnlyMappedFormat());
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return true for the bam_mapped format, FastQC reads only the mapped reads then
+	 */
+	public static boolean isOnlyMappedFormat() {
+		String format = System.getProperty("fastqc.sequence_format");
+		return format != null && format.endsWith("_mapped");
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getChunkCount() {
+		return offsets.length;
+	}
+
+	/**
+	 * @return the virtual offset of the first read of the chunk
+	 */
+	public long getStart(int chunk) {
+		return offsets[chunk];
+	}
+
+	/**
+	 * @return the virtual offset of the next chunk (the reads of the chunk end before it)
+	 */
+	public long getEnd(int chunk) {
+		return chunk + 1 < offsets.length ? offsets[chunk + 1] : Long.MAX_VALUE;
+	}
+
+	/**
+	 * @return the number of the reads of the chunk
+	 */
+	public int getReads(int chunk) {
+		return reads[chunk];
+	}
+
+	/**
+	 * @return true, if the unmapped reads are skipped (the bam_mapped format)
+	 */
+	public boolean isOnlyMapped() {
+		return onlyMapped;
+	}
+
+}
@@ -0,0 +1,126 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.analysis;
+
+import java.io.IOException;
+
+import org.csml.tommo.sugar.sequence.BAMRecordReader;
+
+import uk.ac.babraham.FastQC.Sequence.Sequence;
+
+/**
+ * Class BAMPreviewSource
+ *
+ * The records of the chunks of a BAM preview (--bam_preview): the reader seeks to each chunk in turn and reads
+ * at most BAMPreview.getReads(chunk) records of it (not counting the skipped ones). The records are filtered as by
+ * the BAMFile of FastQC (BAMRecordReader.isFiltered).
+ *
+ * Only the reads with the coordinates are used by the preview, so the source has no FastQC Sequences.
+ *
+ */
+public class BAMPreviewSource implements RecordSource {
+
+	private final BAMPreview preview;
+	private final BAMRecordReader reader;
+
+	private int chunk = 0;
+	private boolean inChunk = false;
+	private int chunkReads;
+
+	public BAMPreviewSource(BAMPreview preview) throws IOException {
+		this.preview = preview;
+		reader = new BAMRecordReader(preview.getFile());
+	}
+
+	@Override
+	public boolean next(boolean skip) throws IOException {
+		while (chunk < preview.getChunkCount())
+		{
+			if (!inChunk)
+			{
+				reader.seek(preview.getStart(chunk));
+				chunkReads = 0;
+				inChunk = true;
+			}
+
+			if (chunkReads < preview.getReads(chunk) && reader.getVirtualOffset() < preview.getEnd(chunk) &&
+					(skip ? reader.skipRecord() : reader.nextRecord()))
+			{
+				if (reader.isFiltered(preview.isOnlyMapped()))
+					continue;
+				if (!skip)
+					chunkReads++;
+				return true;
+			}
+
+			chunk++;
+			inChunk = false;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean setContext(ReadContext read) {
+		return read.set(reader, read);
+	}
+
+	/**
+	 * @return null - the reads without the coordinates are not used by the preview
+	 */
+	@Override
+	public Sequence getSequence() {
+		return null;
+	}
+
+	@Override
+	public long getPosition() {
+		return reader.getVirtualOffset() >>> 16;
+	}
+
+	/**
+	 * @return the fraction of the chunks read
+	 */
+	@Override
+	public double getReadFraction() {
+		return preview.getChunkCount() == 0 ? 1 : (double) chunk / preview.getChunkCount();
+	}
+
+	@Override
+	public boolean isSeekable() {
+		return false;
+	}
+
+	@Override
+	public void seek(long offset) {
+		throw new UnsupportedOperationException("A BAM preview is read from its chunks");
+	}
+
+	@Override
+	public void close() {
+		reader.close();
+	}
+
+}
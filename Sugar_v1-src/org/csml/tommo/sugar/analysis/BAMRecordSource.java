@@ -0,0 +1,150 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.analysis;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.csml.tommo.sugar.sequence.BAMRecordReader;
+
+import uk.ac.babraham.FastQC.Sequence.Sequence;
+import uk.ac.babraham.FastQC.Sequence.SequenceFile;
+
+/**
+ * Class BAMRecordSource
+ *
+ * The records of a BAM file read by the BAMRecordReader: the whole file (read in turns from its chunks by the BAMChunkReader
+ * for the --cell_sample) or the virtual offsets of one shard of the ByteRangeAnalysis. The records are filtered as by
+ * the BAMFile of FastQC (BAMRecordReader.isFiltered), the progress is counted in the compressed bytes.
+ *
+ */
+public class BAMRecordSource implements RecordSource {
+
+	private final BAMRecordReader reader;
+	private final BAMChunkReader chunks;
+	private final SequenceFile sequenceFile;
+	private final boolean onlyMapped = BAMPreview.isOnlyMappedFormat();
+	private final long end;
+	private final long startByte;
+	private final long endByte;
+
+	private Sequence sequence;
+
+	/**
+	 * @param threads - the threads inflating the BGZF blocks
+	 * @param chunked - true, if the file is read in turns from its chunks (if it has an index)
+	 */
+	public BAMRecordSource(File file, SequenceFile sequenceFile, int threads, boolean chunked) throws IOException {
+		this.sequenceFile = sequenceFile;
+		reader = new BAMRecordReader(file, threads);
+		chunks = chunked ? BAMChunkReader.create(file, reader) : null;
+		end = Long.MAX_VALUE;
+		startByte = 0;
+		endByte = file.length();
+	}
+
+	/**
+	 * @param start, end - the virtual offsets of the records read, the end of the file is Long.MAX_VALUE
+	 */
+	public BAMRecordSource(File file, SequenceFile sequenceFile, long start, long end) throws IOException {
+		this.sequenceFile = sequenceFile;
+		this.end = end;
+		reader = new BAMRecordReader(file);
+		chunks = null;
+		startByte = start >>> 16;
+		endByte = (end == Long.MAX_VALUE) ? file.length() : end >>> 16;
+
+		try {
+			reader.seek(start);
+		}
+		catch (IOException e) {
+			reader.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public boolean next(boolean skip) throws IOException {
+		sequence = null;
+		while (true)
+		{
+			boolean hasRecord;
+			if (chunks != null)
+				hasRecord = chunks.nextRecord(skip);
+			else
+				hasRecord = reader.getVirtualOffset() < end && (skip ? reader.skipRecord() : reader.nextRecord());
+			if (!hasRecord)
+				return false;
+
+			if (!reader.isFiltered(onlyMapped))
+				return true;
+		}
+	}
+
+	@Override
+	public boolean setContext(ReadContext read) {
+		return read.set(reader, read);
+	}
+
+	@Override
+	public Sequence getSequence() {
+		if (sequence == null)
+			sequence = reader.toSequence(sequenceFile);
+		return sequence;
+	}
+
+	@Override
+	public long getPosition() {
+		return reader.getVirtualOffset() >>> 16;
+	}
+
+	@Override
+	public double getReadFraction() {
+		if (endByte <= startByte)
+			return 1;
+		long bytes = (chunks != null) ? chunks.getReadBytes() : Math.min(getPosition(), endByte) - startByte;
+		return Math.min(1, (double) bytes / (endByte - startByte));
+	}
+
+	/**
+	 * @return false - the chunks of a BAM file are sampled by the BAMChunkReader
+	 */
+	@Override
+	public boolean isSeekable() {
+		return false;
+	}
+
+	@Override
+	public void seek(long offset) {
+		throw new UnsupportedOperationException("A BAM file is read from the virtual offsets of its records");
+	}
+
+	@Override
+	public void close() {
+		reader.close();
+	}
+
+}
@@ -0,0 +1,156 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.analysis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Class BinarySerializationUtils
+ *
+ * Helpers for the binary cache files (BinaryFileSerializable):
+ * 
+ * header:	magic (8 bytes), format version (int), content specific fields
+ * strings:	length (int) and UTF-8 bytes
+ * 
+ * All values are little-endian. 
+ *
+ */
+public class BinarySerializationUtils {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * size of the buffer used for writing 
+	 */
+	private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+
+	/**
+	 * Maps a part of the file into memory (read-only), 
+	 * large files are mapped in parts (e.g. per tile) as one mapping is limited to 2GB
+	 */
+	public static ByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+		if (position + size > channel.size())
+			throw new IOException("Unexpected end of file at " + (position + size) + ", the file size is " + channel.size());
+		
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		return buffer;
+	}
+
+	/**
+	 * Maps the beginning of the file with the header
+	 */
+	public static ByteBuffer mapHeader(FileChannel channel) throws IOException {
+		return map(channel, 0, Math.min(channel.size(), Integer.MAX_VALUE));
+	}
+
+	public static void writeHeader(ByteBuffer buffer, String magic, int version) {
+		byte[] bytes = magic.getBytes(UTF8);
+		if (bytes.length != 8)
+			throw new IllegalArgumentException("The magic must have 8 bytes: " + magic);
+		buffer.put(bytes);
+		buffer.putInt(version);
+	}
+
+	/**
+	 * Checks the magic and the version of the file
+	 * 
+	 * @throws IOException if the file has another format or version
+	 */
+	public static void readHeader(ByteBuffer buffer, String magic, int version) throws IOException {
+		byte[] bytes = new byte[8];
+		if (buffer.remaining() < bytes.length + 4)
+			throw new IOException("Invalid file header, expected " + magic);
+		buffer.get(bytes);
+		if (!magic.equals(new String(bytes, UTF8)))
+			throw new IOException("Invalid file header, expected " + magic);
+		
+		int fileVersion = buffer.getInt();
+		if (fileVersion != version)
+			throw new IOException("Unsupported version of " + magic + ": " + fileVersion);
+	}
+
+	public static int sizeOf(String s) {
+		return 4 + s.getBytes(UTF8).length;
+	}
+
+	public static void putString(ByteBuffer buffer, String s) {
+		byte[] bytes = s.getBytes(UTF8);
+		buffer.putInt(bytes.length);
+		buffer.put(bytes);
+	}
+
+	public static String getString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Writes the buffer (from 0 to position) to the channel and clears it
+	 */
+	public static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * Writes the ints through the buffer, the buffer is flushed when it is full
+	 */
+	public static void putInts(ByteBuffer buffer, FileChannel channel, int[] values, int offset, int length) throws IOException {
+		while (length > 0)
+		{
+			if (buffer.remaining() < 4)
+				flush(buffer, channel);
+			
+			int count = Math.min(length, buffer.remaining() / 4);
+			buffer.asIntBuffer().put(values, offset, count);
+			buffer.position(buffer.position() + 4 * count);
+			
+			offset += count;
+			length -= count;
+		}
+	}
+
+	public static ByteBuffer allocateWriteBuffer() {
+		return ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Reads the ints from the (mapped) buffer directly into the array
+	 */
+	public static void getInts(ByteBuffer buffer, int[] values, int offset, int length) {
+		buffer.asIntBuffer().get(values, offset, length);
+		buffer.position(buffer.position() + 4 * length);
+	}
+}
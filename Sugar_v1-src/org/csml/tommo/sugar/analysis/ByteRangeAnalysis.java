@@ -0,0 +1,282 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.analysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.csml.tommo.sugar.modules.MergeableModule;
+import org.csml.tommo.sugar.sequence.BAMIndex;
+import org.csml.tommo.sugar.sequence.BAMRecordReader;
+import org.csml.tommo.sugar.sequence.FastQShardReader;
+
+import uk.ac.babraham.FastQC.Modules.QCModule;
+import uk.ac.babraham.FastQC.Sequence.SequenceFile;
+import uk.ac.babraham.FastQC.Sequence.SequenceFormatException;
+
+/**
+ * Class ByteRangeAnalysis
+ *
+ * Runs one pass of the SugarAnalysisRunner over a single file in several threads: the file is split into byte ranges
+ * (shards) and each shard is read by its own thread (FastQShardReader) and loaded into its own partial modules
+ * (MergeableModule). The partial modules are merged in the order of the shards after the last read.
+ *
+ * Unlike the ModulePipeline, the reading and the parsing of the file run in parallel too, so the time of one large file
+ * scales with the threads. Plain and BGZF compressed (bgzip) FASTQ files and BAM files with an index (.bai) can be split
+ * (see isSupported), other files (e.g. plain gzip) are read by one thread.
+ *
+ * A FASTQ shard starts at the first record after its byte offset (FastQRecordSource). A BAM shard starts at a window
+ * of the index (BAMIndex.getSplitOffsets) and is read by the BAMRecordSource, its records are filtered as by the BAMFile
+ * of FastQC (BAMRecordReader.isFiltered). The reads are sampled by the same SampledReads as the reads of the runner.
+ *
+ * The reads are passed to the modules from the bytes of the records (RawReadModule), without the FastQC Sequences.
+ *
+ * With the read rate n every n-th read of each shard is used.
+ *
+ */
+public class ByteRangeAnalysis {
+
+	private final List<MergeableModule> modules = new ArrayList<MergeableModule>();
+	private final Shard[] shards;
+	private final long fileSize;
+	private final boolean bam;
+
+	private final AtomicInteger readCount = new AtomicInteger();
+	private final List<SequenceFormatException> formatErrors = Collections.synchronizedList(new ArrayList<SequenceFormatException>());
+
+	private volatile Throwable error;
+
+	public ByteRangeAnalysis(File file, SequenceFile sequenceFile, List<QCModule> moduleList, int threads, int readRate) {
+		for (QCModule m : moduleList)
+			modules.add((MergeableModule) m);
+
+		fileSize = file.length();
+		bam = isBAMSupported(file);
+		long[] ranges = bam ? splitBAM(file, threads) : FastQShardReader.split(file, threads);
+		shards = new Shard[ranges.length - 1];
+		for (int i = 0; i < shards.length; i++)
+		{
+			List<MergeableModule> partials = new ArrayList<MergeableModule>();
+			for (MergeableModule m : modules)
+				partials.add(m.createPartial());
+			shards[i] = new Shard(i, file, sequenceFile, ranges[i], ranges[i + 1], readRate, partials);
+		}
+	}
+
+	/**
+	 * @return true, if the files can be split into the byte ranges and all modules can be loaded by the partial modules
+	 */
+	public static boolean isSupported(File[] files, List<QCModule> moduleList) {
+		return files.length == 1 && TilePartitionedPipeline.isSupported(moduleList) &&
+				ModulePipeline.isRawReadSupported(moduleList) && 
+				(FastQShardReader.isSupported(files[0]) || isBAMSupported(files[0]));
+	}
+
+	/**
+	 * @return true, if the file is a BAM file with an index, whose windows give the starts of the shards
+	 */
+	static boolean isBAMSupported(File file) {
+		return BAMIndex.find(file) != null && BAMRecordReader.isReadable(file);
+	}
+
+	/**
+	 * @return the virtual offsets of the BAM shards, the last value is Long.MAX_VALUE
+	 */
+	private static long[] splitBAM(File file, int shards) {
+		try {
+			BAMRecordReader reader = new BAMRecordReader(file);
+			try {
+				return new BAMIndex(BAMIndex.find(file)).getSplitOffsets(shards, reader.getFirstRecordOffset(), file.length());
+			}
+			finally {
+				reader.close();
+			}
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Failed to split " + file.getName() + ": " + e.getMessage(), e);
+		}
+	}
+
+	public void start() {
+		for (Shard shard : shards)
+			shard.start();
+	}
+
+	/**
+	 * Waits for the shards at most the given time
+	 *
+	 * @return true, if all shards are finished
+	 */
+	public boolean await(long millis) {
+		long deadline = System.currentTimeMillis() + millis;
+		for (Shard shard : shards)
+		{
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0)
+				return !isAlive();
+			try {
+				shard.join(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Analysis interrupted", e);
+			}
+		}
+		return !isAlive();
+	}
+
+	private boolean isAlive() {
+		for (Shard shard : shards)
+		{
+			if (shard.isAlive())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Waits for all shards and merges the partial modules into the original modules
+	 */
+	public void finish() {
+		for (Shard shard : shards)
+			ModulePipeline.join(shard);
+
+		checkError();
+
+		for (Shard shard : shards)
+		{
+			for (int i = 0; i < modules.size(); i++)
+				modules.get(i).merge(shard.partials.get(i));
+		}
+	}
+
+	/**
+	 * @return the number of the reads read so far (including the reads skipped by the read rate)
+	 */
+	public int getReadCount() {
+		return readCount.get();
+	}
+
+	/**
+	 * @return the percentage of the file read so far
+	 */
+	public int getPercentComplete() {
+		if (fileSize == 0)
+			return 100;
+
+		long bytes = 0;
+		for (Shard shard : shards)
+			bytes += shard.bytesRead.get();
+		return (int) (100 * bytes / fileSize);
+	}
+
+	/**
+	 * @return the records, which could not be read (each shard skips them)
+	 */
+	public List<SequenceFormatException> getFormatErrors() {
+		return formatErrors;
+	}
+
+	private void setError(Throwable t) {
+		synchronized (this) {
+			if (error == null)
+				error = t;
+		}
+	}
+
+	private void checkError() {
+		Throwable t = error;
+		if (t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		if (t != null)
+			throw new RuntimeException(t);
+	}
+
+	private class Shard extends Thread {
+
+		private final File file;
+		private final SequenceFile sequenceFile;
+		private final long start;
+		private final long end;
+		private final int readRate;
+		private final List<MergeableModule> partials;
+		private final ReadContext read = new ReadContext();
+		private final AtomicLong bytesRead = new AtomicLong();
+
+		public Shard(int index, File file, SequenceFile sequenceFile, long start, long end, int readRate, List<MergeableModule> partials) {
+			super("SUGAR shard " + index);
+			this.file = file;
+			this.sequenceFile = sequenceFile;
+			this.start = start;
+			this.end = end;
+			this.readRate = readRate;
+			this.partials = partials;
+			setDaemon(true);
+		}
+
+		/**
+		 * Reads the records from the offset 'start' to 'end' (the virtual offsets of a BAM file),
+		 * the progress is counted in the compressed bytes
+		 */
+		@Override
+		public void run() {
+			long startByte = bam ? start >>> 16 : start;
+			long endByte = !bam ? end : (end == Long.MAX_VALUE) ? fileSize : end >>> 16;
+			try {
+				RecordSource source = bam ? new BAMRecordSource(file, sequenceFile, start, end) :
+						new FastQRecordSource(file, sequenceFile, start, end, 1);
+				SampledReads reads = new SampledReads(source, readRate, sequenceFile.name());
+				int countedReads = 0;
+				try {
+					while (error == null && reads.next())
+					{
+						// the shard reads beyond its end to complete the last record
+						bytesRead.set(Math.min(source.getPosition(), endByte) - startByte);
+						readCount.addAndGet(reads.getSeqCount() - countedReads);
+						countedReads = reads.getSeqCount();
+
+						ModulePipeline.processRecord(partials, source, read, source.setContext(read));
+					}
+				}
+				finally {
+					reads.close();
+				}
+				readCount.addAndGet(reads.getSeqCount() - countedReads);
+				formatErrors.addAll(reads.getFormatErrors());
+				bytesRead.set(endByte - startByte);
+			} catch (Throwable t) {
+				setError(t);
+			}
+		}
+	}
+
+}
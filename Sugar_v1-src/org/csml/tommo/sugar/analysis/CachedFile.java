@@ -29,6 +29,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
 
+import org.csml.tommo.sugar.heatmap.QualityCounterStore;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
 
@@ -42,6 +43,7 @@ public class CachedFile implements JSONSerializable {
 	private static final String JSON_ATTR_LAST_MODIFIED = "lastModified";
 	private static final String JSON_ATTR_FILE_PATH = "filePath";
 	private static final String JSON_ATTR_QUALITY_THRESHOLD = "qualityThreshold";
+	private static final String JSON_ATTR_HISTOGRAM_THRESHOLDS = "histogramThresholds";
 
 
 	protected String filePath;
@@ -52,13 +54,34 @@ public class CachedFile implements JSONSerializable {
 	protected int qualityThreshold;
 	protected int version;
 	
+	/**
+	 * the sorted thresholds of the quality histograms kept by the cached modules (e.g. "10,20,30"), "" if there are none (#40)
+	 */
+	protected String histogramThresholds = "";
+	
 	public CachedFile(File file, int matrixSize, int qualityThreshold) {
+		this(file, matrixSize, qualityThreshold, null);
+	}
+	
+	/**
+	 * @param histogramThresholds - the thresholds of the quality histograms or null
+	 */
+	public CachedFile(File file, int matrixSize, int qualityThreshold, Integer[] histogramThresholds) {
 		filePath = file.getAbsolutePath();
 		lastModified = file.lastModified();
 		fileSize = file.length();
 		this.matrixSize = matrixSize;
 		this.qualityThreshold = qualityThreshold;
 		version = CACHE_VERSION;
+		
+		StringBuilder thresholds = new StringBuilder();
+		for (int threshold : QualityCounterStore.getHistogramThresholds(histogramThresholds))
+		{
+			if (thresholds.length() > 0)
+				thresholds.append(',');
+			thresholds.append(threshold);
+		}
+		this.histogramThresholds = thresholds.toString();
 	}
 
 	// customized JSON Serialization
@@ -86,6 +109,8 @@ public class CachedFile implements JSONSerializable {
         obj.put(JSON_ATTR_MATRIX_SIZE, matrixSize);
         obj.put(JSON_ATTR_QUALITY_THRESHOLD, qualityThreshold);
         obj.put(JSON_ATTR_VERSION, version);
+        if (hasHistograms())
+        	obj.put(JSON_ATTR_HISTOGRAM_THRESHOLDS, histogramThresholds);
 		return obj;
 	}
 
@@ -98,6 +123,10 @@ public class CachedFile implements JSONSerializable {
         matrixSize = new Integer(jsonObject.get(JSON_ATTR_MATRIX_SIZE).toString());
         qualityThreshold = new Integer(jsonObject.get(JSON_ATTR_QUALITY_THRESHOLD).toString());        
         version = new Integer(jsonObject.get(JSON_ATTR_VERSION).toString());
+        
+        // the entries written before #40 have no histograms
+        Object thresholds = jsonObject.get(JSON_ATTR_HISTOGRAM_THRESHOLDS);
+        histogramThresholds = thresholds != null ? thresholds.toString() : "";
 
 	}
 	
@@ -108,7 +137,7 @@ public class CachedFile implements JSONSerializable {
 		return "CachedFile [filePath=" + filePath + ", lastModified="
 				+ lastModified + ", fileSize=" + fileSize + ", matrixSize="
 				+ matrixSize + ", qualityThreshold=" + qualityThreshold
-				+ ", version=" + version + "]";
+				+ ", version=" + version + ", histogramThresholds=" + histogramThresholds + "]";
 	}
 
 	@Override
@@ -124,6 +153,7 @@ public class CachedFile implements JSONSerializable {
 		result = prime * result + matrixSize;
 		result = prime * result + qualityThreshold;
 		result = prime * result + version;
+		result = prime * result + histogramThresholds.hashCode();
 		return result;
 	}
 
@@ -157,6 +187,8 @@ public class CachedFile implements JSONSerializable {
 			return false;
 		if (version != other.version)
 			return false;
+		if (!histogramThresholds.equals(other.histogramThresholds))
+			return false;
 		return true;
 	}
 
@@ -172,4 +204,11 @@ public class CachedFile implements JSONSerializable {
 		return qualityThreshold;
 	}	
 
+	/**
+	 * @return true, if the cached modules keep the quality histograms of several thresholds
+	 */
+	public boolean hasHistograms() {
+		return histogramThresholds.length() > 0;
+	}
+
 }
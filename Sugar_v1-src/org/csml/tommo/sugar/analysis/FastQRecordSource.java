@@ -0,0 +1,120 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.analysis;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.csml.tommo.sugar.sequence.FastQShardReader;
+
+import uk.ac.babraham.FastQC.Sequence.Sequence;
+import uk.ac.babraham.FastQC.Sequence.SequenceFile;
+
+/**
+ * Class FastQRecordSource
+ *
+ * The records of a byte range of a FASTQ file read by the FastQShardReader (the whole file or one shard of the ByteRangeAnalysis).
+ * The skipped records are not parsed, the FastQC Sequence is created only when a module needs it.
+ *
+ */
+public class FastQRecordSource implements RecordSource {
+
+	private final File file;
+	private final SequenceFile sequenceFile;
+	private final long start;
+	private final long end;
+	private final int threads;
+
+	private FastQShardReader reader;
+	private Sequence sequence;
+
+	/**
+	 * @param start, end - the byte range in the (compressed) file
+	 * @param threads - the threads inflating the BGZF blocks
+	 */
+	public FastQRecordSource(File file, SequenceFile sequenceFile, long start, long end, int threads) throws IOException {
+		this.file = file;
+		this.sequenceFile = sequenceFile;
+		this.start = start;
+		this.end = end;
+		this.threads = threads;
+		reader = new FastQShardReader(file, sequenceFile, start, end, threads);
+	}
+
+	@Override
+	public boolean next(boolean skip) throws IOException {
+		sequence = null;
+		return skip ? reader.skipRecord() : reader.nextRecord();
+	}
+
+	@Override
+	public boolean setContext(ReadContext read) {
+		return read.set(reader, read);
+	}
+
+	@Override
+	public Sequence getSequence() {
+		if (sequence == null)
+			sequence = reader.toSequence();
+		return sequence;
+	}
+
+	@Override
+	public long getPosition() {
+		return reader.getPosition();
+	}
+
+	/**
+	 * The last record of the range is read beyond its end
+	 */
+	@Override
+	public double getReadFraction() {
+		if (end <= start)
+			return 1;
+		return (double) (Math.min(reader.getPosition(), end) - start) / (end - start);
+	}
+
+	/**
+	 * @return true for the plain and BGZF compressed files (FastQShardReader.isSupported)
+	 */
+	@Override
+	public boolean isSeekable() {
+		return FastQShardReader.isSupported(file);
+	}
+
+	@Override
+	public void seek(long offset) throws IOException {
+		reader.close();
+		sequence = null;
+		reader = new FastQShardReader(file, sequenceFile, offset, end, threads);
+	}
+
+	@Override
+	public void close() {
+		reader.close();
+	}
+
+}
@@ -0,0 +1,94 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.analysis;
+
+import java.io.File;
+
+import uk.ac.babraham.FastQC.Sequence.Sequence;
+import uk.ac.babraham.FastQC.Sequence.SequenceFile;
+import uk.ac.babraham.FastQC.Sequence.SequenceFormatException;
+
+/**
+ * Class MergedSequenceFile
+ *
+ * Stands for the input of the merged partial results (--merge) in the report.
+ * It has no reads - the modules are loaded from the partial result files by the PartialResultMerger.
+ *
+ */
+public class MergedSequenceFile implements SequenceFile {
+
+	private File file;
+	private boolean mapped;
+
+	/**
+	 * @param file - the name of the merged input, the report is named after it
+	 * @param mapped - true, if the shards were BAM/SAM files with the mapping quality
+	 */
+	public MergedSequenceFile(File file, boolean mapped) {
+		this.file = file;
+		this.mapped = mapped;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return false;
+	}
+
+	@Override
+	public Sequence next() throws SequenceFormatException {
+		throw new SequenceFormatException("The merged partial results have no reads");
+	}
+
+	@Override
+	public boolean isColorspace() {
+		return false;
+	}
+
+	@Override
+	public String name() {
+		return file.getName();
+	}
+
+	@Override
+	public int getPercentComplete() {
+		return 100;
+	}
+
+	@Override
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public String getDefaultFileExtention() {
+		return mapped ? "bam" : "fastq";
+	}
+
+	public boolean isMapped() {
+		return mapped;
+	}
+
+}
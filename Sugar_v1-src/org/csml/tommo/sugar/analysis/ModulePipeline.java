@@ -0,0 +1,390 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.analysis;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.csml.tommo.sugar.modules.ConcurrentModule;
+import org.csml.tommo.sugar.modules.MergeableModule;
+import org.csml.tommo.sugar.modules.RawReadModule;
+import org.csml.tommo.sugar.modules.ReadContextModule;
+import org.csml.tommo.sugar.utils.StripedThread;
+
+import uk.ac.babraham.FastQC.Modules.QCModule;
+import uk.ac.babraham.FastQC.Sequence.Sequence;
+
+/**
+ * Class ModulePipeline
+ *
+ * Runs one pass of the SugarAnalysisRunner in several threads:
+ *
+ * 1. reader - the runner reads the sequence file and adds the reads, which are gathered in batches
+ * 2. workers - parse the reads and load them into partial modules (MergeableModule), one set per worker
+ * 3. merge - the modules which cannot be split (e.g. ClearBasesInLowQClusters writes the reads to the output file)
+ *    get the parsed reads in the original order. The partial modules are merged into the original modules
+ *    after the last read.
+ *
+ * The batches are recycled - the reader waits, if all batches are processed (back-pressure).
+ *
+ * With the shared accumulators the workers add the reads directly to the ConcurrentModules
+ * (lock-free atomic counters, one stripe per worker), so these modules need neither the partial modules nor the merge.
+ *
+ * The modules use integer counters only, so the results are the same as in the single-threaded mode.
+ *
+ */
+public class ModulePipeline implements ReadPipeline {
+
+	public static final int BATCH_SIZE = 4096;
+
+	private static final Batch END = new Batch(0, false);
+
+	private final List<MergeableModule> mergeableModules = new ArrayList<MergeableModule>();
+	private final List<QCModule> orderedModules = new ArrayList<QCModule>();
+	private final List<ConcurrentModule> concurrentModules = new ArrayList<ConcurrentModule>();
+
+	private final BlockingQueue<Batch> freeBatches;
+	private final BlockingQueue<Batch> workQueue = new LinkedBlockingQueue<Batch>();
+	private final BlockingQueue<Batch> orderedQueue = new LinkedBlockingQueue<Batch>();
+
+	private final Worker[] workers;
+	private Thread mergeThread;
+
+	private Batch currentBatch;
+	private long batchCount = 0;
+
+	private volatile Throwable error;
+
+	public ModulePipeline(List<QCModule> moduleList, int threads) {
+		this(moduleList, threads, false);
+	}
+
+	/**
+	 * @param sharedAccumulators - the ConcurrentModules are fed by all workers at once instead of the partial modules
+	 */
+	public ModulePipeline(List<QCModule> moduleList, int threads, boolean sharedAccumulators) {
+		for (QCModule m : moduleList)
+		{
+			if (sharedAccumulators && m instanceof ConcurrentModule)
+				concurrentModules.add((ConcurrentModule) m);
+			else if (m instanceof MergeableModule)
+				mergeableModules.add((MergeableModule) m);
+			else
+				orderedModules.add(m);
+		}
+
+		workers = new Worker[threads];
+		for (int i = 0; i < threads; i++)
+		{
+			List<MergeableModule> partials = new ArrayList<MergeableModule>();
+			for (MergeableModule m : mergeableModules)
+				partials.add(m.createPartial());
+			workers[i] = new Worker(i, partials);
+		}
+
+		// the reads must be kept in the batch for the merge stage
+		boolean keepContexts = !orderedModules.isEmpty();
+		int batches = 2 * threads + 2;
+		freeBatches = new ArrayBlockingQueue<Batch>(batches);
+		for (int i = 0; i < batches; i++)
+			freeBatches.add(new Batch(BATCH_SIZE, keepContexts));
+	}
+
+	@Override
+	public void start() {
+		for (ConcurrentModule m : concurrentModules)
+			m.setConcurrent(true, workers.length);
+		
+		if (!orderedModules.isEmpty())
+		{
+			mergeThread = new Thread("SUGAR merge") {
+				@Override
+				public void run() {
+					runOrderedModules();
+				}
+			};
+			mergeThread.setDaemon(true);
+			mergeThread.start();
+		}
+
+		for (Worker worker : workers)
+			worker.start();
+	}
+
+	/**
+	 * Adds the next read, waits if all batches are in use
+	 */
+	@Override
+	public void add(Sequence seq) {
+		checkError();
+
+		if (currentBatch == null)
+			currentBatch = take(freeBatches);
+
+		currentBatch.sequences[currentBatch.size++] = seq;
+
+		if (currentBatch.size == BATCH_SIZE)
+			submitCurrentBatch();
+	}
+
+	/**
+	 * Waits for all reads and merges the partial modules into the original modules
+	 */
+	@Override
+	public void finish() {
+		if (currentBatch != null && currentBatch.size > 0)
+			submitCurrentBatch();
+
+		for (int i = 0; i < workers.length; i++)
+			put(workQueue, END);
+		for (Worker worker : workers)
+			join(worker);
+
+		if (mergeThread != null)
+		{
+			put(orderedQueue, END);
+			join(mergeThread);
+		}
+
+		for (ConcurrentModule m : concurrentModules)
+			m.setConcurrent(false, workers.length);
+		
+		checkError();
+
+		for (Worker worker : workers)
+		{
+			for (int i = 0; i < mergeableModules.size(); i++)
+				mergeableModules.get(i).merge(worker.partials.get(i));
+		}
+	}
+
+	private void submitCurrentBatch() {
+		currentBatch.index = batchCount++;
+		put(workQueue, currentBatch);
+		currentBatch = null;
+	}
+
+	private void runOrderedModules() {
+		SortedMap<Long, Batch> pendingBatches = new TreeMap<Long, Batch>();
+		long nextIndex = 0;
+
+		while (true)
+		{
+			Batch batch = take(orderedQueue);
+			if (batch == END)
+				break;
+
+			pendingBatches.put(batch.index, batch);
+			while (!pendingBatches.isEmpty() && pendingBatches.firstKey() == nextIndex)
+			{
+				batch = pendingBatches.remove(nextIndex++);
+				if (error == null)
+				{
+					try {
+						for (int i = 0; i < batch.size; i++)
+							processRead(orderedModules, batch.sequences[i], batch.contexts[i], batch.hasContext[i]);
+					} catch (Throwable t) {
+						setError(t);
+					}
+				}
+				batch.size = 0;
+				put(freeBatches, batch);
+			}
+		}
+	}
+
+	static void processRead(List<? extends QCModule> moduleList, Sequence seq, ReadContext read, boolean hasContext) {
+		for (QCModule m : moduleList) {
+			if (seq.isFiltered() && m.ignoreFilteredSequences()) continue;
+			if (hasContext && m instanceof ReadContextModule)
+				((ReadContextModule) m).processRead(read);
+			else
+				m.processSequence(seq);
+		}
+	}
+
+	/**
+	 * The same as processRead, but the read is the current record of the source (see RawReadModule),
+	 * the Sequence is created only for the modules without the coordinates of the read
+	 */
+	static void processRecord(List<? extends QCModule> moduleList, RecordSource source, ReadContext read, boolean hasContext) {
+		for (QCModule m : moduleList) {
+			if (read.isFiltered() && m.ignoreFilteredSequences()) continue;
+			if (hasContext)
+				((ReadContextModule) m).processRead(read);
+			else
+				m.processSequence(source.getSequence());
+		}
+	}
+
+	/**
+	 * @return true, if all modules can be loaded from the records of the FastQShardReader (or of the BAMRecordReader)
+	 */
+	static boolean isRawReadSupported(List<? extends QCModule> moduleList) {
+		for (QCModule m : moduleList)
+		{
+			if (!(m instanceof RawReadModule))
+				return false;
+		}
+		return true;
+	}
+
+	private void setError(Throwable t) {
+		synchronized (this) {
+			if (error == null)
+				error = t;
+		}
+	}
+
+	private void checkError() {
+		Throwable t = error;
+		if (t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		if (t != null)
+			throw new RuntimeException(t);
+	}
+
+	static <T> T take(BlockingQueue<T> queue) {
+		try {
+			return queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Analysis interrupted", e);
+		}
+	}
+
+	static <T> void put(BlockingQueue<T> queue, T element) {
+		try {
+			queue.put(element);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Analysis interrupted", e);
+		}
+	}
+
+	static void join(Thread thread) {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Analysis interrupted", e);
+		}
+	}
+
+	private class Worker extends StripedThread {
+
+		private final List<MergeableModule> partials;
+		private final ReadContext read = new ReadContext();
+
+		/**
+		 * @param index - the stripe of the shared accumulators updated by the worker (see AtomicUtils.getStripe)
+		 */
+		public Worker(int index, List<MergeableModule> partials) {
+			super("SUGAR worker " + index, index);
+			this.partials = partials;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (true)
+			{
+				Batch batch = take(workQueue);
+				if (batch == END)
+					break;
+
+				if (error == null)
+				{
+					try {
+						processBatch(batch);
+					} catch (Throwable t) {
+						setError(t);
+					}
+				}
+
+				if (!orderedModules.isEmpty())
+				{
+					put(orderedQueue, batch);
+				}
+				else
+				{
+					batch.size = 0;
+					put(freeBatches, batch);
+				}
+			}
+		}
+
+		private void processBatch(Batch batch) {
+			for (int i = 0; i < batch.size; i++)
+			{
+				Sequence seq = batch.sequences[i];
+				ReadContext context;
+				boolean hasContext;
+				if (batch.contexts != null)
+				{
+					// the parsed read is needed in the merge stage
+					context = batch.contexts[i];
+					hasContext = batch.hasContext[i] = context.set(seq, i > 0 ? batch.contexts[i - 1] : null);
+				}
+				else
+				{
+					context = read;
+					hasContext = read.set(seq);
+				}
+				processRead(partials, seq, context, hasContext);
+				if (!concurrentModules.isEmpty())
+					processRead(concurrentModules, seq, context, hasContext);
+			}
+		}
+	}
+
+	private static class Batch {
+
+		long index;
+		int size = 0;
+		final Sequence[] sequences;
+		final ReadContext[] contexts;
+		final boolean[] hasContext;
+
+		Batch(int capacity, boolean keepContexts) {
+			sequences = new Sequence[capacity];
+			contexts = keepContexts ? new ReadContext[capacity] : null;
+			hasContext = keepContexts ? new boolean[capacity] : null;
+			if (keepContexts)
+			{
+				for (int i = 0; i < capacity; i++)
+					contexts[i] = new ReadContext();
+			}
+		}
+	}
+}
@@ -127,7 +127,7 @@ public class OpenedFileCache implements Serializable, JSONFileSerializable {
 		}
 	}
 
-	static public OpenedFileCache getInstance() {
+	static synchronized public OpenedFileCache getInstance() {
 		
 		// construct instance
 		if (INSTANCE == null)
@@ -156,9 +156,17 @@ public class OpenedFileCache implements Serializable, JSONFileSerializable {
 	
 	public boolean readModulesFromCache(File sequenceFile,
 			QCModule[] modules, List<AnalysisListener> listeners, int matrixSize, int qualityThreshold) {
+		return readModulesFromCache(sequenceFile, modules, listeners, matrixSize, qualityThreshold, null);
+	}
+	
+	/**
+	 * @param histogramThresholds - the thresholds of the quality histograms (#40) or null, the entries are cached separately
+	 */
+	public boolean readModulesFromCache(File sequenceFile,
+			QCModule[] modules, List<AnalysisListener> listeners, int matrixSize, int qualityThreshold, Integer[] histogramThresholds) {
 		boolean result = false;
 		
-		CachedFile cachedFile = new CachedFile(sequenceFile, matrixSize, qualityThreshold);
+		CachedFile cachedFile = new CachedFile(sequenceFile, matrixSize, qualityThreshold, histogramThresholds);
 		if (cache.containsKey(cachedFile))
 		{
 			File cacheFileBasename = cache.get(cachedFile);
@@ -170,22 +178,33 @@ public class OpenedFileCache implements Serializable, JSONFileSerializable {
 				for (int i=0; i<modules.length; i++)
 				{
 					QCModule m = modules[i];
-					File moduleFile = new File(cacheFileBasename.getAbsolutePath() + m.getClass().getSimpleName());
+					File moduleFile = getModuleFile(cacheFileBasename, m);
 
 //					if (!(m instanceof JSONFileSerializable))
 //						throw new Exception("Module " + m.name() + "cannot be serialized to JSON");
 
-					if (m instanceof JSONFileSerializable && !moduleFile.isFile())
+					if (m instanceof JSONFileSerializable && !moduleFile.isFile() && !getBinaryModuleFile(cacheFileBasename, m).isFile())
 						throw new Exception("Could not find cache file " + moduleFile.getAbsolutePath());					
 				}
 
 				for (int i=0; i<modules.length; i++)
 				{
 					QCModule m = modules[i];
+					File binaryFile = getBinaryModuleFile(cacheFileBasename, m);
 					
-					if (m instanceof JSONFileSerializable)
+					if (m instanceof BinaryFileSerializable && binaryFile.isFile())
 					{
-						File moduleFile = new File(cacheFileBasename.getAbsolutePath() + m.getClass().getSimpleName());					
+						fireCacheFileStartedEvent(listeners, m, binaryFile, SugarAnalysisListener.READING_FILE);
+						long startTime = System.currentTimeMillis();
+
+						((BinaryFileSerializable) m).fromBinaryFile(binaryFile);
+
+						long time = System.currentTimeMillis() - startTime;
+						fireCacheFileCompletedEvent(listeners, m, time, SugarAnalysisListener.READING_FILE);
+					}
+					else if (m instanceof JSONFileSerializable)
+					{
+						File moduleFile = getModuleFile(cacheFileBasename, m);
 
 						fireCacheFileStartedEvent(listeners, m, moduleFile, SugarAnalysisListener.READING_FILE);
 						long startTime = System.currentTimeMillis();
@@ -194,6 +213,13 @@ public class OpenedFileCache implements Serializable, JSONFileSerializable {
 
 						long time = System.currentTimeMillis() - startTime;
 						fireCacheFileCompletedEvent(listeners, m, time, SugarAnalysisListener.READING_FILE);
+						
+						// the cache was written by a previous version - convert it to the binary format
+						if (m instanceof BinaryFileSerializable)
+						{
+							writeModuleFile(cacheFileBasename, m, listeners);
+							moduleFile.delete();
+						}
 					}
 				}
 
@@ -213,13 +239,16 @@ public class OpenedFileCache implements Serializable, JSONFileSerializable {
 					m.reset();
 
 					// and remove the corresponding files from the cache folder
-					File moduleFile = new File(cacheFileBasename.getAbsolutePath() + m.getClass().getSimpleName());	
+					File moduleFile = getModuleFile(cacheFileBasename, m);	
 					if (moduleFile.isFile())
 						moduleFile.delete();
+					File binaryFile = getBinaryModuleFile(cacheFileBasename, m);	
+					if (binaryFile.isFile())
+						binaryFile.delete();
 				}
 
 				try {
-					toJSONFile(CACHE_MAP_FILE);
+					writeCacheMapFile();
 				} catch (IOException e1) {
 					// TODO Auto-generated catch block
 					e1.printStackTrace();
@@ -234,6 +263,45 @@ public class OpenedFileCache implements Serializable, JSONFileSerializable {
 		return result;
 	}
 
+	/**
+	 * Writes the module to the cache folder, in the binary format if the module supports it
+	 */
+	private void writeModuleFile(File cacheFileBasename, QCModule m, List<AnalysisListener> listeners) throws IOException {
+		
+		if (m instanceof BinaryFileSerializable)
+		{
+			File binaryFile = getBinaryModuleFile(cacheFileBasename, m);
+			
+			fireCacheFileStartedEvent(listeners, m, binaryFile, SugarAnalysisListener.WRITING_FILE);
+			long startTime = System.currentTimeMillis();
+
+			((BinaryFileSerializable) m).toBinaryFile(binaryFile);					
+
+			long time = System.currentTimeMillis() - startTime;
+			fireCacheFileCompletedEvent(listeners, m, time, SugarAnalysisListener.WRITING_FILE);
+		}
+		else if (m instanceof JSONFileSerializable)
+		{
+			File moduleFile = getModuleFile(cacheFileBasename, m);
+
+			fireCacheFileStartedEvent(listeners, m, moduleFile, SugarAnalysisListener.WRITING_FILE);
+			long startTime = System.currentTimeMillis();
+
+			((JSONFileSerializable) m).toJSONFile(moduleFile);					
+
+			long time = System.currentTimeMillis() - startTime;
+			fireCacheFileCompletedEvent(listeners, m, time, SugarAnalysisListener.WRITING_FILE);
+		}
+	}
+
+	private static File getModuleFile(File cacheFileBasename, QCModule m) {
+		return new File(cacheFileBasename.getAbsolutePath() + m.getClass().getSimpleName());
+	}
+
+	private static File getBinaryModuleFile(File cacheFileBasename, QCModule m) {
+		return new File(cacheFileBasename.getAbsolutePath() + m.getClass().getSimpleName() + BinaryFileSerializable.BINARY_FILE_SUFFIX);
+	}
+
 	private void fireCacheFileStartedEvent(List<AnalysisListener> listeners,
 			QCModule m, File moduleFile, int operation) {
 		if (listeners != null)
@@ -250,6 +318,8 @@ public class OpenedFileCache implements Serializable, JSONFileSerializable {
 
 	private void fireCacheFileCompletedEvent(List<AnalysisListener> listeners,
 			QCModule m, long time, int operation) {
+		SugarMetrics.recordCacheTime(m, time, operation);
+		
 		if (listeners != null)
 		{
 			for (AnalysisListener l : listeners)
@@ -263,37 +333,40 @@ public class OpenedFileCache implements Serializable, JSONFileSerializable {
 	}
 
 	public void writeModulesToCache(File sequenceFile, QCModule[] modules, List<AnalysisListener> listeners, int matrixSize, int qualityThreshold) {
-				
-		if (!cache.containsKey(new CachedFile(sequenceFile, matrixSize, qualityThreshold)))
+		writeModulesToCache(sequenceFile, modules, listeners, matrixSize, qualityThreshold, null);
+	}
+	
+	public void writeModulesToCache(File sequenceFile, QCModule[] modules, List<AnalysisListener> listeners, int matrixSize, int qualityThreshold, Integer[] histogramThresholds) {
+		
+		CachedFile cachedFile = new CachedFile(sequenceFile, matrixSize, qualityThreshold, histogramThresholds);
+		if (!cache.containsKey(cachedFile))
 		{
 			try {
 				File cacheFileBasename = File.createTempFile(CACHE_FILE_PREFIX, CACHE_FILE_SUFFIX, CACHE_DIR); 
 
 				for (QCModule m : modules)
 				{
-					if (m instanceof JSONFileSerializable)
-					{
-						File moduleFile = new File(cacheFileBasename.getAbsolutePath() + m.getClass().getSimpleName());
-
-						fireCacheFileStartedEvent(listeners, m, moduleFile, SugarAnalysisListener.WRITING_FILE);
-						long startTime = System.currentTimeMillis();
-
-						((JSONFileSerializable) m).toJSONFile(moduleFile);					
-
-						long time = System.currentTimeMillis() - startTime;
-						fireCacheFileCompletedEvent(listeners, m, time, SugarAnalysisListener.WRITING_FILE);
-					}
+					writeModuleFile(cacheFileBasename, m, listeners);
+				}
+				synchronized (this) {
+					cache.put(cachedFile, cacheFileBasename);
+					cleanupCacheFolder();
+					//				toFile(CACHE_MAP_FILE, this);
+					toJSONFile(CACHE_MAP_FILE);
 				}
-				cache.put(new CachedFile(sequenceFile, matrixSize, qualityThreshold), cacheFileBasename);
-				cleanupCacheFolder();
-				//				toFile(CACHE_MAP_FILE, this);
-				toJSONFile(CACHE_MAP_FILE);
 			} catch (Exception e) {
 
 			}			
 		}
 	}
 	
+	/**
+	 * Several files can be analyzed at the same time, the map file is written by one thread at a time
+	 */
+	private synchronized void writeCacheMapFile() throws IOException {
+		toJSONFile(CACHE_MAP_FILE);
+	}
+	
 	public void cleanupCacheFolder() {
 
 		File cacheDir = getCACHE_DIR();
@@ -482,8 +555,9 @@ public class OpenedFileCache implements Serializable, JSONFileSerializable {
 		
 		for (CachedFile cachedFile : cache.keySet())
 		{
+			// the entries with the histograms are read only for their thresholds together
 			if (cachedFile.getFile().equals(selectedSequenceFile.getFile()) &&
-				cachedFile.getMatrixSize() == matrixSize)
+				cachedFile.getMatrixSize() == matrixSize && !cachedFile.hasHistograms())
 			{
 				result.add(cachedFile.getQualityThreshold());
 			}
@@ -0,0 +1,260 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.analysis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.csml.tommo.sugar.SugarApplication;
+import org.csml.tommo.sugar.modules.MappingQuality;
+import org.csml.tommo.sugar.modules.QualityHeatMapsPerTileAndBase;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import uk.ac.babraham.FastQC.Modules.QCModule;
+import uk.ac.babraham.FastQC.Sequence.SequenceFile;
+
+/**
+ * Class PartialResultFile
+ *
+ * The partial results of one shard of the input (e.g. a lane, a Casava chunk file) written by --partial.
+ *
+ * The file is a zip archive with a header (partial.json) and one entry per module, in the same format as the
+ * files of the OpenedFileCache: the raw counters of the QualityHeatMapsPerTileAndBase in the binary format,
+ * the TileTree (x-, y-ranges, lowest quality char) and the MappingQuality (sums and threshold tables) in JSON.
+ * All counters are additive, so the partial results can be merged by the PartialResultMerger.
+ *
+ */
+public class PartialResultFile {
+
+	public static final String PARTIAL_FILE_SUFFIX = ".partial";
+
+	private static final String HEADER_ENTRY = "partial.json";
+	private static final int VERSION = 1;
+
+	private static final String JSON_ATTR_VERSION = "version";
+	private static final String JSON_ATTR_NAME = "name";
+	private static final String JSON_ATTR_MAPPED = "mapped";
+	private static final String JSON_ATTR_MATRIX_SIZE = "matrixSize";
+	private static final String JSON_ATTR_QUALITY_THRESHOLDS = "qualityThresholds";
+
+	private File file;
+	private String name;
+	private boolean mapped;
+	private int matrixSize;
+	private Integer[] qualityThresholds;
+
+	/**
+	 * Opens the partial result file and reads its header, the modules are read by readModule()
+	 */
+	public PartialResultFile(File file) throws IOException, ParseException {
+		this.file = file;
+
+		ZipFile zipFile = new ZipFile(file);
+		try {
+			ZipEntry entry = zipFile.getEntry(HEADER_ENTRY);
+			if (entry == null)
+				throw new IOException(file.getName() + " is not a partial result file");
+
+			JSONObject header = (JSONObject) new JSONParser().parse(
+					new BufferedReader(new InputStreamReader(zipFile.getInputStream(entry), "UTF-8")));
+
+			int version = Integer.parseInt(header.get(JSON_ATTR_VERSION).toString());
+			if (version != VERSION)
+				throw new IOException("Unsupported version of the partial result file " + file.getName() + ": " + version);
+
+			name = header.get(JSON_ATTR_NAME).toString();
+			mapped = Boolean.TRUE.equals(header.get(JSON_ATTR_MAPPED));
+			matrixSize = Integer.parseInt(header.get(JSON_ATTR_MATRIX_SIZE).toString());
+
+			JSONArray thresholdArray = (JSONArray) header.get(JSON_ATTR_QUALITY_THRESHOLDS);
+			qualityThresholds = new Integer[thresholdArray.size()];
+			for (int i = 0; i < qualityThresholds.length; i++)
+				qualityThresholds[i] = Integer.parseInt(thresholdArray.get(i).toString());
+		}
+		finally {
+			zipFile.close();
+		}
+	}
+
+	/**
+	 * Writes the results of the modules (in the order of the SugarOfflineRunner: TileTree, QualityHeatMapsPerTileAndBase, MappingQuality)
+	 */
+	public static void write(File file, SequenceFile sequenceFile, QCModule[] modules) throws IOException {
+
+		QualityHeatMapsPerTileAndBase heatMap = SugarApplication.getQualityHeatmapModule(modules);
+		boolean mapped = false;
+		for (QCModule m : modules)
+		{
+			if (m instanceof MappingQuality)
+				mapped = ((MappingQuality) m).isActive();
+		}
+
+		JSONObject header = new JSONObject();
+		header.put(JSON_ATTR_VERSION, VERSION);
+		header.put(JSON_ATTR_NAME, sequenceFile.name());
+		header.put(JSON_ATTR_MAPPED, mapped);
+		header.put(JSON_ATTR_MATRIX_SIZE, heatMap.getMatrixSize());
+
+		JSONArray thresholdArray = new JSONArray();
+		for (Integer threshold : heatMap.getQualityThresholdArray())
+			thresholdArray.add(threshold);
+		header.put(JSON_ATTR_QUALITY_THRESHOLDS, thresholdArray);
+
+		ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			zip.putNextEntry(new ZipEntry(HEADER_ENTRY));
+			Writer writer = new OutputStreamWriter(zip, "UTF-8");
+			header.writeJSONString(writer);
+			writer.flush();
+			zip.closeEntry();
+
+			// the modules are serialized to a temporary file first - the binary format needs a file channel
+			File tempFile = File.createTempFile("sugar", PARTIAL_FILE_SUFFIX);
+			try {
+				for (QCModule m : modules)
+				{
+					if (m instanceof BinaryFileSerializable)
+						((BinaryFileSerializable) m).toBinaryFile(tempFile);
+					else if (m instanceof JSONFileSerializable)
+						((JSONFileSerializable) m).toJSONFile(tempFile);
+					else
+						continue;
+
+					zip.putNextEntry(new ZipEntry(getEntryName(m)));
+					copy(new FileInputStream(tempFile), zip);
+					zip.closeEntry();
+				}
+			}
+			finally {
+				tempFile.delete();
+			}
+		}
+		finally {
+			zip.close();
+		}
+	}
+
+	/**
+	 * Reads the results of the module from the partial result file.
+	 * The TileTree must be read before the modules which use it.
+	 */
+	public void readModule(QCModule module) throws IOException, ParseException {
+
+		ZipFile zipFile = new ZipFile(file);
+		try {
+			ZipEntry entry = zipFile.getEntry(getEntryName(module));
+			if (entry == null)
+				throw new IOException("Could not find the results of " + module.name() + " in " + file.getName());
+
+			File tempFile = File.createTempFile("sugar", PARTIAL_FILE_SUFFIX);
+			try {
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile));
+				try {
+					copy(zipFile.getInputStream(entry), out);
+				}
+				finally {
+					out.close();
+				}
+
+				if (module instanceof BinaryFileSerializable)
+					((BinaryFileSerializable) module).fromBinaryFile(tempFile);
+				else
+					((JSONFileSerializable) module).fromJSONFile(tempFile);
+			}
+			finally {
+				tempFile.delete();
+			}
+		}
+		finally {
+			zipFile.close();
+		}
+	}
+
+	private static String getEntryName(QCModule m) {
+		return m instanceof BinaryFileSerializable ?
+				m.getClass().getSimpleName() + BinaryFileSerializable.BINARY_FILE_SUFFIX :
+				m.getClass().getSimpleName();
+	}
+
+	/**
+	 * Copies the input stream and closes it, the output stream is left open
+	 */
+	private static void copy(InputStream in, OutputStream out) throws IOException {
+		InputStream input = new BufferedInputStream(in);
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			int n;
+			while ((n = input.read(buffer)) > 0)
+				out.write(buffer, 0, n);
+		}
+		finally {
+			input.close();
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @return the name of the sequence file of the shard
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return true, if the shard was a BAM/SAM file with the mapping quality
+	 */
+	public boolean isMapped() {
+		return mapped;
+	}
+
+	public int getMatrixSize() {
+		return matrixSize;
+	}
+
+	public Integer[] getQualityThresholds() {
+		return qualityThresholds;
+	}
+
+}
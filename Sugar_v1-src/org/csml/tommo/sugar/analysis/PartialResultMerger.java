@@ -0,0 +1,178 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.analysis;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SortedSet;
+
+import org.csml.tommo.sugar.modules.MappingQuality;
+import org.csml.tommo.sugar.modules.QualityHeatMapsPerTileAndBase;
+import org.csml.tommo.sugar.modules.TileTree;
+import org.csml.tommo.sugar.sequence.LaneCoordinates;
+import org.csml.tommo.sugar.sequence.TileCoordinates;
+import org.json.simple.parser.ParseException;
+
+import uk.ac.babraham.FastQC.Modules.QCModule;
+
+/**
+ * Class PartialResultMerger
+ *
+ * Merges the partial results of the shards of one input (--merge) into the modules of the SugarOfflineRunner.
+ * The merged modules have the same counters as if the whole input was processed in one pass.
+ *
+ * The partial files are read one at a time: the modules of the first file keep the merged results,
+ * the modules of the other files are merged (MergeableModule.merge) and dropped, so the memory
+ * does not grow with the number of the shards.
+ *
+ * The subtile of a read depends on the x-, y-range of its tile, so a tile found in several shards
+ * must have the same range in each of them: the shards are lanes or sets of tiles, or the shards, which split the tiles
+ * (byte ranges, Casava chunk files), are analysed with the same tile ranges (--write_tile_ranges, --tile_ranges).
+ * The quality scores must be decoded with the same Phred offset in all shards.
+ *
+ */
+public class PartialResultMerger {
+
+	private File file;
+	private MergedSequenceFile sequenceFile;
+	private Integer[] qualityThresholds;
+	private int matrixSize;
+
+	private TileTree tileTree;
+	private QualityHeatMapsPerTileAndBase heatMap;
+	private MappingQuality mappingQuality;
+
+	private int partialCount = 0;
+
+	/**
+	 * @param file - the name of the merged input, the report is named after it
+	 */
+	public PartialResultMerger(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Adds the partial results of one shard
+	 */
+	public void add(File file) throws IOException, ParseException {
+		PartialResultFile partial = new PartialResultFile(file);
+
+		if (partialCount == 0)
+		{
+			sequenceFile = new MergedSequenceFile(this.file, partial.isMapped());
+			qualityThresholds = partial.getQualityThresholds();
+			matrixSize = partial.getMatrixSize();
+
+			heatMap = new QualityHeatMapsPerTileAndBase(qualityThresholds);
+			tileTree = heatMap.getTileTree();
+			mappingQuality = new MappingQuality(tileTree, sequenceFile, matrixSize);
+			readModules(partial, tileTree, heatMap, mappingQuality);
+		}
+		else
+		{
+			checkSettings(partial);
+
+			QualityHeatMapsPerTileAndBase partialHeatMap = new QualityHeatMapsPerTileAndBase(qualityThresholds);
+			TileTree partialTileTree = partialHeatMap.getTileTree();
+			MappingQuality partialMappingQuality = new MappingQuality(partialTileTree, sequenceFile, matrixSize);
+			readModules(partial, partialTileTree, partialHeatMap, partialMappingQuality);
+
+			checkTileTree(partial, partialTileTree);
+
+			tileTree.merge(partialTileTree);
+			heatMap.merge(partialHeatMap);
+			mappingQuality.merge(partialMappingQuality);
+		}
+
+		partialCount++;
+	}
+
+	/**
+	 * @return the merged modules in the order of the SugarOfflineRunner
+	 */
+	public QCModule[] getModules() {
+		return new QCModule[] {tileTree, heatMap, mappingQuality};
+	}
+
+	public MergedSequenceFile getSequenceFile() {
+		return sequenceFile;
+	}
+
+	public int getPartialCount() {
+		return partialCount;
+	}
+
+	private void readModules(PartialResultFile partial, TileTree tileTree,
+			QualityHeatMapsPerTileAndBase heatMap, MappingQuality mappingQuality) throws IOException, ParseException {
+		partial.readModule(tileTree);
+		partial.readModule(heatMap);
+		partial.readModule(mappingQuality);
+	}
+
+	private void checkSettings(PartialResultFile partial) throws IOException {
+		String name = partial.getFile().getName();
+
+		if (partial.getMatrixSize() != matrixSize)
+			throw new IOException("The matrix size of " + name + " (" + partial.getMatrixSize() +
+					") differs from the other partial results (" + matrixSize + ")");
+
+		if (!Arrays.equals(partial.getQualityThresholds(), qualityThresholds))
+			throw new IOException("The quality thresholds of " + name + " " + Arrays.toString(partial.getQualityThresholds()) +
+					" differ from the other partial results " + Arrays.toString(qualityThresholds));
+
+		if (partial.isMapped() != sequenceFile.isMapped())
+			throw new IOException("The partial results of mapped and unmapped sequence files cannot be merged: " + name);
+	}
+
+	private void checkTileTree(PartialResultFile partial, TileTree partialTileTree) throws IOException {
+		String name = partial.getFile().getName();
+
+		if (tileTree.isProcessed() && partialTileTree.isProcessed() &&
+				tileTree.getPhredEncoding().offset() != partialTileTree.getPhredEncoding().offset())
+			throw new IOException("The quality encoding of " + name + " (" + partialTileTree.getPhredEncoding().name() +
+					") differs from the other partial results (" + tileTree.getPhredEncoding().name() + ")");
+
+		for (String flowCell : partialTileTree.getFlowCells())
+		{
+			for (Integer lane : partialTileTree.getLanes(flowCell))
+			{
+				SortedSet<Integer> tiles = partialTileTree.getTiles(new LaneCoordinates(flowCell, lane));
+				for (Integer tile : tiles)
+				{
+					TileCoordinates tileCoordinates = new TileCoordinates(flowCell, lane, tile);
+					Rectangle range = tileTree.getRange(tileCoordinates);
+					if (range != null && !range.equals(partialTileTree.getRange(tileCoordinates)))
+						throw new IOException("The tile " + tileCoordinates + " of " + name +
+								" has another x-, y-range than in the other partial results, so its subtiles differ. " +
+								"The shards, which split the tiles, must be analysed with the same --tile_ranges (written by --write_tile_ranges).");
+				}
+			}
+		}
+	}
+
+}
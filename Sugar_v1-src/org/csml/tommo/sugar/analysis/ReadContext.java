@@ -0,0 +1,238 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.analysis;
+
+import java.util.Arrays;
+
+import org.csml.tommo.sugar.sequence.BAMRecordReader;
+import org.csml.tommo.sugar.sequence.FastQShardReader;
+import org.csml.tommo.sugar.sequence.ReadNameParser;
+import org.csml.tommo.sugar.sequence.SAMInfo;
+import org.csml.tommo.sugar.sequence.TileCoordinates;
+
+import uk.ac.babraham.FastQC.Sequence.Sequence;
+
+/**
+ * Class ReadContext
+ *
+ * Keeps everything the analysis modules need from one read: the coordinates parsed from the id line,
+ * the tile, the raw quality characters and the mapping quality.
+ *
+ * The runner fills one context per read and passes it to all modules (ReadContextModule),
+ * so the id line is parsed only once per read. The context is reused for the next read.
+ *
+ * The tile coordinates are shared by all reads of the same tile - a new key is created only when the tile changes.
+ *
+ * The context can be filled from the record of the FastQShardReader (or of the BAMRecordReader) as well - 
+ * without the FastQC Sequence, for the modules which need only the coordinates and the qualities (RawReadModule).
+ *
+ */
+public class ReadContext {
+
+	public static final int NO_MAPPING_QUALITY = -1;
+
+	private final ReadNameParser parser = new ReadNameParser();
+
+	private Sequence sequence;
+	private TileCoordinates tileCoordinates;
+
+	private byte[] qualities = new byte[256];
+	private int qualityLength;
+	private int mappingQuality;
+	private boolean filtered;
+
+	public ReadContext() {
+	}
+
+	public ReadContext(Sequence sequence) {
+		set(sequence);
+	}
+
+	/**
+	 * set(Sequence sequence)
+	 *
+	 * @param sequence - the next read
+	 * @return true, if the coordinates were parsed from the id line, false otherwise
+	 */
+	public boolean set(Sequence sequence) {
+		return set(sequence, this);
+	}
+
+	/**
+	 * set(Sequence sequence, ReadContext previous)
+	 * 
+	 * The tile coordinates of the previous read are reused, if the read comes from the same tile
+	 *
+	 * @param sequence - the next read
+	 * @param previous - the context of the previous read or null
+	 * @return true, if the coordinates were parsed from the id line, false otherwise
+	 */
+	public boolean set(Sequence sequence, ReadContext previous) {
+		this.sequence = sequence;
+
+		String quality = sequence.getQualityString();
+		qualityLength = quality.length();
+		if (qualityLength > qualities.length)
+			qualities = Arrays.copyOf(qualities, Math.max(qualities.length * 2, qualityLength));
+		for (int i = 0; i < qualityLength; i++)
+			qualities[i] = (byte) quality.charAt(i);
+
+		mappingQuality = (sequence instanceof SAMInfo) ?
+				((SAMInfo) sequence).getMappingQuality() :
+				NO_MAPPING_QUALITY;
+		filtered = sequence.isFiltered();
+
+		return setTileCoordinates(parser.parse(sequence.getID()), previous);
+	}
+
+	/**
+	 * set(FastQShardReader reader, ReadContext previous)
+	 * 
+	 * Fills the context from the current record of the reader, the id line is parsed in place.
+	 * The context has no Sequence then.
+	 *
+	 * @param reader - the reader after nextRecord()
+	 * @param previous - the context of the previous read or null
+	 * @return true, if the coordinates were parsed from the id line, false otherwise
+	 */
+	public boolean set(FastQShardReader reader, ReadContext previous) {
+		this.sequence = null;
+
+		byte[] record = reader.getRecord();
+		qualityLength = reader.getQualityLength();
+		if (qualityLength > qualities.length)
+			qualities = Arrays.copyOf(qualities, Math.max(qualities.length * 2, qualityLength));
+		System.arraycopy(record, reader.getQualityOffset(), qualities, 0, qualityLength);
+
+		mappingQuality = NO_MAPPING_QUALITY;
+		filtered = reader.isFiltered();
+
+		return setTileCoordinates(parser.parse(record, reader.getIdOffset(), reader.getIdLength()), previous);
+	}
+
+	/**
+	 * set(BAMRecordReader reader, ReadContext previous)
+	 * 
+	 * Fills the context from the current record of the BAM reader, the read name is parsed in place.
+	 * The qualities are converted to the FASTQ characters in the order of the cycles (as by the BAMFile of FastQC).
+	 *
+	 * @param reader - the reader after nextRecord()
+	 * @param previous - the context of the previous read or null
+	 * @return true, if the coordinates were parsed from the read name, false otherwise
+	 */
+	public boolean set(BAMRecordReader reader, ReadContext previous) {
+		this.sequence = null;
+
+		qualityLength = reader.getQualityLength();
+		if (qualityLength > qualities.length)
+			qualities = Arrays.copyOf(qualities, Math.max(qualities.length * 2, qualityLength));
+		reader.getQualities(qualities);
+
+		mappingQuality = reader.getMappingQuality();
+		filtered = false;
+
+		return setTileCoordinates(parser.parse(reader.getRecord(), reader.getNameOffset(), reader.getNameLength()), previous);
+	}
+
+	private boolean setTileCoordinates(boolean parsed, ReadContext previous) {
+		if (!parsed)
+		{
+			tileCoordinates = null;
+			return false;
+		}
+
+		TileCoordinates previousTile = (previous != null) ? previous.tileCoordinates : null;
+		tileCoordinates = isSameTile(previousTile) ? 
+				previousTile : 
+				new TileCoordinates(parser.getFlowCell(), parser.getLane(), parser.getTile());
+
+		return true;
+	}
+
+	private boolean isSameTile(TileCoordinates tile) {
+		return tile != null &&
+				tile.getTile() == parser.getTile() &&
+				tile.getLane() == parser.getLane() &&
+				tile.getFlowCell().equals(parser.getFlowCell());
+	}
+
+	/**
+	 * @return the read or null, if the context was filled from the FastQShardReader
+	 */
+	public Sequence getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return true, if the read was filtered by Casava
+	 */
+	public boolean isFiltered() {
+		return filtered;
+	}
+
+	public TileCoordinates getTileCoordinates() {
+		return tileCoordinates;
+	}
+
+	public String getFlowCell() {
+		return parser.getFlowCell();
+	}
+
+	public int getLane() {
+		return parser.getLane();
+	}
+
+	public int getTile() {
+		return parser.getTile();
+	}
+
+	public int getX() {
+		return parser.getX();
+	}
+
+	public int getY() {
+		return parser.getY();
+	}
+
+	/**
+	 * @return the raw quality characters of the read, valid up to getQualityLength()
+	 */
+	public byte[] getQualities() {
+		return qualities;
+	}
+
+	public int getQualityLength() {
+		return qualityLength;
+	}
+
+	public int getMappingQuality() {
+		return mappingQuality;
+	}
+
+	public boolean hasMappingQuality() {
+		return mappingQuality != NO_MAPPING_QUALITY;
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.analysis;
+
+import java.io.IOException;
+
+import uk.ac.babraham.FastQC.Sequence.Sequence;
+import uk.ac.babraham.FastQC.Sequence.SequenceFormatException;
+
+/**
+ * Interface RecordSource
+ *
+ * The reads of one pass of the SugarAnalysisRunner (or of one shard of the ByteRangeAnalysis): the records of a FASTQ file
+ * (FastQRecordSource), of a BAM file (BAMRecordSource), of the chunks of a BAM preview (BAMPreviewSource) or the Sequences
+ * of the SequenceFile of FastQC (SequenceFileSource). The reads are sampled by the SampledReads.
+ *
+ * The records filtered by the BAMFile of FastQC are skipped by the source, the filtered FASTQ reads are passed on
+ * (ReadContext.isFiltered).
+ *
+ */
+public interface RecordSource {
+
+	/**
+	 * Moves to the next read
+	 *
+	 * @param skip - true, if the read is only skipped (it is not parsed, if the source can avoid it)
+	 * @return false at the end of the input
+	 * @throws SequenceFormatException - the read is broken, the source moves on with the next one
+	 * @throws IOException - the rest of the input can not be read
+	 */
+	boolean next(boolean skip) throws SequenceFormatException, IOException;
+
+	/**
+	 * Fills the context from the current read (not skipped)
+	 *
+	 * @return true, if the coordinates were parsed from the id line, false otherwise
+	 */
+	boolean setContext(ReadContext read);
+
+	/**
+	 * @return the FastQC Sequence of the current read, created on the first call; null, if the source passes on
+	 *         only the reads with the coordinates (BAMPreviewSource)
+	 */
+	Sequence getSequence();
+
+	/**
+	 * @return the byte offset in the file after the current read (the compressed bytes of a BAM file)
+	 */
+	long getPosition();
+
+	/**
+	 * @return the fraction of the input read so far
+	 */
+	double getReadFraction();
+
+	/**
+	 * @return true, if the source can move to any byte offset of the file (seek)
+	 */
+	boolean isSeekable();
+
+	/**
+	 * Moves to the first read after the byte offset
+	 */
+	void seek(long offset) throws IOException;
+
+	void close();
+
+}
@@ -0,0 +1,123 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.analysis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import uk.ac.babraham.FastQC.Sequence.SequenceFormatException;
+
+/**
+ * Class SampledReads
+ *
+ * Every 'readRate' read of a RecordSource - the one read loop of all passes of the SugarAnalysisRunner and of the shards
+ * of the ByteRangeAnalysis. The reads between the sampled ones are only skipped (RecordSource.next(true)).
+ *
+ * A broken read is reported (reportError) and passed over, the rest of the input is not read after a read error.
+ *
+ */
+public class SampledReads {
+
+	private final RecordSource source;
+	private final int readRate;
+	private final String name;
+	private final List<SequenceFormatException> formatErrors = new ArrayList<SequenceFormatException>();
+
+	private int seqCount = 0;
+
+	/**
+	 * @param name - the name of the input in the error messages
+	 */
+	public SampledReads(RecordSource source, int readRate, String name) {
+		this.source = source;
+		this.readRate = readRate;
+		this.name = name;
+	}
+
+	/**
+	 * Moves to the next sampled read
+	 *
+	 * @return false at the end of the input (or after a read error)
+	 */
+	public boolean next() {
+		while (true) {
+			// Read every 'readRate' sequence, the other records are only skipped
+			boolean sampled = seqCount % readRate == 0;
+			try {
+				if (!source.next(!sampled))
+					return false;
+			}
+			catch (SequenceFormatException e) {
+				reportError(e);
+				continue;
+			}
+			catch (IOException e) {
+				// the rest of the input is not read after a broken record
+				reportError(new SequenceFormatException("Failed to read " + name + ": " + e.getMessage()));
+				return false;
+			}
+
+			seqCount++;
+			if (sampled)
+				return true;
+		}
+	}
+
+	/**
+	 * Keeps the error for getFormatErrors, the runner reports it to its listeners instead
+	 */
+	protected void reportError(SequenceFormatException e) {
+		formatErrors.add(e);
+	}
+
+	/**
+	 * @return the source positioned at the current sampled read
+	 */
+	public RecordSource getSource() {
+		return source;
+	}
+
+	/**
+	 * @return the reads read or skipped so far
+	 */
+	public int getSeqCount() {
+		return seqCount;
+	}
+
+	public int getPercentComplete() {
+		return (int) (100 * source.getReadFraction());
+	}
+
+	public List<SequenceFormatException> getFormatErrors() {
+		return formatErrors;
+	}
+
+	public void close() {
+		source.close();
+	}
+
+}
@@ -0,0 +1,92 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.analysis;
+
+import uk.ac.babraham.FastQC.Sequence.Sequence;
+import uk.ac.babraham.FastQC.Sequence.SequenceFile;
+import uk.ac.babraham.FastQC.Sequence.SequenceFormatException;
+
+/**
+ * Class SequenceFileSource
+ *
+ * The reads of the SequenceFile of FastQC: the files, which can not be read by the FastQShardReader or by the BAMRecordReader
+ * (e.g. several files, the BAM files read by one thread). Every read is parsed, even if it is skipped.
+ *
+ */
+public class SequenceFileSource implements RecordSource {
+
+	private final SequenceFile file;
+
+	private Sequence sequence;
+
+	public SequenceFileSource(SequenceFile file) {
+		this.file = file;
+	}
+
+	@Override
+	public boolean next(boolean skip) throws SequenceFormatException {
+		sequence = null;
+		if (!file.hasNext())
+			return false;
+		sequence = file.next();
+		return true;
+	}
+
+	@Override
+	public boolean setContext(ReadContext read) {
+		return read.set(sequence);
+	}
+
+	@Override
+	public Sequence getSequence() {
+		return sequence;
+	}
+
+	@Override
+	public long getPosition() {
+		throw new UnsupportedOperationException("The position of " + file.name() + " is not known");
+	}
+
+	@Override
+	public double getReadFraction() {
+		return file.hasNext() ? file.getPercentComplete() / 100.0 : 1;
+	}
+
+	@Override
+	public boolean isSeekable() {
+		return false;
+	}
+
+	@Override
+	public void seek(long offset) {
+		throw new UnsupportedOperationException(file.name() + " can not be read from an offset");
+	}
+
+	@Override
+	public void close() {
+	}
+
+}
@@ -0,0 +1,168 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.analysis;
+
+import java.util.List;
+
+import uk.ac.babraham.FastQC.Modules.QCModule;
+
+/**
+ * Class StageTimer
+ *
+ * Measures the stages of the analysis of the reads (the parsing of the sequence and of the read name, each module) 
+ * for the SugarMetrics. Only one in SAMPLE_INTERVAL reads is timed, so System.nanoTime() is not called for every stage
+ * of every read. The calls are counted for all reads and the time of each stage is estimated from its timed calls.
+ * A timed read, which is preempted (or meets a GC pause), would count SAMPLE_INTERVAL times, so the estimates are scaled
+ * to the time elapsed since the timer was created: the timed reads are measured until the start of the next read,
+ * so the stages and the rest of the loop share the elapsed time (less the batches timed by addModuleTime).
+ *
+ * Nothing is timed, if the metrics are not enabled (--metrics).
+ *
+ * usage (for each read): startRead(), endParse(), endReadName(), endModule(m) for each module
+ *
+ */
+public class StageTimer {
+
+	public static final int SAMPLE_INTERVAL = 64;
+
+	private final boolean enabled;
+	private long reads = 0;
+	private boolean timing = false;
+	private long time;
+	private final long created;
+
+	private final Stage parse = new Stage();
+	private final Stage readName = new Stage();
+	private final Stage rest = new Stage();
+	private long batchNanos = 0;
+	private final Stage[] modules;
+
+	public StageTimer(int moduleCount) {
+		this(moduleCount, SugarMetrics.isEnabled());
+	}
+
+	public StageTimer(int moduleCount, boolean enabled) {
+		this.enabled = enabled;
+		this.created = enabled ? System.nanoTime() : 0;
+		this.modules = new Stage[moduleCount];
+		for (int m = 0; m < moduleCount; m++)
+			modules[m] = new Stage();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Starts the next read (before it is parsed)
+	 */
+	public void startRead() {
+		// the rest of the loop after the previous read
+		if (reads > 0)
+			end(rest);
+		timing = enabled && reads++ % SAMPLE_INTERVAL == 0;
+		if (timing)
+			time = System.nanoTime();
+	}
+
+	public void endParse() {
+		end(parse);
+	}
+
+	public void endReadName() {
+		end(readName);
+	}
+
+	public void endModule(int m) {
+		end(modules[m]);
+	}
+
+	/**
+	 * Adds the time of the module measured for a batch of the reads (e.g. the reads of a tile)
+	 */
+	public void addModuleTime(int m, long calls, long nanos) {
+		modules[m].calls += calls;
+		modules[m].timedCalls += calls;
+		modules[m].nanos += nanos;
+		modules[m].batch = true;
+		batchNanos += nanos;
+		// the batch is not a part of the rest of a timed read
+		time += nanos;
+	}
+
+	/**
+	 * Adds the estimated times to the metrics
+	 * 
+	 * @param moduleList - the modules in the order of the module indexes
+	 */
+	public void addTo(SugarMetrics metrics, List<? extends QCModule> moduleList) {
+		if (!enabled)
+			return;
+		
+		// the batches are measured, the estimates of the timed reads share the rest of the elapsed time
+		double estimated = parse.getEstimatedNanos() + readName.getEstimatedNanos() + rest.getEstimatedNanos();
+		for (Stage stage : modules)
+		{
+			if (!stage.batch)
+				estimated += stage.getEstimatedNanos();
+		}
+		double scale = estimated > 0 ? Math.max(0, System.nanoTime() - created - batchNanos) / estimated : 1;
+		
+		metrics.addParseTime(parse.getScaledNanos(scale), readName.getScaledNanos(scale));
+		for (int m = 0; m < modules.length; m++)
+		{
+			Stage stage = modules[m];
+			long nanos = stage.batch ? stage.nanos : stage.getScaledNanos(scale);
+			metrics.addModuleTime(moduleList.get(m), stage.calls, nanos);
+		}
+	}
+
+	private void end(Stage stage) {
+		stage.calls++;
+		if (timing)
+		{
+			long end = System.nanoTime();
+			stage.nanos += end - time;
+			stage.timedCalls++;
+			time = end;
+		}
+	}
+
+	private static class Stage {
+		long calls;
+		long timedCalls;
+		long nanos;
+		boolean batch;
+
+		double getEstimatedNanos() {
+			return timedCalls == 0 ? 0 : (double) nanos * calls / timedCalls;
+		}
+
+		long getScaledNanos(double scale) {
+			return (long) (getEstimatedNanos() * scale);
+		}
+	}
+}
@@ -0,0 +1,148 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.analysis;
+
+import java.awt.Rectangle;
+
+import org.csml.tommo.sugar.heatmap.SubtileBinner;
+import org.csml.tommo.sugar.modules.TileTree;
+import org.csml.tommo.sugar.sequence.TileIndex;
+
+/**
+ * Class SubtileSampler
+ *
+ * Selects the reads of the quick-look heatmaps (--cell_sample): at most readsPerCell reads are accepted
+ * in each subtile (the N x N cells of the heatmap of a tile), the later reads of a saturated cell are rejected.
+ * Unlike the read rate, the sample does not depend on the order of the reads, every subtile gets the same
+ * number of reads (if it has them).
+ *
+ * The tile ranges must be complete, so the sampler is used in the analysis pass after the TileTree pass.
+ *
+ */
+public class SubtileSampler {
+
+	private final TileTree tileTree;
+	private final TileIndex tileIndex;
+	private final int size;
+	private final int readsPerCell;
+	private final int tiles;
+
+	/**
+	 * the reads accepted in each cell of each tile (indexed by the tile ordinals), created with the first read of the tile
+	 */
+	private final int[][] cellReads;
+	private final SubtileBinner[] binners;
+	private final int[] saturatedCells;
+	private final int[] cells;
+
+	private int saturatedTiles = 0;
+	private int acceptedReads = 0;
+
+	public SubtileSampler(TileTree tileTree, int size, int readsPerCell) {
+		this.tileTree = tileTree;
+		this.tileIndex = tileTree.getTileIndex();
+		this.size = size;
+		this.readsPerCell = readsPerCell;
+		this.tiles = tileIndex.size();
+		this.cellReads = new int[tiles][];
+		this.binners = new SubtileBinner[tiles];
+		this.saturatedCells = new int[tiles];
+		this.cells = new int[tiles];
+	}
+
+	/**
+	 * @return true, if the cell of the read has less than readsPerCell reads, the read is counted in the cell
+	 */
+	public boolean accept(ReadContext read) {
+		int tile = getTile(read);
+		if (tile == TileIndex.NO_TILE)
+			return true;
+
+		int[] reads = cellReads[tile];
+		if (reads == null)
+			reads = createCells(tile);
+
+		SubtileBinner binner = binners[tile];
+		int cell = binner.binX(read.getX()) * size + binner.binY(read.getY());
+		if (cell < 0 || cell >= reads.length)
+			return true;
+		if (reads[cell] >= readsPerCell)
+			return false;
+
+		acceptedReads++;
+		if (++reads[cell] == readsPerCell && ++saturatedCells[tile] == cells[tile])
+			saturatedTiles++;
+		return true;
+	}
+
+	/**
+	 * @return the ordinal of the tile of the read or TileIndex.NO_TILE, if the tile is not in the TileTree
+	 */
+	public int getTile(ReadContext read) {
+		int tile = tileIndex.indexOf(read.getTileCoordinates());
+		return tile < tiles ? tile : TileIndex.NO_TILE;
+	}
+
+	/**
+	 * @return true, if all cells of the tile have readsPerCell reads
+	 */
+	public boolean isTileSaturated(int tile) {
+		return tile != TileIndex.NO_TILE && cellReads[tile] != null && saturatedCells[tile] == cells[tile];
+	}
+
+	/**
+	 * @return true, if all cells of all tiles have readsPerCell reads, the rest of the file can not change the heatmaps
+	 */
+	public boolean isSaturated() {
+		return saturatedTiles == tiles;
+	}
+
+	public int getAcceptedReads() {
+		return acceptedReads;
+	}
+
+	public int getReadsPerCell() {
+		return readsPerCell;
+	}
+
+	private int[] createCells(int tile) {
+		Rectangle range = tileTree.getRange(tile);
+		binners[tile] = new SubtileBinner(range, size);
+		cellReads[tile] = new int[size * size];
+
+		// a range narrower than the heatmap leaves some columns (rows) of the cells empty
+		cells[tile] = getCellCount(range.width + 1) * getCellCount(range.height + 1);
+		return cellReads[tile];
+	}
+
+	/**
+	 * @return the number of the cells, which the coordinates of a range of the length are binned to
+	 */
+	private int getCellCount(int length) {
+		return length <= 1 ? 1 : Math.min(length, size);
+	}
+
+}
@@ -28,21 +28,30 @@ package org.csml.tommo.sugar.analysis;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import org.csml.tommo.sugar.SugarApplication;
 import org.csml.tommo.sugar.dialogs.FileOptionsPanel;
 import org.csml.tommo.sugar.modules.ClearBasesInLowQClusters;
 import org.csml.tommo.sugar.modules.QualityHeatMapsPerTileAndBase;
+import org.csml.tommo.sugar.modules.ReadContextModule;
+import org.csml.tommo.sugar.modules.SinglePassModule;
 import org.csml.tommo.sugar.modules.SugarModule;
 import org.csml.tommo.sugar.modules.TileTree;
+import org.csml.tommo.sugar.sequence.BAMRecordReader;
+import org.csml.tommo.sugar.sequence.BGZFFastQFile;
+import org.csml.tommo.sugar.sequence.FastQShardReader;
+import org.csml.tommo.sugar.sequence.TileCoordinates;
+import org.csml.tommo.sugar.sequence.TileIndex;
 import org.csml.tommo.sugar.utils.Options;
 
 import uk.ac.babraham.FastQC.Analysis.AnalysisListener;
 import uk.ac.babraham.FastQC.Analysis.AnalysisRunner;
 import uk.ac.babraham.FastQC.Modules.QCModule;
-import uk.ac.babraham.FastQC.Sequence.Sequence;
 import uk.ac.babraham.FastQC.Sequence.SequenceFactory;
 import uk.ac.babraham.FastQC.Sequence.SequenceFile;
 import uk.ac.babraham.FastQC.Sequence.SequenceFormatException;
@@ -57,6 +66,39 @@ import uk.ac.babraham.FastQC.Sequence.SequenceFormatException;
  * 
  * This is useful, when one module depends on he results of another module - e.g. QualityHeatMap requires the TileTree
  *
+ * The id line of each read is parsed only once per pass and shared by the modules in the ReadContext.
+ * If all modules of a pass need only the ReadContext (RawReadModule), the reads of a FASTQ file are passed
+ * from the bytes of the FastQShardReader - no FastQC Sequence is created per read.
+ *
+ * Every pass reads its input from a RecordSource (a FASTQ or BAM file, the chunks of a BAM preview or the SequenceFile
+ * of FastQC) through the SampledReads, which skip the reads between the sampled ones (-r).
+ *
+ * With more than one thread (-t) each pass runs in the ModulePipeline. 
+ * With the shared accumulators the workers feed the same heatmaps (ConcurrentModule) instead of the partial modules.
+ * With the tile partitioning the reads are routed by tile to the workers (TilePartitionedPipeline).
+ * With the input sharding a single FASTQ file is split into byte ranges, which are read by the threads too (ByteRangeAnalysis).
+ * Otherwise the blocks of a bgzip compressed FASTQ file are inflated by the threads (BGZFFastQFile).
+ *
+ * In the single-pass mode the TileTree and the analysis modules are loaded in one pass:
+ * the reads are buffered per tile and passed to the modules as soon as the next tile starts.
+ * If the reads are not grouped by tile, the analysis modules are loaded in the second pass as before.
+ *
+ * With the cell sample (quick-look heatmaps) the analysis pass uses at most n reads per subtile (SubtileSampler) and stops,
+ * when all subtiles are saturated. In a plain or bgzip compressed FASTQ file sorted by tile, the rest of a saturated tile
+ * is skipped by seeking forward (skipTile). The seeking stops, as soon as a tile appears again after another tile
+ * (the reads are not grouped by tile). An indexed BAM file is read in turns from the chunks of its index (BAMChunkReader),
+ * so the sample is spread over the whole file.
+ *
+ * With the early termination (--converge) the analysis pass stops, when the low quality ratio of every subtile is known
+ * to be above or below the red threshold with the confidence shared by all subtiles (Bonferroni correction) and by all checks
+ * (alpha spending). The subtiles are checked every CONVERGENCE_CHECK_READS reads, each check resumes at the first 
+ * undecided subtiles of the last one.
+ *
+ * With the BAM preview both passes read only the chunks of a coordinate sorted BAM file found by its index (BAMPreview),
+ * the heatmaps are provisional.
+ *
+ * The throughput of each pass and the time of the parsing and of the modules are recorded in the SugarMetrics of the file.
+ *
  *
  */
 public class SugarAnalysisRunner extends AnalysisRunner {
@@ -70,6 +112,43 @@ public class SugarAnalysisRunner extends AnalysisRunner {
 	private int readRate;
 	private int matrixSize;
 	private int qualityThreshold;
+	private boolean singlePass;
+	private int threads;
+	private boolean sharedAccumulators;
+	private boolean tilePartitioning;
+	private boolean shardInput;
+	private int cellSample;
+	private double convergence;
+	private int bamPreviewReads;
+	private SugarMetrics metrics;
+	
+	/**
+	 * the tile ranges shared by the shards of an input (--tile_ranges) or null, if the ranges are found by the TileTree pass
+	 */
+	private File tileRanges;
+	
+	/**
+	 * The reads of the saturated tile after which the reader seeks for the next tile and the first step of the seek
+	 */
+	private static final int SEEK_AFTER_READS = 1000;
+	private static final long SEEK_STEP = 1 << 20;
+	
+	/**
+	 * selects the reads of the analysis pass with the cell sample, null otherwise
+	 */
+	private SubtileSampler sampler;
+	
+	private static final int CONVERGENCE_CHECK_READS = 50000;
+	
+	/**
+	 * the heatmaps checked by the early termination in the analysis pass, null otherwise 
+	 */
+	private QualityHeatMapsPerTileAndBase convergenceModule;
+	
+	/**
+	 * the chunks of the BAM preview or null, if the whole file is read
+	 */
+	private BAMPreview bamPreview;
 //	private Integer[] qualityThresholdArray;
 
 
@@ -77,6 +156,7 @@ public class SugarAnalysisRunner extends AnalysisRunner {
 		super(sequenceFile);
 		this.filesToProcess = filesToProcess;
 		this.qualityThreshold = threshold;
+		this.metrics = SugarMetrics.getMetrics(sequenceFile.getFile());
 		initOptions();
 	}
 
@@ -84,17 +164,58 @@ public class SugarAnalysisRunner extends AnalysisRunner {
 		useCache = !Options.getNoCache();
 		readRate = Options.getReadRate();
 		matrixSize = Options.getMatrixSize();
+		singlePass = Options.getSinglePass();
+		threads = Options.getThreads();
+		sharedAccumulators = Options.getSharedAccumulators();
+		tilePartitioning = Options.getTilePartitioning();
+		shardInput = Options.getShardInput();
+		cellSample = Options.getCellSample();
+		convergence = Options.getConvergence();
+		bamPreviewReads = Options.getBamPreview();
+		tileRanges = Options.getTileRanges();
 	}
 
 	public void initOptions(FileOptionsPanel optionsPanel) {
 		useCache = !optionsPanel.getNoCache();
 		readRate = optionsPanel.getReadRate();
 		matrixSize = optionsPanel.getMatrixSize();
+		singlePass = optionsPanel.getSinglePass();
+		threads = optionsPanel.getThreads();
+		sharedAccumulators = Options.getSharedAccumulators();
+		tilePartitioning = Options.getTilePartitioning();
+		shardInput = Options.getShardInput();
+		cellSample = Options.getCellSample();
+		convergence = Options.getConvergence();
+		bamPreviewReads = Options.getBamPreview();
+		tileRanges = Options.getTileRanges();
+	}
+
+	/**
+	 * Sets the number of threads of the ModulePipeline, 
+	 * e.g. when several files are processed at the same time
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Runs the analysis in the current thread, 
+	 * unlike startAnalysis() which leaves it to the AnalysisQueue
+	 */
+	public void runAnalysis(QCModule[] modules) {
+		this.modules = modules;
+		for (QCModule m : modules)
+			m.reset();
+		
+		run();
 	}
 
 	@Override
 	public void run() {
 		startTime = System.currentTimeMillis();
+		metrics.reset();
+		SugarMetrics.setCurrent(metrics);
+		
 		Iterator<AnalysisListener> i = listeners.iterator();
 		while (i.hasNext()) {
 			i.next().analysisStarted(file);
@@ -105,8 +226,10 @@ public class SugarAnalysisRunner extends AnalysisRunner {
 		}
 
 		// try to get results from cache
+		// #40: the modules with the quality histograms of several thresholds are cached separately
+		Integer[] histogramThresholds = getHistogramThresholds();
 		boolean modulesLoadedFromCache = useCache() ? 
-				OpenedFileCache.getInstance().readModulesFromCache(file.getFile(), modules, listeners, matrixSize, qualityThreshold) : 
+				OpenedFileCache.getInstance().readModulesFromCache(file.getFile(), modules, listeners, matrixSize, qualityThreshold, histogramThresholds) : 
 				false;
 
 		if (!modulesLoadedFromCache)
@@ -114,10 +237,18 @@ public class SugarAnalysisRunner extends AnalysisRunner {
 			loadModulesFromFile();			
 			
 			if (useCache())
-				OpenedFileCache.getInstance().writeModulesToCache(file.getFile(), modules, listeners, matrixSize, qualityThreshold);			
+				OpenedFileCache.getInstance().writeModulesToCache(file.getFile(), modules, listeners, matrixSize, qualityThreshold, histogramThresholds);			
 		} else {
 			percentComplete = (int) getPercentPerLoadFromCache();
 		}		
+		metrics.updatePeakMemory(Arrays.asList(modules));
+		
+		// the mean values replace the counters of the complete heatmaps
+		for (QCModule m : modules)
+		{
+			if (m instanceof QualityHeatMapsPerTileAndBase)
+				((QualityHeatMapsPerTileAndBase) m).compactCounters();
+		}
 		
 		if (Options.isDebug())
 		{
@@ -135,6 +266,8 @@ public class SugarAnalysisRunner extends AnalysisRunner {
 		}
 
 		
+		SugarMetrics.setCurrent(null);
+		
 		i = listeners.iterator();
 		while (i.hasNext()) {
 			i.next().analysisComplete(file,modules);
@@ -158,8 +291,20 @@ public class SugarAnalysisRunner extends AnalysisRunner {
 		modules = result;
 	}
 
+	/**
+	 * @return the thresholds of the quality histograms of the heatmap module or null
+	 */
+	private Integer[] getHistogramThresholds() {
+		for (QCModule m : modules)
+		{
+			if (m instanceof QualityHeatMapsPerTileAndBase)
+				return ((QualityHeatMapsPerTileAndBase) m).getHistogramThresholds();
+		}
+		return null;
+	}
+
 	private boolean useCache() {
-		return useCache && readRate == 1;
+		return useCache && readRate == 1 && cellSample == 0 && convergence == 0 && bamPreviewReads == 0 && tileRanges == null;
 	}
 
 	public double getPercentPerLoadFromCache() {
@@ -186,6 +331,28 @@ public class SugarAnalysisRunner extends AnalysisRunner {
 	
 	private void loadModulesFromFile() {		
 		
+		// the BAM preview reads only the chunks found by the index
+		bamPreview = (bamPreviewReads > 0 && filesToProcess.length == 1 && !isClearingLowQClusters()) ? 
+				BAMPreview.create(filesToProcess[0], bamPreviewReads) : 
+				null;
+		if (bamPreviewReads > 0 && bamPreview == null && !Options.isQuiet())
+			System.err.println("No BAM index found for " + file.name() + ", the whole file is read");
+		
+		// the shards bin the subtiles on the shared ranges, the TileTree only checks the reads in the analysis pass
+		if (tileRanges != null)
+		{
+			loadTileRanges();
+			runAnalysisModules();
+			return;
+		}
+		
+		// the cell sample needs the complete tile ranges of the first pass
+		if (singlePass && cellSample == 0 && bamPreview == null && isSinglePassSupported())
+		{
+			loadModulesInSinglePass();
+			return;
+		}
+		
 		// 1. Pre-processing
 		// first load the tilTree module
 		loadTileTreeModule();		
@@ -199,10 +366,26 @@ public class SugarAnalysisRunner extends AnalysisRunner {
 	private void runAnalysisModules() {
 		
 		List<QCModule> moduleList = new ArrayList<QCModule>();
-		for (int i = 1; i < modules.length; i++)
+		for (int i = ((TileTree) modules[0]).hasFixedRanges() ? 0 : 1; i < modules.length; i++)
 			moduleList.add(modules[i]);
-			
-		runModules(moduleList, percentComplete, getPercentPerAnalysisModules());
+		
+		if (cellSample > 0)
+			sampler = new SubtileSampler((TileTree) modules[0], matrixSize, cellSample);
+		if (convergence > 0)
+		{
+			for (QCModule m : moduleList)
+			{
+				if (m instanceof QualityHeatMapsPerTileAndBase && convergenceModule == null)
+					convergenceModule = (QualityHeatMapsPerTileAndBase) m;
+			}
+		}
+		try {
+			runModules(moduleList, percentComplete, getPercentPerAnalysisModules());
+		}
+		finally {
+			sampler = null;
+			convergenceModule = null;
+		}
 		
 	}
 
@@ -216,6 +399,167 @@ public class SugarAnalysisRunner extends AnalysisRunner {
 
 	}
 
+	private void loadTileRanges() {
+		TileTree tileTree = (TileTree) modules[0];
+		tileTree.reset();
+		try {
+			tileTree.fromJSONFile(tileRanges);
+		}
+		catch (Exception e) {
+			throw new IllegalStateException("Failed to read the tile ranges from " + tileRanges + ": " + e.getMessage(), e);
+		}
+		tileTree.setFixedRanges(true);
+		percentComplete = (int) getPercentPerTileTreeModule();
+	}
+
+	private boolean isSinglePassSupported() {
+		if (modules[0].ignoreFilteredSequences())
+			return false;
+		
+		for (int i = 1; i < modules.length; i++)
+		{
+			if (!(modules[i] instanceof SinglePassModule) || modules[i].ignoreFilteredSequences())
+				return false;
+		}
+		return true;
+	}
+
+	private void loadModulesInSinglePass() {
+		long passStartTime = System.currentTimeMillis();
+		
+		TileTree tileTree = (TileTree) modules[0];
+		List<SinglePassModule> moduleList = new ArrayList<SinglePassModule>();
+		for (int i = 1; i < modules.length; i++)
+			moduleList.add((SinglePassModule) modules[i]);
+
+		ReadContext read = new ReadContext();
+		TileReadBuffer buffer = new TileReadBuffer();
+		Set<TileCoordinates> flushedTiles = new HashSet<TileCoordinates>();
+		Set<Integer> encodingOffsets = new HashSet<Integer>();
+		boolean groupedByTile = true;
+		
+		// the tile tree is timed as the last module
+		List<QCModule> timedModules = new ArrayList<QCModule>(moduleList);
+		timedModules.add(tileTree);
+		int tileTreeIndex = moduleList.size();
+		StageTimer timer = new StageTimer(timedModules.size());
+		metrics.startPass();
+		
+		SampledReads reads = createSampledReads(createRecordSource(ModulePipeline.isRawReadSupported(moduleList)));
+		try {
+			while (true) {				
+				timer.startRead();
+				if (!reads.next())
+					break;
+				timer.endParse();
+
+				boolean hasContext = reads.getSource().setContext(read);
+				timer.endReadName();
+			
+				if (!hasContext)
+				{
+					tileTree.processSequence(reads.getSource().getSequence());
+					timer.endModule(tileTreeIndex);
+					continue;
+				}
+			
+				tileTree.processRead(read);
+				timer.endModule(tileTreeIndex);
+			
+				if (groupedByTile)
+				{
+					TileCoordinates tileCoordinates = read.getTileCoordinates();
+				
+					if (!tileCoordinates.equals(buffer.getTileCoordinates()))
+					{
+						// the tile is finished - its range is known now
+						if (buffer.getTileCoordinates() != null)
+						{
+							encodingOffsets.add(flushTileReads(buffer, moduleList, tileTree, timer));
+							flushedTiles.add(buffer.getTileCoordinates());
+						}
+					
+						// the tile appears again - the reads are not grouped by tile
+						if (flushedTiles.contains(tileCoordinates))
+							groupedByTile = false;
+					
+						buffer.clear(tileCoordinates);
+					}
+				
+					if (groupedByTile)
+						buffer.add(read);
+				}
+			
+				updateProgress(reads.getSeqCount(), reads.getPercentComplete(), 0, getPercentPerTileTreeModule());
+			}
+		}
+		finally {
+			reads.close();
+		}
+		int seqCount = reads.getSeqCount();
+		
+		if (groupedByTile && !buffer.isEmpty())
+			encodingOffsets.add(flushTileReads(buffer, moduleList, tileTree, timer));
+		
+		timer.addTo(metrics, timedModules);
+		metrics.endPass(Arrays.asList(modules), seqCount, getInputBytes());
+		
+		// the quality encoding guessed for the first tiles differs from the final one  
+		boolean encodingChanged = encodingOffsets.size() > 1 || 
+				(encodingOffsets.size() == 1 && !encodingOffsets.contains(tileTree.getPhredEncoding().offset()));
+		
+		int passes = 1;
+		long firstPassTime = System.currentTimeMillis() - passStartTime;
+		
+		if (!groupedByTile || encodingChanged)
+		{
+			passStartTime = System.currentTimeMillis();
+			
+			for (SinglePassModule m : moduleList)
+				m.reset();
+			
+			runAnalysisModules();
+			passes++;
+		}
+		else
+		{
+			percentComplete = (int) getPercentPerTileTreeModule() + (int) getPercentPerAnalysisModules();
+		}
+		
+		if (!Options.isQuiet())
+		{
+			String message = "File " + file.getFile().getName() + " analysed in " + passes + (passes == 1 ? " pass" : " passes") + 
+					" (1st pass: " + firstPassTime + " ms";
+			if (passes > 1)
+				message += ", 2nd pass: " + (System.currentTimeMillis() - passStartTime) + " ms, " +
+						(groupedByTile ? "quality encoding changed" : "reads not grouped by tile");
+			System.out.println(message + ")");
+		}
+	}
+
+	/**
+	 * Passes the buffered reads of one tile to the analysis modules 
+	 * 
+	 * @param timer - the time spent in each module (once per tile) and the number of reads are added here
+	 * @return the offset of the quality encoding used for the tile
+	 */
+	private int flushTileReads(TileReadBuffer buffer, List<SinglePassModule> moduleList, TileTree tileTree, StageTimer timer) {
+		long time = timer.isEnabled() ? System.nanoTime() : 0;
+		for (int m = 0; m < moduleList.size(); m++)
+		{
+			moduleList.get(m).processTileReads(buffer);
+			
+			if (timer.isEnabled())
+			{
+				long end = System.nanoTime();
+				timer.addModuleTime(m, buffer.size(), end - time);
+				time = end;
+			}
+		}
+		
+		return tileTree.getPhredEncoding().offset();
+	}
+
 	private void clearLowQClusters() {
 
 		try {
@@ -257,71 +601,344 @@ public class SugarAnalysisRunner extends AnalysisRunner {
 
 
 	public void runModules(List<QCModule> moduleList, double percentStart, double percentForRun) {
-		Iterator<AnalysisListener> i;
+		if (bamPreview != null && ModulePipeline.isRawReadSupported(moduleList))
+		{
+			runModulesOnBAMPreview(moduleList, percentStart, percentForRun);
+			return;
+		}
+		
+		// the sampled reads depend on the order of the reads, so they are read by one thread
+		boolean parallel = threads > 1 && sampler == null && convergenceModule == null;
+		
+		if (parallel && shardInput && ByteRangeAnalysis.isSupported(filesToProcess, moduleList))
+		{
+			runModulesInShards(moduleList, percentStart, percentForRun);
+			return;
+		}
+		
+		RecordSource source = createRecordSource(ModulePipeline.isRawReadSupported(moduleList));
+		
+		// the blocks of a BAM file are inflated by the threads, the modules run in this thread
+		if (parallel && !(source instanceof BAMRecordSource))
+		{
+			runModulesInPipeline(moduleList, createSampledReads(source), percentStart, percentForRun);
+			return;
+		}
+		
+		runModulesOnReads(moduleList, createSampledReads(source), percentStart, percentForRun);
+	}
+
+	/**
+	 * Passes the sampled reads to the modules in this thread, the loop of all passes without the pipeline and the shards.
+	 * With the --cell_sample the reads of the saturated subtiles are not used and the saturated tiles of a FASTQ file 
+	 * sorted by tile are skipped (skipTile), with the --converge the pass stops, when the subtiles are decided.
+	 * 
+	 * @return the number of the reads passed to the modules
+	 */
+	private long runModulesOnReads(List<QCModule> moduleList, SampledReads reads, double percentStart, double percentForRun) {
+		RecordSource source = reads.getSource();
+		
+		// the context is filled only if at least one module can use it
+		ReadContext read = null;
+		for (QCModule m : moduleList) {
+			if (m instanceof ReadContextModule)
+				read = new ReadContext();
+		}
+		
+		StageTimer timer = new StageTimer(moduleList.size());
+		metrics.startPass();
+		
+		boolean seekable = sampler != null && source.isSeekable();
+		int saturatedTile = TileIndex.NO_TILE;
+		int saturatedReads = 0;
+		int currentTile = TileIndex.NO_TILE;
+		Set<Integer> finishedTiles = new HashSet<Integer>();
+		long processedReads = 0;
+		double readFraction = 1;
+		try {
+			while (sampler == null || !sampler.isSaturated()) {
+				timer.startRead();
+				if (!reads.next())
+					break;
+				timer.endParse();
+	
+				// parse the read only once for all modules
+				boolean hasContext = read != null && source.setContext(read);
+				timer.endReadName();
 				
-		resetSequenceFile();
-		int seqCount = 0;
-		while (file.hasNext()) {				
-			Sequence seq;
-			try {
-				seq = file.next();
-			}
-			catch (SequenceFormatException e) {
-				i = listeners.iterator();
-				while (i.hasNext()) {
-					i.next().analysisExceptionReceived(file,e);
+				// the reads without the coordinates are not used by the BAM preview
+				if (!hasContext && source.getSequence() == null)
+					continue;
+				
+				if (seekable && hasContext)
+				{
+					int tile = sampler.getTile(read);
+					if (tile != currentTile)
+					{
+						// the tile appears again - the reads are not grouped by tile, a skip could miss the reads of other tiles
+						if (currentTile != TileIndex.NO_TILE)
+							finishedTiles.add(currentTile);
+						if (finishedTiles.contains(tile))
+							seekable = false;
+						currentTile = tile;
+					}
 				}
-				continue;
+				
+				// the reads of the saturated subtiles are not used
+				if (sampler != null && hasContext && !sampler.accept(read))
+				{
+					// a long run of the reads of a saturated tile - the file is sorted by tile
+					int tile = sampler.getTile(read);
+					saturatedReads = (tile == saturatedTile) ? saturatedReads + 1 : 0;
+					saturatedTile = tile;
+					if (seekable && saturatedReads >= SEEK_AFTER_READS && sampler.isTileSaturated(tile))
+					{
+						skipTile(source, tile);
+						saturatedReads = 0;
+					}
+					continue;
+				}
+				saturatedTile = TileIndex.NO_TILE;
+				
+				boolean filtered = (read != null) ? read.isFiltered() : source.getSequence().isFiltered();
+				for (int m = 0; m < moduleList.size(); m++) {
+					QCModule module = moduleList.get(m);
+					if (filtered && module.ignoreFilteredSequences()) continue;
+					if (hasContext && module instanceof ReadContextModule)
+						((ReadContextModule) module).processRead(read);
+					else
+						module.processSequence(source.getSequence());
+					timer.endModule(m);
+				}
+	
+				updateProgress(reads.getSeqCount(), reads.getPercentComplete(), percentStart, percentForRun);
+				
+				if (isConverged(++processedReads))
+					break;
 			}
+			readFraction = source.getReadFraction();
+		}
+		catch (IOException e) {
+			SugarApplication.showException(e, "Failed to read " + filesToProcess[0].getName());
+		}
+		finally {
+			reads.close();
+		}
+		recordConvergence(readFraction);
+		
+		timer.addTo(metrics, moduleList);
+		metrics.endPass(moduleList, reads.getSeqCount(), getInputBytes());
+		
+		percentComplete = (int) percentStart + (int) percentForRun;
+		return processedReads;
+	}
 
-			// Read every 'readRate' sequence
-			if (seqCount++ % readRate != 0)
-				continue;
+	/**
+	 * The same as runModules, but only the chunks of the BAM preview are read (BAMPreviewSource).
+	 */
+	private void runModulesOnBAMPreview(List<QCModule> moduleList, double percentStart, double percentForRun) {
+		RecordSource source;
+		try {
+			source = new BAMPreviewSource(bamPreview);
+		}
+		catch (IOException e) {
+			SugarApplication.showException(e, "Failed to read " + bamPreview.getFile().getName());
+			percentComplete = (int) percentStart + (int) percentForRun;
+			return;
+		}
+		
+		long previewReads = runModulesOnReads(moduleList, createSampledReads(source), percentStart, percentForRun);
+		
+		for (QCModule m : moduleList) {
+			if (m instanceof QualityHeatMapsPerTileAndBase)
+				((QualityHeatMapsPerTileAndBase) m).setPreview((int) previewReads, bamPreview.getChunkCount());
+		}
+	}
 
-			// loop over all other modules
-			for (QCModule m : moduleList) {
-				if (seq.isFiltered() && m.ignoreFilteredSequences()) continue;
-				m.processSequence(seq);
+	/**
+	 * @return true, if the subtiles of the early termination are decided (checked every CONVERGENCE_CHECK_READS reads)
+	 */
+	private boolean isConverged(long processedReads) {
+		return convergenceModule != null && processedReads % CONVERGENCE_CHECK_READS == 0 && 
+				convergenceModule.isDecided(convergence);
+	}
+
+	/**
+	 * Records the fraction of the file read and of the decided subtiles for the report of the early termination
+	 */
+	private void recordConvergence(double readFraction) {
+		if (convergenceModule != null)
+			convergenceModule.setConvergence(readFraction, convergence, convergenceModule.getDecidedFraction(convergence));
+	}
+
+	/**
+	 * Skips the rest of a saturated tile of a file sorted by tile: the reader moves forward by doubling steps,
+	 * while the first reads after the step and after the middle of the step are still in the tile. The end of the tile 
+	 * is then narrowed down by bisection to SEEK_STEP bytes, the reads before the next tile are read as before.
+	 * 
+	 * The input must be sorted by tile: a step over the reads of other tiles to a later run of the same tile is caught 
+	 * only if the middle of the step falls into the other tiles. The caller stops seeking, when a tile appears again.
+	 * 
+	 * The source is moved only if the tile does not end in the next step.
+	 */
+	private void skipTile(RecordSource source, int tile) throws IOException {
+		File inputFile = filesToProcess[0];
+		long inputSize = inputFile.length();
+		ReadContext probe = new ReadContext();
+		
+		// 'from' is always an offset of a read of the tile, 'to' of a read after the tile
+		long from = source.getPosition();
+		long to = inputSize;
+		long step = SEEK_STEP;
+		while (from + step < inputSize)
+		{
+			if (!isTileAt(inputFile, from + step, tile, probe))
+			{
+				to = from + step;
+				break;
 			}
+			if (!isTileAt(inputFile, from + step / 2, tile, probe))
+			{
+				to = from + step / 2;
+				break;
+			}
+			from += step;
+			step *= 2;
+		}
+		if (from == source.getPosition())
+			return;
+		
+		while (to - from > SEEK_STEP)
+		{
+			long middle = from + (to - from) / 2;
+			if (isTileAt(inputFile, middle, tile, probe))
+				from = middle;
+			else
+				to = middle;
+		}
+		
+		source.seek(from);
+	}
 
-			int percent = file.getPercentComplete();
-			double percentOfFile = (double) percent / (double) 100; 
-			double percentTotalInDouble = percentStart + percentForRun*percentOfFile;
-			int percentTotal = (int) (percentTotalInDouble);
-			long currentTime = System.currentTimeMillis();
+	/**
+	 * @return true, if the first read after the offset is a read of the tile
+	 */
+	private boolean isTileAt(File inputFile, long offset, int tile, ReadContext probe) throws IOException {
+		FastQShardReader reader = new FastQShardReader(inputFile, file, offset, inputFile.length());
+		try {
+			return reader.nextRecord() && probe.set(reader, null) && sampler.getTile(probe) == tile;
+		}
+		finally {
+			reader.close();
+		}
+	}
 
-			// update time labels after each second
-			// display the estimated, if at least 1% of the file was read 
-			if(currentTime - startTime - timeConsumed >= 1000 && percent >= 1) {
-				timeConsumed = (currentTime - startTime);				
-				long timeRemaining = (long)(timeConsumed * (100 - percentTotalInDouble) / percentTotalInDouble);
+	/**
+	 * The same as runModules, but the reads are processed by the worker threads of the ModulePipeline (or of the TilePartitionedPipeline)
+	 */
+	private void runModulesInPipeline(List<QCModule> moduleList, SampledReads reads, double percentStart, double percentForRun) {
+		ReadPipeline pipeline = (tilePartitioning && TilePartitionedPipeline.isSupported(moduleList)) ?
+				new TilePartitionedPipeline(moduleList, threads) :
+				new ModulePipeline(moduleList, threads, sharedAccumulators);
+		pipeline.start();
+		
+		StageTimer timer = new StageTimer(0);
+		metrics.startPass();
+		
+		try {
+			while (true) {				
+				timer.startRead();
+				if (!reads.next())
+					break;
+				timer.endParse();
+	
+				pipeline.add(reads.getSource().getSequence());
+	
+				updateProgress(reads.getSeqCount(), reads.getPercentComplete(), percentStart, percentForRun);
+			}
+		}
+		finally {
+			reads.close();
+			pipeline.finish();
+		}
+		
+		timer.addTo(metrics, moduleList);
+		metrics.endPass(moduleList, reads.getSeqCount(), getInputBytes());
+		
+		percentComplete = (int) percentStart + (int) percentForRun;
+	}
 
-				i = listeners.iterator();
-				while (i.hasNext()) {
-					AnalysisListener listener = i.next();
-					if(listener instanceof SugarAnalysisListener){
-						((SugarAnalysisListener) listener).analysisTimeUpdated(timeConsumed / 1000, timeRemaining / 1000);
-					}
+	/**
+	 * The same as runModules, but the file is split into byte ranges, which are read and processed by the threads of the ByteRangeAnalysis
+	 */
+	private void runModulesInShards(List<QCModule> moduleList, double percentStart, double percentForRun) {
+		Iterator<AnalysisListener> i;
+		
+		metrics.startPass();
+		
+		ByteRangeAnalysis analysis = new ByteRangeAnalysis(filesToProcess[0], file, moduleList, threads, readRate);
+		analysis.start();
+		try {
+			while (!analysis.await(100))
+				updateProgress(analysis.getReadCount(), analysis.getPercentComplete(), percentStart, percentForRun);
+		}
+		finally {
+			analysis.finish();
+		}
+		
+		for (SequenceFormatException e : analysis.getFormatErrors()) {
+			i = listeners.iterator();
+			while (i.hasNext()) {
+				i.next().analysisExceptionReceived(file,e);
+			}
+		}
+		
+		metrics.endPass(moduleList, analysis.getReadCount(), getInputBytes());
+		
+		percentComplete = (int) percentStart + (int) percentForRun;
+	}
+
+	private void updateProgress(int seqCount, int percent, double percentStart, double percentForRun) {
+		Iterator<AnalysisListener> i;
+		
+		metrics.updatePassReads(seqCount);
+		
+		double percentOfFile = (double) percent / (double) 100; 
+		double percentTotalInDouble = percentStart + percentForRun*percentOfFile;
+		int percentTotal = (int) (percentTotalInDouble);
+		long currentTime = System.currentTimeMillis();
+
+		// update time labels after each second
+		// display the estimated, if at least 1% of the file was read 
+		if(currentTime - startTime - timeConsumed >= 1000 && percent >= 1) {
+			timeConsumed = (currentTime - startTime);				
+			metrics.updatePeakHeap();
+			long timeRemaining = (long)(timeConsumed * (100 - percentTotalInDouble) / percentTotalInDouble);
+
+			i = listeners.iterator();
+			while (i.hasNext()) {
+				AnalysisListener listener = i.next();
+				if(listener instanceof SugarAnalysisListener){
+					((SugarAnalysisListener) listener).analysisTimeUpdated(timeConsumed / 1000, timeRemaining / 1000);
 				}
 			}
+		}
 
 
-			if (percentTotal >= percentComplete+5) {
+		if (percentTotal >= percentComplete+5) {
 
-				percentComplete = percentTotal;
+			percentComplete = percentTotal;
 
-				i = listeners.iterator();
-				while (i.hasNext()) {
-					AnalysisListener listener = i.next();
-					listener.analysisUpdated(file, seqCount, percentComplete);
-				}
-				try {
-					Thread.sleep(10);
-				} 
-				catch (InterruptedException e) {}
+			i = listeners.iterator();
+			while (i.hasNext()) {
+				AnalysisListener listener = i.next();
+				listener.analysisUpdated(file, seqCount, percentComplete);
 			}
+			try {
+				Thread.sleep(10);
+			} 
+			catch (InterruptedException e) {}
 		}
-		percentComplete = (int) percentStart + (int) percentForRun;
 	}
 
 	private List<QCModule> removeProcessedModules(List<QCModule> moduleList) {
@@ -344,8 +961,24 @@ public class SugarAnalysisRunner extends AnalysisRunner {
 		return result;
 	}
 
+	/**
+	 * @return the size of the sequence files read by each pass
+	 */
+	private long getInputBytes() {
+		long result = 0;
+		for (File f : filesToProcess)
+			result += f.length();
+		return result;
+	}
+
 	private void resetSequenceFile() {
 		try {
+			if (threads > 1 && filesToProcess.length == 1 && BGZFFastQFile.isSupported(filesToProcess[0]))
+			{
+				file = new BGZFFastQFile(filesToProcess[0], threads);
+				return;
+			}
+			
 			file = (filesToProcess.length > 1) ?
 				SequenceFactory.getSequenceFile(filesToProcess) : 
 				SequenceFactory.getSequenceFile(filesToProcess[0]);
@@ -367,4 +1000,46 @@ public class SugarAnalysisRunner extends AnalysisRunner {
 		this.clearBasesInLowQClustersModule = clearBasesInLowQClustersModule;
 	}
 	
+	/**
+	 * Opens the reads of the next pass. A single FASTQ (or BAM) file is read by the FastQRecordSource (or the BAMRecordSource),
+	 * the reads between the sampled ones are skipped without parsing them and the FastQC Sequence is created only when a module needs it.
+	 * Other files are read by the SequenceFile. With one thread a BAM file is read by the SequenceFile (the BAMFile of FastQC),
+	 * unless its chunks are sampled (--cell_sample); its records are filtered the same way.
+	 * 
+	 * @param rawReads - true, if the reads may be read without the SequenceFile (ModulePipeline.isRawReadSupported)
+	 */
+	private RecordSource createRecordSource(boolean rawReads) {
+		resetSequenceFile();
+		
+		File inputFile = filesToProcess[0];
+		if (rawReads && filesToProcess.length == 1)
+		{
+			try {
+				if (FastQShardReader.isReadable(inputFile))
+					return new FastQRecordSource(inputFile, file, 0, inputFile.length(), threads);
+				if ((threads > 1 || sampler != null) && BAMRecordReader.isReadable(inputFile))
+					return new BAMRecordSource(inputFile, file, threads, sampler != null);
+			}
+			catch (IOException e) {
+				// the SequenceFile reports the error
+			}
+		}
+		return new SequenceFileSource(file);
+	}
+	
+	/**
+	 * @return every 'readRate' read of the source, the broken reads are reported to the listeners
+	 */
+	private SampledReads createSampledReads(RecordSource source) {
+		return new SampledReads(source, readRate, file.name()) {
+			@Override
+			protected void reportError(SequenceFormatException e) {
+				Iterator<AnalysisListener> i = listeners.iterator();
+				while (i.hasNext()) {
+					i.next().analysisExceptionReceived(file,e);
+				}
+			}
+		};
+	}
+	
 }
@@ -0,0 +1,425 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.analysis;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.csml.tommo.sugar.modules.QualityHeatMapsPerTileAndBase;
+import org.csml.tommo.sugar.sequence.LaneCoordinates;
+import org.csml.tommo.sugar.utils.Options;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+
+import uk.ac.babraham.FastQC.Modules.QCModule;
+
+/**
+ * Class SugarMetrics
+ * 
+ * The throughput and latency of the analysis stages of one sequence file:
+ * the reads/s and bytes/s of each pass over the file, the time spent in the modules,
+ * the time of parsing the sequences and the read names, the cache read/write time of each module,
+ * the report rendering time of each lane and the peak memory of the quality counters.
+ * 
+ * The metrics are collected only with --metrics (see isEnabled), they are registered as a JMX MBean 
+ * (org.csml.tommo.sugar:type=Metrics,file=...) and written to the report archive as sugar_metrics.json.
+ * 
+ * The module times are measured by the serial runs only - in the ModulePipeline the modules run 
+ * in the worker threads and only the pass throughput and the parse time are recorded.
+ * The times of the stages of the reads are estimated from a sample of the reads (see StageTimer).
+ *
+ */
+public class SugarMetrics implements SugarMetricsMBean {
+
+	public static final String METRICS_FILE_NAME = "sugar_metrics.json";
+	
+	public static final String MBEAN_DOMAIN = "org.csml.tommo.sugar";
+
+	private static final Map<String, SugarMetrics> instances = new HashMap<String, SugarMetrics>();
+
+	/**
+	 * the metrics of the analysis or report running in the current thread
+	 */
+	private static final ThreadLocal<SugarMetrics> current = new ThreadLocal<SugarMetrics>();
+
+	private String fileName;
+
+	private List<Pass> passes = new ArrayList<Pass>();
+	private Map<String, ModuleMetrics> moduleMetrics = new LinkedHashMap<String, ModuleMetrics>();
+	private Map<String, Long> reportTimes = new LinkedHashMap<String, Long>();
+	
+	private long parseNanos;
+	private long readNameParseNanos;
+	private long peakAccumulatorBytes;
+	private long peakHeapBytes;
+
+	// the running pass
+	private volatile boolean passRunning;
+	private volatile long passStartTime;
+	private volatile long passReads;
+	
+	private SugarMetrics(String fileName) {
+		this.fileName = fileName;
+	}
+
+	/**
+	 * @return the metrics of the sequence file, registered as a MBean on the first call 
+	 */
+	public static synchronized SugarMetrics getMetrics(File file) {
+		String fileName = file.getAbsolutePath();
+		SugarMetrics result = instances.get(fileName);
+		if (result == null)
+		{
+			result = new SugarMetrics(fileName);
+			instances.put(fileName, result);
+			result.register();
+		}
+		return result;
+	}
+
+	/**
+	 * @return true, if the metrics are collected (--metrics)
+	 */
+	public static boolean isEnabled() {
+		return Options.getMetrics();
+	}
+
+	public static SugarMetrics getCurrent() {
+		return current.get();
+	}
+
+	public static void setCurrent(SugarMetrics metrics) {
+		current.set(metrics);
+	}
+
+	/**
+	 * Makes the metrics of the file current for the report written in this thread 
+	 * and clears the report times of the previous report
+	 */
+	public static SugarMetrics startReport(File file) {
+		SugarMetrics metrics = getMetrics(file);
+		synchronized (metrics) {
+			metrics.reportTimes.clear();
+		}
+		setCurrent(metrics);
+		return metrics;
+	}
+
+	private void register() {
+		if (!isEnabled())
+			return;
+		
+		try {
+			ObjectName name = new ObjectName(MBEAN_DOMAIN + ":type=Metrics,file=" + ObjectName.quote(fileName));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+		} catch (JMException e) {
+			// the metrics are still written to the report
+			if (Options.isDebug())
+				e.printStackTrace();
+		}
+	}
+
+	// recording
+
+	public void startPass() {
+		passReads = 0;
+		passStartTime = System.currentTimeMillis();
+		passRunning = true;
+	}
+	
+	/**
+	 * Updates the number of reads of the running pass - called for each read
+	 */
+	public void updatePassReads(long reads) {
+		passReads = reads;
+	}
+
+	/**
+	 * @param bytes - the size of the sequence files read by the pass
+	 */
+	public synchronized void endPass(List<? extends QCModule> moduleList, long reads, long bytes) {
+		Pass pass = new Pass();
+		for (QCModule m : moduleList)
+			pass.modules.add(m.name());
+		pass.reads = reads;
+		pass.bytes = bytes;
+		pass.time = System.currentTimeMillis() - passStartTime;
+		passes.add(pass);
+		passReads = reads;
+		passRunning = false;
+		
+		updatePeakMemory(moduleList);
+	}
+	
+	public synchronized void addModuleTime(QCModule m, long calls, long nanos) {
+		ModuleMetrics metrics = getModuleMetrics(m);
+		metrics.calls += calls;
+		metrics.nanos += nanos;
+	}
+
+	public synchronized void addParseTime(long sequenceNanos, long readNameNanos) {
+		parseNanos += sequenceNanos;
+		readNameParseNanos += readNameNanos;
+	}
+
+	public synchronized void addCacheTime(QCModule m, long time, int operation) {
+		ModuleMetrics metrics = getModuleMetrics(m);
+		if (operation == SugarAnalysisListener.READING_FILE)
+			metrics.cacheReadTime += time;
+		else
+			metrics.cacheWriteTime += time;
+	}
+
+	public synchronized void addReportTime(QCModule m, LaneCoordinates laneCoordinates, long time) {
+		String key = m.name() + " [" + laneCoordinates.getFlowCell() + "_" + laneCoordinates.getLane() + "]";
+		Long previous = reportTimes.get(key);
+		reportTimes.put(key, previous == null ? time : previous + time);
+	}
+
+	/**
+	 * Records the cache read/write time in the metrics of the current thread (if any)
+	 */
+	public static void recordCacheTime(QCModule m, long time, int operation) {
+		SugarMetrics metrics = getCurrent();
+		if (metrics != null)
+			metrics.addCacheTime(m, time, operation);
+	}
+
+	/**
+	 * Records the rendering time of one lane in the metrics of the report written in the current thread (if any)
+	 */
+	public static void recordReportTime(QCModule m, LaneCoordinates laneCoordinates, long time) {
+		SugarMetrics metrics = getCurrent();
+		if (metrics != null)
+			metrics.addReportTime(m, laneCoordinates, time);
+	}
+
+	/**
+	 * Samples the used heap - cheap enough to be called once per second
+	 */
+	public synchronized void updatePeakHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		peakHeapBytes = Math.max(peakHeapBytes, runtime.totalMemory() - runtime.freeMemory());
+	}
+
+	public synchronized void updatePeakMemory(List<? extends QCModule> moduleList) {
+		long accumulatorBytes = 0;
+		for (QCModule m : moduleList)
+		{
+			if (m instanceof QualityHeatMapsPerTileAndBase)
+				accumulatorBytes += ((QualityHeatMapsPerTileAndBase) m).getAccumulatorBytes();
+		}
+		peakAccumulatorBytes = Math.max(peakAccumulatorBytes, accumulatorBytes);
+		updatePeakHeap();
+	}
+
+	private ModuleMetrics getModuleMetrics(QCModule m) {
+		ModuleMetrics result = moduleMetrics.get(m.name());
+		if (result == null)
+		{
+			result = new ModuleMetrics();
+			moduleMetrics.put(m.name(), result);
+		}
+		return result;
+	}
+
+	// SugarMetricsMBean
+
+	@Override
+	public String getFileName() {
+		return fileName;
+	}
+
+	@Override
+	public synchronized int getPassCount() {
+		return passes.size();
+	}
+
+	@Override
+	public long getCurrentPassReads() {
+		return passReads;
+	}
+
+	@Override
+	public synchronized double getReadsPerSecond() {
+		if (passRunning)
+			return perSecond(passReads, System.currentTimeMillis() - passStartTime);
+		
+		return passes.isEmpty() ? 0 : passes.get(passes.size() - 1).getReadsPerSecond();
+	}
+
+	@Override
+	public synchronized double getBytesPerSecond() {
+		return passes.isEmpty() ? 0 : passes.get(passes.size() - 1).getBytesPerSecond();
+	}
+
+	@Override
+	public synchronized long getParseTimeMillis() {
+		return parseNanos / 1000000;
+	}
+
+	@Override
+	public synchronized long getReadNameParseTimeMillis() {
+		return readNameParseNanos / 1000000;
+	}
+
+	@Override
+	public synchronized Map<String, Long> getModuleProcessTimeMillis() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, ModuleMetrics> e : moduleMetrics.entrySet())
+			result.put(e.getKey(), e.getValue().nanos / 1000000);
+		return result;
+	}
+
+	@Override
+	public synchronized Map<String, Long> getCacheReadTimeMillis() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, ModuleMetrics> e : moduleMetrics.entrySet())
+			result.put(e.getKey(), e.getValue().cacheReadTime);
+		return result;
+	}
+
+	@Override
+	public synchronized Map<String, Long> getCacheWriteTimeMillis() {
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		for (Map.Entry<String, ModuleMetrics> e : moduleMetrics.entrySet())
+			result.put(e.getKey(), e.getValue().cacheWriteTime);
+		return result;
+	}
+
+	@Override
+	public synchronized Map<String, Long> getReportTimeMillis() {
+		return new LinkedHashMap<String, Long>(reportTimes);
+	}
+
+	@Override
+	public synchronized long getPeakAccumulatorBytes() {
+		return peakAccumulatorBytes;
+	}
+
+	@Override
+	public synchronized long getPeakHeapBytes() {
+		return peakHeapBytes;
+	}
+
+	@Override
+	public synchronized void reset() {
+		passes.clear();
+		moduleMetrics.clear();
+		reportTimes.clear();
+		parseNanos = 0;
+		readNameParseNanos = 0;
+		peakAccumulatorBytes = 0;
+		peakHeapBytes = 0;
+		passReads = 0;
+	}
+
+	@Override
+	public String toJSONString() {
+		return toJSONObject().toString();
+	}
+
+	public synchronized JSONObject toJSONObject() {
+		JSONObject obj = new JSONObject();
+		obj.put("file", fileName);
+
+		JSONArray passArray = new JSONArray();
+		for (Pass pass : passes)
+		{
+			JSONObject passObj = new JSONObject();
+			JSONArray moduleArray = new JSONArray();
+			moduleArray.addAll(pass.modules);
+			passObj.put("modules", moduleArray);
+			passObj.put("reads", pass.reads);
+			passObj.put("bytes", pass.bytes);
+			passObj.put("time_ms", pass.time);
+			passObj.put("reads_per_second", pass.getReadsPerSecond());
+			passObj.put("bytes_per_second", pass.getBytesPerSecond());
+			passArray.add(passObj);
+		}
+		obj.put("passes", passArray);
+		
+		obj.put("parse_time_ms", getParseTimeMillis());
+		obj.put("read_name_parse_time_ms", getReadNameParseTimeMillis());
+
+		JSONObject moduleObj = new JSONObject();
+		for (Map.Entry<String, ModuleMetrics> e : moduleMetrics.entrySet())
+		{
+			ModuleMetrics m = e.getValue();
+			JSONObject mObj = new JSONObject();
+			mObj.put("process_calls", m.calls);
+			mObj.put("process_time_ms", m.nanos / 1000000);
+			mObj.put("process_time_ns_per_call", m.calls == 0 ? 0 : m.nanos / m.calls);
+			mObj.put("cache_read_ms", m.cacheReadTime);
+			mObj.put("cache_write_ms", m.cacheWriteTime);
+			moduleObj.put(e.getKey(), mObj);
+		}
+		obj.put("modules", moduleObj);
+
+		JSONObject reportObj = new JSONObject();
+		reportObj.putAll(reportTimes);
+		obj.put("report_time_ms", reportObj);
+
+		obj.put("peak_accumulator_bytes", peakAccumulatorBytes);
+		obj.put("peak_heap_bytes", peakHeapBytes);
+		
+		return obj;
+	}
+
+	private static double perSecond(long count, long time) {
+		return time <= 0 ? 0 : count * 1000d / time;
+	}
+
+	private static class Pass {
+		List<String> modules = new ArrayList<String>();
+		long reads;
+		long bytes;
+		long time;
+
+		double getReadsPerSecond() {
+			return perSecond(reads, time);
+		}
+
+		double getBytesPerSecond() {
+			return perSecond(bytes, time);
+		}
+	}
+
+	private static class ModuleMetrics {
+		long calls;
+		long nanos;
+		long cacheReadTime;
+		long cacheWriteTime;
+	}
+}
@@ -27,7 +27,14 @@ package org.csml.tommo.sugar.analysis;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.csml.tommo.sugar.SugarApplication;
 import org.csml.tommo.sugar.modules.ClearBasesInLowQClusters;
@@ -35,6 +42,7 @@ import org.csml.tommo.sugar.modules.EClearLowQClustersMethod;
 import org.csml.tommo.sugar.modules.ELowQClustersSelectionMethdod;
 import org.csml.tommo.sugar.modules.MappingQuality;
 import org.csml.tommo.sugar.modules.QualityHeatMapsPerTileAndBase;
+import org.csml.tommo.sugar.modules.TileTree;
 import org.csml.tommo.sugar.report.SugarHTMLReportArchive;
 import org.csml.tommo.sugar.utils.Options;
 import org.csml.tommo.sugar.utils.StringUtils;
@@ -46,7 +54,10 @@ import uk.ac.babraham.FastQC.Utilities.CasavaBasename;
 
 public class SugarOfflineRunner implements SugarAnalysisListener {
 	
-	private int filesRemaining;
+	/**
+	 * threads used by the analysis of one file group
+	 */
+	private int runnerThreads = 1;
 	private boolean showUpdates = true;
 	private boolean showDebugMesages = true;
 
@@ -75,6 +86,18 @@ public class SugarOfflineRunner implements SugarAnalysisListener {
 			files.add(file);
 		}
 		
+		// the arguments are the partial results of the shards of one input
+		if (Options.getMerge() != null) {
+			boolean merged = mergePartialResults(files);
+			System.exit(merged ? 0 : 1);
+		}
+		
+		// the arguments are the shards of one input, which share the tile ranges (--tile_ranges)
+		if (Options.getWriteTileRanges() != null) {
+			boolean written = writeTileRanges(files);
+			System.exit(written ? 0 : 1);
+		}
+		
 		File [][] fileGroups;
 		
 		// See if we need to group together files from a casava group
@@ -90,38 +113,183 @@ public class SugarOfflineRunner implements SugarAnalysisListener {
 		
 		Integer[] qualityArray = Options.getHeatmapQualityThresholdArray();
 		
+		// #40: all thresholds are computed in one pass from the quality histograms,
+		// the cleared file is written for each threshold, so it still needs one pass per threshold
+		EClearLowQClustersMethod clearMethod = Options.getClearLowQClustersMethod();
+		boolean onePass = QualityHeatMapsPerTileAndBase.isHistogramSupported(qualityArray) &&
+				(clearMethod == null || clearMethod == EClearLowQClustersMethod.NONE);
 		
-		filesRemaining = fileGroups.length * qualityArray.length;
+		// the passes of one file group share its output files (e.g. the cleared file) and its metrics,
+		// so they run one after another in the job of the group, only the groups run in parallel
+		Integer[][] passes;
+		if (onePass)
+		{
+			passes = new Integer[][] {qualityArray};
+		}
+		else
+		{
+			passes = new Integer[qualityArray.length][];
+			for (int q = 0; q < qualityArray.length; q++)
+				passes[q] = new Integer[] {qualityArray[q]};
+		}
 		
+		List<FileGroupJob> jobs = new ArrayList<FileGroupJob>();
 		for (int i=0;i<fileGroups.length;i++) {
+			jobs.add(new FileGroupJob(fileGroups[i], passes));
+		}
+		
+		int failures = processFileGroups(jobs);		
+		System.exit(failures > 0 ? 1 : 0);
+		
+	}
 
-			for (Integer quality : qualityArray)
-			{
-				
-				try {
-					processFile(fileGroups[i], quality);
-				}
-				catch (Exception e) {
-					System.err.println("Failed to process "+fileGroups[i][0]);
-					e.printStackTrace();
-					--filesRemaining;
-				}
+	/**
+	 * Processes the file groups with -t threads: up to -t groups are processed at the same time,
+	 * the remaining threads are used by the analysis of each group (ModulePipeline)
+	 * 
+	 * @return the number of failed analyses
+	 */
+	private int processFileGroups(List<FileGroupJob> jobs) {
+		
+		int threads = Options.getThreads();
+		int fileThreads = Math.max(1, Math.min(threads, jobs.size()));
+		runnerThreads = Math.max(1, threads / fileThreads);
+		
+		ExecutorService executor = Executors.newFixedThreadPool(fileThreads);
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (FileGroupJob job : jobs)
+			results.add(executor.submit(job));
+		executor.shutdown();
+		
+		int failures = 0;
+		for (int i = 0; i < jobs.size(); i++)
+		{
+			File file = jobs.get(i).files[0];
+			try {
+				if (!results.get(i).get())
+					failures++;
+			}
+			catch (ExecutionException e) {
+				System.err.println("Failed to process "+file);
+				e.getCause().printStackTrace();
+				failures++;
+			}
+			catch (InterruptedException e) {
+				System.err.println("Interrupted while processing "+file);
+				Thread.currentThread().interrupt();
+				failures++;
+			}
+		}
+		
+		if (failures > 0)
+			System.err.println(failures + " of " + jobs.size() + " file groups failed");
+		
+		return failures;
+	}
+	
+	/**
+	 * Merges the partial results (--merge) and writes the reports of the merged modules
+	 * 
+	 * @return true, if the reports were written
+	 */
+	private boolean mergePartialResults(List<File> files) {
+		
+		PartialResultMerger merger = new PartialResultMerger(new File(Options.getMerge()));
+		for (File file : files)
+		{
+			if (showUpdates) System.err.println("Merging partial results of "+file.getName());
+			try {
+				merger.add(file);
+			}
+			catch (Exception e) {
+				System.err.println("Failed to merge partial results of "+file.getName());
+				e.printStackTrace();
+				return false;
 			}
 		}
 		
-		// We need to hold this class open as otherwise the main method
-		// exits when it's finished.
-		while (filesRemaining > 0) {
+		if (merger.getPartialCount() == 0) {
+			System.err.println("No partial results to merge");
+			return false;
+		}
+		
+		return writeReports(merger.getSequenceFile(), merger.getModules());
+	}
+
+	/**
+	 * Reads the tile ranges of all files (--write_tile_ranges), -t files are read at the same time.
+	 * The ranges are merged in the order of the files and written to one file.
+	 * 
+	 * @return true, if the file was written
+	 */
+	private boolean writeTileRanges(List<File> files) {
+		
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(Options.getThreads(), files.size())));
+		List<Future<TileTree>> results = new ArrayList<Future<TileTree>>();
+		for (final File file : files)
+		{
+			results.add(executor.submit(new Callable<TileTree>() {
+				@Override
+				public TileTree call() throws Exception {
+					if (showUpdates) System.err.println("Reading tile ranges of "+file.getName());
+					SequenceFile sequenceFile = SequenceFactory.getSequenceFile(file);
+					TileTree tileTree = new TileTree();
+					while (sequenceFile.hasNext())
+						tileTree.processSequence(sequenceFile.next());
+					return tileTree;
+				}
+			}));
+		}
+		executor.shutdown();
+		
+		TileTree tileRanges = new TileTree();
+		for (int i = 0; i < files.size(); i++)
+		{
 			try {
-				Thread.sleep(1000);
-			} 
-			catch (InterruptedException e) {}
+				tileRanges.merge(results.get(i).get());
+			}
+			catch (ExecutionException e) {
+				System.err.println("Failed to read tile ranges of "+files.get(i));
+				e.getCause().printStackTrace();
+				executor.shutdownNow();
+				return false;
+			}
+			catch (InterruptedException e) {
+				System.err.println("Interrupted while reading tile ranges of "+files.get(i));
+				Thread.currentThread().interrupt();
+				executor.shutdownNow();
+				return false;
+			}
 		}
-		System.exit(0);
 		
+		if (!tileRanges.isProcessed()) {
+			System.err.println("No tiles found in the input files");
+			return false;
+		}
+		
+		File rangesFile = Options.getWriteTileRanges();
+		try {
+			tileRanges.toJSONFile(rangesFile);
+		}
+		catch (IOException e) {
+			System.err.println("Failed to write tile ranges to "+rangesFile);
+			e.printStackTrace();
+			return false;
+		}
+		
+		if (showUpdates) System.out.println("Tile ranges written to "+rangesFile.getAbsolutePath());
+		return true;
 	}
-	
+
 	public void processFile (File [] files, int qualityThreshold) throws Exception {
+		processFile(files, new Integer[] {qualityThreshold}, this);
+	}
+	
+	/**
+	 * Processes the file once for all quality thresholds (#40) in the current thread
+	 */
+	public void processFile (File [] files, Integer[] qualityThresholds, SugarAnalysisListener listener) throws Exception {
+		int qualityThreshold = qualityThresholds[0];
 		for (int f=0;f<files.length;f++) {
 			if (!files[f].exists()) {
 				throw new IOException(files[f].getName()+" doesn't exist");
@@ -136,9 +304,10 @@ public class SugarOfflineRunner implements SugarAnalysisListener {
 		}
 				
 		SugarAnalysisRunner runner = new SugarAnalysisRunner(files, sequenceFile, qualityThreshold);
-		runner.addAnalysisListener(this);
+		runner.setThreads(runnerThreads);
+		runner.addAnalysisListener(listener);
 
-		QualityHeatMapsPerTileAndBase heatMap = new QualityHeatMapsPerTileAndBase(qualityThreshold);
+		QualityHeatMapsPerTileAndBase heatMap = new QualityHeatMapsPerTileAndBase(qualityThresholds);
 		MappingQuality mappingQuality = new MappingQuality(heatMap.getTileTree(), sequenceFile);
 		QCModule [] module_list = new QCModule [] {
 				heatMap.getTileTree(),
@@ -166,55 +335,108 @@ public class SugarOfflineRunner implements SugarAnalysisListener {
 			}
 		}
 
-		runner.startAnalysis(module_list);
+		runner.runAnalysis(module_list);
 
 	}	
 	
 	public void analysisComplete(SequenceFile file, QCModule[] results) {
-		File reportFile;
+		writeReports(file, results);
+	}
+
+	/**
+	 * @return true, if all reports were written
+	 */
+	private boolean writeReports(SequenceFile file, QCModule[] results) {
 		
 		if (showUpdates) System.out.println("Analysis complete for "+file.name());
 
 		// get the quality threshold
 		QualityHeatMapsPerTileAndBase qualityModule = SugarApplication.getQualityHeatmapModule(results);
+		
+		// the partial results of a shard are merged by --merge
+		if (Options.getPartial() && qualityModule != null)
+			return writePartialResults(file, results, qualityModule);
+		
+		// #40: one report per threshold, computed from the quality histograms
+		if (qualityModule != null && qualityModule.hasQualityHistograms())
+		{
+			for (Integer threshold : qualityModule.getQualityThresholdArray())
+			{
+				qualityModule.changeQualityMatrixMap(threshold);
+				if (!writeReport(file, results, qualityModule))
+					return false;
+			}
+			return true;
+		}
+		
+		if (qualityModule != null && qualityModule.getHistogramThresholds() != null)
+			System.err.println("The quality histograms of " + file.name() + " are not available, only the threshold " + 
+					qualityModule.getQualityThreshold() + " is reported");
+		
+		return writeReport(file, results, qualityModule);
+	}
+
+	/**
+	 * Writes the partial results instead of the reports - one file for all thresholds, if they are computed from the quality histograms 
+	 * 
+	 * @return true, if the file was written
+	 */
+	private boolean writePartialResults(SequenceFile file, QCModule[] results, QualityHeatMapsPerTileAndBase qualityModule) {
+		
+		String threshodString = qualityModule.hasQualityHistograms() ? "" : "_q" + qualityModule.getQualityThreshold();
+		File partialFile = new File(getOutputBasename(file) + "_sugar" + threshodString + PartialResultFile.PARTIAL_FILE_SUFFIX);
+		
+		try {
+			PartialResultFile.write(partialFile, file, results);
+		}
+		catch (Exception e) {
+			analysisExceptionReceived(file, e);
+			return false;
+		}
+		
+		if (showUpdates) System.out.println("Partial results written to "+partialFile.getAbsolutePath());
+		return true;
+	}
+
+	/**
+	 * @return the path of the input file (in the output directory, if it is set) without the sequence file extensions
+	 */
+	private String getOutputBasename(SequenceFile file) {
+		String path = System.getProperty("fastqc.output_dir") != null ?
+				System.getProperty("fastqc.output_dir")+"/"+file.getFile().getName() :
+				file.getFile().getAbsolutePath();
+		
+		// remove extension 
+		return path.replaceAll(".gz$","").replaceAll(".bz2$","").replaceAll(".txt$","").replaceAll(".fastq$", "").replaceAll(".sam$", "").replaceAll(".bam$", "");
+	}
+
+	private boolean writeReport(SequenceFile file, QCModule[] results, QualityHeatMapsPerTileAndBase qualityModule) {
+		File reportFile;
+		
 		String threshodString = qualityModule != null ? "_q" + qualityModule.getQualityThreshold() : "";
 		
 		
 		if (System.getProperty("fastqc.output_dir") != null) {
-			// get input filename
-			String fileName = file.getFile().getName();
-
-			// remove extension 
-			fileName = fileName.replaceAll(".gz$","").replaceAll(".bz2$","").replaceAll(".txt$","").replaceAll(".fastq$", "").replaceAll(".sam$", "").replaceAll(".bam$", "");
-			
 			// append: "sugar" + quality info + zip extension 
-			fileName += "_sugar_q" + threshodString + ".zip";			
-
-			reportFile = new File(System.getProperty("fastqc.output_dir")+"/"+fileName);						
+			reportFile = new File(getOutputBasename(file) + "_sugar_q" + threshodString + ".zip");
 		}
 		else {
-			// get input file path
-			String filePath = file.getFile().getAbsolutePath();
-
-			// remove extension 
-			filePath = filePath.replaceAll(".gz$","").replaceAll(".bz2$","").replaceAll(".txt$","").replaceAll(".fastq$", "").replaceAll(".sam$", "").replaceAll(".bam$", "");
-			
 			// append: "sugar" + quality info + zip extension 
-			reportFile = new File(filePath+"_sugar" + threshodString + ".zip");			
+			reportFile = new File(getOutputBasename(file) + "_sugar" + threshodString + ".zip");			
 		}
 		
 		// SPECIAL CASE: "view only" modules
 		results = SugarApplication.addViewOnlyModules(results);		
 		
 		try {
+			SugarMetrics.startReport(file.getFile());
 			new SugarHTMLReportArchive(file, results, reportFile);
 		}
 		catch (Exception e) {
 			analysisExceptionReceived(file, e);
-			return;
+			return false;
 		}
-		--filesRemaining;
-
+		return true;
 	}
 
 	public void analysisUpdated(SequenceFile file, int sequencesProcessed, int percentComplete) {
@@ -240,7 +462,6 @@ public class SugarOfflineRunner implements SugarAnalysisListener {
 	public void analysisExceptionReceived(SequenceFile file, Exception e) {
 		System.err.println("Failed to process file "+file.name());
 		e.printStackTrace();
-		--filesRemaining;
 	}
 
 	public void analysisStarted(SequenceFile file) {
@@ -292,4 +513,78 @@ public class SugarOfflineRunner implements SugarAnalysisListener {
 		}		
 	}
 		
+	/**
+	 * Analysis of one file group in the executor thread - one pass after another for the quality thresholds.
+	 * 
+	 * The messages are printed by the SugarOfflineRunner, the job only keeps the result of its own file group.
+	 */
+	private class FileGroupJob implements Callable<Boolean>, SugarAnalysisListener {
+
+		private final File[] files;
+		private final Integer[][] passes;
+		private boolean failed = false;
+		
+		/**
+		 * @param passes - the quality thresholds of each pass over the files
+		 */
+		public FileGroupJob(File[] files, Integer[][] passes) {
+			this.files = files;
+			this.passes = passes;
+		}
+
+		@Override
+		public Boolean call() throws Exception {
+			for (Integer[] qualityThresholds : passes)
+			{
+				try {
+					processFile(files, qualityThresholds, this);
+				}
+				catch (Exception e) {
+					// the other thresholds are still processed
+					System.err.println("Failed to process "+files[0]+" with the quality threshold "+qualityThresholds[0]);
+					e.printStackTrace();
+					failed = true;
+				}
+			}
+			return !failed;
+		}
+
+		@Override
+		public void analysisComplete(SequenceFile file, QCModule[] results) {
+			if (!writeReports(file, results))
+				failed = true;
+		}
+
+		@Override
+		public void analysisExceptionReceived(SequenceFile file, Exception e) {
+			failed = true;
+			SugarOfflineRunner.this.analysisExceptionReceived(file, e);
+		}
+
+		@Override
+		public void analysisStarted(SequenceFile file) {
+			SugarOfflineRunner.this.analysisStarted(file);
+		}
+
+		@Override
+		public void analysisUpdated(SequenceFile file, int sequencesProcessed, int percentComplete) {
+			SugarOfflineRunner.this.analysisUpdated(file, sequencesProcessed, percentComplete);
+		}
+
+		@Override
+		public void analysisTimeUpdated(long timeConsumed, long timeRemaining) {
+			SugarOfflineRunner.this.analysisTimeUpdated(timeConsumed, timeRemaining);
+		}
+
+		@Override
+		public void cacheFileStarted(QCModule m, long filesize, int operation) {
+			SugarOfflineRunner.this.cacheFileStarted(m, filesize, operation);
+		}
+
+		@Override
+		public void cacheFileCompleted(QCModule m, long time, int operation) {
+			SugarOfflineRunner.this.cacheFileCompleted(m, time, operation);
+		}
+	}
+		
 }
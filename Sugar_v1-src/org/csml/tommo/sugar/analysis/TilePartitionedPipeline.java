@@ -0,0 +1,311 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.csml.tommo.sugar.modules.MergeableModule;
+import org.csml.tommo.sugar.sequence.TileCoordinates;
+import org.csml.tommo.sugar.sequence.TileIndex;
+
+import uk.ac.babraham.FastQC.Modules.QCModule;
+import uk.ac.babraham.FastQC.Sequence.Sequence;
+
+/**
+ * Class TilePartitionedPipeline
+ *
+ * Runs one pass of the SugarAnalysisRunner in several threads, like the ModulePipeline, but the reads are routed by tile:
+ *
+ * 1. dispatcher - the runner adds the reads, the dispatcher parses the id line and appends the read to the batch 
+ *    of the worker which owns the tile of the read
+ * 2. workers - load the reads of their batches into their partial modules (MergeableModule). Each tile is owned by 
+ *    one worker at a time, so the matrices of a tile are updated by one thread and stay in its cache, and the partial 
+ *    modules keep the matrices of their tiles only. The partial modules are merged after the last read.
+ *
+ * A new tile is assigned to the worker with the shortest queue. A tile is moved to the worker with the shortest queue,
+ * when the queue of its worker is REBALANCE_BACKLOG batches longer - e.g. when the reads are sorted by tile 
+ * or one lane dominates the file. The reads of the tile which were already queued are still loaded by the previous 
+ * worker (into its own partial modules), so no counter is written by two threads.
+ *
+ * All modules must be MergeableModules (see isSupported), the modules which need the reads in the original order 
+ * (e.g. ClearBasesInLowQClusters) are run by the ModulePipeline.
+ *
+ */
+public class TilePartitionedPipeline implements ReadPipeline {
+
+	public static final int BATCH_SIZE = ModulePipeline.BATCH_SIZE;
+	public static final int REBALANCE_BACKLOG = 2;
+
+	private static final Batch END = new Batch(0);
+
+	/**
+	 * the owner of the reads, which could not be parsed
+	 */
+	private static final int UNPARSED = 0;
+	
+	private final List<MergeableModule> modules = new ArrayList<MergeableModule>();
+	private final Worker[] workers;
+	private final BlockingQueue<Batch> freeBatches;
+
+	/**
+	 * the worker which owns each tile (index = tile ordinal + 1, UNPARSED for the reads without coordinates), -1 if none
+	 */
+	private final TileIndex tiles = new TileIndex();
+	private int[] owners = new int[64];
+
+	/**
+	 * the reads are parsed into the scratch context, which is then swapped with the next free context of the batch
+	 */
+	private ReadContext scratch = new ReadContext();
+	private ReadContext previous;
+	private int previousOwner = -1;
+
+	private long movedTiles = 0;
+
+	private volatile Throwable error;
+
+	public TilePartitionedPipeline(List<QCModule> moduleList, int threads) {
+		for (QCModule m : moduleList)
+			modules.add((MergeableModule) m);
+
+		workers = new Worker[threads];
+		for (int i = 0; i < threads; i++)
+		{
+			List<MergeableModule> partials = new ArrayList<MergeableModule>();
+			for (MergeableModule m : modules)
+				partials.add(m.createPartial());
+			workers[i] = new Worker(i, partials);
+		}
+
+		// each worker may keep one batch, which is being filled
+		int batches = 3 * threads + 2;
+		freeBatches = new ArrayBlockingQueue<Batch>(batches);
+		for (int i = 0; i < batches; i++)
+			freeBatches.add(new Batch(BATCH_SIZE));
+		
+		Arrays.fill(owners, -1);
+	}
+
+	/**
+	 * @return true, if all modules can be loaded by the partial modules (none needs the reads in the original order)
+	 */
+	public static boolean isSupported(List<QCModule> moduleList) {
+		for (QCModule m : moduleList)
+		{
+			if (!(m instanceof MergeableModule))
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void start() {
+		for (Worker worker : workers)
+			worker.start();
+	}
+
+	@Override
+	public void add(Sequence seq) {
+		checkError();
+
+		ReadContext read = scratch;
+		boolean hasContext = read.set(seq, previous);
+		
+		int owner = getOwner(hasContext ? read.getTileCoordinates() : null);
+		Worker worker = workers[owners[owner]];
+		
+		Batch batch = worker.currentBatch;
+		if (batch == null)
+			batch = worker.currentBatch = ModulePipeline.take(freeBatches);
+
+		// swap the contexts - the parsed read is not copied
+		scratch = batch.contexts[batch.size];
+		batch.contexts[batch.size] = read;
+		batch.sequences[batch.size] = seq;
+		batch.hasContext[batch.size] = hasContext;
+		batch.size++;
+		previous = read;
+
+		if (batch.size == BATCH_SIZE)
+			submit(worker, owner);
+	}
+
+	/**
+	 * @return the index of the tile in owners, a new tile is assigned to the worker with the shortest queue
+	 */
+	private int getOwner(TileCoordinates tileCoordinates) {
+		int owner;
+		if (tileCoordinates == null)
+			owner = UNPARSED;
+		else if (previousOwner > UNPARSED && previous.getTileCoordinates() == tileCoordinates)
+			owner = previousOwner;
+		else
+			owner = tiles.add(tileCoordinates) + 1;
+		
+		if (owner >= owners.length)
+		{
+			int length = owners.length;
+			owners = Arrays.copyOf(owners, Math.max(2 * length, owner + 1));
+			Arrays.fill(owners, length, owners.length, -1);
+		}
+		if (owners[owner] < 0)
+			owners[owner] = getShortestQueue();
+
+		previousOwner = owner;
+		return owner;
+	}
+
+	private int getShortestQueue() {
+		int result = 0;
+		for (int i = 1; i < workers.length; i++)
+		{
+			if (workers[i].queue.size() < workers[result].queue.size())
+				result = i;
+		}
+		return result;
+	}
+
+	/**
+	 * Queues the current batch of the worker, the tile of the last read is moved, if the worker is behind the others
+	 */
+	private void submit(Worker worker, int owner) {
+		ModulePipeline.put(worker.queue, worker.currentBatch);
+		worker.currentBatch = null;
+
+		int shortest = getShortestQueue();
+		if (worker.queue.size() - workers[shortest].queue.size() >= REBALANCE_BACKLOG)
+		{
+			owners[owner] = shortest;
+			movedTiles++;
+		}
+	}
+
+	@Override
+	public void finish() {
+		for (Worker worker : workers)
+		{
+			if (worker.currentBatch != null)
+				ModulePipeline.put(worker.queue, worker.currentBatch);
+			worker.currentBatch = null;
+			ModulePipeline.put(worker.queue, END);
+		}
+		for (Worker worker : workers)
+			ModulePipeline.join(worker);
+
+		checkError();
+
+		for (Worker worker : workers)
+		{
+			for (int i = 0; i < modules.size(); i++)
+				modules.get(i).merge(worker.partials.get(i));
+		}
+	}
+
+	/**
+	 * @return the number of times a tile was moved to another worker
+	 */
+	public long getMovedTiles() {
+		return movedTiles;
+	}
+
+	private void setError(Throwable t) {
+		synchronized (this) {
+			if (error == null)
+				error = t;
+		}
+	}
+
+	private void checkError() {
+		Throwable t = error;
+		if (t instanceof RuntimeException)
+			throw (RuntimeException) t;
+		if (t instanceof Error)
+			throw (Error) t;
+		if (t != null)
+			throw new RuntimeException(t);
+	}
+
+	private class Worker extends Thread {
+
+		private final List<MergeableModule> partials;
+		private final BlockingQueue<Batch> queue = new LinkedBlockingQueue<Batch>();
+
+		/**
+		 * the batch filled by the dispatcher
+		 */
+		private Batch currentBatch;
+
+		public Worker(int index, List<MergeableModule> partials) {
+			super("SUGAR tile worker " + index);
+			this.partials = partials;
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (true)
+			{
+				Batch batch = ModulePipeline.take(queue);
+				if (batch == END)
+					break;
+
+				if (error == null)
+				{
+					try {
+						for (int i = 0; i < batch.size; i++)
+							ModulePipeline.processRead(partials, batch.sequences[i], batch.contexts[i], batch.hasContext[i]);
+					} catch (Throwable t) {
+						setError(t);
+					}
+				}
+
+				batch.size = 0;
+				ModulePipeline.put(freeBatches, batch);
+			}
+		}
+	}
+
+	private static class Batch {
+
+		int size = 0;
+		final Sequence[] sequences;
+		final ReadContext[] contexts;
+		final boolean[] hasContext;
+
+		Batch(int capacity) {
+			sequences = new Sequence[capacity];
+			contexts = new ReadContext[capacity];
+			hasContext = new boolean[capacity];
+			for (int i = 0; i < capacity; i++)
+				contexts[i] = new ReadContext();
+		}
+	}
+}
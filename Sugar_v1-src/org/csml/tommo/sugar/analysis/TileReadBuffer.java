@@ -0,0 +1,142 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.analysis;
+
+import java.util.Arrays;
+
+import org.csml.tommo.sugar.sequence.TileCoordinates;
+
+/**
+ * Class TileReadBuffer
+ *
+ * Keeps the reads of one tile in a compact form (coordinates, raw quality characters and mapping quality)
+ * until the x- and y- range of the tile is known.
+ *
+ * Used by the single-pass analysis: the reads of a tile are replayed to the analysis modules
+ * as soon as the reads of the next tile start.
+ *
+ */
+public class TileReadBuffer {
+
+	private static final int INITIAL_READS = 64 * 1024;
+	private static final int INITIAL_QUALITIES = 64 * INITIAL_READS;
+
+	private TileCoordinates tileCoordinates;
+
+	private int size = 0;
+	private int[] xCoordinates = new int[INITIAL_READS];
+	private int[] yCoordinates = new int[INITIAL_READS];
+	private int[] mappingQualities = new int[INITIAL_READS];
+
+	/**
+	 * qualityOffsets[i] is the start of the i-th read in the qualities array,
+	 * qualityOffsets[size] is the end of the last read
+	 */
+	private int[] qualityOffsets = new int[INITIAL_READS + 1];
+	private byte[] qualities = new byte[INITIAL_QUALITIES];
+
+	public void add(ReadContext read) {
+
+		if (size == xCoordinates.length)
+			growReads();
+
+		int start = qualityOffsets[size];
+		int length = read.getQualityLength();
+		if (start + length > qualities.length)
+			growQualities(start + length);
+
+		System.arraycopy(read.getQualities(), 0, qualities, start, length);
+
+		xCoordinates[size] = read.getX();
+		yCoordinates[size] = read.getY();
+		mappingQualities[size] = read.getMappingQuality();
+		qualityOffsets[size + 1] = start + length;
+		size++;
+	}
+
+	private void growReads() {
+		int newLength = xCoordinates.length * 2;
+		xCoordinates = Arrays.copyOf(xCoordinates, newLength);
+		yCoordinates = Arrays.copyOf(yCoordinates, newLength);
+		mappingQualities = Arrays.copyOf(mappingQualities, newLength);
+		qualityOffsets = Arrays.copyOf(qualityOffsets, newLength + 1);
+	}
+
+	private void growQualities(int minLength) {
+		qualities = Arrays.copyOf(qualities, Math.max(qualities.length * 2, minLength));
+	}
+
+	/**
+	 * Empties the buffer, the allocated arrays are kept for the next tile
+	 */
+	public void clear(TileCoordinates tile) {
+		tileCoordinates = tile;
+		size = 0;
+	}
+
+	public TileCoordinates getTileCoordinates() {
+		return tileCoordinates;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int getX(int read) {
+		return xCoordinates[read];
+	}
+
+	public int getY(int read) {
+		return yCoordinates[read];
+	}
+
+	public int getMappingQuality(int read) {
+		return mappingQualities[read];
+	}
+
+	public boolean hasMappingQuality(int read) {
+		return mappingQualities[read] != ReadContext.NO_MAPPING_QUALITY;
+	}
+
+	/**
+	 * @return the array with the raw quality characters of all reads
+	 */
+	public byte[] getQualities() {
+		return qualities;
+	}
+
+	public int getQualityOffset(int read) {
+		return qualityOffsets[read];
+	}
+
+	public int getQualityLength(int read) {
+		return qualityOffsets[read + 1] - qualityOffsets[read];
+	}
+}
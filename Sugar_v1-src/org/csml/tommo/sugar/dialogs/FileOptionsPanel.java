@@ -54,6 +54,7 @@ public class FileOptionsPanel extends JPanel {
 	private JTextField threadsField;
 	private JTextField readRateField;
 	private JCheckBox cacheCheckBox;
+	private JCheckBox singlePassCheckBox;
 	private JComboBox clearLowQClustersComboBox;
 		
 	public FileOptionsPanel(){
@@ -143,6 +144,16 @@ public class FileOptionsPanel extends JPanel {
 
 		gridy++;
 
+		singlePassCheckBox = new JCheckBox("Single Pass");
+		singlePassCheckBox.setSelected(Options.getSinglePass());		
+		c.insets = new Insets(0, 0, 5, 0);
+		c.gridx = 0;
+		c.gridy = gridy;
+		c.gridwidth = 2;
+		add(singlePassCheckBox, c);
+
+		gridy++;
+
 		JLabel clearLowQClustersLabel = new JLabel("Clear LowQ Clusters", JLabel.TRAILING);
 		c.insets = new Insets(0, 0, 5, 15);
 		c.gridx = 0;
@@ -199,6 +210,10 @@ public class FileOptionsPanel extends JPanel {
 		return !cacheCheckBox.isSelected();
 	}
 
+	public boolean getSinglePass(){
+		return singlePassCheckBox.isSelected();
+	}
+
 	public EClearLowQClustersMethod getClearLowQClustersMethod(){
 		return (EClearLowQClustersMethod) clearLowQClustersComboBox.getSelectedItem();
 	}
@@ -31,8 +31,24 @@ import org.jfree.chart.renderer.PaintScale;
 
 public abstract class ColorPaintScale implements PaintScale {
 
+	/**
+	 * number of colors in the lookup table (getRGB), 
+	 * the difference to getPaint() is at most one intensity level
+	 */
+	public static final int LOOKUP_TABLE_SIZE = 1024;
+	
     protected double minValue;    
     protected double maxValue;
+    
+    /**
+     * RGB values for the values minValue, ..., maxValue in LOOKUP_TABLE_SIZE equal steps (created on first use)
+     */
+    private volatile int[] lookupTable;
+    
+    /**
+     * the lookup table entries per unit of the value, so getRGB() needs no division
+     */
+    private final double lookupScale;
 	
 	public ColorPaintScale(double minValue, double maxValue){
         if (minValue >= maxValue) {
@@ -41,6 +57,7 @@ public abstract class ColorPaintScale implements PaintScale {
         }
         this.minValue = minValue;
         this.maxValue = maxValue;
+        this.lookupScale = (LOOKUP_TABLE_SIZE - 1) / (maxValue - minValue);
 	}
 
     public double getLowerBound() {
@@ -53,11 +70,71 @@ public abstract class ColorPaintScale implements PaintScale {
     
     @Override
     public Color getPaint(double value){
-    	value = validateValue(value);
-    	double factor = (value - minValue) / (maxValue - minValue);
+    	double factor = getFactor(value);
     	return new Color(getRed(factor), getGreen(factor), getBlue(factor));
     }
 
+    /**
+     * Returns the color as an RGB int (see Color.getRGB()) from the lookup table - no objects are created
+     */
+    public int getRGB(double value){
+    	int[] table = lookupTable;
+    	if (table == null)
+    		table = createLookupTable();
+    	
+    	// the same as validateValue(), getFactor() of the subclasses is applied by the lookup table
+    	if (value < minValue)
+    		value = minValue;
+    	else if (value > maxValue)
+    		value = maxValue;
+    	return table[(int) ((value - minValue) * lookupScale + 0.5)];
+    }
+    
+    /**
+     * Converts the values to RGB ints as getRGB(double) does, the color of values[k] is stored in rgb[start + k * step]
+     */
+    public void getRGB(double[] values, int[] rgb, int start, int step){
+    	int[] table = lookupTable;
+    	if (table == null)
+    		table = createLookupTable();
+    	
+    	double min = minValue;
+    	double max = maxValue;
+    	double scale = lookupScale;
+    	for (int k = 0, d = start; k < values.length; k++, d += step)
+    	{
+    		double value = values[k];
+    		if (value < min)
+    			value = min;
+    		else if (value > max)
+    			value = max;
+    		rgb[d] = table[(int) ((value - min) * scale + 0.5)];
+    	}
+    }
+    
+    private int[] createLookupTable() {
+    	int[] table = new int[LOOKUP_TABLE_SIZE];
+    	for (int i = 0; i < LOOKUP_TABLE_SIZE; i++)
+    	{
+    		double factor = getFactor(minValue + i / lookupScale);
+    		table[i] = 0xFF000000 | (clamp(getRed(factor)) << 16) | (clamp(getGreen(factor)) << 8) | clamp(getBlue(factor));
+    	}
+    	lookupTable = table;
+    	return table;
+    }
+    
+    private static int clamp(int intensity) {
+    	return Math.max(0, Math.min(255, intensity));
+    }
+
+    /**
+     * @return the value normalized to the range 0-1 
+     */
+    protected double getFactor(double value){
+    	value = validateValue(value);
+    	return (value - minValue) / (maxValue - minValue);
+    }
+
 	protected double validateValue(double value) {
 		if(value < minValue){
     		value = minValue;
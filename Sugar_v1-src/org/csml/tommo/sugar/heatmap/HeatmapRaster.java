@@ -0,0 +1,119 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.heatmap;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Class HeatmapRaster
+ *
+ * Writes the heat-map matrices directly into the pixels (DataBufferInt) of TYPE_INT_RGB images.
+ *
+ * The colors are taken from the lookup table of the ColorPaintScale, so no Color objects are created.
+ * A matrix can be written into any part of a bigger image (e.g. the lane image of the report) 
+ * and is scaled with the nearest neighbour method, the same as Graphics.drawImage() without rendering hints.
+ *
+ * The matrix entry [i][j] is painted at column i and row N - 1 - j (the y axis points up).
+ *
+ */
+public class HeatmapRaster {
+
+	public static BufferedImage createImage(double[][] values, ColorPaintScale scale) {
+		int N = values.length;
+		BufferedImage image = new BufferedImage(N, N, BufferedImage.TYPE_INT_RGB);
+		paint(image, 0, 0, N, values, scale);
+		return image;
+	}
+
+	public static BufferedImage createImage(int[] values, int offset, int N, ColorPaintScale scale) {
+		BufferedImage image = new BufferedImage(N, N, BufferedImage.TYPE_INT_RGB);
+		paint(image, 0, 0, N, values, offset, N, scale);
+		return image;
+	}
+
+	/**
+	 * Paints the N x N matrix into the size x size square of the image at (x, y)
+	 */
+	public static void paint(BufferedImage image, int x, int y, int size, double[][] values, ColorPaintScale scale) {
+		int N = values.length;
+		int[] colors = new int[N * N];
+		for (int i = 0; i < N; i++)
+			scale.getRGB(values[i], colors, (N - 1) * N + i, -N);
+		paint(image, x, y, size, colors, N);
+	}
+
+	/**
+	 * Paints the N x N matrix kept row by row in values (from offset) into the size x size square of the image at (x, y)
+	 */
+	public static void paint(BufferedImage image, int x, int y, int size, int[] values, int offset, int N, ColorPaintScale scale) {
+		int[] colors = new int[N * N];
+		for (int i = 0; i < N; i++)
+		{
+			for (int j = 0; j < N; j++)
+				colors[(N - 1 - j) * N + i] = scale.getRGB(values[offset + i * N + j]);
+		}
+		paint(image, x, y, size, colors, N);
+	}
+
+	/**
+	 * Paints the N x N colors kept row by row as in the image (the rows of the matrix entries [.][N - 1 - row])
+	 */
+	private static void paint(BufferedImage image, int x, int y, int size, int[] colors, int N) {
+		if (image.getType() != BufferedImage.TYPE_INT_RGB)
+			throw new IllegalArgumentException("Only TYPE_INT_RGB images are supported");
+		
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		int scanline = image.getWidth();
+		
+		// source column for each destination column (nearest neighbour, the pixel centre (d + 0.5) * N / size
+		// is rounded down at the borders of the source pixels - the same as drawImage)
+		int[] sourceIndex = new int[size];
+		for (int d = 0; d < size; d++)
+			sourceIndex[d] = ((2 * d + 1) * N - 1) / (2 * size);
+		
+		for (int dy = 0; dy < size; dy++)
+		{
+			int row = (y + dy) * scanline + x;
+			
+			// an enlarged image repeats the rows of the matrix, the pixels of the previous row are copied
+			if (dy > 0 && sourceIndex[dy] == sourceIndex[dy - 1])
+			{
+				System.arraycopy(pixels, row - scanline, pixels, row, size);
+				continue;
+			}
+			
+			int source = sourceIndex[dy] * N;
+			if (size == N)
+			{
+				System.arraycopy(colors, source, pixels, row, N);
+				continue;
+			}
+			for (int dx = 0; dx < size; dx++)
+				pixels[row + dx] = colors[source + sourceIndex[dx]];
+		}
+	}
+}
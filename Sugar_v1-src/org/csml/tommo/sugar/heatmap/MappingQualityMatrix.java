@@ -1,6 +1,5 @@
 package org.csml.tommo.sugar.heatmap;
 
-import java.awt.Color;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
@@ -8,9 +7,11 @@ import java.io.Serializable;
 import java.io.Writer;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import org.csml.tommo.sugar.analysis.JSONSerializable;
 import org.csml.tommo.sugar.analysis.JSONSerializationUtils;
+import org.csml.tommo.sugar.utils.AtomicUtils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
@@ -39,8 +40,25 @@ public class MappingQualityMatrix implements Serializable, JSONSerializable {
 
 	public double[][] meanValues;
 
+	/**
+	 * counts the changes of the values shown by the heat-maps, the renderers reuse the images of an unchanged matrix
+	 * (the counters added by addQualityValue are shown after createMeanMatrix)
+	 */
+	private transient int version = 0;
+
 	Rectangle range;
 	
+	private transient SubtileBinner binner;
+	
+	/**
+	 * The counters added in the concurrent mode (see setConcurrent), N x N values row by row for each stripe, 
+	 * the threshold tables in the order of THRESHOLDS
+	 */
+	private transient AtomicIntegerArray atomicCounterTable;
+	private transient AtomicIntegerArray atomicSummaryTable;
+	private transient AtomicIntegerArray[] atomicThresholdTables;
+	private transient int atomicStripes;
+	
 //	public MeanQualityMatrix(Rectangle range) {
 //		this(range, Options.getMatrixSize());
 //	}
@@ -63,8 +81,15 @@ public class MappingQualityMatrix implements Serializable, JSONSerializable {
 
 	public void addQualityValue(int x, int y, int quality)
 	{
-		int xIndex = convertX(x);
-		int yIndex = convertY(y);		
+		SubtileBinner binner = getBinner();
+		int xIndex = binner.binX(x);
+		int yIndex = binner.binY(y);		
+		
+		if (atomicCounterTable != null)
+		{
+			addConcurrentQualityValue(xIndex*N + yIndex, quality);
+			return;
+		}
 		
 		counterTable[xIndex][yIndex]++;
 		summaryTable[xIndex][yIndex] += quality;
@@ -76,19 +101,104 @@ public class MappingQualityMatrix implements Serializable, JSONSerializable {
 		}
 	}
 
+	private void addConcurrentQualityValue(int index, int quality)
+	{
+		index += AtomicUtils.getStripe(atomicStripes) * N*N;
+		atomicCounterTable.incrementAndGet(index);
+		atomicSummaryTable.addAndGet(index, quality);
+		
+		for (int t = 0; t < THRESHOLDS.length; t++) {
+			if (quality < THRESHOLDS[t])
+				atomicThresholdTables[t].incrementAndGet(index);
+		}
+	}
+
+	/**
+	 * In the concurrent mode addQualityValue may be called by several threads at once, the values are added 
+	 * to atomic arrays without locks (to the stripe of the thread, see AtomicUtils.getStripe). 
+	 * The other methods see the values after the concurrent mode is switched off.
+	 * 
+	 * @param stripes - the number of the stripes of the atomic arrays, ignored when the concurrent mode is switched off
+	 */
+	public synchronized void setConcurrent(boolean concurrent, int stripes) {
+		if (concurrent == (atomicCounterTable != null))
+			return;
+		
+		if (concurrent)
+		{
+			atomicStripes = AtomicUtils.getStripes(stripes);
+			atomicCounterTable = new AtomicIntegerArray(atomicStripes*N*N);
+			atomicSummaryTable = new AtomicIntegerArray(atomicStripes*N*N);
+			atomicThresholdTables = new AtomicIntegerArray[THRESHOLDS.length];
+			for (int t = 0; t < THRESHOLDS.length; t++)
+				atomicThresholdTables[t] = new AtomicIntegerArray(atomicStripes*N*N);
+		}
+		else
+		{
+			for (int s = 0; s < atomicStripes; s++)
+			{
+				for (int i=0; i < N; i++)
+				{
+					for (int j=0; j < N; j++) 
+					{
+						int index = s*N*N + i*N + j;
+						counterTable[i][j] += atomicCounterTable.get(index);
+						summaryTable[i][j] += atomicSummaryTable.get(index);
+						
+						for (int t = 0; t < THRESHOLDS.length; t++)
+							thresholdsMap.get(THRESHOLDS[t])[i][j] += atomicThresholdTables[t].get(index);
+					}
+				}
+			}
+			atomicCounterTable = null;
+			atomicSummaryTable = null;
+			atomicThresholdTables = null;
+			meanValues = null;
+			version++;
+		}
+	}
+
+	/**
+	 * Adds the counters of another matrix with the same range and size (e.g. computed by another thread)
+	 */
+	public void add(MappingQualityMatrix other)
+	{
+		version++;
+		for (int i=0; i < N; i++)
+		{
+			for (int j=0; j < N; j++) 
+			{
+				counterTable[i][j] += other.counterTable[i][j];
+				summaryTable[i][j] += other.summaryTable[i][j];
+				
+				for(Integer threshold: thresholdsMap.keySet()){
+					thresholdsMap.get(threshold)[i][j] += other.thresholdsMap.get(threshold)[i][j];
+				}
+			}
+		}
+	}
+
 	private int convertY(int y) {
-		return range.height == 0 ? N/2 :  
-			(int) (N*(y-range.getMinY())/(range.getHeight()+1));
+		return getBinner().binY(y);
 	}
 
 	private int convertX(int x) {
-		return range.width == 0 ? N/2 :  
-			(int) (N*(x-range.getMinX())/(range.getWidth()+1));
+		return getBinner().binX(x);
+	}
+
+	/**
+	 * The binner is created again, if the range has changed (e.g. the matrix was created before the tile was complete)
+	 */
+	private SubtileBinner getBinner() {
+		if (binner == null || !binner.isBinning(range))
+			binner = new SubtileBinner(range, N);
+		return binner;
 	}
 
 	public void createMeanMatrix()
 	{
 		meanValues = new double[N][N];
+		version++;
 		
 		for (int i=0; i < N; i++)
 		{
@@ -129,6 +239,10 @@ public class MappingQualityMatrix implements Serializable, JSONSerializable {
 		return range;
 	}
 	
+	public int getVersion() {
+		return version;
+	}
+
 	public int getSize() {
 		return N;
 	}	
@@ -149,6 +263,7 @@ public class MappingQualityMatrix implements Serializable, JSONSerializable {
 	public void mix(MappingQualityMatrix matrixTop,
 			MappingQualityMatrix matrixBottom, IMixOperation mixOperation) {
 
+		version++;
 		
 //		if (matrixTop.getRange().equals(matrixBottom.getRange()))
 		if (matrixTop != null && matrixBottom != null)
@@ -168,37 +283,19 @@ public class MappingQualityMatrix implements Serializable, JSONSerializable {
 	
 
 	public BufferedImage createBufferedImage(ColorPaintScale scale) {
-		
-		BufferedImage bi = new BufferedImage(N, N, BufferedImage.TYPE_INT_RGB);
-				
-		for (int i = 0; i < N; i++)
-		{
-			for (int j=0; j < N; j++)
-			{
-				Color c = scale.getPaint(getMeanValues()[i][j]);
-				bi.setRGB(i, N - 1 - j, c.getRGB());
-			}				
-		}
-		
-		return bi;
+		return HeatmapRaster.createImage(getMeanValues(), scale);
 	}
 
 	public BufferedImage createBufferedImageForThreshold(int threshold, ColorPaintScale scale) {
-		
-		BufferedImage bi = new BufferedImage(N, N, BufferedImage.TYPE_INT_RGB);
-				
-		double[][] data = getMeanMatrixByThreshold(threshold);
-		
-		for (int i = 0; i < N; i++)
-		{
-			for (int j=0; j < N; j++)
-			{
-				Color c = scale.getPaint(data[i][j]);
-				bi.setRGB(i, N - 1 - j, c.getRGB());
-			}				
-		}
-		
-		return bi;
+		return HeatmapRaster.createImage(getMeanMatrixByThreshold(threshold), scale);
+	}
+
+	public void paintImage(BufferedImage image, int x, int y, int size, ColorPaintScale scale) {
+		HeatmapRaster.paint(image, x, y, size, getMeanValues(), scale);
+	}
+
+	public void paintImageForThreshold(BufferedImage image, int x, int y, int size, int threshold, ColorPaintScale scale) {
+		HeatmapRaster.paint(image, x, y, size, getMeanMatrixByThreshold(threshold), scale);
 	}
 
 	// customized JSON Serialization
@@ -248,6 +345,7 @@ public class MappingQualityMatrix implements Serializable, JSONSerializable {
 	@Override
 	public void fromJSONObject(JSONObject jsonObject) {
 		
+		version++;
         // counterTable
 		JSONArray counterArray = (JSONArray) jsonObject.get(JSON_ATTR_COUNTER);
 		JSONSerializationUtils.json2matrix(counterArray, counterTable);
@@ -10,6 +10,6 @@ public class MeanDensityMatrixDataset extends MeanQualityMatrixDataset {
     public double getZValue(int series, int item) {
         int x = (int)(getXValue(series, item));
         int y = (int)(getYValue(series, item));
-        return matrix.getTotalValueCounter()[x][y];
+        return matrix.getTotalValue(x, y);
     }
 }
@@ -25,16 +25,22 @@
  */
 package org.csml.tommo.sugar.heatmap;
 
-import java.awt.Color;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.io.Serializable;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
+import org.csml.tommo.sugar.analysis.BinarySerializationUtils;
 import org.csml.tommo.sugar.analysis.JSONSerializable;
 import org.csml.tommo.sugar.modules.QualityHeatMapsPerTileAndBase;
 import org.csml.tommo.sugar.modules.heatmap.ETileSelection;
+import org.csml.tommo.sugar.sequence.TileIndex;
+import org.csml.tommo.sugar.utils.AtomicUtils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
 import org.json.simple.JSONValue;
@@ -49,6 +55,12 @@ public class MeanQualityMatrix implements Serializable, JSONSerializable {
 	private static final String JSON_ATTR_TOTAL = "total";
 	private static final String JSON_ATTR_NEGATIVE = "negative";
 	private static final String JSON_ATTR_QUALITY_COUNTER = "quality_counter";
+	private static final String JSON_ATTR_QUALITY_HISTOGRAM = "quality_histogram";
+	
+	/**
+	 * the normal quantile of the 95% confidence intervals
+	 */
+	private static final double CONFIDENCE_Z = 1.96;
 
 
 	protected int qualityThreshold;
@@ -57,9 +69,39 @@ public class MeanQualityMatrix implements Serializable, JSONSerializable {
 	 * Heat-map "resolution" 
 	 */	
 	protected int N;	
-	private int[][] negativeValueCounter;
-	private int[][] totalValueCounter;
-	private int[][] qualityCounter;
+	
+	/**
+	 * The counters are kept in the blocks of the QualityCounterStore,
+	 * the N x N values of this matrix start at the offset (row by row).
+	 * The negative and the quality counters are null after QualityCounterStore.compact() (see getNegativeValue).
+	 */
+	int[] negativeValueCounter;
+	int[] totalValueCounter;
+	int[] qualityCounter;
+	int offset;
+	
+	/**
+	 * Optional quality histogram of each entry (see QualityCounterStore),
+	 * the bins of the entry k start at (offset + k) * histogramBins.
+	 * The bins are bounded by the sorted histogramThresholds, histogramBinIndex has the bin of each quality below the last threshold.
+	 */
+	int[] qualityHistogram;
+	int histogramBins = 0;
+	int[] histogramThresholds;
+	int[] histogramBinIndex;
+	
+	/**
+	 * The counters in the concurrent mode of the QualityCounterStore (null otherwise),
+	 * only addQualityValue updates them. The arrays have atomicStripes stripes of atomicStripeLength counters
+	 * (the histogram: atomicStripeLength * histogramBins), each thread increments the counters of its stripe. 
+	 */
+	AtomicIntegerArray atomicNegativeValueCounter;
+	AtomicIntegerArray atomicTotalValueCounter;
+	AtomicIntegerArray atomicQualityCounter;
+	AtomicIntegerArray atomicQualityHistogram;
+	int atomicStripes = 1;
+	int atomicStripeLength;
+	
 	private int counter = 0;
 
 	public double[][] meanValues;
@@ -67,34 +109,209 @@ public class MeanQualityMatrix implements Serializable, JSONSerializable {
 	
 	private boolean[][] selectedEntries;
 
+	/**
+	 * counts the changes of the values shown by the heat-maps, the renderers reuse the images of an unchanged matrix
+	 * (the counters added by addQualityValue are shown after createMeanMatrix)
+	 */
+	private transient int version = 0;
+
 	Rectangle range;
 	
+	private transient SubtileBinner binner;
+	
 //	public MeanQualityMatrix(Rectangle range) {
 //		this(range, Options.getMatrixSize());
 //	}
 
 	public MeanQualityMatrix(Rectangle range, int size, int qualityThreshold) {
+		this(range, qualityThreshold, new QualityCounterStore(size, 1));
+	}
+
+	/**
+	 * Creates the matrix in the shared store (one store per module)
+	 */
+	public MeanQualityMatrix(Rectangle range, int qualityThreshold, QualityCounterStore store) {
+		this(range, qualityThreshold, store, TileIndex.NO_TILE);
+	}
+
+	/**
+	 * Creates the matrix in the blocks of its tile in the shared store (see QualityCounterStore.reserve)
+	 * 
+	 * @param tile - the ordinal of the tile in the TileIndex or TileIndex.NO_TILE
+	 */
+	public MeanQualityMatrix(Rectangle range, int qualityThreshold, QualityCounterStore store, int tile) {
 		this.range = range;
-		this.N = size;
-		negativeValueCounter = new int[N][N];		
-		totalValueCounter = new int[N][N];
-		qualityCounter = new int[N][N];
+		this.N = store.getSize();
 		this.qualityThreshold = qualityThreshold;
+		if (range != null)
+			this.binner = store.getBinner(range);
+		store.allocate(this, tile);
 	}
 
 	public int addQualityValue(int x, int y, int quality)
 	{
-		int xIndex = convertX(x);
-		int yIndex = convertY(y);		
+		SubtileBinner binner = getBinner();
+		int xIndex = binner.binX(x);
+		int yIndex = binner.binY(y);		
+		
+		int index = offset + xIndex*N + yIndex;
 		
-		totalValueCounter[xIndex][yIndex]++;
+		if (atomicTotalValueCounter != null)
+			return addConcurrentQualityValue(index, quality);
+		if (isCompacted())
+			throw new IllegalStateException("The counters are compacted");
+		
+		totalValueCounter[index]++;
 		
 		if (quality < qualityThreshold)
-			negativeValueCounter[xIndex][yIndex]++;
+			negativeValueCounter[index]++;
 		
-		qualityCounter[xIndex][yIndex] += quality;
+		qualityCounter[index] += quality;
 		
-		return totalValueCounter[xIndex][yIndex];
+		if (qualityHistogram != null)
+		{
+			int bin = getHistogramBin(quality);
+			if (bin >= 0)
+				qualityHistogram[index * histogramBins + bin]++;
+		}
+		
+		return totalValueCounter[index];
+	}
+	
+	/**
+	 * The same as addQualityValue, but the counters of the stripe of the thread are incremented atomically 
+	 * (several threads may add the values at once)
+	 * 
+	 * @return the total value of the entry in the stripe, the total of all stripes is known after the concurrent mode
+	 */
+	private int addConcurrentQualityValue(int index, int quality)
+	{
+		int stripeIndex = AtomicUtils.getStripe(atomicStripes) * atomicStripeLength + index;
+		int total = atomicTotalValueCounter.incrementAndGet(stripeIndex);
+		
+		if (quality < qualityThreshold)
+			atomicNegativeValueCounter.incrementAndGet(stripeIndex);
+		
+		atomicQualityCounter.addAndGet(stripeIndex, quality);
+		
+		if (atomicQualityHistogram != null)
+		{
+			int bin = getHistogramBin(quality);
+			if (bin >= 0)
+				atomicQualityHistogram.incrementAndGet(stripeIndex * histogramBins + bin);
+		}
+		
+		return total;
+	}
+	
+	/**
+	 * Adds the counters of another matrix with the same range and size (e.g. computed by another thread)
+	 * 
+	 * @return the maximum total value after the merge
+	 */
+	public int add(MeanQualityMatrix other)
+	{
+		if (isCompacted())
+			throw new IllegalStateException("The counters are compacted");
+		version++;
+		
+		int maxTotal = 0;
+		for (int k = 0; k < N*N; k++)
+		{
+			totalValueCounter[offset + k] += other.totalValueCounter[other.offset + k];
+			negativeValueCounter[offset + k] += other.getNegativeValue(k);
+			qualityCounter[offset + k] += other.getQualityValue(k);
+			
+			if (totalValueCounter[offset + k] > maxTotal)
+				maxTotal = totalValueCounter[offset + k];
+		}
+		
+		if (hasHistogram() && other.hasHistogram())
+		{
+			if (!Arrays.equals(histogramThresholds, other.histogramThresholds))
+				throw new IllegalArgumentException("The quality histograms have different thresholds: " + 
+						Arrays.toString(histogramThresholds) + ", " + Arrays.toString(other.histogramThresholds));
+			
+			int start = offset * histogramBins;
+			int otherStart = other.offset * other.histogramBins;
+			for (int k = 0; k < N*N*histogramBins; k++)
+				qualityHistogram[start + k] += other.qualityHistogram[otherStart + k];
+		}
+		return maxTotal;
+	}
+	
+	/**
+	 * @return the histogram bin of the quality or -1, if the quality is not below the last threshold (not counted)
+	 */
+	private int getHistogramBin(int quality) {
+		int q = Math.max(0, quality);
+		return q < histogramBinIndex.length ? histogramBinIndex[q] : -1;
+	}
+	
+	public boolean hasHistogram() {
+		return qualityHistogram != null;
+	}
+	
+	/**
+	 * @return true, if the matrix for the threshold can be computed from the quality histogram
+	 */
+	public boolean hasHistogramThreshold(int threshold) {
+		return hasHistogram() && Arrays.binarySearch(histogramThresholds, threshold) >= 0;
+	}
+	
+	/**
+	 * @return true, if the negative and the quality counters were released (QualityCounterStore.compact())
+	 */
+	public boolean isCompacted() {
+		return negativeValueCounter == null && atomicNegativeValueCounter == null;
+	}
+	
+	/**
+	 * @return the negative counter of the entry k (row by row), computed back from the mean value, if the counters are compacted
+	 */
+	private int getNegativeValue(int k) {
+		if (negativeValueCounter != null)
+			return negativeValueCounter[offset + k];
+		return (int) Math.round(meanValues[k / N][k % N] * totalValueCounter[offset + k]);
+	}
+	
+	/**
+	 * @return the quality counter of the entry k (row by row), computed back from the average quality, if the counters are compacted
+	 */
+	private int getQualityValue(int k) {
+		if (qualityCounter != null)
+			return qualityCounter[offset + k];
+		return (int) Math.round(averageQualities[k / N][k % N] * totalValueCounter[offset + k]);
+	}
+	
+	/**
+	 * Creates the matrix for another quality threshold from the quality histograms (#40)
+	 * 
+	 * The total and quality counters are copied, the negative counters are summed up from the histogram bins.
+	 * 
+	 * @param threshold - one of the thresholds of the histograms (see hasHistogramThreshold)
+	 * @param store - the store for the new matrix
+	 */
+	public MeanQualityMatrix createThresholdMatrix(int threshold, QualityCounterStore store) {
+		if (!hasHistogram())
+			throw new IllegalStateException("The quality histogram is not available");
+		if (!hasHistogramThreshold(threshold))
+			throw new IllegalArgumentException("The quality histogram supports the thresholds " + Arrays.toString(histogramThresholds) + ": " + threshold);
+		
+		MeanQualityMatrix result = new MeanQualityMatrix(range, threshold, store);
+		int bins = Arrays.binarySearch(histogramThresholds, threshold) + 1;
+		for (int k = 0; k < N*N; k++)
+		{
+			int negative = 0;
+			int start = (offset + k) * histogramBins;
+			for (int b = 0; b < bins; b++)
+				negative += qualityHistogram[start + b];
+			
+			result.negativeValueCounter[result.offset + k] = negative;
+			result.totalValueCounter[result.offset + k] = totalValueCounter[offset + k];
+			result.qualityCounter[result.offset + k] = getQualityValue(k);
+		}
+		return result;
 	}
 	
 	public double getMeanQualityValue(int xCoord, int yCoord)
@@ -119,49 +336,62 @@ public class MeanQualityMatrix implements Serializable, JSONSerializable {
 	}
 
 	private int convertY(int y) {
-		return range.height == 0 ? N/2 :  
-			(int) (N*(y-range.getMinY())/(range.getHeight()+1));
+		return getBinner().binY(y);
 	}
 
 	private int convertX(int x) {
-		return range.width == 0 ? N/2 :  
-			(int) (N*(x-range.getMinX())/(range.getWidth()+1));
+		return getBinner().binX(x);
+	}
+
+	/**
+	 * The binner is created again, if the range has changed (e.g. the matrix was created before the tile was complete)
+	 */
+	private SubtileBinner getBinner() {
+		if (binner == null || !binner.isBinning(range))
+			binner = new SubtileBinner(range, N);
+		return binner;
 	}
 
 	public void createMeanMatrix()
 	{
+		// the compacted counters are computed from the mean values
+		if (isCompacted() && meanValues != null)
+			return;
+		
 		meanValues = new double[N][N];
 		counter = 0;
+		version++;
 		
 		for (int i =0; i < N; i++)
 		{
 			for (int j =0; j < N; j++) 
 			{
-				meanValues[i][j] = totalValueCounter[i][j] > 0 ? 
-						(double) negativeValueCounter[i][j] / (double) totalValueCounter[i][j] : 
+				meanValues[i][j] = totalValueCounter[offset + i*N + j] > 0 ? 
+						(double) negativeValueCounter[offset + i*N + j] / (double) totalValueCounter[offset + i*N + j] : 
 							0;
 						
-				counter += totalValueCounter[i][j]; 
+				counter += totalValueCounter[offset + i*N + j]; 
 			}
 		}
-		
-		negativeValueCounter = null;
 	}
 
 	public void createAverageQualityMatrix()
 	{
+		if (isCompacted() && averageQualities != null)
+			return;
+		
 		averageQualities = new double[N][N];
+		version++;
 		
 		for (int i =0; i < N; i++)
 		{
 			for (int j =0; j < N; j++) 
 			{
-				averageQualities[i][j] = totalValueCounter[i][j] > 0 ? 
-						(double) qualityCounter[i][j] / (double) totalValueCounter[i][j] : 
+				averageQualities[i][j] = totalValueCounter[offset + i*N + j] > 0 ? 
+						(double) qualityCounter[offset + i*N + j] / (double) totalValueCounter[offset + i*N + j] : 
 							0;						
 			}
 		}
-		qualityCounter = null;
 	}
 
 	public double[][] getMeanValues(){
@@ -178,8 +408,122 @@ public class MeanQualityMatrix implements Serializable, JSONSerializable {
 		return averageQualities;
 	}
 
-	public int[][] getTotalValueCounter(){
-		return totalValueCounter;
+	public int getTotalValue(int x, int y){
+		return totalValueCounter[offset + x*N + y];
+	}
+	
+	/**
+	 * @return the maximum total value of the entries
+	 */
+	public int getMaxTotalValue() {
+		int maxTotal = 0;
+		for (int k = 0; k < N*N; k++)
+		{
+			if (totalValueCounter[offset + k] > maxTotal)
+				maxTotal = totalValueCounter[offset + k];
+		}
+		return maxTotal;
+	}
+	
+	/**
+	 * The half-width of the 95% (Wilson score) confidence interval of a ratio, e.g. of the low quality ratio of an entry 
+	 * 
+	 * @param ratio - the ratio of the total values
+	 * @return the half-width or 1 for no values
+	 */
+	public static double getConfidenceHalfWidth(double ratio, int total) {
+		return getConfidenceHalfWidth(ratio, total, CONFIDENCE_Z);
+	}
+	
+	/**
+	 * @param z - the normal quantile of the confidence (see getNormalQuantile)
+	 */
+	public static double getConfidenceHalfWidth(double ratio, int total, double z) {
+		if (total <= 0)
+			return 1;
+		
+		double z2 = z * z;
+		return z * Math.sqrt(ratio * (1 - ratio) / total + z2 / (4.0 * total * total)) / (1 + z2 / total);
+	}
+	
+	/**
+	 * @return the center of the Wilson score interval, which is shifted from the ratio towards 1/2
+	 */
+	public static double getConfidenceCenter(double ratio, int total, double z) {
+		if (total <= 0)
+			return 0.5;
+		
+		double z2 = z * z;
+		return (ratio + z2 / (2.0 * total)) / (1 + z2 / total);
+	}
+	
+	/**
+	 * The normal quantile of a two-sided confidence interval, e.g. 1.96 for 0.95 
+	 * (Abramowitz and Stegun 26.2.23, the error is below 4.5e-4)
+	 * 
+	 * @param confidence - between 0 and 1
+	 */
+	public static double getNormalQuantile(double confidence) {
+		double p = (1 - confidence) / 2;
+		double t = Math.sqrt(-2 * Math.log(p));
+		return t - (2.515517 + 0.802853 * t + 0.010328 * t * t) / (1 + 1.432788 * t + 0.189269 * t * t + 0.001308 * t * t * t);
+	}
+	
+	/**
+	 * Counts the entries, whose low quality ratio is above or below the ratio with the confidence: 
+	 * the Wilson score interval (normal quantile z) of the entry does not contain the ratio.
+	 * The entries, which no coordinates of the range fall into, are decided too.
+	 */
+	public int getDecidedEntries(double ratio, double z) {
+		SubtileBinner binner = getBinner();
+		int decided = 0;
+		for (int i = 0; i < N; i++)
+		{
+			for (int j = 0; j < N; j++)
+			{
+				int total = totalValueCounter[offset + i*N + j];
+				if (total == 0)
+				{
+					if (binner.isEmpty(i, j))
+						decided++;
+					continue;
+				}
+				
+				double entryRatio = (double) getNegativeValue(i*N + j) / total;
+				double center = getConfidenceCenter(entryRatio, total, z);
+				double halfWidth = getConfidenceHalfWidth(entryRatio, total, z);
+				if (center - halfWidth > ratio || center + halfWidth < ratio)
+					decided++;
+			}
+		}
+		return decided;
+	}
+	
+	/**
+	 * @return true, if all entries are decided (see getDecidedEntries), the check stops at the first undecided entry
+	 */
+	public boolean isDecided(double ratio, double z) {
+		SubtileBinner binner = getBinner();
+		for (int i = 0; i < N; i++)
+		{
+			for (int j = 0; j < N; j++)
+			{
+				int total = totalValueCounter[offset + i*N + j];
+				if (total == 0)
+				{
+					if (!binner.isEmpty(i, j))
+						return false;
+					continue;
+				}
+				
+				double entryRatio = (double) getNegativeValue(i*N + j) / total;
+				double center = getConfidenceCenter(entryRatio, total, z);
+				double halfWidth = getConfidenceHalfWidth(entryRatio, total, z);
+				if (center - halfWidth <= ratio && center + halfWidth >= ratio)
+					return false;
+			}
+		}
+		return true;
 	}
 	
 	public Rectangle getRange() {
@@ -194,6 +538,10 @@ public class MeanQualityMatrix implements Serializable, JSONSerializable {
 		return qualityThreshold;
 	}
 	
+	public int getVersion() {
+		return version;
+	}
+
 	public int getCounter() {
 		return counter;
 	}
@@ -220,6 +568,7 @@ public class MeanQualityMatrix implements Serializable, JSONSerializable {
 	public void mix(MeanQualityMatrix matrixTop,
 			MeanQualityMatrix matrixBottom, IMixOperation mixOperation) {
 
+		version++;
 		
 //		if (matrixTop.getRange().equals(matrixBottom.getRange()))
 		if (matrixTop != null && matrixBottom != null)
@@ -231,12 +580,12 @@ public class MeanQualityMatrix implements Serializable, JSONSerializable {
 			double[][] topQ = matrixTop.getAverageQualityMatrix();
 			double[][] bottomQ = matrixBottom.getAverageQualityMatrix();
 			
-			int[][] topTotal = matrixTop.totalValueCounter;
-			int[][] bottomTotal = matrixBottom.totalValueCounter;
+			int[] topTotal = matrixTop.totalValueCounter;
+			int[] bottomTotal = matrixBottom.totalValueCounter;
 			
 			for (int i=0; i<N; i++)
 				for (int j=0; j<N; j++){
-					totalValueCounter[i][j] = (topTotal[i][j] + bottomTotal[i][j]) / 2;
+					totalValueCounter[offset + i*N + j] = (topTotal[matrixTop.offset + i*N + j] + bottomTotal[matrixBottom.offset + i*N + j]) / 2;
 					resultM[i][j] = mixOperation.mix(topM[i][j], bottomM[i][j]);
 					resultQ[i][j] = mixOperation.mix(topQ[i][j], bottomQ[i][j]);
 				}
@@ -249,57 +598,36 @@ public class MeanQualityMatrix implements Serializable, JSONSerializable {
 	
 
 	public BufferedImage createBufferedImage(ColorPaintScale scale) {
-		
-		BufferedImage bi = new BufferedImage(N, N, BufferedImage.TYPE_INT_RGB);
-				
-		for (int i = 0; i < N; i++)
-		{
-			for (int j=0; j < N; j++)
-			{
-				Color c = scale.getPaint(getMeanValues()[i][j]);
-				bi.setRGB(i, N - 1 - j, c.getRGB());
-			}				
-		}
-		
-		return bi;
+		return HeatmapRaster.createImage(getMeanValues(), scale);
+	}
+	
+	/**
+	 * Paints the mean values directly into the size x size square of the image at (x, y) - e.g. the lane image of the report
+	 */
+	public void paintImage(BufferedImage image, int x, int y, int size, ColorPaintScale scale) {
+		HeatmapRaster.paint(image, x, y, size, getMeanValues(), scale);
 	}
 	
 	public BufferedImage createDensityBufferedImage(ColorPaintScale paintScale) {
-		BufferedImage bi = new BufferedImage(N, N, BufferedImage.TYPE_INT_RGB);
 		
 		// make sure that the counter is initialized 
 		getMeanValues();
 		
-		for (int i = 0; i < N; i++)
-		{
-			for (int j=0; j < N; j++)
-			{
-				Color c = paintScale.getPaint(totalValueCounter[i][j]);
-				bi.setRGB(i, N - 1 - j, c.getRGB());
-			}				
-		}
-		
-		return bi;
+		return HeatmapRaster.createImage(totalValueCounter, offset, N, paintScale);
+	}
+	
+	public void paintDensityImage(BufferedImage image, int x, int y, int size, ColorPaintScale paintScale) {
+		HeatmapRaster.paint(image, x, y, size, totalValueCounter, offset, N, paintScale);
 	}
 	
 	public BufferedImage createAverageQualityBufferedImage(ColorPaintScale paintScale) {
-		BufferedImage bi = new BufferedImage(N, N, BufferedImage.TYPE_INT_RGB);
-		
-		// make sure that the counter is initialized 
-		getAverageQualityMatrix();
-		
-		for (int i = 0; i < N; i++)
-		{
-			for (int j=0; j < N; j++)
-			{
-				Color c = paintScale.getPaint(getAverageQualityMatrix()[i][j]);
-				bi.setRGB(i, N - 1 - j, c.getRGB());
-			}				
-		}
-		
-		return bi;
+		return HeatmapRaster.createImage(getAverageQualityMatrix(), paintScale);
 	}	
 	
+	public void paintAverageQualityImage(BufferedImage image, int x, int y, int size, ColorPaintScale paintScale) {
+		HeatmapRaster.paint(image, x, y, size, getAverageQualityMatrix(), paintScale);
+	}
+	
 	// customized JSON Serialization
 
 	@Override
@@ -326,9 +654,9 @@ public class MeanQualityMatrix implements Serializable, JSONSerializable {
 		{
 			for (int j=0; j<N; j++) 
 			{
-				negativeArray.add(negativeValueCounter[i][j]);
-				totalArray.add(totalValueCounter[i][j]);
-				qualityCounterArray.add(qualityCounter[i][j]);
+				negativeArray.add(getNegativeValue(i*N + j));
+				totalArray.add(totalValueCounter[offset + i*N + j]);
+				qualityCounterArray.add(getQualityValue(i*N + j));
 			}
 		}		
 		
@@ -336,12 +664,23 @@ public class MeanQualityMatrix implements Serializable, JSONSerializable {
         obj.put(JSON_ATTR_TOTAL, totalArray);
         obj.put(JSON_ATTR_QUALITY_COUNTER, qualityCounterArray);
         
+        if (hasHistogram())
+        {
+    		JSONArray histogramArray = new JSONArray();
+    		int start = offset * histogramBins;
+    		for (int k = 0; k < N*N*histogramBins; k++)
+    			histogramArray.add(qualityHistogram[start + k]);
+    		
+            obj.put(JSON_ATTR_QUALITY_HISTOGRAM, histogramArray);
+        }
+        
 		return obj;
 	}
 
 	@Override
 	public void fromJSONObject(JSONObject jsonObject) {
 		
+		version++;
 		JSONArray negativeArray = (JSONArray) jsonObject.get(JSON_ATTR_NEGATIVE);
 		JSONArray totalArray = (JSONArray) jsonObject.get(JSON_ATTR_TOTAL);
 		JSONArray qualityCounterArray = (JSONArray) jsonObject.get(JSON_ATTR_QUALITY_COUNTER);
@@ -350,16 +689,67 @@ public class MeanQualityMatrix implements Serializable, JSONSerializable {
 		{
 			for (int j=0; j<N; j++) 
 			{
-				negativeValueCounter[i][j] = new Integer(negativeArray.get(i*N+j).toString());
-				totalValueCounter[i][j] = new Integer(totalArray.get(i*N+j).toString());
-				qualityCounter[i][j] = new Integer(qualityCounterArray.get(i*N+j).toString());
+				negativeValueCounter[offset + i*N + j] = Integer.parseInt(negativeArray.get(i*N+j).toString());
+				totalValueCounter[offset + i*N + j] = Integer.parseInt(totalArray.get(i*N+j).toString());
+				qualityCounter[offset + i*N + j] = Integer.parseInt(qualityCounterArray.get(i*N+j).toString());
 			}
 		}		
 		
+		JSONArray histogramArray = (JSONArray) jsonObject.get(JSON_ATTR_QUALITY_HISTOGRAM);
+		if (hasHistogram() && histogramArray != null)
+		{
+			int start = offset * histogramBins;
+			for (int k = 0; k < N*N*histogramBins; k++)
+				qualityHistogram[start + k] = Integer.parseInt(histogramArray.get(k).toString());
+		}
+		
         
         
 	}
 
+	// binary serialization (cache)
+	
+	/**
+	 * Writes the counters (negative, total, quality and the histogram) as raw ints
+	 */
+	public void writeCounters(ByteBuffer buffer, FileChannel channel) throws IOException {
+		if (isCompacted())
+		{
+			int[] negative = new int[N*N];
+			int[] quality = new int[N*N];
+			for (int k = 0; k < N*N; k++)
+			{
+				negative[k] = getNegativeValue(k);
+				quality[k] = getQualityValue(k);
+			}
+			BinarySerializationUtils.putInts(buffer, channel, negative, 0, N*N);
+			BinarySerializationUtils.putInts(buffer, channel, totalValueCounter, offset, N*N);
+			BinarySerializationUtils.putInts(buffer, channel, quality, 0, N*N);
+		}
+		else
+		{
+			BinarySerializationUtils.putInts(buffer, channel, negativeValueCounter, offset, N*N);
+			BinarySerializationUtils.putInts(buffer, channel, totalValueCounter, offset, N*N);
+			BinarySerializationUtils.putInts(buffer, channel, qualityCounter, offset, N*N);
+		}
+		if (hasHistogram())
+			BinarySerializationUtils.putInts(buffer, channel, qualityHistogram, offset * histogramBins, N*N*histogramBins);
+	}
+	
+	/**
+	 * Reads the counters written by writeCounters() 
+	 */
+	public void readCounters(ByteBuffer buffer) {
+		version++;
+		BinarySerializationUtils.getInts(buffer, negativeValueCounter, offset, N*N);
+		BinarySerializationUtils.getInts(buffer, totalValueCounter, offset, N*N);
+		BinarySerializationUtils.getInts(buffer, qualityCounter, offset, N*N);
+		if (hasHistogram())
+			BinarySerializationUtils.getInts(buffer, qualityHistogram, offset * histogramBins, N*N*histogramBins);
+	}
+	
+	// binary serialization (cache)
+
 	public Double getMeanRatio() {
 		
 		Double result = 0.0;
@@ -369,8 +759,8 @@ public class MeanQualityMatrix implements Serializable, JSONSerializable {
 		{
 			for (int j=0; j<N; j++) 
 			{
-				result += meanValues[i][j]*totalValueCounter[i][j];
-				valueCounter += totalValueCounter[i][j];				
+				result += meanValues[i][j]*totalValueCounter[offset + i*N + j];
+				valueCounter += totalValueCounter[offset + i*N + j];				
 			}
 		}
 		
@@ -431,12 +821,13 @@ public class MeanQualityMatrix implements Serializable, JSONSerializable {
 //		return true;
 //	}
 
-	public boolean isSelectedRange(Integer xCoord, Integer yCoord) {
+	public boolean isSelectedRange(int xCoord, int yCoord) {
 		if (selectedEntries == null)
 			return false;
 		
-		int xIndex = convertX(xCoord);
-		int yIndex = convertY(yCoord);		
+		SubtileBinner binner = getBinner();
+		int xIndex = binner.binX(xCoord);
+		int yIndex = binner.binY(yCoord);		
 
 		return selectedEntries[xIndex][yIndex];
 	}
@@ -0,0 +1,427 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.heatmap;
+
+import java.awt.Rectangle;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.csml.tommo.sugar.sequence.TileIndex;
+import org.csml.tommo.sugar.utils.AtomicUtils;
+
+/**
+ * Class QualityCounterStore
+ *
+ * Keeps the counters (negative, total, quality) of many MeanQualityMatrix objects of the same size
+ * in a few large int arrays (blocks) instead of three int[N][N] arrays per matrix.
+ *
+ * Each matrix is a view of one N x N slot of a block. The counters are indexed densely by the tile ordinal 
+ * of the TileIndex: the matrices of a tile are kept in the blocks of the tile, base position after base position
+ * (tile, base position, x, y). The block of a tile is allocated for all base positions of its reads (see reserve),
+ * so a read updates one contiguous range of counters and no slots are left empty. Only a tile with longer
+ * reads later gets another block for its further base positions.
+ *
+ * The matrices without a tile ordinal (e.g. of a MeanQualityMatrix created on its own) share blocks, which grow
+ * from MIN_MATRICES_PER_BLOCK up to MAX_MATRICES_PER_BLOCK slots, so small files do not allocate the memory of a full block.
+ *
+ * The matrices stay views of the blocks (and not only offsets into one array of the lane): the heatmaps, the cache 
+ * and the merging of the partial results work on single matrices, and the blocks of a tile can be added 
+ * in the concurrent mode without moving the counters, which the other threads are updating.
+ *
+ * Optionally the store keeps a compact quality histogram for each entry (#40). The bins are bounded by the
+ * requested thresholds t0 < t1 < ... : the bin 0 counts the qualities below t0, the bin k the qualities from t(k-1)
+ * to below tk, the qualities from the last threshold on are not counted (they are the total minus the bins).
+ * So the negative counter of each requested threshold is the sum of its bin and the bins below it,
+ * and the histogram takes one int per threshold instead of one per quality value.
+ *
+ * In the concurrent mode (see setConcurrent) the blocks are kept in atomic arrays, so several threads
+ * can add the quality values to the same matrices without locks and without a merge step.
+ * The atomic arrays have a stripe (a copy of the counters) for each thread, so the threads do not contend
+ * for the counters of the same cells; the stripes are summed up, when the concurrent mode is switched off.
+ *
+ * When the analysis is complete, compact() releases the negative and the quality counters: the matrices keep
+ * their mean values and average qualities instead.
+ *
+ */
+public class QualityCounterStore implements Serializable {
+
+	private static final long serialVersionUID = -3185404421094781640L;
+
+	public static final int MIN_MATRICES_PER_BLOCK = 16;
+	public static final int MAX_MATRICES_PER_BLOCK = 256;
+
+	private final int N;
+	private final int maxMatricesPerBlock;
+	private final int histogramBins;
+	
+	/**
+	 * the sorted distinct thresholds, which bound the histogram bins, and the bin of each quality value below the last one
+	 */
+	private final int[] histogramThresholds;
+	private final int[] histogramBinIndex;
+
+	/**
+	 * all blocks, the current block of each tile ordinal and the current block of the matrices without a tile
+	 */
+	private final List<CounterBlock> blocks = new ArrayList<CounterBlock>();
+	private final List<CounterBlock> tileBlocks = new ArrayList<CounterBlock>();
+	private CounterBlock sharedBlock;
+	private boolean concurrent = false;
+	private int stripes = 1;
+	private boolean compacted = false;
+
+	private int matrixCount = 0;
+	private long allocatedBytes = 0;
+
+	/**
+	 * The matrices of one tile are created one after another, so they share the binner of the tile range
+	 */
+	private transient SubtileBinner lastBinner;
+
+	public QualityCounterStore(int size) {
+		this(size, MAX_MATRICES_PER_BLOCK);
+	}
+
+	public QualityCounterStore(int size, int maxMatricesPerBlock) {
+		this(size, maxMatricesPerBlock, null);
+	}
+
+	/**
+	 * @param histogramThresholds - the thresholds of the quality histograms (in any order), null to keep no histograms
+	 */
+	public QualityCounterStore(int size, int maxMatricesPerBlock, Integer[] histogramThresholds) {
+		this.N = size;
+		this.maxMatricesPerBlock = maxMatricesPerBlock;
+		this.histogramThresholds = getHistogramThresholds(histogramThresholds);
+		this.histogramBins = this.histogramThresholds.length;
+		
+		int maxThreshold = histogramBins > 0 ? Math.max(0, this.histogramThresholds[histogramBins - 1]) : 0;
+		this.histogramBinIndex = new int[maxThreshold];
+		for (int q = 0, bin = 0; q < maxThreshold; q++)
+		{
+			while (q >= this.histogramThresholds[bin])
+				bin++;
+			histogramBinIndex[q] = bin;
+		}
+	}
+	
+	/**
+	 * @return the sorted distinct thresholds or an empty array for null
+	 */
+	public static int[] getHistogramThresholds(Integer[] thresholds) {
+		if (thresholds == null)
+			return new int[0];
+		
+		SortedSet<Integer> sorted = new TreeSet<Integer>(Arrays.asList(thresholds));
+		int[] result = new int[sorted.size()];
+		int i = 0;
+		for (Integer threshold : sorted)
+			result[i++] = threshold;
+		return result;
+	}
+
+	/**
+	 * Assigns a new (zeroed) slot to the matrix
+	 * 
+	 * @param tile - the ordinal of the tile of the matrix in the TileIndex or TileIndex.NO_TILE
+	 */
+	synchronized void allocate(MeanQualityMatrix matrix, int tile) {
+		CounterBlock block = (tile == TileIndex.NO_TILE) ? sharedBlock : getTileBlock(tile);
+		if (block == null || block.used == block.capacity)
+		{
+			if (tile == TileIndex.NO_TILE)
+			{
+				int capacity = (sharedBlock == null) ?
+						Math.min(MIN_MATRICES_PER_BLOCK, maxMatricesPerBlock) :
+						Math.min(sharedBlock.capacity * 2, maxMatricesPerBlock);
+				block = sharedBlock = addBlock(capacity);
+			}
+			else
+			{
+				// the matrices were not reserved, e.g. a matrix merged from a partial result
+				block = addBlock(Math.min(MIN_MATRICES_PER_BLOCK, maxMatricesPerBlock));
+				setTileBlock(tile, block);
+			}
+		}
+
+		matrix.offset = block.used * N * N;
+		if (histogramBins > 0)
+		{
+			matrix.histogramBins = histogramBins;
+			matrix.histogramThresholds = histogramThresholds;
+			matrix.histogramBinIndex = histogramBinIndex;
+		}
+		// the matrices are reassigned only by setConcurrent, which is not allowed after the compaction
+		if (!compacted)
+			block.matrices.add(matrix);
+		block.assign(matrix);
+
+		block.used++;
+		matrixCount++;
+	}
+
+	/**
+	 * Makes room for the next matrices of the tile in one block, e.g. for the matrices of all base positions 
+	 * of the first read of the tile. The free slots of the current block of the tile are left, if they are too few.
+	 * 
+	 * @param tile - the ordinal of the tile in the TileIndex, nothing is reserved for TileIndex.NO_TILE
+	 * @param matrices - the number of the matrices, which the tile gets next
+	 */
+	public synchronized void reserve(int tile, int matrices) {
+		if (tile == TileIndex.NO_TILE || matrices <= 0)
+			return;
+		
+		CounterBlock block = getTileBlock(tile);
+		if (block == null || block.capacity - block.used < matrices)
+			setTileBlock(tile, addBlock(matrices));
+	}
+
+	private CounterBlock addBlock(int capacity) {
+		CounterBlock block = new CounterBlock(capacity, capacity * N * N, histogramBins);
+		if (concurrent)
+			block.toAtomic(stripes);
+		blocks.add(block);
+		
+		allocatedBytes += 4L * capacity * N * N * (3 + histogramBins);
+		return block;
+	}
+
+	private CounterBlock getTileBlock(int tile) {
+		return tile < tileBlocks.size() ? tileBlocks.get(tile) : null;
+	}
+
+	private void setTileBlock(int tile, CounterBlock block) {
+		while (tileBlocks.size() <= tile)
+			tileBlocks.add(null);
+		tileBlocks.set(tile, block);
+	}
+
+	/**
+	 * Switches the counters of all matrices between the int arrays and the atomic arrays.
+	 * 
+	 * In the concurrent mode MeanQualityMatrix.addQualityValue may be called by several threads at once 
+	 * (each counter is incremented by AtomicIntegerArray, no locks are taken). The other methods of the matrices
+	 * read the int arrays, so they may be called only after the concurrent mode is switched off.
+	 * 
+	 * Each block takes 'stripes' times its memory in the concurrent mode. The blocks are converted one by one, 
+	 * so only one block is kept in both forms during the conversion.
+	 * 
+	 * @param stripes - the number of the stripes of the atomic arrays (see AtomicUtils.getStripes)
+	 */
+	public synchronized void setConcurrent(boolean concurrent, int stripes) {
+		if (this.concurrent == concurrent)
+			return;
+		if (compacted)
+			throw new IllegalStateException("The counters are compacted");
+		
+		this.concurrent = concurrent;
+		this.stripes = concurrent ? AtomicUtils.getStripes(stripes) : 1;
+		for (CounterBlock block : blocks)
+		{
+			if (concurrent)
+				block.toAtomic(this.stripes);
+			else
+				block.toInts();
+			
+			for (MeanQualityMatrix matrix : block.matrices)
+				block.assign(matrix);
+		}
+	}
+
+	public synchronized boolean isConcurrent() {
+		return concurrent;
+	}
+
+	/**
+	 * Creates the mean and the average quality matrices of all matrices and releases the negative and the quality counters,
+	 * so only the total counters (and the histograms) are kept. The released counters are computed back from the mean values
+	 * by the matrices (e.g. to write the cache), but no quality values may be added after the compaction.
+	 * 
+	 * The matrices created later get the slots of new blocks.
+	 */
+	public synchronized void compact() {
+		if (compacted || concurrent)
+			return;
+		
+		compacted = true;
+		for (CounterBlock block : blocks)
+		{
+			for (MeanQualityMatrix matrix : block.matrices)
+			{
+				matrix.getMeanValues();
+				matrix.getAverageQualityMatrix();
+			}
+			
+			allocatedBytes -= 4L * (block.negative.length + block.quality.length);
+			block.negative = block.quality = null;
+			for (MeanQualityMatrix matrix : block.matrices)
+				block.assign(matrix);
+			
+			// the counters are final, the block need not keep the matrices any more
+			block.matrices.clear();
+			block.used = block.capacity;
+		}
+	}
+
+	public synchronized boolean isCompacted() {
+		return compacted;
+	}
+
+	/**
+	 * @return the binner for the range, the same one as for the previous matrix, if the range did not change
+	 */
+	synchronized SubtileBinner getBinner(Rectangle range) {
+		if (lastBinner == null || !lastBinner.isBinning(range))
+			lastBinner = new SubtileBinner(range, N);
+		return lastBinner;
+	}
+
+	public int getSize() {
+		return N;
+	}
+
+	public int getHistogramBins() {
+		return histogramBins;
+	}
+
+	/**
+	 * @return the sorted thresholds of the quality histograms
+	 */
+	public int[] getHistogramThresholds() {
+		return histogramThresholds.clone();
+	}
+
+	public boolean hasHistograms() {
+		return histogramBins > 0;
+	}
+
+	public int getMatrixCount() {
+		return matrixCount;
+	}
+
+	/**
+	 * @return the size of the counter blocks allocated so far
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * The counters of 'capacity' matrices, either in the int arrays or in the atomic arrays
+	 * (the stripes one after another, each one of the length of the int arrays)
+	 */
+	private static class CounterBlock implements Serializable {
+
+		private static final long serialVersionUID = 2915412646371658093L;
+
+		private int[] negative;
+		private int[] total;
+		private int[] quality;
+		private int[] histogram;
+
+		private AtomicIntegerArray atomicNegative;
+		private AtomicIntegerArray atomicTotal;
+		private AtomicIntegerArray atomicQuality;
+		private AtomicIntegerArray atomicHistogram;
+		private int stripes = 1;
+
+		private final int capacity;
+		private final int length;
+		private final List<MeanQualityMatrix> matrices = new ArrayList<MeanQualityMatrix>();
+		private int used = 0;
+
+		CounterBlock(int capacity, int length, int histogramBins) {
+			this.capacity = capacity;
+			this.length = length;
+			negative = new int[length];
+			total = new int[length];
+			quality = new int[length];
+			if (histogramBins > 0)
+				histogram = new int[length * histogramBins];
+		}
+
+		/**
+		 * The counters are copied to the first stripe
+		 */
+		void toAtomic(int stripes) {
+			this.stripes = stripes;
+			atomicNegative = toAtomic(negative, stripes);
+			atomicTotal = toAtomic(total, stripes);
+			atomicQuality = toAtomic(quality, stripes);
+			if (histogram != null)
+				atomicHistogram = toAtomic(histogram, stripes);
+			negative = total = quality = histogram = null;
+		}
+
+		private static AtomicIntegerArray toAtomic(int[] array, int stripes) {
+			AtomicIntegerArray result = new AtomicIntegerArray(array.length * stripes);
+			for (int i = 0; i < array.length; i++)
+				result.lazySet(i, array[i]);
+			return result;
+		}
+
+		/**
+		 * The stripes are summed up
+		 */
+		void toInts() {
+			negative = toInts(atomicNegative, stripes);
+			total = toInts(atomicTotal, stripes);
+			quality = toInts(atomicQuality, stripes);
+			if (atomicHistogram != null)
+				histogram = toInts(atomicHistogram, stripes);
+			atomicNegative = atomicTotal = atomicQuality = atomicHistogram = null;
+			stripes = 1;
+		}
+
+		private static int[] toInts(AtomicIntegerArray array, int stripes) {
+			int[] result = new int[array.length() / stripes];
+			for (int i = 0, s = 0; s < stripes; s++)
+			{
+				for (int k = 0; k < result.length; k++)
+					result[k] += array.get(i++);
+			}
+			return result;
+		}
+
+		void assign(MeanQualityMatrix matrix) {
+			matrix.negativeValueCounter = negative;
+			matrix.totalValueCounter = total;
+			matrix.qualityCounter = quality;
+			matrix.qualityHistogram = histogram;
+			matrix.atomicNegativeValueCounter = atomicNegative;
+			matrix.atomicTotalValueCounter = atomicTotal;
+			matrix.atomicQualityCounter = atomicQuality;
+			matrix.atomicQualityHistogram = atomicHistogram;
+			matrix.atomicStripes = stripes;
+			matrix.atomicStripeLength = length;
+		}
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.heatmap;
+
+import java.awt.Rectangle;
+
+/**
+ * Class SubtileBinner
+ *
+ * Converts the x-, y- coordinates of a read to the subtile (bin) indices of a N x N heatmap of a tile:
+ * 
+ *   bin = (int) (N * (x - range.x) / (range.width + 1))     or N/2 for range.width == 0
+ * 
+ * The division is replaced by a fixed-point reciprocal multiplier computed once per tile range.
+ * The multiplier is checked against the exact bins at all bin boundaries, so the bins are exactly the same 
+ * as computed by the division. Coordinates outside of the range (and the ranges where the check fails) 
+ * use the integer division, which truncates the same way as the (int) cast of the double quotient.
+ *
+ */
+public class SubtileBinner {
+
+	private static final int SHIFT = 40;
+
+	private final int N;
+	private final int minX;
+	private final int minY;
+	private final int width;
+	private final int height;
+
+	/**
+	 * the number of the x-, y- coordinates in the range (width + 1, height + 1) 
+	 * and the multipliers, 0 if the division is used
+	 */
+	private final int xLength;
+	private final int yLength;
+	private final long xMultiplier;
+	private final long yMultiplier;
+
+	public SubtileBinner(Rectangle range, int size) {
+		this.N = size;
+		this.minX = range.x;
+		this.minY = range.y;
+		this.width = range.width;
+		this.height = range.height;
+		this.xLength = width + 1;
+		this.yLength = height + 1;
+		this.xMultiplier = computeMultiplier(xLength, size);
+		this.yMultiplier = computeMultiplier(yLength, size);
+	}
+
+	/**
+	 * @return true, if the binner was created for the range (the ranges of the TileTree grow while the tile is read)
+	 */
+	public boolean isBinning(Rectangle range) {
+		return range.x == minX && range.y == minY && range.width == width && range.height == height;
+	}
+
+	public int getSize() {
+		return N;
+	}
+
+	/**
+	 * @return true, if no coordinates of the range fall into the bin (e.g. the ranges narrower than N)
+	 */
+	public boolean isEmpty(int xBin, int yBin) {
+		return isEmptyBin(xBin, xLength) || isEmptyBin(yBin, yLength);
+	}
+
+	private boolean isEmptyBin(int bin, int length) {
+		if (length == 1)
+			return bin != N/2;
+		if (length >= N)
+			return false;
+
+		// the first offset, which is not in the lower bins
+		long d = ((long) bin * length + N - 1) / N;
+		return d >= length || (int) (N * d / length) != bin;
+	}
+
+	public int binX(int x) {
+		return bin(x - minX, xLength, xMultiplier);
+	}
+
+	public int binY(int y) {
+		return bin(y - minY, yLength, yMultiplier);
+	}
+
+	/**
+	 * bin(d) = N * d / length for the offset d from the minimum
+	 */
+	private int bin(int d, int length, long multiplier) {
+		if (length == 1)
+			return N/2;
+
+		if (d >= 0 && d < length && multiplier != 0)
+			return (int) ((d * multiplier) >>> SHIFT);
+		
+		return (int) ((long) N * d / length);
+	}
+
+	/**
+	 * @return the multiplier or 0, if it does not give the exact bins
+	 */
+	private static long computeMultiplier(int length, int size) {
+		if (length <= 1)
+			return 0;
+		
+		long multiplier = ((long) size << SHIFT) / length + 1;
+		
+		// the multiplied bins grow with d, so they are exact, if they are exact on both sides of each bin boundary
+		for (int k = 1; k < size; k++)
+		{
+			// the first offset of the bin k
+			long d = ((long) k * length + size - 1) / size;
+			if (d >= length)
+				break;
+			if (multiply(d, multiplier) != k || multiply(d - 1, multiplier) != k - 1)
+				return 0;
+		}
+		if (multiply(length - 1, multiplier) != (int) ((long) size * (length - 1) / length))
+			return 0;
+		
+		return multiplier;
+	}
+
+	private static int multiply(long d, long multiplier) {
+		return (int) ((d * multiplier) >>> SHIFT);
+	}
+}
@@ -25,8 +25,6 @@
  */
 package org.csml.tommo.sugar.heatmap;
 
-import java.awt.Color;
-
 
 public class TemperatureInvertedPaintScale extends TemperaturePaintScale {
 
@@ -35,17 +33,13 @@ public class TemperatureInvertedPaintScale extends TemperaturePaintScale {
 	}
 	
     @Override
-    public Color getPaint(double value) {
-    	
-    	value = validateValue(value);
+    protected double getFactor(double value) {
     	
     	// get normalized value
-    	double factor = (value - minValue) / (maxValue - minValue);
+    	double factor = super.getFactor(value);
     	
     	// invert the normal value
-    	factor = 1.0-factor;    	
-    	
-    	return new Color(getRed(factor), getGreen(factor), getBlue(factor));
+    	return 1.0-factor;    	
     }
 
 
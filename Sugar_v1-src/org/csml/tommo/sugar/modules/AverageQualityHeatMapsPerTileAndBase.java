@@ -12,6 +12,7 @@ import java.util.zip.ZipOutputStream;
 import javax.imageio.ImageIO;
 import javax.swing.JPanel;
 
+import org.csml.tommo.sugar.analysis.SugarMetrics;
 import org.csml.tommo.sugar.analysis.TileNumeration;
 import org.csml.tommo.sugar.heatmap.LinearPaintScale;
 import org.csml.tommo.sugar.heatmap.MeanQualityMatrix;
@@ -170,8 +171,7 @@ public class AverageQualityHeatMapsPerTileAndBase implements SugarModule {
 				MeanQualityMatrix matrix = getMeanQualityMatrix(tileBPCoordinate);	
 				
 				if (matrix != null) {
-					BufferedImage image = (BufferedImage)matrix.createAverageQualityBufferedImage(LinearPaintScale.AVERAGE_QUALITY_PAINT_SCALE);
-					g2.drawImage(image, 1 + imgSize * c + separator, 1 + imgSize * r, imgSize * (c+1) + separator, imgSize * (r+1), 0, 0, image.getWidth(), image.getHeight(), null);
+					matrix.paintAverageQualityImage(fullImage, 1 + imgSize * c + separator, 1 + imgSize * r, imgSize - 1, LinearPaintScale.AVERAGE_QUALITY_PAINT_SCALE);
 				}
 				else{
 					d.append("Missing matrix for: " + tileBPCoordinate + "\n");
@@ -195,6 +195,7 @@ public class AverageQualityHeatMapsPerTileAndBase implements SugarModule {
 
 		long after = System.currentTimeMillis();
 		d.append("Creating report time: " + (after-before));
+		SugarMetrics.recordReportTime(this, laneCoordinates, after-before);
 	}
 
 }
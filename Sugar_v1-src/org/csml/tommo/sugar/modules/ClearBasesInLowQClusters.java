@@ -43,10 +43,10 @@ import net.sf.samtools.SAMFileWriter;
 import net.sf.samtools.SAMFileWriterFactory;
 import net.sf.samtools.SAMRecord;
 
+import org.csml.tommo.sugar.analysis.ReadContext;
 import org.csml.tommo.sugar.heatmap.MeanQualityMatrix;
 import org.csml.tommo.sugar.sequence.BAMSequence;
 import org.csml.tommo.sugar.sequence.FastBAMSequence;
-import org.csml.tommo.sugar.sequence.SequenceCoordinates;
 import org.csml.tommo.sugar.sequence.TileBPCoordinates;
 
 import uk.ac.babraham.FastQC.Report.HTMLReportArchive;
@@ -56,7 +56,7 @@ import uk.ac.babraham.FastQC.Sequence.FastQFile;
 import uk.ac.babraham.FastQC.Sequence.Sequence;
 import uk.ac.babraham.FastQC.Sequence.SequenceFile;
 
-public class ClearBasesInLowQClusters implements SugarModule {
+public class ClearBasesInLowQClusters implements ReadContextModule {
 
 	static final boolean SUCCESS = true;
 	static final boolean FAILED = false;
@@ -163,9 +163,14 @@ public class ClearBasesInLowQClusters implements SugarModule {
 	
 	@Override
 	public void processSequence(Sequence sequence) {
+		processRead(new ReadContext(sequence));
+	}
+
+	@Override
+	public void processRead(ReadContext read) {
 		
-		SequenceCoordinates seqCoord = SequenceCoordinates.createSequenceCoordinates(sequence);		
-		List<MeanQualityMatrix> matrixList = parentModule.getMeanQualityMatrixList(seqCoord);
+		Sequence sequence = read.getSequence();
+		List<MeanQualityMatrix> matrixList = parentModule.getMeanQualityMatrixList(read.getTileCoordinates());
 		
 		long changesCount = 0;
 		boolean goodSequence = true; 
@@ -175,8 +180,8 @@ public class ClearBasesInLowQClusters implements SugarModule {
 			if (i < matrixList.size())
 			{
 				MeanQualityMatrix m = matrixList.get(i);
-//				if (m.getMeanQualityValue(seqCoord.getX(), seqCoord.getY()) >= 0.7)					
-				if (m.isSelectedRange(seqCoord.getX(), seqCoord.getY()))
+//				if (m.getMeanQualityValue(read.getX(), read.getY()) >= 0.7)					
+				if (m.isSelectedRange(read.getX(), read.getY()))
 				{
 					goodSequence = false;
 					if (outputSequence[i] != 'N')
@@ -0,0 +1,47 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.modules;
+
+/**
+ * Interface ConcurrentModule
+ * 
+ * Module whose counters can be updated by several threads at once (lock-free, see QualityCounterStore), 
+ * so the worker threads of the ModulePipeline can feed the module directly instead of the partial modules 
+ * of a MergeableModule, which are merged after the last read.
+ *
+ */
+public interface ConcurrentModule extends SugarModule {
+
+	/**
+	 * Between setConcurrent(true) and setConcurrent(false) the reads may be processed by several threads at once.
+	 * The results are complete after setConcurrent(false).
+	 * 
+	 * @param threads - the number of the threads, which process the reads at once (the counters are striped for them,
+	 * see AtomicUtils.getStripe), ignored when the concurrent mode is switched off
+	 */
+	void setConcurrent(boolean concurrent, int threads);
+
+}
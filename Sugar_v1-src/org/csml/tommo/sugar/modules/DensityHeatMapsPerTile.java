@@ -27,7 +27,6 @@ package org.csml.tommo.sugar.modules;
 
 import java.awt.Color;
 import java.awt.Font;
-import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
@@ -38,6 +37,7 @@ import java.util.zip.ZipOutputStream;
 import javax.imageio.ImageIO;
 import javax.swing.JPanel;
 
+import org.csml.tommo.sugar.analysis.SugarMetrics;
 import org.csml.tommo.sugar.analysis.TileNumeration;
 import org.csml.tommo.sugar.heatmap.ColorPaintScale;
 import org.csml.tommo.sugar.heatmap.IMixOperation;
@@ -194,12 +194,9 @@ public class DensityHeatMapsPerTile implements SugarModule {
 					String imgFileName = "matrix_" + flowCell + "_" + lane + "_" + tileCoordinates.getTile() + ".png";
 					zip.putNextEntry(new ZipEntry(report.folderName()+"/Images/" + imgFileName));
 					ColorPaintScale paintScale = DensityMatrixCellRenderer.getPaintScale(parentModule.getMaxMatrixDensity()); 
-					BufferedImage image = (BufferedImage)matrix.createDensityBufferedImage(paintScale);
 					int imgSize = Options.getHeatmapImageSize();
 					BufferedImage scaledImage = new BufferedImage(imgSize, imgSize, BufferedImage.TYPE_INT_RGB);
-					Graphics g = scaledImage.getGraphics();
-					g.drawImage(image, 0, 0, imgSize, imgSize, null);
-					g.dispose();
+					matrix.paintDensityImage(scaledImage, 0, 0, imgSize, paintScale);
 					ImageIO.write(scaledImage, "png", zip);
 					
 					b.append("<img src=\"Images/" + imgFileName + "\" alt=\"M[" + tileCoordinates.toString() + "]\">\n");
@@ -219,6 +216,7 @@ public class DensityHeatMapsPerTile implements SugarModule {
 		}
 		long after = System.currentTimeMillis();
 		d.append("Creating report time: " + (after-before));
+		SugarMetrics.recordReportTime(this, laneCoordinates, after-before);
 
 		b.append("</table>\n");
 	}
@@ -296,8 +294,7 @@ public class DensityHeatMapsPerTile implements SugarModule {
 				
 				if (matrix != null) {
 					ColorPaintScale paintScale = DensityMatrixCellRenderer.getPaintScale(parentModule.getMaxMatrixDensity()); 
-					BufferedImage image = (BufferedImage)matrix.createDensityBufferedImage(paintScale);
-					g2.drawImage(image, 1 + imgSize * c + separator, 1 + imgSize * r, imgSize * (c+1) + separator, imgSize * (r+1), 0, 0, image.getWidth(), image.getHeight(), null);
+					matrix.paintDensityImage(fullImage, 1 + imgSize * c + separator, 1 + imgSize * r, imgSize - 1, paintScale);
 				}
 				else{
 					d.append("Missing matrix for: " + tileBPCoordinate + "\n");
@@ -315,6 +312,7 @@ public class DensityHeatMapsPerTile implements SugarModule {
 
 		long after = System.currentTimeMillis();
 		d.append("Creating report time: " + (after-before));
+		SugarMetrics.recordReportTime(this, laneCoordinates, after-before);
 
 	}
 
@@ -35,9 +35,13 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -47,7 +51,11 @@ import javax.swing.JPanel;
 
 import org.csml.tommo.sugar.analysis.JSONFileSerializable;
 import org.csml.tommo.sugar.analysis.JSONSerializationUtils;
+import org.csml.tommo.sugar.analysis.MergedSequenceFile;
+import org.csml.tommo.sugar.analysis.ReadContext;
+import org.csml.tommo.sugar.analysis.SugarMetrics;
 import org.csml.tommo.sugar.analysis.TileNumeration;
+import org.csml.tommo.sugar.analysis.TileReadBuffer;
 import org.csml.tommo.sugar.dialogs.FileOptionsPanel;
 import org.csml.tommo.sugar.heatmap.ColorPaintScale;
 import org.csml.tommo.sugar.heatmap.IMixOperation;
@@ -57,8 +65,9 @@ import org.csml.tommo.sugar.modules.heatmap.MappingQualityResultPanel;
 import org.csml.tommo.sugar.modules.heatmap.MappingQualityTableModel;
 import org.csml.tommo.sugar.sequence.LaneCoordinates;
 import org.csml.tommo.sugar.sequence.SAMInfo;
-import org.csml.tommo.sugar.sequence.SequenceCoordinates;
 import org.csml.tommo.sugar.sequence.TileCoordinates;
+import org.csml.tommo.sugar.sequence.TileIndex;
+import org.csml.tommo.sugar.utils.AtomicUtils;
 import org.csml.tommo.sugar.utils.Options;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -71,7 +80,7 @@ import uk.ac.babraham.FastQC.Sequence.FastBAMFile;
 import uk.ac.babraham.FastQC.Sequence.Sequence;
 import uk.ac.babraham.FastQC.Sequence.SequenceFile;
 
-public class MappingQuality implements SugarModule, Serializable,
+public class MappingQuality implements RawReadModule, SinglePassModule, MergeableModule, ConcurrentModule, Serializable,
 		JSONFileSerializable {
 
 	private static final String MAPPING_QUALITY_NOT_FOUND_MESSAGE = "Mapping quality data was not found in the input file. Mapping quality can be found in BAM/SAM files only.";
@@ -87,6 +96,19 @@ public class MappingQuality implements SugarModule, Serializable,
 
 	private TileTree tileTree;
 	private Map<TileCoordinates, MappingQualityMatrix> mappingQualityMatrixMap = new HashMap<TileCoordinates, MappingQualityMatrix>();
+
+	/**
+	 * The matrices of mappingQualityMatrixMap indexed by the tile ordinals of the TileIndex of the tileTree
+	 */
+	private transient TileIndex matrixTileIndex;
+	private transient List<MappingQualityMatrix> tileMatrices;
+	
+	/**
+	 * The concurrent mode (see setConcurrent): the matrices indexed by the tile ordinals and the maximum sequence length
+	 */
+	private transient AtomicReferenceArray<MappingQualityMatrix> concurrentMatrices;
+	private transient AtomicInteger concurrentMaxSequenceLength;
+	private transient int concurrentStripes;
 	
 	private int matrixSize;
 	private SequenceFile sequenceFile;
@@ -100,6 +122,14 @@ public class MappingQuality implements SugarModule, Serializable,
 		initOptions();
 	}
 
+	/**
+	 * Creates the module with the matrix size of the results read from a file (e.g. a PartialResultFile)
+	 */
+	public MappingQuality(TileTree tileTree, SequenceFile sequenceFile, int matrixSize) {
+		this(tileTree, sequenceFile);
+		this.matrixSize = matrixSize;
+	}
+
 	@Override
 	public String description() {
 		return "Analysis of mapping quality heatmaps";
@@ -204,13 +234,11 @@ public class MappingQuality implements SugarModule, Serializable,
 				if (matrix != null) {
 					if(r < MappingQualityMatrix.THRESHOLDS.length){
 						ColorPaintScale paintScale = MappingQualityCellRenderer.getThresholdPaintScale();
-						BufferedImage image = (BufferedImage)matrix.createBufferedImageForThreshold(MappingQualityMatrix.THRESHOLDS[r], paintScale);
-						g2.drawImage(image, 1 + imgSize * c + separator, 1 + imgSize * r, imgSize * (c+1) + separator, imgSize * (r+1), 0, 0, image.getWidth(), image.getHeight(), null);						
+						matrix.paintImageForThreshold(fullImage, 1 + imgSize * c + separator, 1 + imgSize * r, imgSize - 1, MappingQualityMatrix.THRESHOLDS[r], paintScale);
 					}
 					else{
 						ColorPaintScale paintScale = MappingQualityCellRenderer.getAveragePaintScale();
-						BufferedImage image = (BufferedImage)matrix.createBufferedImage(paintScale);
-						g2.drawImage(image, 1 + imgSize * c + separator, 1 + imgSize * r, imgSize * (c+1) + separator, imgSize * (r+1), 0, 0, image.getWidth(), image.getHeight(), null);												
+						matrix.paintImage(fullImage, 1 + imgSize * c + separator, 1 + imgSize * r, imgSize - 1, paintScale);
 					}
 
 				}
@@ -231,6 +259,7 @@ public class MappingQuality implements SugarModule, Serializable,
 
 		long after = System.currentTimeMillis();
 		d.append("Creating report time: " + (after-before));
+		SugarMetrics.recordReportTime(this, laneCoordinates, after-before);
 	}
 
 	protected void drawRowHeader(Graphics2D g2,
@@ -293,26 +322,146 @@ public class MappingQuality implements SugarModule, Serializable,
 	public void processSequence(Sequence sequence) {
 		if (sequence instanceof SAMInfo)
 		{
-			SequenceCoordinates seqCoord = SequenceCoordinates.createSequenceCoordinates(sequence);
+			processRead(new ReadContext(sequence));
+		}
+	}
+
+	@Override
+	public void processRead(ReadContext read) {
+		if (read.hasMappingQuality() && concurrentMatrices != null)
+		{
+			AtomicUtils.updateMaximum(concurrentMaxSequenceLength, read.getQualityLength());
+			getConcurrentMatrix(read.getTileCoordinates()).addQualityValue(read.getX(), read.getY(), read.getMappingQuality());
+		}
+		else if (read.hasMappingQuality())
+		{
+			if (read.getQualityLength() > maxSequenceLength){
+				maxSequenceLength = read.getQualityLength();
+			}
+			getTileMatrix(read.getTileCoordinates()).addQualityValue(read.getX(), read.getY(), read.getMappingQuality());
+		}
+	}
+
+	@Override
+	public void processTileReads(TileReadBuffer reads) {
+		MappingQualityMatrix matrix = null;
+		for (int r = 0; r < reads.size(); r++)
+		{
+			if (!reads.hasMappingQuality(r))
+				continue;
 			
-			if (sequence.getQualityString().length() > maxSequenceLength){
-				maxSequenceLength = sequence.getQualityString().length();
+			if (concurrentMatrices != null)
+				AtomicUtils.updateMaximum(concurrentMaxSequenceLength, reads.getQualityLength(r));
+			else if (reads.getQualityLength(r) > maxSequenceLength){
+				maxSequenceLength = reads.getQualityLength(r);
 			}
-			storeMappingQuality(seqCoord, (SAMInfo) sequence);
+			if (matrix == null)
+				matrix = (concurrentMatrices != null) ? 
+						getConcurrentMatrix(reads.getTileCoordinates()) :
+						getTileMatrix(reads.getTileCoordinates());
+			matrix.addQualityValue(reads.getX(r), reads.getY(r), reads.getMappingQuality(r));
 		}
 	}
 
-	private void storeMappingQuality(SequenceCoordinates seqCoord, SAMInfo seq) {
-		TileCoordinates tileCoordinates = new TileCoordinates(seqCoord.getFlowCell(), seqCoord.getLane(), seqCoord.getTile());
-		MappingQualityMatrix matrix = mappingQualityMatrixMap.get(tileCoordinates);
+	@Override
+	public MergeableModule createPartial() {
+		MappingQuality partial = new MappingQuality(tileTree, sequenceFile);
+		partial.matrixSize = matrixSize;
+		return partial;
+	}
+
+	@Override
+	public void merge(MergeableModule partial) {
+		MappingQuality mappingQuality = (MappingQuality) partial;
 		
-		Rectangle tileRange = tileTree.getRange(tileCoordinates);
+		if (mappingQuality.maxSequenceLength > maxSequenceLength)
+			maxSequenceLength = mappingQuality.maxSequenceLength;
+		
+		for (Map.Entry<TileCoordinates, MappingQualityMatrix> entry : mappingQuality.mappingQualityMatrixMap.entrySet())
+			getMatrix(entry.getKey()).add(entry.getValue());
+	}
+
+	/**
+	 * The same as getMatrix, but the matrix is looked up by the tile ordinal - no hashing of the TileCoordinates
+	 */
+	private MappingQualityMatrix getTileMatrix(TileCoordinates tileCoordinates) {
+		TileIndex tileIndex = tileTree.getTileIndex();
+		int tile = tileIndex.indexOf(tileCoordinates);
+		if (tile == TileIndex.NO_TILE)
+			return getMatrix(tileCoordinates);
+		
+		if (tileIndex != matrixTileIndex)
+		{
+			matrixTileIndex = tileIndex;
+			tileMatrices = new ArrayList<MappingQualityMatrix>();
+		}
+		while (tileMatrices.size() <= tile)
+			tileMatrices.add(null);
+		
+		MappingQualityMatrix matrix = tileMatrices.get(tile);
+		if (matrix == null)
+		{
+			matrix = getMatrix(tileCoordinates);
+			tileMatrices.set(tile, matrix);
+		}
+		return matrix;
+	}
+
+	/**
+	 * The matrix of the tile in the concurrent mode, the missing matrices are added by one thread at a time
+	 */
+	private MappingQualityMatrix getConcurrentMatrix(TileCoordinates tileCoordinates) {
+		int tile = tileTree.getTileIndex().indexOf(tileCoordinates);
+		boolean indexed = tile != TileIndex.NO_TILE && tile < concurrentMatrices.length();
+		
+		MappingQualityMatrix matrix = indexed ? concurrentMatrices.get(tile) : null;
+		if (matrix == null)
+		{
+			synchronized (mappingQualityMatrixMap) {
+				matrix = getMatrix(tileCoordinates);
+				matrix.setConcurrent(true, concurrentStripes);
+				if (indexed)
+					concurrentMatrices.set(tile, matrix);
+			}
+		}
+		return matrix;
+	}
+
+	/**
+	 * In the concurrent mode the reads may be processed by several threads at once (e.g. the workers of the ModulePipeline)
+	 * without the partial modules. The matrices add the values to the atomic arrays (see MappingQualityMatrix.setConcurrent).
+	 * The tile tree must not change in the concurrent mode.
+	 */
+	@Override
+	public synchronized void setConcurrent(boolean concurrent, int threads) {
+		if (concurrent == (concurrentMatrices != null))
+			return;
+		
+		concurrentStripes = AtomicUtils.getStripes(threads);
+		for (MappingQualityMatrix matrix : mappingQualityMatrixMap.values())
+			matrix.setConcurrent(concurrent, concurrentStripes);
+		
+		if (concurrent)
+		{
+			concurrentMaxSequenceLength = new AtomicInteger(maxSequenceLength);
+			concurrentMatrices = new AtomicReferenceArray<MappingQualityMatrix>(tileTree.getTileIndex().size());
+		}
+		else
+		{
+			maxSequenceLength = concurrentMaxSequenceLength.get();
+			concurrentMatrices = null;
+			concurrentMaxSequenceLength = null;
+		}
+	}
+
+	private MappingQualityMatrix getMatrix(TileCoordinates tileCoordinates) {
+		MappingQualityMatrix matrix = mappingQualityMatrixMap.get(tileCoordinates);
 		if (matrix == null)
 		{
-			matrix = new MappingQualityMatrix(tileRange, matrixSize);
+			matrix = new MappingQualityMatrix(tileTree.getRange(tileCoordinates), matrixSize);
 			mappingQualityMatrixMap.put(tileCoordinates, matrix);
 		}
-		matrix.addQualityValue(seqCoord.getX(), seqCoord.getY(), seq.getMappingQuality());
+		return matrix;
 	}
 
 	@Override
@@ -329,6 +478,8 @@ public class MappingQuality implements SugarModule, Serializable,
 	public void reset() {
 		maxSequenceLength = 0;
 		mappingQualityMatrixMap.clear();
+		matrixTileIndex = null;
+		concurrentMatrices = null;
 	}
 
 	@Override
@@ -434,6 +585,7 @@ public class MappingQuality implements SugarModule, Serializable,
 			mappingQualityMatrixMap.put(tc, matrix);
 			
 		}			
+		matrixTileIndex = null;
 
 	}
 
@@ -454,6 +606,7 @@ public class MappingQuality implements SugarModule, Serializable,
 	// customized JSON Serialization
 	
 	public boolean isActive(){
-		return sequenceFile instanceof BAMFile || sequenceFile instanceof FastBAMFile;
+		return sequenceFile instanceof BAMFile || sequenceFile instanceof FastBAMFile ||
+				(sequenceFile instanceof MergedSequenceFile && ((MergedSequenceFile) sequenceFile).isMapped());
 	}
 }
@@ -27,7 +27,6 @@ package org.csml.tommo.sugar.modules;
 
 import java.awt.Color;
 import java.awt.Font;
-import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
@@ -38,17 +37,27 @@ import java.beans.PropertyChangeSupport;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.io.Serializable;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -58,14 +67,19 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 
 import org.csml.tommo.sugar.SugarApplication;
-import org.csml.tommo.sugar.analysis.JSONFileSerializable;
+import org.csml.tommo.sugar.analysis.BinaryFileSerializable;
+import org.csml.tommo.sugar.analysis.BinarySerializationUtils;
 import org.csml.tommo.sugar.analysis.JSONSerializationUtils;
 import org.csml.tommo.sugar.analysis.OpenedFileCache;
+import org.csml.tommo.sugar.analysis.ReadContext;
+import org.csml.tommo.sugar.analysis.SugarMetrics;
 import org.csml.tommo.sugar.analysis.TileNumeration;
+import org.csml.tommo.sugar.analysis.TileReadBuffer;
 import org.csml.tommo.sugar.dialogs.FileOptionsPanel;
 import org.csml.tommo.sugar.heatmap.IMixOperation;
 import org.csml.tommo.sugar.heatmap.LinearPaintScale;
 import org.csml.tommo.sugar.heatmap.MeanQualityMatrix;
+import org.csml.tommo.sugar.heatmap.QualityCounterStore;
 import org.csml.tommo.sugar.modules.heatmap.ETileSelection;
 import org.csml.tommo.sugar.modules.heatmap.MeanQualityMatrixMap;
 import org.csml.tommo.sugar.modules.heatmap.QualityHeatmapResultPanel;
@@ -74,6 +88,8 @@ import org.csml.tommo.sugar.sequence.LaneCoordinates;
 import org.csml.tommo.sugar.sequence.SequenceCoordinates;
 import org.csml.tommo.sugar.sequence.TileBPCoordinates;
 import org.csml.tommo.sugar.sequence.TileCoordinates;
+import org.csml.tommo.sugar.sequence.TileIndex;
+import org.csml.tommo.sugar.utils.AtomicUtils;
 import org.csml.tommo.sugar.utils.Options;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -84,9 +100,10 @@ import org.json.simple.parser.ParseException;
 import uk.ac.babraham.FastQC.Modules.QCModule;
 import uk.ac.babraham.FastQC.Report.HTMLReportArchive;
 import uk.ac.babraham.FastQC.Sequence.Sequence;
+import uk.ac.babraham.FastQC.Sequence.SequenceFile;
 import uk.ac.babraham.FastQC.Sequence.QualityEncoding.PhredEncoding;
 
-public class QualityHeatMapsPerTileAndBase implements SugarModule, Serializable, JSONFileSerializable {
+public class QualityHeatMapsPerTileAndBase implements RawReadModule, SinglePassModule, MergeableModule, ConcurrentModule, Serializable, BinaryFileSerializable {
 
 	
 	/**
@@ -98,6 +115,11 @@ public class QualityHeatMapsPerTileAndBase implements SugarModule, Serializable,
 	private static final String JSON_ATTR_MAX_SEQUENCE_LENGTH = "maxSequenceLength";
 	private static final String JSON_ATTR_MAX_MATRIX_DENSITY = "maxMatrixDensity";
 	private static final Object JSON_ATTR_MATRIX_SIZE = "matrixSize";
+	private static final Object JSON_ATTR_QUALITY_HISTOGRAM_THRESHOLDS = "qualityHistogramThresholds";
+	
+	private static final String BINARY_MAGIC = "SUGARQHM";
+	private static final int BINARY_VERSION = 2;
+	private static final int BINARY_HEADER_SIZE = 8 + 4 + 6 * 4;
 	
 	private PropertyChangeSupport propertyChangeSupport = new PropertyChangeSupport(this);
 	private static final Object JSON_ATTR_QUALITY_THRESHOLD = "qualityThreshold";
@@ -130,11 +152,53 @@ public class QualityHeatMapsPerTileAndBase implements SugarModule, Serializable,
 
 	protected int matrixSize;
 	
+	/**
+	 * the reads per subtile of the quick-look heatmaps (see SubtileSampler) or 0
+	 */
+	protected int cellSample;
+	
+	/**
+	 * The early termination (--converge, see setConvergence): the fraction of the file read, 
+	 * the confidence level (0, if the whole file was read) and the fraction of the decided subtiles
+	 */
+	private double readFraction = 1;
+	private double confidence = 0;
+	private double decidedFraction = 0;
+	
+	/**
+	 * The tile ordinal and the base position of the first undecided subtiles found by the last isDecided check
+	 * and the number of the checks so far (see getSubtileQuantile)
+	 */
+	private int undecidedTile = 0;
+	private int undecidedPosition = 0;
+	private int convergenceChecks = 0;
+	
+	/**
+	 * The BAM preview (see setPreview): the reads used and the chunks of the file, 0 if the whole file was read
+	 */
+	private int previewReads = 0;
+	private int previewChunks = 0;
+	
 	protected int qualityThreshold;	
-//	protected Integer[] qualityThresholdArray;
+	
+	/**
+	 * #40: all thresholds requested for the file. If there are more than one,
+	 * each matrix keeps the quality histograms and the other thresholds are computed from them.
+	 */
+	protected Integer[] qualityThresholdArray;
 
 	protected MeanQualityMatrixMap meanQualityMatrixMap = new MeanQualityMatrixMap();
 	
+	/**
+	 * Keeps the counters of all matrices in meanQualityMatrixMap
+	 */
+	private QualityCounterStore counterStore;
+	
+	/**
+	 * The map with the quality histograms, all other thresholds are computed from this one
+	 */
+	private MeanQualityMatrixMap histogramMatrixMap;
+	
 	
 	/**
 	 * Gathers all quality heatmaps for each tile and base position
@@ -146,60 +210,182 @@ public class QualityHeatMapsPerTileAndBase implements SugarModule, Serializable,
 	 */
 	private Map<Integer, MeanQualityMatrixMap> thresholdQualityMatrixMap = new HashMap<Integer, MeanQualityMatrixMap>();
 
+	/**
+	 * The concurrent mode (see setConcurrent): the matrices of each tile indexed by the tile ordinals.
+	 * The arrays are replaced (copy on write), when a longer read adds the matrices of the next base positions.
+	 * The maximum sequence length is kept in the atomic integer and copied to maxSequenceLength afterwards,
+	 * maxMatrixDensity is computed from the matrices afterwards (the counters are striped, see QualityCounterStore).
+	 */
+	private transient AtomicReferenceArray<MeanQualityMatrix[]> concurrentMatrices;
+	private transient AtomicInteger concurrentMaxSequenceLength;
+
 		
 	public QualityHeatMapsPerTileAndBase(int threshold) {
 		super();
 		tileTree = new TileTree();
 		qualityThreshold = threshold;
+		qualityThresholdArray = new Integer[] {threshold};
 		initOptions();
 	}
 	
+	/**
+	 * Creates the module for all thresholds in one pass (#40) 
+	 */
+	public QualityHeatMapsPerTileAndBase(Integer[] thresholds) {
+		this(thresholds[0]);
+		qualityThresholdArray = thresholds;
+	}
+	
+	/**
+	 * @return true, if there are several thresholds to be computed from the quality histograms in one pass
+	 */
+	public static boolean isHistogramSupported(Integer[] thresholds) {
+		return QualityCounterStore.getHistogramThresholds(thresholds).length > 1;
+	}
+	
+	/**
+	 * @return the thresholds, which the analysis keeps in the quality histograms, or null, if it keeps no histograms
+	 */
+	public Integer[] getHistogramThresholds() {
+		return isHistogramSupported(qualityThresholdArray) ? qualityThresholdArray : null;
+	}
+	
 	@Override
 	public void processSequence(Sequence sequence) {
+		processRead(new ReadContext(sequence));
+	}
+
+	@Override
+	public void processRead(ReadContext read) {
+		if (concurrentMatrices != null)
 		{
-			SequenceCoordinates seqCoord = SequenceCoordinates.createSequenceCoordinates(sequence);
-						
-			if (sequence.getQualityString().length() > maxSequenceLength)
-				maxSequenceLength = sequence.getQualityString().length();
+			storeConcurrentQuality(read.getTileCoordinates(), read.getX(), read.getY(), read.getQualities(), 0, read.getQualityLength());
+		}
+		else
+		{
+			if (read.getQualityLength() > maxSequenceLength)
+				maxSequenceLength = read.getQualityLength();
 			
 			// store the quality in the main map for the selected threshold value
-			storeSequenceQuality(seqCoord, sequence, meanQualityMatrixMap, qualityThreshold);
+			// #40: the quality histograms for the other thresholds are kept by the same matrices (see getCounterStore())
+			storeSequenceQuality(read, meanQualityMatrixMap, qualityThreshold);
+		}
+	}
+
+	@Override
+	public void processTileReads(TileReadBuffer reads) {
+		TileCoordinates tileCoordinates = reads.getTileCoordinates();
+		if (concurrentMatrices != null)
+		{
+			for (int r = 0; r < reads.size(); r++)
+				storeConcurrentQuality(tileCoordinates, reads.getX(r), reads.getY(r), reads.getQualities(), reads.getQualityOffset(r), reads.getQualityLength(r));
+			return;
+		}
+		
+		TileIndex tileIndex = tileTree.getTileIndex();
+		int tile = tileIndex.indexOf(tileCoordinates);
+		List<MeanQualityMatrix> matrixList = getMatrixList(tileIndex, tile, tileCoordinates, meanQualityMatrixMap);
+		Rectangle tileRange = tileTree.getRange(tile);
+		PhredEncoding phredEncoding = tileTree.getPhredEncoding();
+		
+		for (int r = 0; r < reads.size(); r++)
+		{
+			int length = reads.getQualityLength(r);
 			
-			// #40: Quality Heatmaps for multiple QV thersholds, e.g. QV = 1,2,3,....,49,50
-			// store the store the quality for various thresholds given by the range
-//			for (int threshold : qualityThresholdArray)
-//			{
-//				// is main threshold value
-//				if (threshold == qualityThreshold)
-//				{
-//					thresholdQualityMatrixMap.put(qualityThreshold, meanQualityMatrixMap);
-//					continue;					
-//				}
-//								
-//				MeanQualityMatrixMap matrixMap = thresholdQualityMatrixMap.get(threshold);
-//				if (matrixMap == null)
-//				{
-//					matrixMap = new MeanQualityMatrixMap();
-//					thresholdQualityMatrixMap.put(threshold, matrixMap);
-//				}
-//				storeSequenceQuality(seqCoord, sequence, matrixMap, threshold);
-//			}
+			if (length > maxSequenceLength)
+				maxSequenceLength = length;
+			
+			storeQuality(matrixList, tile, tileRange, qualityThreshold, phredEncoding, 
+					reads.getX(r), reads.getY(r), reads.getQualities(), reads.getQualityOffset(r), length);
 		}
 	}
 
-	private void storeSequenceQuality(SequenceCoordinates seqCoord, Sequence seq, MeanQualityMatrixMap matrixMap, int threshold) {
-		TileCoordinates tileCoordinates = new TileCoordinates(seqCoord.getFlowCell(), seqCoord.getLane(), seqCoord.getTile());
+	@Override
+	public MergeableModule createPartial() {
+		QualityHeatMapsPerTileAndBase partial = new QualityHeatMapsPerTileAndBase(qualityThresholdArray);
+		partial.tileTree = tileTree;
+		partial.matrixSize = matrixSize;
+		return partial;
+	}
+
+	@Override
+	public void merge(MergeableModule partial) {
+		QualityHeatMapsPerTileAndBase heatMaps = (QualityHeatMapsPerTileAndBase) partial;
+		
+		if (heatMaps.maxSequenceLength > maxSequenceLength)
+			maxSequenceLength = heatMaps.maxSequenceLength;
+		
+		TileIndex tileIndex = tileTree.getTileIndex();
+		for (Map.Entry<TileCoordinates, List<MeanQualityMatrix>> entry : heatMaps.meanQualityMatrixMap.entrySet())
+		{
+			List<MeanQualityMatrix> matrixList = getMatrixList(entry.getKey(), meanQualityMatrixMap);
+			List<MeanQualityMatrix> partialList = entry.getValue();
+			int tile = tileIndex.indexOf(entry.getKey());
+			getCounterStore().reserve(tile, partialList.size() - matrixList.size());
+			for (int i = 0; i < partialList.size(); i++)
+			{
+				MeanQualityMatrix matrix = partialList.get(i);
+				int total = (i < matrixList.size()) ?
+						matrixList.get(i).add(matrix) :
+						addMatrix(matrixList, tile, matrix);
+				if (total > maxMatrixDensity)
+					maxMatrixDensity = total;
+			}
+		}
+	}
+
+	private int addMatrix(List<MeanQualityMatrix> matrixList, int tile, MeanQualityMatrix matrix) {
+		MeanQualityMatrix copy = new MeanQualityMatrix(matrix.getRange(), matrix.getQualityThreshold(), getCounterStore(), tile);
+		matrixList.add(copy);
+		return copy.add(matrix);
+	}
+
+	private List<MeanQualityMatrix> getMatrixList(TileCoordinates tileCoordinates, MeanQualityMatrixMap matrixMap) {
 		List<MeanQualityMatrix> matrixList = matrixMap.get(tileCoordinates);
 		if (matrixList == null)
 		{
 			matrixList = new ArrayList<MeanQualityMatrix>();
 			matrixMap.put(tileCoordinates, matrixList);
 		}
+		return matrixList;
+	}
+
+	/**
+	 * The tile of the read is looked up by its ordinal in the TileIndex of the tileTree - no hashing of the TileCoordinates
+	 */
+	private List<MeanQualityMatrix> getMatrixList(TileIndex tileIndex, int tile, TileCoordinates tileCoordinates, MeanQualityMatrixMap matrixMap) {
+		if (tile == TileIndex.NO_TILE)
+			return getMatrixList(tileCoordinates, matrixMap);
+		
+		List<MeanQualityMatrix> matrixList = matrixMap.get(tileIndex, tile);
+		if (matrixList == null)
+		{
+			matrixList = getMatrixList(tileCoordinates, matrixMap);
+			matrixMap.put(tileIndex, tile, matrixList);
+		}
+		return matrixList;
+	}
+
+	private void storeSequenceQuality(ReadContext read, MeanQualityMatrixMap matrixMap, int threshold) {
+		TileCoordinates tileCoordinates = read.getTileCoordinates();
+		TileIndex tileIndex = tileTree.getTileIndex();
+		int tile = tileIndex.indexOf(tileCoordinates);
+		List<MeanQualityMatrix> matrixList = getMatrixList(tileIndex, tile, tileCoordinates, matrixMap);
 		
-		char[] chars = seq.getQualityString().toCharArray();
+		storeQuality(matrixList, tile, tileTree.getRange(tile), threshold, tileTree.getPhredEncoding(), 
+				read.getX(), read.getY(), read.getQualities(), 0, read.getQualityLength());
+	}
+
+	/**
+	 * Adds the quality values of one read to the matrices of its tile (one matrix per base position),
+	 * the missing matrices are created in one block of the tile (see QualityCounterStore.reserve)
+	 */
+	private void storeQuality(List<MeanQualityMatrix> matrixList, int tile, Rectangle tileRange, int threshold, PhredEncoding phredEncoding,
+			int x, int y, byte[] qualities, int offset, int length) {
+		if (length > matrixList.size())
+			getCounterStore().reserve(tile, length - matrixList.size());
 		
-		Rectangle tileRange = tileTree.getRange(tileCoordinates);
-		for (int i=0; i < chars.length; i++)
+		for (int i=0; i < length; i++)
 		{
 			MeanQualityMatrix matrix = null;
 			if(i < matrixList.size()){
@@ -207,16 +393,81 @@ public class QualityHeatMapsPerTileAndBase implements SugarModule, Serializable,
 			}
 			if (matrix == null)
 			{
-				matrix = new MeanQualityMatrix(tileRange, matrixSize, threshold);
+				matrix = new MeanQualityMatrix(tileRange, threshold, getCounterStore(), tile);
 				matrixList.add(matrix);
 			}
 			
-			PhredEncoding phredEncoding = tileTree.getPhredEncoding();
-			int total = matrix.addQualityValue(seqCoord.getX(), seqCoord.getY(), phredEncoding.char2QualityScore(chars[i]));
+			int total = matrix.addQualityValue(x, y, phredEncoding.char2QualityScore((char) qualities[offset + i]));
 			if (total > maxMatrixDensity)
 				maxMatrixDensity = total;
 		}
-				
+	}
+	
+	/**
+	 * The same as storeQuality in the concurrent mode - the matrices are looked up without locks 
+	 * and the quality values are added by the atomic counters
+	 */
+	private void storeConcurrentQuality(TileCoordinates tileCoordinates, int x, int y, byte[] qualities, int offset, int length) {
+		AtomicUtils.updateMaximum(concurrentMaxSequenceLength, length);
+		
+		TileIndex tileIndex = tileTree.getTileIndex();
+		int tile = tileIndex.indexOf(tileCoordinates);
+		MeanQualityMatrix[] matrices = (tile != TileIndex.NO_TILE && tile < concurrentMatrices.length()) ? 
+				concurrentMatrices.get(tile) : null;
+		if (matrices == null || matrices.length < length)
+			matrices = addConcurrentMatrices(tileIndex, tile, tileCoordinates, length);
+		
+		PhredEncoding phredEncoding = tileTree.getPhredEncoding();
+		for (int i=0; i < length; i++)
+			matrices[i].addQualityValue(x, y, phredEncoding.char2QualityScore((char) qualities[offset + i]));
+	}
+
+	/**
+	 * Adds the missing matrices of the tile (one thread at a time) 
+	 * 
+	 * @return the new array of the matrices of the tile
+	 */
+	private MeanQualityMatrix[] addConcurrentMatrices(TileIndex tileIndex, int tile, TileCoordinates tileCoordinates, int length) {
+		synchronized (meanQualityMatrixMap) {
+			List<MeanQualityMatrix> matrixList = getMatrixList(tileIndex, tile, tileCoordinates, meanQualityMatrixMap);
+			getCounterStore().reserve(tile, length - matrixList.size());
+			while (matrixList.size() < length)
+				matrixList.add(new MeanQualityMatrix(tileTree.getRange(tile), qualityThreshold, getCounterStore(), tile));
+			
+			MeanQualityMatrix[] matrices = matrixList.toArray(new MeanQualityMatrix[matrixList.size()]);
+			if (tile != TileIndex.NO_TILE && tile < concurrentMatrices.length())
+				concurrentMatrices.set(tile, matrices);
+			return matrices;
+		}
+	}
+
+	/**
+	 * In the concurrent mode the reads may be processed by several threads at once (e.g. the workers of the ModulePipeline)
+	 * without the partial modules. The counters of the matrices are kept in the atomic arrays of the QualityCounterStore.
+	 * The tile tree must not change in the concurrent mode.
+	 */
+	@Override
+	public synchronized void setConcurrent(boolean concurrent, int threads) {
+		if (concurrent == (concurrentMatrices != null))
+			return;
+		
+		getCounterStore().setConcurrent(concurrent, AtomicUtils.getStripes(threads));
+		if (concurrent)
+		{
+			concurrentMaxSequenceLength = new AtomicInteger(maxSequenceLength);
+			concurrentMatrices = new AtomicReferenceArray<MeanQualityMatrix[]>(tileTree.getTileIndex().size());
+		}
+		else
+		{
+			maxSequenceLength = concurrentMaxSequenceLength.get();
+			for (List<MeanQualityMatrix> matrixList : meanQualityMatrixMap.values())
+			{
+				for (MeanQualityMatrix matrix : matrixList)
+					maxMatrixDensity = Math.max(maxMatrixDensity, matrix.getMaxTotalValue());
+			}
+			concurrentMatrices = null;
+			concurrentMaxSequenceLength = null;
+		}
 	}
 	
 	@Override
@@ -242,6 +493,86 @@ public class QualityHeatMapsPerTileAndBase implements SugarModule, Serializable,
 		maxMatrixDensity = 0;
 		meanQualityMatrixMap.clear();
 		thresholdQualityMatrixMap.clear();
+		histogramMatrixMap = null;
+		counterStore = null;
+		concurrentMatrices = null;
+		readFraction = 1;
+		confidence = 0;
+		decidedFraction = 0;
+		undecidedTile = 0;
+		undecidedPosition = 0;
+		convergenceChecks = 0;
+		previewReads = 0;
+		previewChunks = 0;
+	}
+
+	private QualityCounterStore getCounterStore() {
+		boolean histograms = isHistogramSupported(qualityThresholdArray);
+		if (counterStore == null || counterStore.getSize() != matrixSize || counterStore.hasHistograms() != histograms)
+		{
+			counterStore = createCounterStore(histograms);
+			if (histograms)
+				histogramMatrixMap = meanQualityMatrixMap;
+		}
+		return counterStore;
+	}
+
+	/**
+	 * @return the heap used by the quality counters of the matrices
+	 */
+	public long getAccumulatorBytes() {
+		return counterStore == null ? 0 : counterStore.getAllocatedBytes();
+	}
+
+	/**
+	 * Releases the counters, which the mean values of the complete analysis replace (QualityCounterStore.compact())
+	 */
+	public void compactCounters() {
+		if (counterStore != null)
+			counterStore.compact();
+	}
+
+	private QualityCounterStore createCounterStore(boolean histograms) {
+		return new QualityCounterStore(matrixSize, QualityCounterStore.MAX_MATRICES_PER_BLOCK, 
+				histograms ? qualityThresholdArray : null);
+	}
+	
+	/**
+	 * Sets the thresholds of the quality histograms read from a file, the quality threshold stays the first one
+	 */
+	private void setHistogramThresholds(int[] thresholds) {
+		List<Integer> result = new ArrayList<Integer>();
+		result.add(qualityThreshold);
+		for (int threshold : thresholds)
+		{
+			if (threshold != qualityThreshold)
+				result.add(threshold);
+		}
+		qualityThresholdArray = result.toArray(new Integer[0]);
+	}
+	
+	/**
+	 * @return true, if the matrices for other thresholds can be computed from the quality histograms
+	 */
+	public boolean hasQualityHistograms() {
+		return histogramMatrixMap != null;
+	}
+	
+	/**
+	 * @return the thresholds which can be displayed without reading the file again
+	 */
+	public Integer[] getQualityThresholdArray() {
+		return hasQualityHistograms() ? qualityThresholdArray : new Integer[] {qualityThreshold};
+	}
+
+	/**
+	 * @return the thresholds from the cache and the thresholds computed from the quality histograms
+	 */
+	public Integer[] getAvailableQualityThresholds(SequenceFile sequenceFile) {
+		SortedSet<Integer> result = new TreeSet<Integer>(Collections.reverseOrder());
+		result.addAll(Arrays.asList(OpenedFileCache.getInstance().getAvailableQualityThresholds(sequenceFile, matrixSize)));
+		result.addAll(Arrays.asList(getQualityThresholdArray()));
+		return result.toArray(new Integer[0]);
 	}
 	
 	@Override
@@ -273,6 +604,13 @@ public class QualityHeatMapsPerTileAndBase implements SugarModule, Serializable,
 		report.htmlDocument().append("Matrix Size: " + getMatrixSize() + "<br/>");
 		report.htmlDocument().append("Quality Threshold: " + getQualityThreshold() + "<br/>");
 		report.htmlDocument().append("Tile Numeration: " + tileNumeration.getName() + "<br/>");		
+		if (cellSample > 0)
+			report.htmlDocument().append("Cell Sample: " + cellSample + " reads per subtile<br/>");
+		if (previewChunks > 0)
+			report.htmlDocument().append("BAM Preview: " + previewReads + " reads from " + previewChunks + " chunks of the BAM index, the heatmaps are provisional<br/>");
+		if (confidence > 0)
+			report.htmlDocument().append(String.format("Early Termination: %.1f%% of the file read, %.2f%% of the subtiles decided with %s%% confidence for all subtiles and %d checks together (Bonferroni, alpha spending)<br/>", 
+					100 * readFraction, 100 * decidedFraction, new DecimalFormat("0.##").format(100 * confidence), convergenceChecks));
 		
 		report.htmlDocument().append("<br/>");
 		
@@ -289,6 +627,11 @@ public class QualityHeatMapsPerTileAndBase implements SugarModule, Serializable,
 				LaneCoordinates laneCoordinates = new LaneCoordinates(flowCell, lane);				
 //				writeTable2HTML(report, laneCoordinates, tileNumeration);
 				writeImage2HTML(report, laneCoordinates, tileNumeration);		
+				if (cellSample > 0)
+				{
+					double halfWidth = writeConfidenceCSVFile(report, laneCoordinates);
+					report.htmlDocument().append(String.format("Max 95%% Confidence Half-Width: %.4f<br/>", halfWidth));
+				}
 				report.htmlDocument().append("<br/>");
 			}
 		}
@@ -359,6 +702,59 @@ public class QualityHeatMapsPerTileAndBase implements SugarModule, Serializable,
 		
 	}
 
+	/**
+	 * Writes the low quality ratio of each subtile (all base positions) with the half-width of its 95% confidence interval.
+	 * The number of the reads of the subtile is the total of the first base position.
+	 * 
+	 * @return the maximal half-width of the lane
+	 */
+	private double writeConfidenceCSVFile(HTMLReportArchive report, LaneCoordinates laneCoordinates) throws IOException {
+		ZipOutputStream zip = report.zipFile();
+		
+		String csvFileName = "subtile_confidence_" + laneCoordinates.getFlowCell() + "_" + laneCoordinates.getLane() + ".txt";
+		zip.putNextEntry(new ZipEntry(report.folderName() + "/" + csvFileName));
+
+		String LINE_SEPARATOR = System.getProperty("line.separator");
+		String COLUMN_SEPARATOR = "\t";
+		
+		String header = "Tile" + COLUMN_SEPARATOR + "X" + COLUMN_SEPARATOR + "Y" + COLUMN_SEPARATOR + "Reads" + COLUMN_SEPARATOR + 
+				"Ratio" + COLUMN_SEPARATOR + "Half-Width" + LINE_SEPARATOR;
+		zip.write(header.getBytes());
+		
+		double maxHalfWidth = 0;
+		for (Integer tile : getTileTree().getTiles(laneCoordinates))
+		{
+			List<MeanQualityMatrix> matrixList = getMeanQualityMatrixList(new TileCoordinates(laneCoordinates, tile));
+			if (matrixList == null || matrixList.isEmpty())
+				continue;
+			
+			for (int i = 0; i < matrixSize; i++)
+			{
+				for (int j = 0; j < matrixSize; j++)
+				{
+					double negative = 0;
+					long total = 0;
+					for (MeanQualityMatrix matrix : matrixList)
+					{
+						negative += matrix.getMeanValues()[i][j] * matrix.getTotalValue(i, j);
+						total += matrix.getTotalValue(i, j);
+					}
+					
+					int reads = matrixList.get(0).getTotalValue(i, j);
+					double ratio = total > 0 ? negative / total : 0;
+					double halfWidth = MeanQualityMatrix.getConfidenceHalfWidth(ratio, reads);
+					if (reads > 0 && halfWidth > maxHalfWidth)
+						maxHalfWidth = halfWidth;
+					
+					String s = tile + COLUMN_SEPARATOR + i + COLUMN_SEPARATOR + j + COLUMN_SEPARATOR + reads + COLUMN_SEPARATOR + 
+							ratio + COLUMN_SEPARATOR + halfWidth + LINE_SEPARATOR;
+					zip.write(s.getBytes());
+				}
+			}
+		}
+		return maxHalfWidth;
+	}
+
 	/*
 	 * Old version write an HTML table with one image in each cell 
 	 * - writes too many images  
@@ -425,12 +821,9 @@ public class QualityHeatMapsPerTileAndBase implements SugarModule, Serializable,
 				if (matrix != null) {
 					String imgFileName = "matrix_" + flowCell + "_" + lane + "_" + tileCoordinates.getTile() + "_" + tileBPCoordinate.getBasePosition() + ".png";
 					zip.putNextEntry(new ZipEntry(report.folderName()+"/Images/" + imgFileName));					
-					BufferedImage image = (BufferedImage)matrix.createBufferedImage(LinearPaintScale.PAINT_SCALE);
 					int imgSize = Options.getHeatmapImageSize();
 					BufferedImage scaledImage = new BufferedImage(imgSize, imgSize, BufferedImage.TYPE_INT_RGB);
-					Graphics g = scaledImage.getGraphics();
-					g.drawImage(image, 0, 0, imgSize, imgSize, null);
-					g.dispose();
+					matrix.paintImage(scaledImage, 0, 0, imgSize, LinearPaintScale.PAINT_SCALE);
 					ImageIO.write(scaledImage, "png", zip);
 					
 					b.append("<img src=\"Images/" + imgFileName + "\" alt=\"M[" + tileBPCoordinate.toString() + "]\">\n");
@@ -450,6 +843,7 @@ public class QualityHeatMapsPerTileAndBase implements SugarModule, Serializable,
 		}
 		long after = System.currentTimeMillis();
 		d.append("Creating report time: " + (after-before));
+		SugarMetrics.recordReportTime(this, laneCoordinates, after-before);
 
 		b.append("</table>\n");
 	}
@@ -500,8 +894,7 @@ public class QualityHeatMapsPerTileAndBase implements SugarModule, Serializable,
 				MeanQualityMatrix matrix = getMeanQualityMatrix(tileBPCoordinate);	
 				
 				if (matrix != null) {
-					BufferedImage image = (BufferedImage)matrix.createBufferedImage(LinearPaintScale.PAINT_SCALE);
-					g2.drawImage(image, 1 + imgSize * c + separator, 1 + imgSize * r, imgSize * (c+1) + separator, imgSize * (r+1), 0, 0, image.getWidth(), image.getHeight(), null);
+					matrix.paintImage(fullImage, 1 + imgSize * c + separator, 1 + imgSize * r, imgSize - 1, LinearPaintScale.PAINT_SCALE);
 				}
 				else{
 					d.append("Missing matrix for: " + tileBPCoordinate + "\n");
@@ -525,6 +918,7 @@ public class QualityHeatMapsPerTileAndBase implements SugarModule, Serializable,
 
 		long after = System.currentTimeMillis();
 		d.append("Creating report time: " + (after-before));
+		SugarMetrics.recordReportTime(this, laneCoordinates, after-before);
 
 	}
 
@@ -582,6 +976,118 @@ public class QualityHeatMapsPerTileAndBase implements SugarModule, Serializable,
 		return maxSequenceLength;
 	}
 
+	/**
+	 * Counts the subtiles of all tiles of the TileTree and base positions, whose low quality ratio is above or below 
+	 * MAX_LOWQ_READS_RATIO with the confidence (see MeanQualityMatrix.getDecidedEntries).
+	 * The subtiles of the tiles without reads are not decided, the base positions after the reads of a tile 
+	 * (shorter than the longest read) are decided.
+	 * 
+	 * @param confidence - the confidence level of all subtiles and checks together (see getSubtileQuantile), 
+	 * the subtiles are counted with the quantile of the last check
+	 * @return the fraction of the decided subtiles
+	 */
+	public double getDecidedFraction(double confidence) {
+		TileIndex tileIndex = tileTree.getTileIndex();
+		long subtiles = getSubtileCount();
+		if (subtiles == 0)
+			return 0;
+		
+		double z = getSubtileQuantile(confidence, Math.max(convergenceChecks, 1));
+		long decided = 0;
+		for (int tile = 0; tile < tileIndex.size(); tile++)
+		{
+			List<MeanQualityMatrix> matrixList = meanQualityMatrixMap.get(tileIndex.get(tile));
+			if (matrixList == null)
+				continue;
+			for (MeanQualityMatrix matrix : matrixList)
+				decided += matrix.getDecidedEntries(MAX_LOWQ_READS_RATIO, z);
+			decided += (long) Math.max(maxSequenceLength - matrixList.size(), 0) * matrixSize * matrixSize;
+		}
+		return (double) decided / subtiles;
+	}
+
+	/**
+	 * The same as getDecidedFraction(confidence) >= 1, but the check stops at the first undecided subtiles
+	 * and the next check starts there: the subtiles before them were decided by the earlier checks,
+	 * so a check reads only the subtiles decided since the last one (all subtiles only by the final check).
+	 * Each call is the next check of the alpha spending (see getSubtileQuantile).
+	 * 
+	 * @param confidence - the confidence level of all subtiles and checks together (see getSubtileQuantile)
+	 * @return true, if all subtiles are decided
+	 */
+	public boolean isDecided(double confidence) {
+		TileIndex tileIndex = tileTree.getTileIndex();
+		int tiles = tileIndex.size();
+		long matrices = (long) tiles * maxSequenceLength;
+		if (matrices == 0)
+			return false;
+		
+		double z = getSubtileQuantile(confidence, ++convergenceChecks);
+		int tile = undecidedTile % tiles;
+		int position = undecidedPosition % maxSequenceLength;
+		for (long m = 0; m < matrices; m++)
+		{
+			List<MeanQualityMatrix> matrixList = meanQualityMatrixMap.get(tileIndex.get(tile));
+			// the base positions after the reads of the tile never get any reads
+			if (matrixList == null || (position < matrixList.size() && !matrixList.get(position).isDecided(MAX_LOWQ_READS_RATIO, z)))
+			{
+				undecidedTile = tile;
+				undecidedPosition = position;
+				return false;
+			}
+			
+			if (++position == maxSequenceLength)
+			{
+				position = 0;
+				tile = (tile + 1) % tiles;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The normal quantile of each subtile at a check of the early termination: the error 1 - confidence is spent 
+	 * over the checks, the check k gets the share 6 / (pi^2 k^2) (the shares of all checks sum up to 1), 
+	 * and the share of the check is divided by all subtiles of all tiles and base positions (Bonferroni correction).
+	 * So all subtiles are decided correctly with the confidence, however many checks the early termination makes.
+	 * 
+	 * @param confidence - the confidence level of all subtiles and checks together between 0 and 1
+	 * @param check - the number of the check from 1
+	 */
+	public double getSubtileQuantile(double confidence, int check) {
+		long subtiles = Math.max(getSubtileCount(), 1);
+		double checkShare = 6 / (Math.PI * Math.PI * check * check);
+		return MeanQualityMatrix.getNormalQuantile(1 - (1 - confidence) * checkShare / subtiles);
+	}
+
+	private long getSubtileCount() {
+		return (long) tileTree.getTileIndex().size() * maxSequenceLength * matrixSize * matrixSize;
+	}
+
+	/**
+	 * Records the BAM preview for the report
+	 * 
+	 * @param reads - the reads used by the heatmaps
+	 * @param chunks - the chunks of the BAM file read by the preview
+	 */
+	public void setPreview(int reads, int chunks) {
+		this.previewReads = reads;
+		this.previewChunks = chunks;
+	}
+
+	/**
+	 * Records the early termination for the report
+	 * 
+	 * @param readFraction - the fraction of the file read
+	 * @param confidence - the confidence level between 0 and 1
+	 * @param decidedFraction - the fraction of the decided subtiles (getDecidedFraction)
+	 */
+	public void setConvergence(double readFraction, double confidence, double decidedFraction) {
+		this.readFraction = readFraction;
+		this.confidence = confidence;
+		this.decidedFraction = decidedFraction;
+	}
+
 	public MeanQualityMatrix getMeanQualityMatrix(TileBPCoordinates coordinate) {
 		
 		TileCoordinates tileCoordinate = coordinate.getTileCoordinate();
@@ -637,6 +1143,15 @@ public class QualityHeatMapsPerTileAndBase implements SugarModule, Serializable,
 		// maxMatrixDensity
         obj.put(JSON_ATTR_MAX_MATRIX_DENSITY, maxMatrixDensity);
 
+        // quality histograms (#40) are kept by the matrices
+        if (meanQualityMatrixMap == histogramMatrixMap)
+        {
+        	JSONArray thresholdArray = new JSONArray();
+        	for (int threshold : QualityCounterStore.getHistogramThresholds(qualityThresholdArray))
+        		thresholdArray.add(threshold);
+        	obj.put(JSON_ATTR_QUALITY_HISTOGRAM_THRESHOLDS, thresholdArray);
+        }
+
         // meanQualityMatrixMap
         JSONSerializationUtils.saveMapInJSONObject(obj, meanQualityMatrixMap, "meanQualityMatrixMap");
 
@@ -661,6 +1176,20 @@ public class QualityHeatMapsPerTileAndBase implements SugarModule, Serializable,
 		// maxMatrixDensity
 		maxMatrixDensity = new Integer(jsonObject.get(JSON_ATTR_MAX_MATRIX_DENSITY).toString());
 
+		// quality histograms (#40)
+		JSONArray histogramThresholds = (JSONArray) jsonObject.get(JSON_ATTR_QUALITY_HISTOGRAM_THRESHOLDS);
+		boolean histograms = histogramThresholds != null && histogramThresholds.size() > 1;
+		if (histograms)
+		{
+			int[] thresholds = new int[histogramThresholds.size()];
+			for (int i = 0; i < thresholds.length; i++)
+				thresholds[i] = Integer.parseInt(histogramThresholds.get(i).toString());
+			setHistogramThresholds(thresholds);
+		}
+		counterStore = createCounterStore(histograms);
+		if (histograms)
+			histogramMatrixMap = meanQualityMatrixMap;
+
         // tileIDsMap
 		JSONArray keyArray = (JSONArray) jsonObject.get(JSON_ATTR_MEAN_QUALITY_MATRIX_MAP_KEYS);
 		JSONArray valueArray = (JSONArray) jsonObject.get(JSON_ATTR_MEAN_QUALITY_MATRIX_MAP_VALUES);
@@ -673,9 +1202,11 @@ public class QualityHeatMapsPerTileAndBase implements SugarModule, Serializable,
 			Rectangle tileRange = tileTree.getRange(tc);			
 			List<MeanQualityMatrix> matrixList = new ArrayList<MeanQualityMatrix>();
 			JSONArray array = (JSONArray) valueArray.get(i);
+			int tile = tileTree.getTileIndex().indexOf(tc);
+			counterStore.reserve(tile, array.size());
 			for (Object o : array)
 			{
-				MeanQualityMatrix matrix = new MeanQualityMatrix(tileRange, matrixSize, qualityThreshold);
+				MeanQualityMatrix matrix = new MeanQualityMatrix(tileRange, qualityThreshold, counterStore, tile);
 				matrix.fromJSONObject((JSONObject) o); 
 				matrixList.add(matrix);
 			}
@@ -697,12 +1228,150 @@ public class QualityHeatMapsPerTileAndBase implements SugarModule, Serializable,
 	
 	// customized JSON Serialization
 	
+	// binary serialization (cache)
+	
+	/**
+	 * Binary cache file:
+	 * 
+	 * header:		magic, version, matrixSize, qualityThreshold, maxSequenceLength, maxMatrixDensity, histogramBins, tileCount,
+	 * 				thresholds of the histogram bins (histogramBins ints)
+	 * tile index:	flowCell, lane, tile, matrixCount, offset of the first matrix (long) - for each tile
+	 * counters:	negative, total, quality counters and histogram (N x N ints each) - for each matrix
+	 */
+	@Override
+	public void toBinaryFile(File file) throws IOException {
+		
+		boolean histograms = meanQualityMatrixMap == histogramMatrixMap;
+		int[] histogramThresholds = QualityCounterStore.getHistogramThresholds(histograms ? qualityThresholdArray : null);
+		int histogramBins = histogramThresholds.length;
+		long matrixBytes = 4L * matrixSize * matrixSize * (3 + histogramBins);
+		
+		List<TileCoordinates> tiles = new ArrayList<TileCoordinates>(meanQualityMatrixMap.keySet());
+		
+		int indexSize = BINARY_HEADER_SIZE + 4 * histogramBins;
+		for (TileCoordinates tc : tiles)
+			indexSize += BinarySerializationUtils.sizeOf(tc.getFlowCell()) + 3 * 4 + 8;
+		
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			FileChannel channel = out.getChannel();
+			ByteBuffer buffer = BinarySerializationUtils.allocateWriteBuffer();
+			
+			BinarySerializationUtils.writeHeader(buffer, BINARY_MAGIC, BINARY_VERSION);
+			buffer.putInt(matrixSize);
+			buffer.putInt(qualityThreshold);
+			buffer.putInt(maxSequenceLength);
+			buffer.putInt(maxMatrixDensity);
+			buffer.putInt(histogramBins);
+			buffer.putInt(tiles.size());
+			for (int threshold : histogramThresholds)
+				buffer.putInt(threshold);
+			
+			long offset = indexSize;
+			for (TileCoordinates tc : tiles)
+			{
+				int matrixCount = meanQualityMatrixMap.get(tc).size();
+				if (buffer.remaining() < BinarySerializationUtils.sizeOf(tc.getFlowCell()) + 3 * 4 + 8)
+					BinarySerializationUtils.flush(buffer, channel);
+				
+				BinarySerializationUtils.putString(buffer, tc.getFlowCell());
+				buffer.putInt(tc.getLane());
+				buffer.putInt(tc.getTile());
+				buffer.putInt(matrixCount);
+				buffer.putLong(offset);
+				offset += matrixCount * matrixBytes;
+			}
+			
+			for (TileCoordinates tc : tiles)
+			{
+				for (MeanQualityMatrix matrix : meanQualityMatrixMap.get(tc))
+					matrix.writeCounters(buffer, channel);
+			}
+			BinarySerializationUtils.flush(buffer, channel);
+		}
+		finally {
+			out.close();
+		}
+	}
+	
+	@Override
+	public void fromBinaryFile(File file) throws IOException {
+		
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			fromBinaryFile(raf.getChannel());
+		}
+		finally {
+			raf.close();
+		}
+	}
+	
+	private void fromBinaryFile(FileChannel channel) throws IOException {
+		
+		ByteBuffer buffer = BinarySerializationUtils.mapHeader(channel);
+		BinarySerializationUtils.readHeader(buffer, BINARY_MAGIC, BINARY_VERSION);
+		
+		matrixSize = buffer.getInt();
+		qualityThreshold = buffer.getInt();
+		maxSequenceLength = buffer.getInt();
+		maxMatrixDensity = buffer.getInt();
+		int histogramBins = buffer.getInt();
+		int tileCount = buffer.getInt();
+		
+		int[] histogramThresholds = new int[histogramBins];
+		for (int i = 0; i < histogramBins; i++)
+			histogramThresholds[i] = buffer.getInt();
+		long matrixBytes = 4L * matrixSize * matrixSize * (3 + histogramBins);
+		
+		boolean histograms = histogramBins > 0;
+		if (histograms)
+			setHistogramThresholds(histogramThresholds);
+		counterStore = createCounterStore(histograms);
+		if (histograms)
+			histogramMatrixMap = meanQualityMatrixMap;
+		
+		TileCoordinates[] tiles = new TileCoordinates[tileCount];
+		int[] matrixCounts = new int[tileCount];
+		long[] offsets = new long[tileCount];
+		for (int i = 0; i < tileCount; i++)
+		{
+			String flowCell = BinarySerializationUtils.getString(buffer);
+			int lane = buffer.getInt();
+			int tile = buffer.getInt();
+			tiles[i] = new TileCoordinates(flowCell, lane, tile);
+			matrixCounts[i] = buffer.getInt();
+			offsets[i] = buffer.getLong();
+		}
+		
+		for (int i = 0; i < tileCount; i++)
+		{
+			Rectangle tileRange = tileTree.getRange(tiles[i]);
+			List<MeanQualityMatrix> matrixList = new ArrayList<MeanQualityMatrix>(matrixCounts[i]);
+			
+			// the counters of each tile are mapped separately
+			ByteBuffer tileBuffer = BinarySerializationUtils.map(channel, offsets[i], matrixCounts[i] * matrixBytes);
+			int tile = tileTree.getTileIndex().indexOf(tiles[i]);
+			counterStore.reserve(tile, matrixCounts[i]);
+			for (int m = 0; m < matrixCounts[i]; m++)
+			{
+				MeanQualityMatrix matrix = new MeanQualityMatrix(tileRange, qualityThreshold, counterStore, tile);
+				matrix.readCounters(tileBuffer);
+				matrixList.add(matrix);
+			}
+			meanQualityMatrixMap.put(tiles[i], matrixList);
+		}
+	}
+	
+	// binary serialization (cache)
+	
 	public void initOptions(FileOptionsPanel optionsPanel) {
 		matrixSize = optionsPanel.getMatrixSize();		
+		cellSample = Options.getCellSample();
 	}
 
 	public void initOptions() {
 		matrixSize = Options.getMatrixSize();
+		cellSample = Options.getCellSample();
 	}
 	
 	public int getMatrixSize() {
@@ -740,11 +1409,6 @@ public class QualityHeatMapsPerTileAndBase implements SugarModule, Serializable,
 	
 	public void exportSelectionMatrix(File file) throws IOException {
 
-		JSONObject obj = new JSONObject();
-		
-		//matrixSize
-        obj.put(JSON_ATTR_SELECTION_MATRIX_SIZE, matrixSize);
-
         // get selection
 		Map<TileBPCoordinates, boolean[][]> selectionMatrixMap = new HashMap<TileBPCoordinates, boolean[][]>();
 		
@@ -763,6 +1427,19 @@ public class QualityHeatMapsPerTileAndBase implements SugarModule, Serializable,
 			}
 		}
 
+		writeSelectionMatrix(file, matrixSize, selectionMatrixMap);
+	}
+
+	/**
+	 * Writes the selected entries in the format of importSelectionMatrix (e.g. the known low quality areas of generated reads)
+	 */
+	public static void writeSelectionMatrix(File file, int matrixSize, Map<TileBPCoordinates, boolean[][]> selectionMatrixMap) throws IOException {
+
+		JSONObject obj = new JSONObject();
+		
+		//matrixSize
+        obj.put(JSON_ATTR_SELECTION_MATRIX_SIZE, matrixSize);
+
 		// write selection to JSON
 		JSONArray keyArray = new JSONArray();
 		JSONArray valueArray = new JSONArray();
@@ -1010,6 +1687,13 @@ public class QualityHeatMapsPerTileAndBase implements SugarModule, Serializable,
 			meanQualityMatrixMap = thresholdQualityMatrixMap.get(threshold);
 			result = true;
 		}
+		// #40: compute from the quality histograms
+		else if (histogramMatrixMap != null && Arrays.asList(qualityThresholdArray).contains(threshold))
+		{
+			meanQualityMatrixMap = createThresholdMatrixMap(threshold);
+			thresholdQualityMatrixMap.put(threshold, meanQualityMatrixMap);
+			result = true;
+		}
 		else {
 	        
 			meanQualityMatrixMap = new MeanQualityMatrixMap();
@@ -1032,6 +1716,24 @@ public class QualityHeatMapsPerTileAndBase implements SugarModule, Serializable,
 		return result;
 	}		
 
+	/**
+	 * Computes the matrices for the given threshold from the quality histograms
+	 */
+	private MeanQualityMatrixMap createThresholdMatrixMap(int threshold) {
+		MeanQualityMatrixMap result = new MeanQualityMatrixMap();
+		QualityCounterStore store = new QualityCounterStore(matrixSize);
+		
+		for (Map.Entry<TileCoordinates, List<MeanQualityMatrix>> entry : histogramMatrixMap.entrySet())
+		{
+			List<MeanQualityMatrix> matrixList = new ArrayList<MeanQualityMatrix>();
+			for (MeanQualityMatrix matrix : entry.getValue())
+				matrixList.add(matrix.createThresholdMatrix(threshold, store));
+			result.put(entry.getKey(), matrixList);
+		}
+		
+		return result;
+	}
+
 	public void keepQualityMatrixMap() {
 				
 		if (!thresholdQualityMatrixMap.containsKey(qualityThreshold))
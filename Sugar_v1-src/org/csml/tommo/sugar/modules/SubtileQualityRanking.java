@@ -53,7 +53,7 @@ public class SubtileQualityRanking implements QCModule {
 						for(MeanQualityMatrix matrix: matrixList){
 							if(matrix != null){
 								counter++;
-								total += matrix.getTotalValueCounter()[x][y];
+								total += matrix.getTotalValue(x, y);
 								averageQuality += matrix.getAverageQualityMatrix()[x][y];
 								rateOfReads += matrix.getMeanValues()[x][y];
 							}
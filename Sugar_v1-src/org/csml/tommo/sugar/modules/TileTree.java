@@ -31,7 +31,9 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.io.Writer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -49,10 +51,11 @@ import org.csml.tommo.sugar.analysis.HiSeqRapidRunNumeration;
 import org.csml.tommo.sugar.analysis.JSONFileSerializable;
 import org.csml.tommo.sugar.analysis.JSONSerializationUtils;
 import org.csml.tommo.sugar.analysis.MiSeqNumeration;
+import org.csml.tommo.sugar.analysis.ReadContext;
 import org.csml.tommo.sugar.analysis.TileNumeration;
 import org.csml.tommo.sugar.sequence.LaneCoordinates;
-import org.csml.tommo.sugar.sequence.SequenceCoordinates;
 import org.csml.tommo.sugar.sequence.TileCoordinates;
+import org.csml.tommo.sugar.sequence.TileIndex;
 import org.csml.tommo.sugar.utils.TreeUtils;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -63,7 +66,7 @@ import uk.ac.babraham.FastQC.Report.HTMLReportArchive;
 import uk.ac.babraham.FastQC.Sequence.Sequence;
 import uk.ac.babraham.FastQC.Sequence.QualityEncoding.PhredEncoding;
 
-public class TileTree implements SugarModule, Serializable, JSONFileSerializable {
+public class TileTree implements RawReadModule, MergeableModule, Serializable, JSONFileSerializable {
 	
 	/**
 	 * 
@@ -125,21 +128,146 @@ public class TileTree implements SugarModule, Serializable, JSONFileSerializable
 	 */
 	private Map<TileCoordinates, Rectangle> xyRangeMap = new HashMap<TileCoordinates, Rectangle>();
 
+	/**
+	 * Assigns a dense ordinal to each tile. The modules keep their per-tile data in lists indexed by the ordinal.
+	 * 
+	 * The ranges of xyRangeMap indexed by the ordinal
+	 */
+	private TileIndex tileIndex = new TileIndex();
+	private List<Rectangle> ranges = new ArrayList<Rectangle>();
+	
+	/**
+	 * the tile and the range of the previous read
+	 * 
+	 * the bookkeeping of the flow cells, lanes and tiles is skipped, while the tile does not change
+	 */
+	private transient TileCoordinates lastTileCoordinates;
+	private transient Rectangle lastRange;
+
+	/**
+	 * the ranges are read from a file (--tile_ranges), so all shards of a file bin the subtiles on the same ranges.
+	 * The reads are only checked against the ranges then.
+	 */
+	private boolean fixedRanges = false;
+
 	
 	@Override
 	public void processSequence(Sequence sequence) {
+		processRead(new ReadContext(sequence));
+	}
+
+	@Override
+	public void processRead(ReadContext read) {
+		
+		if (fixedRanges)
+		{
+			checkRead(read);
+			return;
+		}
+		
+		byte[] qualities = read.getQualities();
+		for (int c=0;c<read.getQualityLength();c++) {
+			if (qualities[c] < lowestChar) {
+				lowestChar = (char) qualities[c];
+				// the encoding may change with the lowest char (single-pass analysis asks for it before the end of the file)
+				phredEncoding = null;
+			}
+		}
+		
+		// the context shares the tile coordinates between the reads of the same tile
+		if (read.getTileCoordinates() != lastTileCoordinates)
+		{
+			lastTileCoordinates = read.getTileCoordinates();
+			int tile = tileIndex.indexOf(lastTileCoordinates);
+			lastRange = (tile != TileIndex.NO_TILE) ? 
+					ranges.get(tile) : 
+					storeTileCoordinates(read);
+		}
+		lastRange.add(read.getX(), read.getY());
+	}
+
+	@Override
+	public MergeableModule createPartial() {
+		// the partial only checks the reads, it shares the (unchanged) index and the ranges
+		if (fixedRanges)
+		{
+			TileTree tileTree = new TileTree();
+			tileTree.lowestChar = lowestChar;
+			tileTree.tileIndex = tileIndex;
+			tileTree.ranges = new ArrayList<Rectangle>(ranges);
+			tileTree.fixedRanges = true;
+			return tileTree;
+		}
+		return new TileTree();
+	}
+
+	@Override
+	public void merge(MergeableModule partial) {
+		if (fixedRanges)
+			return;
+		
+		TileTree tileTree = (TileTree) partial;
+		
+		if (tileTree.lowestChar < lowestChar) {
+			lowestChar = tileTree.lowestChar;
+			phredEncoding = null;
+		}
+		
+		flowCellSet.addAll(tileTree.flowCellSet);
 		
-		char[] chars = sequence.getQualityString().toCharArray();
-		for (int c=0;c<chars.length;c++) {
-			if (chars[c] < lowestChar) {
-				lowestChar = chars[c];
+		for (Map.Entry<String, SortedSet<Integer>> entry : tileTree.laneIDsMap.entrySet())
+		{
+			SortedSet<Integer> laneIDs = laneIDsMap.get(entry.getKey());
+			if (laneIDs == null)
+			{
+				laneIDs = new TreeSet<Integer>();
+				laneIDsMap.put(entry.getKey(), laneIDs);
+			}
+			laneIDs.addAll(entry.getValue());
+		}
+		
+		for (Map.Entry<LaneCoordinates, SortedSet<Integer>> entry : tileTree.tileIDsMap.entrySet())
+		{
+			SortedSet<Integer> tileIDs = tileIDsMap.get(entry.getKey());
+			if (tileIDs == null)
+			{
+				tileIDs = new TreeSet<Integer>();
+				tileIDsMap.put(entry.getKey(), tileIDs);
 			}
+			tileIDs.addAll(entry.getValue());
 		}
 		
-		SequenceCoordinates seqCoord = SequenceCoordinates.createSequenceCoordinates(sequence);
+		for (Map.Entry<TileCoordinates, Rectangle> entry : tileTree.xyRangeMap.entrySet())
+		{
+			Rectangle range = xyRangeMap.get(entry.getKey());
+			if (range == null)
+				addTile(entry.getKey(), new Rectangle(entry.getValue()));
+			else
+				range.add(entry.getValue());
+		}
+		
+		tileNumeration = null;
+		lastTileCoordinates = null;
+		lastRange = null;
+	}
+
+	private void checkRead(ReadContext read) {
+		if (read.getTileCoordinates() != lastTileCoordinates)
+		{
+			lastTileCoordinates = read.getTileCoordinates();
+			int tile = tileIndex.indexOf(lastTileCoordinates);
+			lastRange = (tile != TileIndex.NO_TILE) ? ranges.get(tile) : null;
+		}
+		if (lastRange == null)
+			throw new IllegalStateException("The tile " + lastTileCoordinates + " is missing in the tile ranges (--tile_ranges)");
+		if (read.getX() < lastRange.x || read.getX() > lastRange.x + lastRange.width ||
+				read.getY() < lastRange.y || read.getY() > lastRange.y + lastRange.height)
+			throw new IllegalStateException("The read (" + read.getX() + ", " + read.getY() + ") is out of the range of the tile " + 
+					lastTileCoordinates + " in the tile ranges (--tile_ranges)");
+	}
 
-		// storeSequenceCoordinates(SequenceCoordinates seqCoord)
-		String flowCell = seqCoord.getFlowCell();
+	private Rectangle storeTileCoordinates(ReadContext read) {
+		String flowCell = read.getFlowCell();
 		
 		flowCellSet.add(flowCell);
 		
@@ -149,42 +277,30 @@ public class TileTree implements SugarModule, Serializable, JSONFileSerializable
 			laneIDs = new TreeSet<Integer>();
 			laneIDsMap.put(flowCell, laneIDs);
 		}
-		laneIDs.add(seqCoord.getLane());
+		laneIDs.add(read.getLane());
 
-		LaneCoordinates laneCoordinates = new LaneCoordinates(seqCoord.getFlowCell(), seqCoord.getLane());
+		LaneCoordinates laneCoordinates = new LaneCoordinates(flowCell, read.getLane());
 		SortedSet<Integer> tileIDs = tileIDsMap.get(laneCoordinates);
 		if (tileIDs == null)
 		{
 			tileIDs = new TreeSet<Integer>();
 			tileIDsMap.put(laneCoordinates, tileIDs);
 		}
-		tileIDs.add(seqCoord.getTile());
+		tileIDs.add(read.getTile());
 		
-		TileCoordinates tileCoordinates = new TileCoordinates(seqCoord.getFlowCell(), seqCoord.getLane(), seqCoord.getTile());
-//		SortedSet<Integer> xCoordinates = xCoordinatesMap.get(tileCoordinates);
-//		if (xCoordinates == null)
-//		{
-//			xCoordinates = new TreeSet<Integer>();
-//			xCoordinatesMap.put(tileCoordinates, xCoordinates);
-//		}
-//		xCoordinates.add(seqCoord.getX());
-//		
-//		SortedSet<Integer> yCoordinates = yCoordinatesMap.get(tileCoordinates);
-//		if (yCoordinates == null)
-//		{
-//			yCoordinates = new TreeSet<Integer>();
-//			yCoordinatesMap.put(tileCoordinates, yCoordinates);
-//		}		
-//		yCoordinates.add(seqCoord.getY());
-		
-		Rectangle range = xyRangeMap.get(tileCoordinates);
-		if (range == null)
-		{
-			range = new Rectangle(0,0,-1,-1);
-			xyRangeMap.put(tileCoordinates, range);
-		}
-		range.add(seqCoord.getX(), seqCoord.getY());
+		Rectangle range = new Rectangle(0,0,-1,-1);
+		addTile(read.getTileCoordinates(), range);
+		return range;
+	}
+
+	private void addTile(TileCoordinates tileCoordinates, Rectangle range) {
+		xyRangeMap.put(tileCoordinates, range);
 		
+		int tile = tileIndex.add(tileCoordinates);
+		if (tile == ranges.size())
+			ranges.add(range);
+		else
+			ranges.set(tile, range);
 	}
 
 	@Override
@@ -273,7 +389,12 @@ public class TileTree implements SugarModule, Serializable, JSONFileSerializable
 		laneIDsMap.clear();		
 		tileIDsMap.clear();		
 		xyRangeMap.clear();
-
+		tileIndex = new TileIndex();
+		ranges.clear();
+		
+		lastTileCoordinates = null;
+		lastRange = null;
+		fixedRanges = false;
 	}
 	
 	@Override
@@ -307,6 +428,34 @@ public class TileTree implements SugarModule, Serializable, JSONFileSerializable
 	public Rectangle getRange(TileCoordinates tileCoordinates) {
 		return xyRangeMap.get(tileCoordinates);
 	}
+
+	/**
+	 * @param tile - the ordinal of the tile in the TileIndex
+	 * @return the range or null for TileIndex.NO_TILE
+	 */
+	public Rectangle getRange(int tile) {
+		return (tile != TileIndex.NO_TILE) ? ranges.get(tile) : null;
+	}
+	
+	/**
+	 * The index is replaced by reset(), so the modules can tell, whether their ordinals are still valid
+	 */
+	public TileIndex getTileIndex() {
+		return tileIndex;
+	}
+	
+	/**
+	 * @param fixedRanges - true, if the ranges (read from a file) must not change, the reads are only checked then
+	 */
+	public void setFixedRanges(boolean fixedRanges) {
+		this.fixedRanges = fixedRanges;
+		lastTileCoordinates = null;
+		lastRange = null;
+	}
+	
+	public boolean hasFixedRanges() {
+		return fixedRanges;
+	}
 	
 	public PhredEncoding getPhredEncoding() {
 		if (phredEncoding == null)
@@ -455,7 +604,7 @@ public class TileTree implements SugarModule, Serializable, JSONFileSerializable
 			TileCoordinates tc = new TileCoordinates();
 			tc.fromJSONObject(jsonTileCoordinate); 
 			Rectangle rect = JSONSerializationUtils.json2rect((JSONArray) valueArray.get(i));
-			xyRangeMap.put(tc, rect);			
+			addTile(tc, rect);
 		}			
 	}
 
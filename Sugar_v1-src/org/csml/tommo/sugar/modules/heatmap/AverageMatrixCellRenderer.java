@@ -46,8 +46,7 @@ public class AverageMatrixCellRenderer extends DefaultTableCellRenderer {
 //				setToolTipText(tooltip);
 
 				MeanQualityMatrix matrix = (MeanQualityMatrix) value;				
-				Image image = getImage(paintScale, matrix);
-				image = image.getScaledInstance(resultsTable.getHeatMapSize(), resultsTable.getHeatMapSize(), Image.SCALE_FAST);
+				Image image = getImage(paintScale, matrix, resultsTable.getHeatMapSize());
 				ImageIcon icon = new ImageIcon(image);
 				setHorizontalAlignment(SwingConstants.CENTER);
 				setIcon(icon);										
@@ -92,9 +91,12 @@ public class AverageMatrixCellRenderer extends DefaultTableCellRenderer {
 		return this;
 	}	
 
+	/**
+	 * @return the heat-map painted at the size of the table cell (kept by the HeatmapImageCache until the matrix changes)
+	 */
 	protected Image getImage(ColorPaintScale paintScale,
-			MeanQualityMatrix matrix) {
-		Image image = matrix.createBufferedImage(paintScale);
+			MeanQualityMatrix matrix, int size) {
+		Image image = HeatmapImageCache.getMeanImage(matrix, paintScale, size);
 		return image;
 	}
 
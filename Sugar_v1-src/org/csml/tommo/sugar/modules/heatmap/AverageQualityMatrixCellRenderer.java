@@ -52,8 +52,8 @@ public class AverageQualityMatrixCellRenderer extends DefaultTableCellRenderer {
 				setToolTipText(tooltip);
 
 				MeanQualityMatrix matrix = (MeanQualityMatrix) value;				
-				Image image = getImage(paintScale, matrix);
-				Icon icon = new ImageIcon(image.getScaledInstance(resultsTable.getHeatMapSize(), resultsTable.getHeatMapSize(), Image.SCALE_FAST));
+				Image image = getImage(paintScale, matrix, resultsTable.getHeatMapSize());
+				Icon icon = new ImageIcon(image);
 				setHorizontalAlignment(SwingConstants.CENTER);
 				setIcon(icon);										
 
@@ -82,9 +82,12 @@ public class AverageQualityMatrixCellRenderer extends DefaultTableCellRenderer {
 		return this;
 	}
 
+	/**
+	 * @return the heat-map painted at the size of the table cell (kept by the HeatmapImageCache until the matrix changes)
+	 */
 	protected Image getImage(ColorPaintScale paintScale,
-			MeanQualityMatrix matrix) {
-		Image image = matrix.createAverageQualityBufferedImage(paintScale);
+			MeanQualityMatrix matrix, int size) {
+		Image image = HeatmapImageCache.getAverageQualityImage(matrix, paintScale, size);
 		return image;
 	}
 
@@ -67,8 +67,8 @@ public class DensityMatrixCellRenderer extends DefaultTableCellRenderer {
 				ColorPaintScale paintScale = getPaintScale(resultsTable.getMaxDensity());
 
 				MeanQualityMatrix matrix = (MeanQualityMatrix) value;				
-				Image image = getImage(paintScale, matrix);
-				Icon icon = new ImageIcon(image.getScaledInstance(resultsTable.getHeatMapSize(), resultsTable.getHeatMapSize(), Image.SCALE_FAST));
+				Image image = getImage(paintScale, matrix, resultsTable.getHeatMapSize());
+				Icon icon = new ImageIcon(image);
 				setHorizontalAlignment(SwingConstants.CENTER);
 				setIcon(icon);										
 
@@ -97,13 +97,27 @@ public class DensityMatrixCellRenderer extends DefaultTableCellRenderer {
 		return this;
 	}
 
+	/**
+	 * @return the heat-map painted at the size of the table cell (kept by the HeatmapImageCache until the matrix changes)
+	 */
 	protected Image getImage(ColorPaintScale paintScale,
-			MeanQualityMatrix matrix) {
-		Image image = matrix.createDensityBufferedImage(paintScale);
+			MeanQualityMatrix matrix, int size) {
+		Image image = HeatmapImageCache.getDensityImage(matrix, paintScale, size);
 		return image;
 	}
 
+	/**
+	 * the last paint scale is reused, so its color lookup table is created only once
+	 */
+	private static volatile ColorPaintScale lastPaintScale;
+	
 	public static ColorPaintScale getPaintScale(int maxValue) {
-		return new TemperaturePaintScale(0, maxValue);
+		ColorPaintScale result = lastPaintScale;
+		if (result == null || result.getUpperBound() != maxValue)
+		{
+			result = new TemperaturePaintScale(0, maxValue);
+			lastPaintScale = result;
+		}
+		return result;
 	}
 }
\ No newline at end of file
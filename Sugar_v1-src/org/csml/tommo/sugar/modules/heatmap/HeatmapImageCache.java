@@ -0,0 +1,215 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.modules.heatmap;
+
+import java.awt.image.BufferedImage;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.csml.tommo.sugar.heatmap.ColorPaintScale;
+import org.csml.tommo.sugar.heatmap.MappingQualityMatrix;
+import org.csml.tommo.sugar.heatmap.MeanQualityMatrix;
+
+/**
+ * Class HeatmapImageCache
+ *
+ * Keeps the heat-map images painted by the cell renderers, so a repaint of the tables (scrolling, selection, resizing
+ * of the dialogs) does not paint the unchanged matrices again. The images are painted at the heat-map size of the table
+ * by the HeatmapRaster, an image is painted again when the version of its matrix (e.g. after a mix) or the paint scale changes.
+ *
+ * The least recently used images are dropped, when the images have more than MAX_PIXELS pixels.
+ *
+ */
+public class HeatmapImageCache {
+
+	/**
+	 * 32 MB of TYPE_INT_RGB images, e.g. about 3500 heat-maps of 49 x 49 pixels
+	 */
+	public static final long MAX_PIXELS = 8 * 1024 * 1024;
+
+	private static final int MEAN = -1;
+	private static final int DENSITY = -2;
+	private static final int AVERAGE_QUALITY = -3;
+
+	private static final Map<Key, Entry> images = new LinkedHashMap<Key, Entry>(256, 0.75f, true);
+	private static long pixels = 0;
+
+	public static BufferedImage getMeanImage(MeanQualityMatrix matrix, ColorPaintScale scale, int size) {
+		Key key = new Key(matrix, MEAN, scale, size);
+		BufferedImage image = get(key, matrix.getVersion());
+		if (image == null)
+		{
+			image = createImage(size);
+			matrix.paintImage(image, 0, 0, size, scale);
+			put(key, matrix.getVersion(), image);
+		}
+		return image;
+	}
+
+	public static BufferedImage getDensityImage(MeanQualityMatrix matrix, ColorPaintScale scale, int size) {
+		Key key = new Key(matrix, DENSITY, scale, size);
+		BufferedImage image = get(key, matrix.getVersion());
+		if (image == null)
+		{
+			// make sure that the counter is initialized
+			matrix.getMeanValues();
+
+			image = createImage(size);
+			matrix.paintDensityImage(image, 0, 0, size, scale);
+			put(key, matrix.getVersion(), image);
+		}
+		return image;
+	}
+
+	public static BufferedImage getAverageQualityImage(MeanQualityMatrix matrix, ColorPaintScale scale, int size) {
+		Key key = new Key(matrix, AVERAGE_QUALITY, scale, size);
+		BufferedImage image = get(key, matrix.getVersion());
+		if (image == null)
+		{
+			image = createImage(size);
+			matrix.paintAverageQualityImage(image, 0, 0, size, scale);
+			put(key, matrix.getVersion(), image);
+		}
+		return image;
+	}
+
+	public static BufferedImage getImage(MappingQualityMatrix matrix, ColorPaintScale scale, int size) {
+		Key key = new Key(matrix, MEAN, scale, size);
+		BufferedImage image = get(key, matrix.getVersion());
+		if (image == null)
+		{
+			image = createImage(size);
+			matrix.paintImage(image, 0, 0, size, scale);
+			put(key, matrix.getVersion(), image);
+		}
+		return image;
+	}
+
+	public static BufferedImage getImageForThreshold(MappingQualityMatrix matrix, int threshold, ColorPaintScale scale, int size) {
+		Key key = new Key(matrix, threshold, scale, size);
+		BufferedImage image = get(key, matrix.getVersion());
+		if (image == null)
+		{
+			image = createImage(size);
+			matrix.paintImageForThreshold(image, 0, 0, size, threshold, scale);
+			put(key, matrix.getVersion(), image);
+		}
+		return image;
+	}
+
+	public static synchronized void clear() {
+		images.clear();
+		pixels = 0;
+	}
+
+	private static BufferedImage createImage(int size) {
+		size = Math.max(1, size);
+		return new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+	}
+
+	/**
+	 * @return the image of the key or null, if there is none or the matrix has changed
+	 */
+	private static synchronized BufferedImage get(Key key, int version) {
+		Entry entry = images.get(key);
+		return entry != null && entry.version == version ? entry.image : null;
+	}
+
+	private static synchronized void put(Key key, int version, BufferedImage image) {
+		Entry old = images.put(key, new Entry(version, image));
+		if (old != null)
+			pixels -= getPixels(old.image);
+		pixels += getPixels(image);
+
+		Iterator<Entry> iterator = images.values().iterator();
+		while (pixels > MAX_PIXELS && iterator.hasNext())
+		{
+			pixels -= getPixels(iterator.next().image);
+			iterator.remove();
+		}
+	}
+
+	private static long getPixels(BufferedImage image) {
+		return (long) image.getWidth() * image.getHeight();
+	}
+
+	private static class Entry {
+
+		private final int version;
+		private final BufferedImage image;
+
+		private Entry(int version, BufferedImage image) {
+			this.version = version;
+			this.image = image;
+		}
+	}
+
+	/**
+	 * The matrix is compared by the identity, the paint scale by its bounds (see ColorPaintScale.equals).
+	 * The matrix is referenced weakly, the matrices of a closed file (and their counter store) are not kept by the cache.
+	 */
+	private static class Key {
+
+		private final WeakReference<Object> matrix;
+		private final int variant;
+		private final ColorPaintScale scale;
+		private final int size;
+		private final int hash;
+
+		private Key(Object matrix, int variant, ColorPaintScale scale, int size) {
+			this.matrix = new WeakReference<Object>(matrix);
+			this.variant = variant;
+			this.scale = scale;
+			this.size = size;
+
+			final int prime = 31;
+			int result = System.identityHashCode(matrix);
+			result = prime * result + variant;
+			result = prime * result + scale.hashCode();
+			result = prime * result + size;
+			this.hash = result;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			Object referent = matrix.get();
+			return referent != null && referent == other.matrix.get() && variant == other.variant && size == other.size && scale.equals(other.scale);
+		}
+	}
+
+}
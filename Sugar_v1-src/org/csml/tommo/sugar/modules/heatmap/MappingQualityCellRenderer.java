@@ -44,12 +44,12 @@ public class MappingQualityCellRenderer extends DefaultTableCellRenderer {
 				MappingQualityMatrix matrix = (MappingQualityMatrix) value;
 				Image image = null;
 				if(row < MappingQualityMatrix.THRESHOLDS.length){
-					image = getImageForThreshold(MappingQualityMatrix.THRESHOLDS[row], matrix);
+					image = getImageForThreshold(MappingQualityMatrix.THRESHOLDS[row], matrix, resultsTable.getHeatMapSize());
 				}
 				else{
-					image = getImage(matrix);					
+					image = getImage(matrix, resultsTable.getHeatMapSize());					
 				}
-				Icon icon = new ImageIcon(image.getScaledInstance(resultsTable.getHeatMapSize(), resultsTable.getHeatMapSize(), Image.SCALE_FAST));
+				Icon icon = new ImageIcon(image);
 				setHorizontalAlignment(SwingConstants.CENTER);
 				setIcon(icon);										
 
@@ -78,21 +78,27 @@ public class MappingQualityCellRenderer extends DefaultTableCellRenderer {
 		return this;
 	}
 
-	protected Image getImage(MappingQualityMatrix matrix) {
-		Image image = matrix.createBufferedImage(getAveragePaintScale());
+	/**
+	 * @return the heat-map painted at the size of the table cell (kept by the HeatmapImageCache until the matrix changes)
+	 */
+	protected Image getImage(MappingQualityMatrix matrix, int size) {
+		Image image = HeatmapImageCache.getImage(matrix, getAveragePaintScale(), size);
 		return image;
 	}
 
-	protected Image getImageForThreshold(int threshold, MappingQualityMatrix matrix){
-		return matrix.createBufferedImageForThreshold(threshold, getThresholdPaintScale());
+	protected Image getImageForThreshold(int threshold, MappingQualityMatrix matrix, int size){
+		return HeatmapImageCache.getImageForThreshold(matrix, threshold, getThresholdPaintScale(), size);
 	}
 		
+	private static final ColorPaintScale THRESHOLD_PAINT_SCALE = new TemperaturePaintScale(0, 1);
+	private static final ColorPaintScale AVERAGE_PAINT_SCALE = new TemperaturePaintScale(0, 50);
+	
 	public static ColorPaintScale getThresholdPaintScale() {
-		return new TemperaturePaintScale(0, 1);
+		return THRESHOLD_PAINT_SCALE;
 	}
 
 	public static ColorPaintScale getAveragePaintScale() {
-		return new TemperaturePaintScale(0, 50);
+		return AVERAGE_PAINT_SCALE;
 	}
 
 }
@@ -25,11 +25,14 @@
  */
 package org.csml.tommo.sugar.modules.heatmap;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.csml.tommo.sugar.heatmap.MeanQualityMatrix;
 import org.csml.tommo.sugar.sequence.TileCoordinates;
+import org.csml.tommo.sugar.sequence.TileIndex;
 
 public class MeanQualityMatrixMap extends
 		HashMap<TileCoordinates, List<MeanQualityMatrix>> {
@@ -39,4 +42,61 @@ public class MeanQualityMatrixMap extends
 	 */
 	private static final long serialVersionUID = -2090684673338997626L;
 
+	/**
+	 * The matrix lists indexed by the tile ordinals of the TileIndex, 
+	 * so the lists are found without hashing the TileCoordinates for each read
+	 */
+	private transient TileIndex tileIndex;
+	private transient List<List<MeanQualityMatrix>> tileLists;
+
+	/**
+	 * @param tile - the ordinal of the tile in the index
+	 * @return the cached matrix list of the tile or null
+	 */
+	public List<MeanQualityMatrix> get(TileIndex index, int tile) {
+		if (index != tileIndex || tile >= tileLists.size())
+			return null;
+		return tileLists.get(tile);
+	}
+
+	/**
+	 * Caches the matrix list of the tile (the list must be the one kept in the map)
+	 */
+	public void put(TileIndex index, int tile, List<MeanQualityMatrix> matrixList) {
+		if (index != tileIndex)
+		{
+			tileIndex = index;
+			tileLists = new ArrayList<List<MeanQualityMatrix>>();
+		}
+		while (tileLists.size() <= tile)
+			tileLists.add(null);
+		tileLists.set(tile, matrixList);
+	}
+
+	@Override
+	public List<MeanQualityMatrix> put(TileCoordinates key, List<MeanQualityMatrix> value) {
+		List<MeanQualityMatrix> result = super.put(key, value);
+		if (result != null && result != value)
+			tileIndex = null;
+		return result;
+	}
+
+	@Override
+	public void putAll(Map<? extends TileCoordinates, ? extends List<MeanQualityMatrix>> m) {
+		super.putAll(m);
+		tileIndex = null;
+	}
+
+	@Override
+	public List<MeanQualityMatrix> remove(Object key) {
+		tileIndex = null;
+		return super.remove(key);
+	}
+
+	@Override
+	public void clear() {
+		super.clear();
+		tileIndex = null;
+	}
+
 }
@@ -43,7 +43,6 @@ import javax.swing.JScrollPane;
 import javax.swing.JTabbedPane;
 
 import org.csml.tommo.sugar.SugarApplication;
-import org.csml.tommo.sugar.analysis.OpenedFileCache;
 import org.csml.tommo.sugar.analysis.TileNumeration;
 import org.csml.tommo.sugar.modules.QualityHeatMapsPerTileAndBase;
 import org.csml.tommo.sugar.sequence.LaneCoordinates;
@@ -140,8 +139,8 @@ public class QualityHeatmapResultPanel extends JPanel implements PropertyChangeL
 		s += ", Quality Threshold: " ;
 		JLabel label = new JLabel(s,JLabel.CENTER);
 		
-		Integer[] availableThresholds = OpenedFileCache.getInstance().getAvailableQualityThresholds(
-				SugarApplication.getApplication().getSelectedSequenceFile(), matrixSize);
+		Integer[] availableThresholds = qualityHeatMapsPerTileAndBase.getAvailableQualityThresholds(
+				SugarApplication.getApplication().getSelectedSequenceFile());
 
 		
 		qualityCombo = new JComboBox(availableThresholds);
@@ -79,8 +79,8 @@ public class ResultsPerTileTableModel extends AbstractTableModel implements ITab
 						}
 						for(int i=0; i<matrixPerTile.getSize(); i++){
 							for(int j=0; j<matrixPerTile.getSize(); j++){
-								totalValueCounter[i][j] += matrix.getTotalValueCounter()[i][j];
-								matrixPerTile.getMeanValues()[i][j] += matrix.getMeanValues()[i][j] * matrix.getTotalValueCounter()[i][j];
+								totalValueCounter[i][j] += matrix.getTotalValue(i, j);
+								matrixPerTile.getMeanValues()[i][j] += matrix.getMeanValues()[i][j] * matrix.getTotalValue(i, j);
 								matrixPerTile.setCounter(matrixPerTile.getCounter() + matrix.getCounter());
 							}
 						}
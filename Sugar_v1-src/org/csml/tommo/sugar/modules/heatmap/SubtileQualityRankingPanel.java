@@ -18,7 +18,6 @@ import javax.swing.JLabel;
 import javax.swing.JPanel;
 
 import org.csml.tommo.sugar.SugarApplication;
-import org.csml.tommo.sugar.analysis.OpenedFileCache;
 import org.csml.tommo.sugar.heatmap.MeanQualityMatrix;
 import org.csml.tommo.sugar.heatmap.SubtileQualityRankingDataset;
 import org.csml.tommo.sugar.modules.QualityHeatMapsPerTileAndBase;
@@ -198,8 +197,8 @@ public class SubtileQualityRankingPanel extends JPanel implements ItemListener,
 			return result;
 		}
 		
-		Integer[] availableThresholds = OpenedFileCache.getInstance().getAvailableQualityThresholds(
-				SugarApplication.getApplication().getSelectedSequenceFile(), matrixSize);
+		Integer[] availableThresholds = module.getQualityHeatmapsPerTileAndBase().getAvailableQualityThresholds(
+				SugarApplication.getApplication().getSelectedSequenceFile());
 
 		
 		qualityCombo = new JComboBox(availableThresholds);
@@ -288,7 +287,7 @@ public class SubtileQualityRankingPanel extends JPanel implements ItemListener,
 					int[][] densityArray = densityPerTile.get(tile);
 					for(int x=0; x<matrix.getSize(); x++){
 						for(int y=0; y<matrix.getSize(); y++){
-							densityArray[x][y] += matrix.getTotalValueCounter()[x][y];
+							densityArray[x][y] += matrix.getTotalValue(x, y);
 						}
 					}
 				}
@@ -31,8 +31,11 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URLDecoder;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 import org.csml.tommo.sugar.SugarApplication;
+import org.csml.tommo.sugar.analysis.SugarMetrics;
 
 import uk.ac.babraham.FastQC.FastQCApplication;
 import uk.ac.babraham.FastQC.Modules.QCModule;
@@ -70,7 +73,26 @@ public class SugarHTMLReportArchive extends HTMLReportArchive {
 		htmlDocument().append(")</div>\n");
 		
 		htmlDocument().append("</body></html>");
+		
+		writeMetrics();
+	}
 
+	/**
+	 * Writes the metrics of the analysis and of this report (see SugarMetrics.startReport) to sugar_metrics.json
+	 */
+	private void writeMetrics() {
+		SugarMetrics metrics = SugarMetrics.getCurrent();
+		if (metrics == null || !SugarMetrics.isEnabled())
+			return;
+		
+		try {
+			ZipOutputStream zip = zipFile();
+			zip.putNextEntry(new ZipEntry(folderName() + "/" + SugarMetrics.METRICS_FILE_NAME));
+			zip.write(metrics.toJSONString().getBytes());
+			zip.closeEntry();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 	}
 
 	@Override
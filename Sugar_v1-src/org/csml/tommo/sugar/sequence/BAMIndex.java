@@ -0,0 +1,206 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.sequence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class BAMIndex
+ *
+ * The linear index and the read counts of a BAI file (the index of a coordinate sorted BAM file).
+ * The linear index has the virtual offset (BGZFBlockReader: compressed offset << 16 | offset in the block)
+ * of the first read of each 16 kb window of each reference, so the windows give the offsets evenly spaced
+ * across the references. The reads without the coordinates (unplaced) follow the last chunk of the last reference.
+ *
+ */
+public class BAMIndex {
+
+	private static final int MAGIC = 'B' | 'A' << 8 | 'I' << 16 | 1 << 24;
+
+	/**
+	 * the bin with the offsets and the read counts of the reference
+	 */
+	private static final int PSEUDO_BIN = 37450;
+
+	/**
+	 * the distinct virtual offsets of the windows of all references in the order of the file
+	 */
+	private final long[] windowOffsets;
+	private long unplacedOffset = 0;
+	private long placedReads = 0;
+	private long unplacedReads = 0;
+
+	public BAMIndex(File indexFile) throws IOException {
+		ByteBuffer buffer = readFile(indexFile);
+		if (buffer.remaining() < 8 || buffer.getInt() != MAGIC)
+			throw new IOException(indexFile.getName() + " is not a BAM index");
+
+		List<Long> offsets = new ArrayList<Long>();
+		long lastOffset = 0;
+		int references = buffer.getInt();
+		for (int r = 0; r < references; r++)
+		{
+			int bins = buffer.getInt();
+			for (int b = 0; b < bins; b++)
+			{
+				int bin = buffer.getInt();
+				int chunks = buffer.getInt();
+				if (bin == PSEUDO_BIN && chunks == 2)
+				{
+					unplacedOffset = Math.max(unplacedOffset, buffer.getLong(buffer.position() + 8));
+					placedReads += buffer.getLong(buffer.position() + 16) + buffer.getLong(buffer.position() + 24);
+				}
+				else
+				{
+					for (int c = 0; c < chunks; c++)
+						unplacedOffset = Math.max(unplacedOffset, buffer.getLong(buffer.position() + 16 * c + 8));
+				}
+				buffer.position(buffer.position() + 16 * chunks);
+			}
+
+			// the empty windows repeat the offset of the previous window (or 0)
+			int windows = buffer.getInt();
+			for (int w = 0; w < windows; w++)
+			{
+				long offset = buffer.getLong();
+				if (offset > lastOffset)
+				{
+					offsets.add(offset);
+					lastOffset = offset;
+				}
+			}
+		}
+		if (buffer.remaining() >= 8)
+			unplacedReads = buffer.getLong();
+
+		windowOffsets = new long[offsets.size()];
+		for (int i = 0; i < windowOffsets.length; i++)
+			windowOffsets[i] = offsets.get(i);
+	}
+
+	/**
+	 * @return the index of the BAM file (name.bam.bai or name.bai) or null, if there is none
+	 */
+	public static File find(File bamFile) {
+		File indexFile = new File(bamFile.getPath() + ".bai");
+		if (indexFile.isFile())
+			return indexFile;
+
+		String name = bamFile.getName();
+		if (name.toLowerCase().endsWith(".bam"))
+		{
+			indexFile = new File(bamFile.getParentFile(), name.substring(0, name.length() - 4) + ".bai");
+			if (indexFile.isFile())
+				return indexFile;
+		}
+		return null;
+	}
+
+	/**
+	 * @return at most 'samples' virtual offsets of the windows evenly spaced across all references
+	 */
+	public long[] getSampleOffsets(int samples) {
+		int count = Math.min(samples, windowOffsets.length);
+		long[] result = new long[count];
+		for (int i = 0; i < count; i++)
+			result[i] = windowOffsets[(int) ((long) i * windowOffsets.length / count)];
+		return result;
+	}
+
+	/**
+	 * Splits the reads into at most 'shards' parts of about the same compressed size: a part starts at the first window 
+	 * (or at the unplaced reads), which starts after its share of the file. Fewer parts are returned, if the index has too few windows.
+	 * 
+	 * @param firstRecord - the virtual offset of the first read (BAMRecordReader.getFirstRecordOffset())
+	 * @return the virtual offsets of the starts of the parts and Long.MAX_VALUE (the end of the last part)
+	 */
+	public long[] getSplitOffsets(int shards, long firstRecord, long fileSize) {
+		List<Long> result = new ArrayList<Long>();
+		result.add(firstRecord);
+		int w = 0;
+		for (int i = 1; i < shards; i++)
+		{
+			long target = fileSize * i / shards;
+			while (w < windowOffsets.length && windowOffsets[w] >>> 16 < target)
+				w++;
+			long offset = (w < windowOffsets.length) ? windowOffsets[w] : unplacedOffset;
+			if (offset >>> 16 >= target && offset > result.get(result.size() - 1))
+				result.add(offset);
+		}
+		result.add(Long.MAX_VALUE);
+
+		long[] offsets = new long[result.size()];
+		for (int i = 0; i < offsets.length; i++)
+			offsets[i] = result.get(i);
+		return offsets;
+	}
+
+	/**
+	 * @return the virtual offset after the last read with the coordinates, the unplaced reads start here
+	 */
+	public long getUnplacedOffset() {
+		return unplacedOffset;
+	}
+
+	/**
+	 * @return the mapped and the unmapped reads placed on the references or 0, if the index has no read counts
+	 */
+	public long getPlacedReads() {
+		return placedReads;
+	}
+
+	/**
+	 * @return the reads without the coordinates or 0, if the index has no read counts
+	 */
+	public long getUnplacedReads() {
+		return unplacedReads;
+	}
+
+	private static ByteBuffer readFile(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate((int) raf.length());
+			while (buffer.hasRemaining())
+			{
+				if (raf.getChannel().read(buffer) < 0)
+					break;
+			}
+			buffer.flip();
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			return buffer;
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+}
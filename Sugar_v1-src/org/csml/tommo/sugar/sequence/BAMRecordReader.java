@@ -0,0 +1,424 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.sequence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import org.csml.tommo.sugar.utils.Options;
+
+import uk.ac.babraham.FastQC.Sequence.Sequence;
+import uk.ac.babraham.FastQC.Sequence.SequenceFile;
+
+/**
+ * Class BAMRecordReader
+ *
+ * Reads the alignment records of a BAM file from any virtual offset (e.g. of the BAMIndex),
+ * without the picard SAMRecords: the records are kept as the bytes of the file and only the fields
+ * used by the analysis modules are decoded (the read name, the qualities, the mapping quality and the flags).
+ *
+ * The BGZF blocks are inflated by the BGZFBlockReader or, if the reader has more than one thread,
+ * by the ParallelBGZFReader, while the records are read one after another (until the next seek).
+ *
+ * The reader stops at a given virtual offset too, so the records of a BAM file with an index can be split
+ * into the shards at the offsets of the index (see BAMIndex.getSplitOffsets).
+ *
+ */
+public class BAMRecordReader {
+
+	private static final int MAGIC = 'B' | 'A' << 8 | 'M' << 16 | 1 << 24;
+
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+	private static final String BASES = "=ACMGRSVTWYHKDBN";
+
+	private static final int FLAG_REVERSE = 0x10;
+	private static final int FLAG_UNMAPPED = 0x4;
+
+	/**
+	 * the offsets of the fields in the record (after the block_size)
+	 */
+	private static final int NAME_LENGTH = 8;
+	private static final int MAPPING_QUALITY = 9;
+	private static final int CIGAR_LENGTH = 12;
+	private static final int FLAG = 14;
+	private static final int SEQUENCE_LENGTH = 16;
+	private static final int NAME = 32;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final BGZFBlockReader blockReader;
+	private final int threads;
+
+	/**
+	 * the inflated block (of the length 'limit'), which starts at blockOffset, and the offset of the next block
+	 */
+	private final byte[] blockBuffer = new byte[BGZFBlockReader.MAX_BLOCK_SIZE];
+	private final int[] blockLength = new int[1];
+	private byte[] buffer = blockBuffer;
+	private int limit = 0;
+	private int position = 0;
+	private long blockOffset;
+	private long nextBlock;
+
+	/**
+	 * inflates the blocks ahead of the reader with more than one thread, created by the first block after a seek
+	 */
+	private ParallelBGZFReader parallelReader;
+	private ParallelBGZFReader.Block block;
+
+	private byte[] record = new byte[1024];
+	private int recordLength;
+	private final byte[] word = new byte[4];
+	private final long firstRecord;
+
+	public BAMRecordReader(File file) throws IOException {
+		this(file, 1);
+	}
+
+	/**
+	 * @param threads - the threads inflating the BGZF blocks
+	 */
+	public BAMRecordReader(File file, int threads) throws IOException {
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		this.blockReader = new BGZFBlockReader(channel);
+		this.threads = threads;
+
+		try {
+			seek(0);
+			if (!readInt() || getInt(word, 0) != MAGIC)
+				throw new IOException(file.getName() + " is not a BAM file");
+
+			// skip the header text and the references
+			readInt();
+			skip(getInt(word, 0));
+			readInt();
+			int references = getInt(word, 0);
+			for (int r = 0; r < references; r++)
+			{
+				readInt();
+				skip(getInt(word, 0) + 4);
+			}
+			firstRecord = getVirtualOffset();
+		}
+		catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return true, if the file is a BGZF compressed file, which starts with the BAM magic
+	 */
+	public static boolean isBAM(File file) {
+		if (!BGZFBlockReader.isBGZF(file))
+			return false;
+		try {
+			new BAMRecordReader(file).close();
+			return true;
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return true, if the file is a BAM file, the format is not forced to another format (-f)
+	 * and samtools is not selected for reading the BAM files (-samtools)
+	 */
+	public static boolean isReadable(File file) {
+		String format = System.getProperty("fastqc.sequence_format");
+		return (format == null || format.startsWith("bam")) && !Options.isSamTools() && isBAM(file);
+	}
+
+	/**
+	 * Moves to the virtual offset of a record (compressed offset of the block << 16 | offset in the block)
+	 */
+	public void seek(long virtualOffset) throws IOException {
+		closeParallelReader();
+		nextBlock = virtualOffset >>> 16;
+		// an empty block is skipped, the record starts the next block then
+		if (readBlock() && blockOffset == virtualOffset >>> 16)
+			position = (int) (virtualOffset & 0xffff);
+	}
+
+	/**
+	 * @return the virtual offset of the first record after the header
+	 */
+	public long getFirstRecordOffset() {
+		return firstRecord;
+	}
+
+	/**
+	 * @return the virtual offset of the next record
+	 */
+	public long getVirtualOffset() {
+		// at the end of the block the next record starts in the next block
+		return position < limit ? blockOffset << 16 | position : nextBlock << 16;
+	}
+
+	/**
+	 * Reads the next record
+	 *
+	 * @return false at the end of the file
+	 */
+	public boolean nextRecord() throws IOException {
+		if (!readInt())
+			return false;
+
+		recordLength = getInt(word, 0);
+		if (recordLength < NAME)
+			throw new IOException("Invalid BAM record at offset " + blockOffset);
+		if (recordLength > record.length)
+			record = new byte[Math.max(recordLength, record.length * 2)];
+		if (!read(record, 0, recordLength))
+			throw new IOException("Truncated BAM record at offset " + blockOffset);
+		return true;
+	}
+
+	/**
+	 * Skips the next record by its block_size: only the fixed fields before the read name are read,
+	 * so the flags and the mapping quality of the skipped record can still be used (but not the name and the qualities)
+	 *
+	 * @return false at the end of the file
+	 */
+	public boolean skipRecord() throws IOException {
+		if (!readInt())
+			return false;
+
+		recordLength = getInt(word, 0);
+		if (recordLength < NAME)
+			throw new IOException("Invalid BAM record at offset " + blockOffset);
+		if (!read(record, 0, NAME))
+			throw new IOException("Truncated BAM record at offset " + blockOffset);
+		skip(recordLength - NAME);
+		return true;
+	}
+
+	public int getFlag() {
+		return (record[FLAG] & 0xff) | (record[FLAG + 1] & 0xff) << 8;
+	}
+
+	public boolean isUnmapped() {
+		return (getFlag() & FLAG_UNMAPPED) != 0;
+	}
+
+	/**
+	 * @return true, if the record is not read by the BAMFile of FastQC - the unmapped reads with the format bam_mapped
+	 * (the secondary and the supplementary alignments are read, as by the BAMFile)
+	 */
+	public boolean isFiltered(boolean onlyMapped) {
+		return onlyMapped && isUnmapped();
+	}
+
+	public int getMappingQuality() {
+		return record[MAPPING_QUALITY] & 0xff;
+	}
+
+	public byte[] getRecord() {
+		return record;
+	}
+
+	public int getNameOffset() {
+		return NAME;
+	}
+
+	/**
+	 * @return the length of the read name without the terminating NUL
+	 */
+	public int getNameLength() {
+		return (record[NAME_LENGTH] & 0xff) - 1;
+	}
+
+	/**
+	 * @return the read as the Sequence of the BAMFile of FastQC (the reads on the reverse strand are reverse complemented),
+	 * for the modules, which can not use the read name parsed by the ReadContext
+	 */
+	public Sequence toSequence(SequenceFile sequenceFile) {
+		int length = getInt(record, SEQUENCE_LENGTH);
+		int offset = getQualityOffset() - (length + 1) / 2;
+		boolean reverse = (getFlag() & FLAG_REVERSE) != 0;
+		char[] bases = new char[length];
+		for (int i = 0; i < length; i++)
+		{
+			int code = (record[offset + i / 2] >> ((i & 1) == 0 ? 4 : 0)) & 0xf;
+			bases[reverse ? length - 1 - i : i] = reverse ? complement(BASES.charAt(code)) : BASES.charAt(code);
+		}
+
+		byte[] qualities = new byte[getQualityLength()];
+		getQualities(qualities);
+		String name = new String(record, NAME, getNameLength(), ISO_8859_1);
+		return new FastBAMSequence(sequenceFile, new String(bases), new String(qualities, ISO_8859_1), name, getMappingQuality(), null);
+	}
+
+	public int getQualityLength() {
+		int length = getInt(record, SEQUENCE_LENGTH);
+		// the qualities are missing (0xff) in some records
+		return (length > 0 && record[getQualityOffset()] != (byte) 0xff) ? length : 0;
+	}
+
+	/**
+	 * Copies the qualities as the FASTQ characters (Phred + 33) in the order of the sequencing cycles,
+	 * so the qualities of the reads on the reverse strand are reversed (as by FastQC)
+	 *
+	 * @param qualities - at least getQualityLength() bytes
+	 */
+	public void getQualities(byte[] qualities) {
+		int length = getQualityLength();
+		int offset = getQualityOffset();
+		boolean reverse = (getFlag() & FLAG_REVERSE) != 0;
+		for (int i = 0; i < length; i++)
+			qualities[reverse ? length - 1 - i : i] = (byte) (record[offset + i] + 33);
+	}
+
+	public void close() {
+		closeParallelReader();
+		blockReader.close();
+		try {
+			file.close();
+		}
+		catch (IOException e) {
+		}
+	}
+
+	private static char complement(char base) {
+		switch (base) {
+		case 'A': return 'T';
+		case 'C': return 'G';
+		case 'G': return 'C';
+		case 'T': return 'A';
+		default: return base;
+		}
+	}
+
+	private int getQualityOffset() {
+		int cigarLength = (record[CIGAR_LENGTH] & 0xff) | (record[CIGAR_LENGTH + 1] & 0xff) << 8;
+		int sequenceLength = getInt(record, SEQUENCE_LENGTH);
+		return NAME + (record[NAME_LENGTH] & 0xff) + 4 * cigarLength + (sequenceLength + 1) / 2;
+	}
+
+	private static int getInt(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8 | (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+	}
+
+	/**
+	 * @return false at the end of the file
+	 */
+	private boolean readInt() throws IOException {
+		return read(word, 0, 4);
+	}
+
+	private void skip(int length) throws IOException {
+		while (length > 0)
+		{
+			if (position == limit && !readBlock())
+				throw new IOException("Truncated BAM file at offset " + blockOffset);
+			int n = Math.min(length, limit - position);
+			position += n;
+			length -= n;
+		}
+	}
+
+	/**
+	 * @return false, if the file ends before the first byte
+	 */
+	private boolean read(byte[] dest, int offset, int length) throws IOException {
+		int n = 0;
+		while (n < length)
+		{
+			if (position == limit && !readBlock())
+			{
+				if (n == 0)
+					return false;
+				throw new IOException("Truncated BAM record at offset " + blockOffset);
+			}
+			int count = Math.min(length - n, limit - position);
+			System.arraycopy(buffer, position, dest, offset + n, count);
+			position += count;
+			n += count;
+		}
+		return true;
+	}
+
+	/**
+	 * Inflates the next block, the empty blocks (e.g. the EOF marker) are skipped
+	 *
+	 * @return false at the end of the file
+	 */
+	private boolean readBlock() throws IOException {
+		do
+		{
+			position = 0;
+			if (nextBlock >= blockReader.getFileSize())
+			{
+				limit = 0;
+				return false;
+			}
+			blockOffset = nextBlock;
+			if (threads > 1)
+			{
+				if (parallelReader == null)
+					parallelReader = new ParallelBGZFReader(channel, nextBlock, threads);
+				if (block != null)
+					parallelReader.release(block);
+
+				block = parallelReader.next();
+				if (block == null)
+				{
+					nextBlock = blockReader.getFileSize();
+					limit = 0;
+					return false;
+				}
+				buffer = block.getData();
+				limit = block.getLength();
+				nextBlock += block.getSize();
+			}
+			else
+			{
+				nextBlock += blockReader.readBlock(blockOffset, blockBuffer, blockLength);
+				limit = blockLength[0];
+			}
+		}
+		while (limit == 0);
+		return true;
+	}
+
+	/**
+	 * Stops the inflating threads, the blocks after a seek are inflated from the new offset
+	 */
+	private void closeParallelReader() {
+		if (parallelReader != null)
+			parallelReader.close();
+		parallelReader = null;
+		block = null;
+		buffer = blockBuffer;
+		limit = 0;
+	}
+
+}
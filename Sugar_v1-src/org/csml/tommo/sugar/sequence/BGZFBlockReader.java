@@ -0,0 +1,218 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.sequence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Class BGZFBlockReader
+ *
+ * Reads the blocks of a BGZF file (bgzip, BAM) at any offset. BGZF is a series of gzip members of at most 64 KB,
+ * each with the size of the compressed block in the 'BC' extra field, so the blocks can be found and inflated
+ * independently - e.g. by the FastQShardReader, which starts in the middle of the file.
+ *
+ * Not thread-safe, each thread needs its own reader (the file channel may be shared).
+ *
+ */
+public class BGZFBlockReader {
+
+	public static final int MAX_BLOCK_SIZE = 1 << 16;
+
+	/**
+	 * gzip id, deflate, FEXTRA flag, mtime, xfl, os, xlen
+	 */
+	private static final int HEADER_SIZE = 12;
+	private static final int TRAILER_SIZE = 8;
+
+	private final FileChannel channel;
+	private final long fileSize;
+	private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 6 + 64);
+	private final ByteBuffer compressed = ByteBuffer.allocate(MAX_BLOCK_SIZE);
+	private final Inflater inflater = new Inflater(true);
+
+	public BGZFBlockReader(FileChannel channel) throws IOException {
+		this.channel = channel;
+		this.fileSize = channel.size();
+	}
+
+	/**
+	 * @return true, if the bytes start with the header of a BGZF block
+	 */
+	public static boolean isBGZF(byte[] bytes, int length) {
+		return getBlockSize(ByteBuffer.wrap(bytes, 0, length)) > 0;
+	}
+
+	/**
+	 * @return true, if the file starts with a BGZF block
+	 */
+	public static boolean isBGZF(File file) {
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 6 + 64);
+				raf.getChannel().read(header, 0);
+				return isBGZF(header.array(), header.position());
+			}
+			finally {
+				raf.close();
+			}
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the size of the compressed block, which starts at the offset, or -1 if there is no BGZF header at the offset
+	 */
+	public int getBlockSize(long offset) throws IOException {
+		if (offset + HEADER_SIZE + 6 > fileSize)
+			return -1;
+
+		header.clear();
+		channel.read(header, offset);
+		header.flip();
+		int size = getBlockSize(header);
+		return (size > 0 && offset + size <= fileSize) ? size : -1;
+	}
+
+	/**
+	 * @return the size of the block or -1, the buffer is positioned at the start of the block
+	 */
+	private static int getBlockSize(ByteBuffer header) {
+		int start = header.position();
+		if (header.remaining() < HEADER_SIZE + 6)
+			return -1;
+		if ((header.get(start) & 0xff) != 0x1f || (header.get(start + 1) & 0xff) != 0x8b ||
+				header.get(start + 2) != 8 || (header.get(start + 3) & 4) == 0)
+			return -1;
+
+		int extraLength = (header.get(start + 10) & 0xff) | (header.get(start + 11) & 0xff) << 8;
+		int extraEnd = Math.min(start + HEADER_SIZE + extraLength, header.limit());
+
+		// look for the 'BC' subfield with the size of the block - 1
+		int field = start + HEADER_SIZE;
+		while (field + 4 <= extraEnd)
+		{
+			int fieldLength = (header.get(field + 2) & 0xff) | (header.get(field + 3) & 0xff) << 8;
+			if (header.get(field) == 'B' && header.get(field + 1) == 'C' && fieldLength == 2 && field + 6 <= extraEnd)
+				return ((header.get(field + 4) & 0xff) | (header.get(field + 5) & 0xff) << 8) + 1;
+			field += 4 + fieldLength;
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the first block which starts at the offset or after it.
+	 * The header of a block may appear in the compressed data by chance, so the block must be followed
+	 * by another block (or the end of the file).
+	 *
+	 * @return the offset of the block or the size of the file, if there is no block after the offset
+	 */
+	public long findBlock(long offset) throws IOException {
+		ByteBuffer window = ByteBuffer.allocate(MAX_BLOCK_SIZE + HEADER_SIZE + 6);
+		while (offset < fileSize)
+		{
+			window.clear();
+			channel.read(window, offset);
+			window.flip();
+
+			for (int i = 0; i < window.limit(); i++)
+			{
+				if ((window.get(i) & 0xff) != 0x1f)
+					continue;
+
+				long candidate = offset + i;
+				int size = getBlockSize(candidate);
+				if (size > 0 && (candidate + size == fileSize || getBlockSize(candidate + size) > 0))
+					return candidate;
+			}
+			offset += window.limit();
+		}
+		return fileSize;
+	}
+
+	/**
+	 * Inflates the block at the offset
+	 *
+	 * @param data - at least MAX_BLOCK_SIZE bytes
+	 * @return the size of the block (the next block starts at offset + size) and the length of the data in length[0]
+	 */
+	public int readBlock(long offset, byte[] data, int[] length) throws IOException {
+		int size = getBlockSize(offset);
+		if (size < 0)
+			throw new IOException("Invalid BGZF block at offset " + offset);
+
+		compressed.clear();
+		compressed.limit(size);
+		while (compressed.hasRemaining())
+		{
+			if (channel.read(compressed, offset + compressed.position()) < 0)
+				throw new IOException("Truncated BGZF block at offset " + offset);
+		}
+
+		byte[] block = compressed.array();
+		int extraLength = (block[10] & 0xff) | (block[11] & 0xff) << 8;
+		int dataStart = HEADER_SIZE + extraLength;
+		int inflatedSize = (block[size - 4] & 0xff) | (block[size - 3] & 0xff) << 8 |
+				(block[size - 2] & 0xff) << 16 | (block[size - 1] & 0xff) << 24;
+
+		inflater.reset();
+		inflater.setInput(block, dataStart, size - dataStart - TRAILER_SIZE);
+		try {
+			int n = 0;
+			while (n < inflatedSize && !inflater.finished())
+			{
+				int inflated = inflater.inflate(data, n, inflatedSize - n);
+				if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				n += inflated;
+			}
+			if (n != inflatedSize)
+				throw new IOException("Corrupted BGZF block at offset " + offset);
+			length[0] = n;
+		}
+		catch (DataFormatException e) {
+			throw new IOException("Corrupted BGZF block at offset " + offset + ": " + e.getMessage());
+		}
+		return size;
+	}
+
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	public void close() {
+		inflater.end();
+	}
+
+}
@@ -0,0 +1,104 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.sequence;
+
+import java.io.File;
+import java.io.IOException;
+
+import uk.ac.babraham.FastQC.Sequence.Sequence;
+import uk.ac.babraham.FastQC.Sequence.SequenceFile;
+import uk.ac.babraham.FastQC.Sequence.SequenceFormatException;
+
+/**
+ * Class BGZFFastQFile
+ *
+ * A BGZF compressed (bgzip) FASTQ file, whose blocks are inflated by several threads (ParallelBGZFReader).
+ * Used by the SugarAnalysisRunner instead of the FastQFile of FastQC, which inflates the file in the analysis thread.
+ * The records are parsed from the inflated blocks by the FastQShardReader.
+ *
+ * Plain gzip files can not be inflated in parallel, they are read by the FastQFile.
+ *
+ */
+public class BGZFFastQFile implements SequenceFile {
+
+	private File file;
+	private long size;
+	private FastQShardReader reader;
+
+	public BGZFFastQFile(File file, int threads) throws IOException {
+		this.file = file;
+		this.size = file.length();
+		this.reader = new FastQShardReader(file, this, 0, size, threads);
+	}
+
+	/**
+	 * @return true, if the file is a BGZF compressed FASTQ file
+	 */
+	public static boolean isSupported(File file) {
+		return BGZFBlockReader.isBGZF(file) && FastQShardReader.isSupported(file);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (reader.hasNext())
+			return true;
+
+		// stop the inflating threads
+		reader.close();
+		return false;
+	}
+
+	@Override
+	public Sequence next() throws SequenceFormatException {
+		return reader.next();
+	}
+
+	@Override
+	public boolean isColorspace() {
+		return false;
+	}
+
+	@Override
+	public String name() {
+		return file.getName();
+	}
+
+	@Override
+	public int getPercentComplete() {
+		return size == 0 ? 100 : (int) (100 * reader.getPosition() / size);
+	}
+
+	@Override
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public String getDefaultFileExtention() {
+		return "fastq";
+	}
+
+}
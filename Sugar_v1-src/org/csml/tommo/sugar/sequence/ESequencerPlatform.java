@@ -0,0 +1,127 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.sequence;
+
+import org.csml.tommo.sugar.analysis.DefaultTileNumeration;
+import org.csml.tommo.sugar.analysis.HiSeqNumeration;
+import org.csml.tommo.sugar.analysis.HiSeqRapidRunNumeration;
+import org.csml.tommo.sugar.analysis.MiSeqNumeration;
+import org.csml.tommo.sugar.analysis.TileNumeration;
+
+/**
+ * Enum ESequencerPlatform
+ *
+ * The tile geometry of the Illumina sequencers (lanes, surfaces, swaths, tiles and the x-, y- ranges)
+ * used by the SyntheticReadGenerator. The tile IDs match the TileNumeration of the platform.
+ *
+ */
+public enum ESequencerPlatform {
+
+	HISEQ ("HiSeq", HiSeqNumeration.INSTANCE, true, 8, 2, 3, 16, 1000, 21000, 1000, 200000),
+	HISEQ_RAPID_RUN ("HiSeq Rapid Run", HiSeqRapidRunNumeration.INSTANCE, true, 2, 2, 2, 16, 1000, 21000, 1000, 200000),
+	MISEQ ("MiSeq", MiSeqNumeration.INSTANCE, true, 1, 2, 1, 14, 1000, 29000, 1000, 29000),
+	LEGACY ("Genome Analyzer (legacy read names)", DefaultTileNumeration.INSTANCE, false, 8, 1, 1, 120, 0, 2047, 0, 2047);
+
+	private String name;
+	private TileNumeration tileNumeration;
+	private boolean casava18;
+	private int lanes;
+	private int surfaces;
+	private int swaths;
+	private int tilesPerSwath;
+	private int minX;
+	private int maxX;
+	private int minY;
+	private int maxY;
+
+	private ESequencerPlatform(String name, TileNumeration tileNumeration, boolean casava18,
+			int lanes, int surfaces, int swaths, int tilesPerSwath, int minX, int maxX, int minY, int maxY) {
+		this.name = name;
+		this.tileNumeration = tileNumeration;
+		this.casava18 = casava18;
+		this.lanes = lanes;
+		this.surfaces = surfaces;
+		this.swaths = swaths;
+		this.tilesPerSwath = tilesPerSwath;
+		this.minX = minX;
+		this.maxX = maxX;
+		this.minY = minY;
+		this.maxY = maxY;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public TileNumeration getTileNumeration() {
+		return tileNumeration;
+	}
+
+	/**
+	 * @return true for the Casava 1.8 read names (@instrument:run:flowcell:lane:tile:x:y),
+	 * false for the legacy read names (@instrument:lane:tile:x:y#0/1)
+	 */
+	public boolean isCasava18() {
+		return casava18;
+	}
+
+	public int getLanes() {
+		return lanes;
+	}
+
+	/**
+	 * @return the tile IDs of one lane in the order of the sequence files
+	 */
+	public int[] getTileIDs() {
+		int[] result = new int[surfaces * swaths * tilesPerSwath];
+		int i = 0;
+		for (int surface = 1; surface <= surfaces; surface++)
+		{
+			for (int swath = 1; swath <= swaths; swath++)
+			{
+				for (int tile = 1; tile <= tilesPerSwath; tile++)
+					result[i++] = (surfaces * swaths == 1) ? tile : surface * 1000 + swath * 100 + tile;
+			}
+		}
+		return result;
+	}
+
+	public int getMinX() {
+		return minX;
+	}
+
+	public int getMaxX() {
+		return maxX;
+	}
+
+	public int getMinY() {
+		return minY;
+	}
+
+	public int getMaxY() {
+		return maxY;
+	}
+}
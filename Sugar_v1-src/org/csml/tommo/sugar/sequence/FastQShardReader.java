@@ -0,0 +1,684 @@
+package org.csml.tommo.sugar.sequence;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import org.csml.tommo.sugar.utils.Options;
+
+import uk.ac.babraham.FastQC.Sequence.Sequence;
+import uk.ac.babraham.FastQC.Sequence.SequenceFile;
+import uk.ac.babraham.FastQC.Sequence.SequenceFormatException;
+
+/**
+ * Class FastQShardReader
+ *
+ * Reads the FASTQ records of a plain, gzip or BGZF compressed (bgzip) FASTQ file - the whole file
+ * or one byte range (shard) of a plain or BGZF file, so several threads can read one file (see ByteRangeAnalysis).
+ *
+ * The shard owns the records, whose id line starts in the range - in a plain file the first byte of the line,
+ * in a BGZF file the block with the first byte of the line. The reader of a shard, which does not start
+ * at the beginning of the file, finds the first record by the line structure: the only lines starting with '@'
+ * are the id lines and some quality lines, but the line after the next one is the '+' line for an id line only.
+ * The last record of the shard is read beyond the end of the range.
+ *
+ * The records can be read in two ways:
+ * - nextRecord() copies the lines of the next record into one reused byte array, the id, the bases and the qualities
+ *   are read in place by the offsets (see ReadContext.set(FastQShardReader)) - nothing is allocated per record
+ * - next() converts the records to the FastQC Sequences like the FastQFile does (upper case bases,
+ *   reads filtered by Casava marked in the casava mode)
+ * Only one of them can be used by a reader. The records not sampled by the read rate are passed over by skipRecord(),
+ * which only looks for the line ends - the lines are neither copied nor checked.
+ *
+ * With more than one thread the BGZF blocks are inflated in parallel (ParallelBGZFReader).
+ *
+ */
+public class FastQShardReader {
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private static final int ID_LINE = 0;
+	private static final int SEQUENCE_LINE = 1;
+	private static final int MID_LINE = 2;
+	private static final int QUALITY_LINE = 3;
+
+	private final SequenceFile sequenceFile;
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final BGZFBlockReader blockReader;
+	private final InputStream gzipInput;
+	private final long size;
+	private final long end;
+	private final boolean casava;
+	private final int threads;
+
+	/**
+	 * the decoded data: the file offset of the first byte (plain) or the offset of the block (BGZF, gzip)
+	 */
+	private byte[] buffer = new byte[BUFFER_SIZE];
+	private int position = 0;
+	private int limit = 0;
+	private long bufferOrigin;
+	private long nextInput;
+	private int[] blockLength = new int[1];
+	private ParallelBGZFReader parallelReader;
+	private ParallelBGZFReader.Block block;
+
+	/**
+	 * the lines of the current record, the line i is record[lineStarts[i]..lineStarts[i + 1])
+	 */
+	private byte[] record = new byte[1024];
+	private int recordLength;
+	private final int[] lineStarts = new int[5];
+	private long lineOrigin;
+
+	/**
+	 * the lines read by seek() to find the first record
+	 */
+	private byte[][] pending;
+	private long[] pendingOrigins;
+	private int pendingCount = 0;
+
+	private Sequence next;
+	private IOException nextError;
+	private boolean fetched = false;
+	private boolean finished = false;
+
+	/**
+	 * @param start, end - the byte range of the shard in the (compressed) file
+	 */
+	public FastQShardReader(File file, SequenceFile sequenceFile, long start, long end) throws IOException {
+		this(file, sequenceFile, start, end, 1);
+	}
+
+	/**
+	 * @param start, end - the byte range of the shard in the (compressed) file, a gzip file can not be split
+	 * @param threads - the threads inflating the BGZF blocks
+	 */
+	public FastQShardReader(File file, SequenceFile sequenceFile, long start, long end, int threads) throws IOException {
+		this.sequenceFile = sequenceFile;
+		this.file = new RandomAccessFile(file, "r");
+		this.channel = this.file.getChannel();
+		this.size = channel.size();
+		this.casava = Options.TRUE.equals(System.getProperty("fastqc.casava"));
+		this.threads = threads;
+
+		try {
+			byte[] header = readHeader(channel);
+			blockReader = BGZFBlockReader.isBGZF(header, header.length) ? new BGZFBlockReader(channel) : null;
+			if (blockReader == null && isGzip(header))
+			{
+				if (start > 0)
+					throw new IOException("The gzip file " + file.getName() + " can not be split");
+				gzipInput = new GZIPInputStream(Channels.newInputStream(channel), BUFFER_SIZE);
+				// the offsets in the compressed stream do not tell the records apart
+				this.end = Long.MAX_VALUE;
+			}
+			else
+			{
+				gzipInput = null;
+				this.end = end;
+			}
+
+			seek(start);
+		}
+		catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return true, if the file can be split into the shards - plain or BGZF compressed FASTQ
+	 */
+	public static boolean isSupported(File file) {
+		return isFastQ(file, false);
+	}
+
+	/**
+	 * @return true, if the file can be read by the reader - plain, gzip or BGZF compressed FASTQ
+	 */
+	public static boolean isReadable(File file) {
+		return isFastQ(file, true);
+	}
+
+	private static boolean isFastQ(File file, boolean gzip) {
+		String format = System.getProperty("fastqc.sequence_format");
+		if (format != null && !format.equals("fastq"))
+			return false;
+
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				byte[] header = readHeader(channel);
+				byte[] data;
+				int length;
+				if (BGZFBlockReader.isBGZF(header, header.length))
+				{
+					BGZFBlockReader blockReader = new BGZFBlockReader(channel);
+					data = new byte[BGZFBlockReader.MAX_BLOCK_SIZE];
+					int[] blockLength = new int[1];
+					blockReader.readBlock(0, data, blockLength);
+					blockReader.close();
+					length = blockLength[0];
+				}
+				else if (isGzip(header))
+				{
+					if (!gzip)
+						return false;
+
+					InputStream in = new GZIPInputStream(Channels.newInputStream(channel));
+					data = new byte[BUFFER_SIZE];
+					length = 0;
+					int n;
+					while (length < data.length && (n = in.read(data, length, data.length - length)) > 0)
+						length += n;
+				}
+				else
+				{
+					ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+					channel.read(bytes, 0);
+					data = bytes.array();
+					length = bytes.position();
+				}
+				return isFastQ(data, length);
+			}
+			finally {
+				raf.close();
+			}
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	private static byte[] readHeader(FileChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(128);
+		channel.read(header, 0);
+		return Arrays.copyOf(header.array(), header.position());
+	}
+
+	private static boolean isGzip(byte[] header) {
+		return header.length >= 2 && (header[0] & 0xff) == 0x1f && (header[1] & 0xff) == 0x8b;
+	}
+
+	/**
+	 * @return true, if the data starts with a FASTQ record (the '@' line followed by the sequence and the '+' line)
+	 */
+	private static boolean isFastQ(byte[] data, int length) {
+		if (length == 0 || data[0] != '@')
+			return false;
+
+		int lines = 0;
+		for (int i = 0; i < length - 1 && lines < 2; i++)
+		{
+			if (data[i] == '\n' && ++lines == 2)
+				return data[i + 1] == '+';
+		}
+		return false;
+	}
+
+	/**
+	 * @return the start of each shard in the (compressed) file, the last value is the size of the file
+	 */
+	public static long[] split(File file, int shards) {
+		long size = file.length();
+		long[] result = new long[shards + 1];
+		for (int i = 0; i <= shards; i++)
+			result[i] = size * i / shards;
+		return result;
+	}
+
+	public boolean hasNext() {
+		if (!fetched)
+		{
+			fetched = true;
+			try {
+				next = readSequence();
+			}
+			catch (IOException e) {
+				next = null;
+				nextError = e;
+			}
+		}
+		return next != null || nextError != null;
+	}
+
+	public Sequence next() throws SequenceFormatException {
+		hasNext();
+		fetched = false;
+
+		if (nextError != null)
+		{
+			// the rest of the file is not read after a broken record
+			String message = nextError.getMessage();
+			nextError = null;
+			finished = true;
+			throw new SequenceFormatException("Failed to read " + sequenceFile.name() + ": " + message);
+		}
+		return next;
+	}
+
+	/**
+	 * Reads the next record of the shard, its lines are read by the getters until the next call
+	 *
+	 * @return false at the end of the shard
+	 * @throws IOException if the record is broken, the rest of the shard should not be read
+	 */
+	public boolean nextRecord() throws IOException {
+		if (finished)
+			return false;
+
+		// skip the empty lines at the end of the file
+		do {
+			recordLength = 0;
+			if (!appendLine())
+				return finish();
+		} while (recordLength == 0);
+
+		if (lineOrigin >= end)
+			return finish();
+
+		lineStarts[ID_LINE] = 0;
+		lineStarts[SEQUENCE_LINE] = recordLength;
+		for (int i = SEQUENCE_LINE; i <= QUALITY_LINE; i++)
+		{
+			if (!appendLine())
+			{
+				finish();
+				throw new IOException("Ran out of data in the middle of a fastq entry. Your file is probably truncated");
+			}
+			lineStarts[i + 1] = recordLength;
+		}
+
+		if (record[0] != '@')
+			throw new IOException("ID line didn't start with '@'");
+		if (getLineLength(MID_LINE) == 0 || record[lineStarts[MID_LINE]] != '+')
+			throw new IOException("Midline '" + getLine(MID_LINE) + "' didn't start with '+'");
+
+		return true;
+	}
+
+	/**
+	 * Passes over the next record of the shard - the same as nextRecord(), but the lines are not copied
+	 * and the record is not checked (the id and the '+' line)
+	 *
+	 * @return false at the end of the shard
+	 * @throws IOException if the file ends in the middle of the record
+	 */
+	public boolean skipRecord() throws IOException {
+		if (finished)
+			return false;
+
+		// skip the empty lines at the end of the file
+		int length;
+		do {
+			length = skipLine();
+			if (length < 0)
+				return finish();
+		} while (length == 0);
+
+		if (lineOrigin >= end)
+			return finish();
+
+		for (int i = SEQUENCE_LINE; i <= QUALITY_LINE; i++)
+		{
+			if (skipLine() < 0)
+			{
+				finish();
+				throw new IOException("Ran out of data in the middle of a fastq entry. Your file is probably truncated");
+			}
+		}
+		return true;
+	}
+
+	private boolean finish() {
+		finished = true;
+		return false;
+	}
+
+	/**
+	 * @return the lines of the current record, see the offsets and lengths of the lines
+	 */
+	public byte[] getRecord() {
+		return record;
+	}
+
+	public int getIdOffset() {
+		return lineStarts[ID_LINE];
+	}
+
+	public int getIdLength() {
+		return getLineLength(ID_LINE);
+	}
+
+	public int getSequenceOffset() {
+		return lineStarts[SEQUENCE_LINE];
+	}
+
+	public int getSequenceLength() {
+		return getLineLength(SEQUENCE_LINE);
+	}
+
+	public int getQualityOffset() {
+		return lineStarts[QUALITY_LINE];
+	}
+
+	public int getQualityLength() {
+		return getLineLength(QUALITY_LINE);
+	}
+
+	/**
+	 * @return true, if the current record was filtered by Casava (only in the casava mode)
+	 */
+	public boolean isFiltered() {
+		if (!casava)
+			return false;
+
+		int idEnd = lineStarts[ID_LINE + 1];
+		for (int i = lineStarts[ID_LINE]; i + 2 < idEnd; i++)
+		{
+			if (record[i] == ':' && record[i + 1] == 'Y' && record[i + 2] == ':')
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the current record as the FastQC Sequence
+	 */
+	public Sequence toSequence() {
+		Sequence seq = new Sequence(sequenceFile, getLine(SEQUENCE_LINE).toUpperCase(), getLine(QUALITY_LINE), getLine(ID_LINE));
+		if (isFiltered())
+			seq.setIsFiltered(true);
+		return seq;
+	}
+
+	private int getLineLength(int line) {
+		return lineStarts[line + 1] - lineStarts[line];
+	}
+
+	private String getLine(int line) {
+		return new String(record, lineStarts[line], getLineLength(line), ISO_8859_1);
+	}
+
+	/**
+	 * @return the offset of the data read so far in the (compressed) file
+	 */
+	public long getPosition() {
+		return nextInput;
+	}
+
+	/**
+	 * @return true, if the file is BGZF compressed
+	 */
+	public boolean isBGZF() {
+		return blockReader != null;
+	}
+
+	public void close() {
+		if (parallelReader != null)
+			parallelReader.close();
+		if (blockReader != null)
+			blockReader.close();
+		if (gzipInput != null)
+		{
+			try {
+				gzipInput.close();
+			}
+			catch (IOException e) {
+			}
+		}
+		try {
+			file.close();
+		}
+		catch (IOException e) {
+		}
+	}
+
+	/**
+	 * Moves to the first id line, which starts in the shard
+	 */
+	private void seek(long start) throws IOException {
+		if (start == 0)
+		{
+			nextInput = 0;
+			return;
+		}
+
+		boolean lineStart;
+		if (blockReader == null)
+		{
+			// the shard starts a line, if the previous byte ends one
+			nextInput = start - 1;
+			lineStart = fill() && buffer[position++] == '\n';
+		}
+		else
+		{
+			// the blocks before the shard are inflated to find the last byte before the first block of the shard
+			long offset = blockReader.findBlock(Math.max(0, start - 2 * BGZFBlockReader.MAX_BLOCK_SIZE));
+			byte last = '\n';
+			while (offset < start && offset < size)
+			{
+				int blockSize = blockReader.readBlock(offset, buffer, blockLength);
+				if (blockLength[0] > 0)
+					last = buffer[blockLength[0] - 1];
+				offset += blockSize;
+			}
+			nextInput = offset;
+			position = limit = 0;
+			lineStart = last == '\n';
+		}
+
+		// skip the rest of the line, the id line is the first one with the '+' line after the next line
+		if (!lineStart)
+			readLine();
+
+		byte[][] lines = new byte[3][];
+		long[] origins = new long[3];
+		for (int i = 0; i < 3; i++)
+		{
+			lines[i] = readLine();
+			origins[i] = lineOrigin;
+		}
+
+		while (lines[0] != null)
+		{
+			if (startsWith(lines[0], '@') && startsWith(lines[2], '+'))
+				break;
+			lines[0] = lines[1];
+			lines[1] = lines[2];
+			origins[0] = origins[1];
+			origins[1] = origins[2];
+			lines[2] = readLine();
+			origins[2] = lineOrigin;
+		}
+
+		pending = lines;
+		pendingOrigins = origins;
+		pendingCount = lines[0] != null ? 3 : 0;
+	}
+
+	private static boolean startsWith(byte[] line, char c) {
+		return line != null && line.length > 0 && line[0] == c;
+	}
+
+	/**
+	 * @return a copy of the next line or null at the end of the file (used by seek() only)
+	 */
+	private byte[] readLine() throws IOException {
+		recordLength = 0;
+		return appendLine() ? Arrays.copyOf(record, recordLength) : null;
+	}
+
+	private Sequence readSequence() throws IOException {
+		return nextRecord() ? toSequence() : null;
+	}
+
+	/**
+	 * Appends the next line without the line end to the record, the origin of its first byte is in lineOrigin
+	 *
+	 * @return false at the end of the file
+	 */
+	private boolean appendLine() throws IOException {
+		if (pendingCount > 0)
+		{
+			int index = pending.length - pendingCount--;
+			if (pending[index] == null)
+				return false;
+			lineOrigin = pendingOrigins[index];
+			append(pending[index], 0, pending[index].length);
+			return true;
+		}
+
+		if (position == limit && !fill())
+			return false;
+
+		int lineStart = recordLength;
+		lineOrigin = origin(position);
+		while (true)
+		{
+			int start = position;
+			while (position < limit && buffer[position] != '\n')
+				position++;
+
+			append(buffer, start, position);
+			if (position < limit)
+			{
+				position++;
+				break;
+			}
+			if (!fill())
+				break;
+		}
+
+		if (recordLength > lineStart && record[recordLength - 1] == '\r')
+			recordLength--;
+		return true;
+	}
+
+	/**
+	 * The same as appendLine(), but the line is not copied
+	 *
+	 * @return the length of the line without the line end or -1 at the end of the file
+	 */
+	private int skipLine() throws IOException {
+		if (pendingCount > 0)
+		{
+			recordLength = 0;
+			return appendLine() ? recordLength : -1;
+		}
+
+		if (position == limit && !fill())
+			return -1;
+
+		lineOrigin = origin(position);
+		int length = 0;
+		byte last = 0;
+		while (true)
+		{
+			int start = position;
+			byte[] data = buffer;
+			int stop = limit;
+			int i = start;
+			while (i < stop && data[i] != '\n')
+				i++;
+			position = i;
+
+			if (i > start)
+			{
+				length += i - start;
+				last = data[i - 1];
+			}
+			if (position < limit)
+			{
+				position++;
+				break;
+			}
+			if (!fill())
+				break;
+		}
+
+		return last == '\r' ? length - 1 : length;
+	}
+
+	private void append(byte[] data, int start, int stop) {
+		int length = stop - start;
+		if (recordLength + length > record.length)
+			record = Arrays.copyOf(record, Math.max(2 * record.length, recordLength + length));
+		System.arraycopy(data, start, record, recordLength, length);
+		recordLength += length;
+	}
+
+	private long origin(int index) {
+		return (blockReader == null && gzipInput == null) ? bufferOrigin + index : bufferOrigin;
+	}
+
+	/**
+	 * Reads the next part of the plain or gzip file or the next BGZF block
+	 *
+	 * @return false at the end of the file
+	 */
+	private boolean fill() throws IOException {
+		position = limit = 0;
+		while (limit == 0)
+		{
+			if (gzipInput != null)
+			{
+				bufferOrigin = nextInput;
+				int n = gzipInput.read(buffer);
+				if (n < 0)
+					return false;
+				limit = n;
+				nextInput = channel.position();
+				continue;
+			}
+
+			if (nextInput >= size)
+				return false;
+
+			bufferOrigin = nextInput;
+			if (blockReader == null)
+			{
+				int n = channel.read(ByteBuffer.wrap(buffer), nextInput);
+				if (n <= 0)
+					return false;
+				limit = n;
+				nextInput += n;
+			}
+			else if (threads > 1)
+			{
+				if (parallelReader == null)
+					parallelReader = new ParallelBGZFReader(channel, nextInput, threads);
+				if (block != null)
+					parallelReader.release(block);
+
+				block = parallelReader.next();
+				if (block == null)
+				{
+					nextInput = size;
+					return false;
+				}
+				buffer = block.getData();
+				limit = block.getLength();
+				nextInput += block.getSize();
+			}
+			else
+			{
+				nextInput += blockReader.readBlock(nextInput, buffer, blockLength);
+				limit = blockLength[0];
+			}
+		}
+		return true;
+	}
+
+}
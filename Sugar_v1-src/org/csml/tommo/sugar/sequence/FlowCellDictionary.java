@@ -0,0 +1,86 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.sequence;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class FlowCellDictionary
+ *
+ * Assigns an int ID to each flow cell name. The IDs are used by the LaneCoordinates (and the subclasses)
+ * for hashing and comparing, so the flow cell names are not compared for each lookup.
+ *
+ * The dictionary is global and shared by all analyses running in parallel: the lookups do not lock
+ * and a new name gets its ID through putIfAbsent, so two threads adding the same name get the same ID.
+ * The number of flow cells is not limited (the previous byte IDs wrapped after 256 flow cells).
+ *
+ */
+public class FlowCellDictionary {
+
+	private static final FlowCellDictionary INSTANCE = new FlowCellDictionary();
+
+	private final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+	private final ConcurrentMap<Integer, String> names = new ConcurrentHashMap<Integer, String>();
+	private final AtomicInteger nextID = new AtomicInteger();
+
+	public static FlowCellDictionary getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return the ID of the flow cell, a new one for a name not seen before
+	 */
+	public int getID(String flowCell) {
+		Integer result = ids.get(flowCell);
+		if (result != null)
+			return result;
+
+		// the name is published before the ID, so getName() finds the name of any ID in use
+		// (the ID of a thread losing the race is never used)
+		Integer id = nextID.getAndIncrement();
+		names.put(id, flowCell);
+		result = ids.putIfAbsent(flowCell, id);
+		if (result != null)
+		{
+			names.remove(id);
+			return result;
+		}
+		return id;
+	}
+
+	/**
+	 * @return the name of the flow cell or null for an unknown ID
+	 */
+	public String getName(int id) {
+		return names.get(id);
+	}
+
+	public int size() {
+		return ids.size();
+	}
+}
@@ -26,10 +26,9 @@
 package org.csml.tommo.sugar.sequence;
 
 import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.io.Writer;
-import java.util.HashMap;
-import java.util.Map;
 
 import org.csml.tommo.sugar.analysis.JSONSerializable;
 import org.json.simple.JSONObject;
@@ -48,13 +47,17 @@ public class LaneCoordinates implements Serializable, JSONSerializable {
 	 */
 	private static final long serialVersionUID = 3004529061996513322L;
 	
-	protected static Map<String, Byte> flowCellIdsMap = new HashMap<String, Byte>();
-	protected static Map<Byte, String> flowCellNamesMap = new HashMap<Byte, String>();
-	
 	/**
-	 * flow cell ID
+	 * flow cell ID from the FlowCellDictionary - used for hashing and comparing
+	 * 
+	 * not serialized, the IDs of another JVM may differ
+	 */
+	protected transient int flowCellID;
+
+	/**
+	 * flow cell name
 	 */
-	protected byte flowCellID;
+	protected String flowCell;
 
 	/**
 	 * flow cell lane
@@ -68,25 +71,21 @@ public class LaneCoordinates implements Serializable, JSONSerializable {
 	 * @param y
 	 */
 	public LaneCoordinates(String flowCell, Integer lane) {
-		
-		Byte flowCellID = computeFlowCellID(flowCell);
-		
-		this.flowCellID = flowCellID;
+		setFlowCell(flowCell);
 		this.lane = lane;
 	}
 
 	public LaneCoordinates() {
 	}
 
-	private Byte computeFlowCellID(String flowCell) {
-		Byte flowCellID = flowCellIdsMap.get(flowCell); 
-		if (flowCellID == null)
-		{
-			flowCellID = ((Integer) flowCellIdsMap.size()).byteValue();
-			flowCellIdsMap.put(flowCell, flowCellID);
-			flowCellNamesMap.put(flowCellID, flowCell);
-		}
-		return flowCellID;
+	private void setFlowCell(String flowCell) {
+		this.flowCell = flowCell;
+		this.flowCellID = FlowCellDictionary.getInstance().getID(flowCell);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		flowCellID = FlowCellDictionary.getInstance().getID(flowCell);
 	}
 
 	@Override
@@ -126,12 +125,12 @@ public class LaneCoordinates implements Serializable, JSONSerializable {
 		return lane;
 	}
 	
-	public Byte getFlowCellID() {
+	public int getFlowCellID() {
 		return flowCellID;
 	}
 
 	public String getFlowCell() {
-		return flowCellNamesMap.get(flowCellID);
+		return flowCell;
 	}
 
 	// customized JSON Serialization
@@ -160,8 +159,7 @@ public class LaneCoordinates implements Serializable, JSONSerializable {
 	public void fromJSONObject(JSONObject jsonObject) {
 		
         lane = new Integer(jsonObject.get(JSON_ATTR_LANE).toString());
-		String flowCell = jsonObject.get(JSON_ATTR_FLOW_CELL).toString();
-        flowCellID = computeFlowCellID(flowCell);        
+        setFlowCell(jsonObject.get(JSON_ATTR_FLOW_CELL).toString());
 		
 	}
 
@@ -0,0 +1,212 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.sequence;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class ParallelBGZFReader
+ *
+ * Inflates the blocks of a BGZF file (bgzip, BAM) by a pool of threads and returns them in the order of the file.
+ *
+ * The calling thread only walks the block headers (the size of each block is in its header), the blocks are
+ * read and inflated by the workers - up to BLOCKS_PER_THREAD blocks per thread ahead of the caller.
+ * The inflated blocks are returned to the pool by release(), so no buffers are allocated after the start.
+ *
+ */
+public class ParallelBGZFReader {
+
+	public static final int BLOCKS_PER_THREAD = 4;
+
+	private final FileChannel channel;
+	private final long fileSize;
+	private final int capacity;
+	private final BGZFBlockReader headerReader;
+	private final ExecutorService executor;
+
+	private final Queue<Future<Block>> blocks = new ArrayDeque<Future<Block>>();
+	private final Queue<BGZFBlockReader> readers = new ConcurrentLinkedQueue<BGZFBlockReader>();
+	private final Queue<Block> freeBlocks = new ConcurrentLinkedQueue<Block>();
+
+	private long nextOffset;
+
+	/**
+	 * @param offset - the offset of the first block
+	 */
+	public ParallelBGZFReader(FileChannel channel, long offset, int threads) throws IOException {
+		this.channel = channel;
+		this.fileSize = channel.size();
+		this.capacity = threads * BLOCKS_PER_THREAD;
+		this.headerReader = new BGZFBlockReader(channel);
+		this.nextOffset = offset;
+
+		executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int count = 0;
+
+			@Override
+			public synchronized Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "SUGAR inflater " + count++);
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @return the next inflated block or null at the end of the file
+	 */
+	public Block next() throws IOException {
+		while (blocks.size() < capacity && nextOffset < fileSize)
+		{
+			int size = headerReader.getBlockSize(nextOffset);
+			if (size < 0)
+				throw new IOException("Invalid BGZF block at offset " + nextOffset);
+
+			blocks.add(executor.submit(new InflateTask(nextOffset)));
+			nextOffset += size;
+		}
+
+		Future<Block> future = blocks.poll();
+		if (future == null)
+			return null;
+
+		try {
+			return future.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while inflating the BGZF blocks");
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("Failed to inflate the BGZF block: " + e.getCause());
+		}
+	}
+
+	/**
+	 * Returns the block to the pool, the block must not be used after this
+	 */
+	public void release(Block block) {
+		freeBlocks.add(block);
+	}
+
+	public void close() {
+		// an interrupted read would close the file channel shared with the caller (ClosedByInterruptException),
+		// so the pending blocks are cancelled and the running ones are finished
+		Future<Block> future;
+		while ((future = blocks.poll()) != null)
+			future.cancel(false);
+		executor.shutdown();
+		try {
+			executor.awaitTermination(1, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		headerReader.close();
+		BGZFBlockReader reader;
+		while ((reader = readers.poll()) != null)
+			reader.close();
+	}
+
+	private class InflateTask implements Callable<Block> {
+
+		private final long offset;
+
+		public InflateTask(long offset) {
+			this.offset = offset;
+		}
+
+		@Override
+		public Block call() throws IOException {
+			Block block = freeBlocks.poll();
+			if (block == null)
+				block = new Block();
+
+			BGZFBlockReader reader = readers.poll();
+			if (reader == null)
+				reader = new BGZFBlockReader(channel);
+			try {
+				block.offset = offset;
+				block.size = reader.readBlock(offset, block.data, block.length);
+			}
+			finally {
+				readers.add(reader);
+			}
+			return block;
+		}
+	}
+
+	/**
+	 * The inflated data of one block
+	 */
+	public static class Block {
+
+		private final byte[] data = new byte[BGZFBlockReader.MAX_BLOCK_SIZE];
+		private final int[] length = new int[1];
+		private long offset;
+		private int size;
+
+		public byte[] getData() {
+			return data;
+		}
+
+		/**
+		 * @return the length of the inflated data
+		 */
+		public int getLength() {
+			return length[0];
+		}
+
+		/**
+		 * @return the offset of the block in the file
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * @return the size of the compressed block
+		 */
+		public int getSize() {
+			return size;
+		}
+	}
+
+}
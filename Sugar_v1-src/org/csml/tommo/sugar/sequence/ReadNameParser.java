@@ -0,0 +1,312 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.sequence;
+
+import java.nio.charset.Charset;
+
+/**
+ * Class ReadNameParser
+ *
+ * Splits the sequence id line from FASTQ file into the "coordinates":
+ * flowCell, lane, tile, x-Coordinate, y-Coordinate
+ *
+ * The parser is a reusable mutable holder - the coordinates are decoded char by char into primitive fields,
+ * no substrings are created. The flow cell string is allocated only when it differs from the previous read.
+ * The id line can be parsed from a String or in place from the bytes of the record (FastQShardReader).
+ *
+ * Supported formats (the same as SequenceCoordinates.getSequenceCoordinates):
+ * 	legacy Illumina:	@HWUSI-EAS100R:6:73:941:1973#0/1
+ * 	Casava 1.8:			@EAS139:136:FC706VJ:2:2104:15343:197393 1:Y:18:ATCACG
+ *
+ * The parser is not thread-safe, use one instance per thread.
+ *
+ */
+public class ReadNameParser {
+
+	private static final int MAX_FIELDS = 8;
+	private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+	private static final ThreadLocal<ReadNameParser> THREAD_PARSER = new ThreadLocal<ReadNameParser>() {
+		@Override
+		protected ReadNameParser initialValue() {
+			return new ReadNameParser();
+		}
+	};
+
+	/**
+	 * colonIndexes[i] is the position of the (i+1)-th colon
+	 */
+	private final int[] colonIndexes = new int[MAX_FIELDS];
+
+	private String flowCell = "";
+	private int lane;
+	private int tile;
+	private int x;
+	private int y;
+
+	/**
+	 * @return the parser of the current thread
+	 */
+	public static ReadNameParser getInstance() {
+		return THREAD_PARSER.get();
+	}
+
+	/**
+	 * parse(String id)
+	 *
+	 * @param id - id line from FASTQ file
+	 * @return true, if the id line was recognized, false otherwise (the fields are not changed)
+	 * @throws NumberFormatException if lane, tile or x-, y-Coordinate is not a number
+	 */
+	public boolean parse(String id) {
+		int length = id.length();
+		int colons = 0;
+		int lastColon = -1;
+		for (int i = 0; i < length; i++)
+		{
+			if (id.charAt(i) == ':')
+			{
+				if (colons < MAX_FIELDS)
+					colonIndexes[colons] = i;
+				colons++;
+				lastColon = i;
+			}
+		}
+
+		// a trailing empty field is not counted
+		int fields = (lastColon == length - 1) ? colons : colons + 1;
+
+		if (fields == 5)
+		{
+			// standard Illumina indentifier
+			int yEnd = fieldEnd(4, colons, length);
+			yEnd = indexOf(id, '#', fieldStart(4), yEnd);
+			yEnd = indexOf(id, ' ', fieldStart(4), yEnd);
+
+			lane = parseInt(id, fieldStart(1), fieldEnd(1, colons, length));
+			tile = parseInt(id, fieldStart(2), fieldEnd(2, colons, length));
+			x = parseInt(id, fieldStart(3), fieldEnd(3, colons, length));
+			y = parseInt(id, fieldStart(4), yEnd);
+			flowCell = "";
+			return true;
+		}
+		else if (fields >= 7)
+		{
+			// Casava 1.8 format
+			int yEnd = fieldEnd(6, colons, length);
+			yEnd = indexOf(id, ' ', fieldStart(6), yEnd);
+
+			lane = parseInt(id, fieldStart(3), fieldEnd(3, colons, length));
+			tile = parseInt(id, fieldStart(4), fieldEnd(4, colons, length));
+			x = parseInt(id, fieldStart(5), fieldEnd(5, colons, length));
+			y = parseInt(id, fieldStart(6), yEnd);
+			setFlowCell(id, fieldStart(2), fieldEnd(2, colons, length));
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * parse(byte[] id, int offset, int length)
+	 *
+	 * The same as parse(String), but the id line is read from the bytes
+	 *
+	 * @param id, offset, length - id line from FASTQ file
+	 * @return true, if the id line was recognized, false otherwise (the fields are not changed)
+	 * @throws NumberFormatException if lane, tile or x-, y-Coordinate is not a number
+	 */
+	public boolean parse(byte[] id, int offset, int length) {
+		int end = offset + length;
+		int colons = 0;
+		int lastColon = -1;
+		for (int i = offset; i < end; i++)
+		{
+			if (id[i] == ':')
+			{
+				if (colons < MAX_FIELDS)
+					colonIndexes[colons] = i - offset;
+				colons++;
+				lastColon = i - offset;
+			}
+		}
+
+		// a trailing empty field is not counted
+		int fields = (lastColon == length - 1) ? colons : colons + 1;
+
+		if (fields == 5)
+		{
+			// standard Illumina indentifier
+			int yEnd = fieldEnd(4, colons, length);
+			yEnd = indexOf(id, offset, '#', fieldStart(4), yEnd);
+			yEnd = indexOf(id, offset, ' ', fieldStart(4), yEnd);
+
+			lane = parseInt(id, offset, fieldStart(1), fieldEnd(1, colons, length));
+			tile = parseInt(id, offset, fieldStart(2), fieldEnd(2, colons, length));
+			x = parseInt(id, offset, fieldStart(3), fieldEnd(3, colons, length));
+			y = parseInt(id, offset, fieldStart(4), yEnd);
+			flowCell = "";
+			return true;
+		}
+		else if (fields >= 7)
+		{
+			// Casava 1.8 format
+			int yEnd = fieldEnd(6, colons, length);
+			yEnd = indexOf(id, offset, ' ', fieldStart(6), yEnd);
+
+			lane = parseInt(id, offset, fieldStart(3), fieldEnd(3, colons, length));
+			tile = parseInt(id, offset, fieldStart(4), fieldEnd(4, colons, length));
+			x = parseInt(id, offset, fieldStart(5), fieldEnd(5, colons, length));
+			y = parseInt(id, offset, fieldStart(6), yEnd);
+			setFlowCell(id, offset + fieldStart(2), offset + fieldEnd(2, colons, length));
+			return true;
+		}
+
+		return false;
+	}
+
+	private int fieldStart(int field) {
+		return field == 0 ? 0 : colonIndexes[field - 1] + 1;
+	}
+
+	private int fieldEnd(int field, int colons, int length) {
+		return field < colons ? colonIndexes[field] : length;
+	}
+
+	private static int indexOf(String s, char c, int start, int end) {
+		for (int i = start; i < end; i++)
+		{
+			if (s.charAt(i) == c)
+				return i;
+		}
+		return end;
+	}
+
+	private static int indexOf(byte[] s, int offset, char c, int start, int end) {
+		for (int i = start; i < end; i++)
+		{
+			if (s[offset + i] == c)
+				return i;
+		}
+		return end;
+	}
+
+	private static int parseInt(byte[] s, int offset, int start, int end) {
+		if (start >= end)
+			throw new NumberFormatException("For input string: \"\"");
+
+		boolean negative = false;
+		int i = offset + start;
+		int last = offset + end;
+		byte first = s[i];
+		if (first == '-' || first == '+')
+		{
+			negative = first == '-';
+			i++;
+			if (i == last)
+				throw new NumberFormatException("For input string: \"" + new String(s, offset + start, end - start) + "\"");
+		}
+
+		// accumulated negatively (as by Integer.parseInt), a number out of the int range is rejected instead of wrapping around
+		int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+		int result = 0;
+		for (; i < last; i++)
+		{
+			int digit = s[i] - '0';
+			if (digit < 0 || digit > 9 || result < (limit + digit) / 10)
+				throw new NumberFormatException("For input string: \"" + new String(s, offset + start, end - start) + "\"");
+			result = result * 10 - digit;
+		}
+		return negative ? result : -result;
+	}
+
+	private static int parseInt(String s, int start, int end) {
+		if (start >= end)
+			throw new NumberFormatException("For input string: \"\"");
+
+		boolean negative = false;
+		int i = start;
+		char first = s.charAt(i);
+		if (first == '-' || first == '+')
+		{
+			negative = first == '-';
+			i++;
+			if (i == end)
+				throw new NumberFormatException("For input string: \"" + s.substring(start, end) + "\"");
+		}
+
+		// accumulated negatively (as by Integer.parseInt), a number out of the int range is rejected instead of wrapping around
+		int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+		int result = 0;
+		for (; i < end; i++)
+		{
+			int digit = s.charAt(i) - '0';
+			if (digit < 0 || digit > 9 || result < (limit + digit) / 10)
+				throw new NumberFormatException("For input string: \"" + s.substring(start, end) + "\"");
+			result = result * 10 - digit;
+		}
+		return negative ? result : -result;
+	}
+
+	private void setFlowCell(String s, int start, int end) {
+		int length = end - start;
+		if (flowCell.length() != length || !s.regionMatches(start, flowCell, 0, length))
+			flowCell = s.substring(start, end);
+	}
+
+	private void setFlowCell(byte[] s, int start, int end) {
+		int length = end - start;
+		boolean same = flowCell.length() == length;
+		for (int i = 0; same && i < length; i++)
+			same = flowCell.charAt(i) == (char) (s[start + i] & 0xff);
+		if (!same)
+			flowCell = new String(s, start, length, ISO_8859_1);
+	}
+
+	public String getFlowCell() {
+		return flowCell;
+	}
+
+	public int getLane() {
+		return lane;
+	}
+
+	public int getTile() {
+		return tile;
+	}
+
+	public int getX() {
+		return x;
+	}
+
+	public int getY() {
+		return y;
+	}
+
+	public SequenceCoordinates toSequenceCoordinates() {
+		return new SequenceCoordinates(flowCell, lane, tile, x, y);
+	}
+}
@@ -25,8 +25,6 @@
  */
 package org.csml.tommo.sugar.sequence;
 
-import org.csml.tommo.sugar.utils.StringUtils;
-
 import uk.ac.babraham.FastQC.Sequence.Sequence;
 
 
@@ -96,53 +94,11 @@ public class SequenceCoordinates extends TileCoordinates {
 	 * 
 	 */
 	public static SequenceCoordinates getSequenceCoordinates(String seqeunceIdLine) {
-		SequenceCoordinates result = null;
-		
-//		String[] lineParts = seqeunceIdLine.split(":");
-		String[] lineParts = StringUtils.splitString(seqeunceIdLine, ":");
-		
-		if (lineParts.length == 5)
-		{
-			// first try '#' delimiter (separator)
-//			String lastCoordinate = lineParts[4].split("#")[0];
-			String lastCoordinate = lineParts[4];
-			if(lastCoordinate.contains("#")){
-				lastCoordinate = lastCoordinate.substring(0, lastCoordinate.indexOf("#"));
-			}
-			
-			// next try space delimiter (separator)
-//			lastCoordinate = lastCoordinate.split(" ")[0];
-			if(lastCoordinate.contains(" ")){
-				lastCoordinate = lastCoordinate.substring(0, lastCoordinate.indexOf(" "));
-			}
-			
-			// standard Illumina indentifier
-			result = new SequenceCoordinates(
-					Integer.valueOf(lineParts[1]), 
-					Integer.valueOf(lineParts[2]),
-					Integer.valueOf(lineParts[3]),
-					Integer.valueOf(lastCoordinate));
-			
-		} 
-		else if (lineParts.length >=7 )
-		{
-			// try space delimiter (separator)
-//			String lastCoordinate = lineParts[6].split(" ")[0];
-			String lastCoordinate = lineParts[6];
-			if(lastCoordinate.contains(" ")){
-				lastCoordinate = lastCoordinate.substring(0, lastCoordinate.indexOf(" "));
-			}			
-
-			// Casava 1.8 format
-			result = new SequenceCoordinates(
-					lineParts[2],
-					Integer.valueOf(lineParts[3]), 
-					Integer.valueOf(lineParts[4]),
-					Integer.valueOf(lineParts[5]),
-					Integer.valueOf(lastCoordinate));
-		}
+		ReadNameParser parser = ReadNameParser.getInstance();
 		
-		return result;
+		return parser.parse(seqeunceIdLine) ? 
+				parser.toSequenceCoordinates() : 
+				null;
 	}
 
 	@Override
@@ -0,0 +1,549 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.sequence;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import net.sf.samtools.SAMFileHeader;
+import net.sf.samtools.SAMFileWriter;
+import net.sf.samtools.SAMFileWriterFactory;
+import net.sf.samtools.SAMRecord;
+import net.sf.samtools.SAMSequenceRecord;
+
+import org.csml.tommo.sugar.modules.QualityHeatMapsPerTileAndBase;
+import org.csml.tommo.sugar.utils.Options;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+/**
+ * Class SyntheticReadGenerator
+ *
+ * Writes generated reads with the tile geometry of an Illumina run (ESequencerPlatform) for load tests:
+ * FASTQ, gzipped FASTQ (.gz) or BAM (.bam, with mapping qualities).
+ *
+ * The reads are written tile by tile (the same as the sequencers) and streamed, so the number of reads
+ * is limited by the disk only. The qualities drop with the cycle.
+ *
+ * Low quality "bubbles" can be injected into chosen subtiles and cycles. The subtiles are the entries of the
+ * quality matrix with the given matrix size - the first two reads of each tile are written at the corners
+ * of the tile, so the x-, y- range of the tile (TileTree) is known and the subtiles match exactly.
+ * The bubbles are written as a selection file (QualityHeatMapsPerTileAndBase.importSelectionMatrix format),
+ * which can be compared with the areas selected by selectRedAreas.
+ *
+ * usage: SyntheticReadGenerator [options] outputFile
+ *
+ */
+public class SyntheticReadGenerator {
+
+	public static final String SELECTION_FILE_SUFFIX = ".lowq.json";
+
+	private static final int BUFFER_SIZE = 1024 * 1024;
+	private static final int PHRED_OFFSET = 33;
+
+	// the quality of the good bases drops from MAX_QUALITY in the first cycle to MAX_QUALITY - QUALITY_DROP in the last cycle
+	private static final int MAX_QUALITY = 38;
+	private static final int QUALITY_DROP = 8;
+	private static final int QUALITY_NOISE_BITS = 3;
+	private static final int MIN_QUALITY = 2;
+
+	private static final int MAX_MAPPING_QUALITY = 60;
+	private static final int REFERENCE_LENGTH = 100 * 1000 * 1000;
+	private static final String REFERENCE_NAME = "synthetic";
+
+	private static final byte[] BASES = {'A', 'C', 'G', 'T'};
+
+	@Argument(index=0, metaVar="outputFile", required=false, usage="Output file. Files ending with .bam are written as BAM, " +
+			"files ending with .gz as gzipped FASTQ, other files as FASTQ.")
+	private String output;
+
+	@Option(name="--stdout", usage="Write FASTQ to the standard output instead of the output file.")
+	private boolean stdout = false;
+
+	@Option(name="-p", aliases="--platform", usage="Tile geometry and read names: HISEQ, HISEQ_RAPID_RUN, MISEQ or LEGACY (pre Casava 1.8 read names). The default is HISEQ.")
+	private ESequencerPlatform platform = ESequencerPlatform.HISEQ;
+
+	@Option(name="-n", aliases="--reads", usage="Number of reads. The reads are distributed evenly over all tiles. The default is 1000000.")
+	private long reads = 1000 * 1000;
+
+	@Option(name="-l", aliases="--read_length", usage="Read length (number of cycles). The default is 101.")
+	private int readLength = 101;
+
+	@Option(name="-lanes", aliases="--lanes", usage="Number of lanes. The default is the number of lanes of the platform.")
+	private Integer lanes = null;
+
+	@Option(name="--flowcell", usage="Flow cell ID in the Casava 1.8 read names. The default is FCSYNTH.")
+	private String flowCell = "FCSYNTH";
+
+	@Option(name="-matrix_size", aliases="--matrix_size", usage="Size of the quality matrix used for the bubble positions. The default is 10.")
+	private int matrixSize = Options.DEFAULT_MATRIX_SIZE;
+
+	@Option(name="-b", aliases="--bubble", metaVar="lane:tile:x:y:cycles", usage="Injects a low quality bubble. x and y are the subtile indices " +
+			"(0 .. matrix_size-1), the cycles start with 1. x, y and cycles can be ranges, e.g. 1:1101:2-3:5:10-20. The option can be repeated.")
+	private List<String> bubbleSpecs = new ArrayList<String>();
+
+	@Option(name="--random_bubbles", usage="Number of bubbles injected at random tiles, subtiles and cycles.")
+	private int randomBubbles = 0;
+
+	@Option(name="--bubble_rate", usage="Fraction of the bases inside a bubble with a quality below the default heatmap quality threshold (20). The default is 0.95.")
+	private double bubbleRate = 0.95;
+
+	@Option(name="--seed", usage="Seed of the random generator. The default is 1.")
+	private long seed = 1;
+
+	@Option(name="--gzip_level", usage="Compression level of the gzipped FASTQ (1 - fastest .. 9 - smallest). The default is 1.")
+	private int gzipLevel = 1;
+
+	@Option(name="--selection_file", usage="Selection file with the bubbles. The default is outputFile" + SELECTION_FILE_SUFFIX)
+	private File selectionFile = null;
+
+	/**
+	 * state of the xorshift* random generator - java.util.Random is too slow for billions of reads
+	 */
+	private long randomState;
+
+	private final List<Bubble> bubbles = new ArrayList<Bubble>();
+
+	public long generate() throws IOException {
+		randomState = seed == 0 ? 1 : seed;
+
+		int laneCount = lanes != null ? lanes : platform.getLanes();
+		int[] tileIDs = platform.getTileIDs();
+
+		for (String spec : bubbleSpecs)
+			bubbles.add(Bubble.parse(spec));
+		for (int i = 0; i < randomBubbles; i++)
+			bubbles.add(createRandomBubble(laneCount, tileIDs));
+
+		ReadWriter writer = createWriter();
+		long written = 0;
+		try {
+			long tileCount = (long) laneCount * tileIDs.length;
+			long tileIndex = 0;
+			for (int lane = 1; lane <= laneCount; lane++)
+			{
+				for (int tile : tileIDs)
+				{
+					long tileReads = reads / tileCount + (tileIndex < reads % tileCount ? 1 : 0);
+					written += generateTile(writer, lane, tile, tileReads);
+					tileIndex++;
+				}
+			}
+		} finally {
+			writer.close();
+		}
+
+		if (!bubbles.isEmpty() && getSelectionFile() != null)
+			writeSelectionFile();
+
+		return written;
+	}
+
+	private long generateTile(ReadWriter writer, int lane, int tile, long tileReads) throws IOException {
+
+		List<Bubble> tileBubbles = new ArrayList<Bubble>();
+		for (Bubble b : bubbles)
+		{
+			if (b.lane == lane && b.tile == tile)
+				tileBubbles.add(b);
+		}
+
+		int minX = platform.getMinX(), maxX = platform.getMaxX();
+		int minY = platform.getMinY(), maxY = platform.getMaxY();
+
+		byte[] bases = new byte[readLength];
+		byte[] qualities = new byte[readLength];
+		boolean[] lowQualityCycles = new boolean[readLength];
+
+		writer.startTile(lane, tile);
+
+		for (long r = 0; r < tileReads; r++)
+		{
+			// the first two reads define the range of the tile
+			int x = r == 0 ? minX : (r == 1 ? maxX : minX + nextInt(maxX - minX + 1));
+			int y = r == 0 ? minY : (r == 1 ? maxY : minY + nextInt(maxY - minY + 1));
+
+			// the same conversion as MeanQualityMatrix
+			int xIndex = (int) ((long) matrixSize * (x - minX) / (maxX - minX + 1));
+			int yIndex = (int) ((long) matrixSize * (y - minY) / (maxY - minY + 1));
+
+			boolean inBubble = false;
+			for (int c = 0; c < readLength; c++)
+				lowQualityCycles[c] = false;
+			for (Bubble b : tileBubbles)
+			{
+				if (b.contains(xIndex, yIndex))
+				{
+					inBubble = true;
+					for (int c = Math.max(1, b.firstCycle); c <= Math.min(readLength, b.lastCycle); c++)
+						lowQualityCycles[c - 1] = true;
+				}
+			}
+
+			// one random number gives the base and the quality noise of 12 cycles
+			long random = 0;
+			for (int c = 0; c < readLength; c++)
+			{
+				if (c % 12 == 0)
+					random = nextLong();
+				bases[c] = BASES[(int) (random & 3)];
+				int noise = (int) (random >>> 2) & ((1 << QUALITY_NOISE_BITS) - 1);
+				random >>>= 2 + QUALITY_NOISE_BITS;
+
+				int quality;
+				if (lowQualityCycles[c] && nextDouble() < bubbleRate)
+					quality = MIN_QUALITY + nextInt(Options.DEFAULT_QUALITY_THRESHOLD - MIN_QUALITY);
+				else
+					quality = MAX_QUALITY - QUALITY_DROP * c / readLength - noise;
+				qualities[c] = (byte) (PHRED_OFFSET + quality);
+			}
+
+			int mappingQuality = inBubble ?
+					nextInt(Options.DEFAULT_QUALITY_THRESHOLD) :
+					(nextInt(10) == 0 ? nextInt(MAX_MAPPING_QUALITY) : MAX_MAPPING_QUALITY);
+
+			writer.write(x, y, bases, qualities, mappingQuality);
+		}
+
+		return tileReads;
+	}
+
+	private Bubble createRandomBubble(int laneCount, int[] tileIDs) {
+		Bubble b = new Bubble();
+		b.lane = 1 + nextInt(laneCount);
+		b.tile = tileIDs[nextInt(tileIDs.length)];
+		b.minX = b.maxX = nextInt(matrixSize);
+		b.minY = b.maxY = nextInt(matrixSize);
+		b.firstCycle = 1 + nextInt(readLength);
+		b.lastCycle = Math.min(readLength, b.firstCycle + nextInt(10));
+		return b;
+	}
+
+	private void writeSelectionFile() throws IOException {
+		Map<TileBPCoordinates, boolean[][]> selectionMatrixMap = new HashMap<TileBPCoordinates, boolean[][]>();
+		String flowCellID = platform.isCasava18() ? flowCell : "";
+
+		for (Bubble b : bubbles)
+		{
+			for (int c = Math.max(1, b.firstCycle); c <= Math.min(readLength, b.lastCycle); c++)
+			{
+				TileBPCoordinates key = new TileBPCoordinates(flowCellID, b.lane, b.tile, c);
+				boolean[][] selection = selectionMatrixMap.get(key);
+				if (selection == null)
+				{
+					selection = new boolean[matrixSize][matrixSize];
+					selectionMatrixMap.put(key, selection);
+				}
+				for (int i = b.minX; i <= Math.min(b.maxX, matrixSize - 1); i++)
+				{
+					for (int j = b.minY; j <= Math.min(b.maxY, matrixSize - 1); j++)
+						selection[i][j] = true;
+				}
+			}
+		}
+
+		QualityHeatMapsPerTileAndBase.writeSelectionMatrix(getSelectionFile(), matrixSize, selectionMatrixMap);
+	}
+
+	public File getSelectionFile() {
+		return selectionFile != null || output == null ? selectionFile : new File(output + SELECTION_FILE_SUFFIX);
+	}
+
+	public List<Bubble> getBubbles() {
+		return bubbles;
+	}
+
+	private ReadWriter createWriter() throws IOException {
+		if (!stdout && output.endsWith(".bam"))
+			return new BAMReadWriter(new File(output));
+
+		OutputStream out;
+		if (stdout)
+			out = System.out;
+		else if (output.endsWith(".gz"))
+			out = new LevelGZIPOutputStream(new FileOutputStream(output), gzipLevel);
+		else
+			out = new FileOutputStream(output);
+
+		return new FastQReadWriter(new BufferedOutputStream(out, BUFFER_SIZE));
+	}
+
+	private long nextLong() {
+		randomState ^= randomState >>> 12;
+		randomState ^= randomState << 25;
+		randomState ^= randomState >>> 27;
+		return randomState * 2685821657736338717L;
+	}
+
+	private int nextInt(int bound) {
+		return (int) (((nextLong() >>> 33) * bound) >>> 31);
+	}
+
+	private double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	public static void main(String[] args) throws IOException {
+
+		SyntheticReadGenerator generator = new SyntheticReadGenerator();
+		CmdLineParser parser = new CmdLineParser(generator);
+
+		try {
+			parser.parseArgument(args);
+			if (generator.output == null && !generator.stdout)
+				throw new CmdLineException(parser, "Argument \"outputFile\" is required");
+			for (String spec : generator.bubbleSpecs)
+				Bubble.parse(spec);
+		} catch(CmdLineException e) {
+			System.err.println(e.getMessage());
+			System.err.println("java " + SyntheticReadGenerator.class.getName() + " [options] outputFile");
+			parser.printUsage(System.err);
+			System.exit(1);
+		} catch(IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+
+		long startTime = System.currentTimeMillis();
+		long count = generator.generate();
+		long time = Math.max(1, System.currentTimeMillis() - startTime);
+
+		// the standard output may contain the reads
+		if (!generator.stdout)
+		{
+			System.out.println("Written " + count + " reads to " + generator.output + " in " + time + " ms (" + (count * 1000 / time) + " reads/s)");
+			for (Bubble b : generator.getBubbles())
+				System.out.println("Bubble " + b);
+			if (generator.getSelectionFile() != null && !generator.getBubbles().isEmpty())
+				System.out.println("Selection file: " + generator.getSelectionFile());
+		}
+	}
+
+	/**
+	 * A low quality area - a range of subtiles and cycles in one tile
+	 */
+	public static class Bubble {
+
+		int lane;
+		int tile;
+		int minX;
+		int maxX;
+		int minY;
+		int maxY;
+		int firstCycle;
+		int lastCycle;
+
+		/**
+		 * @param spec - lane:tile:x:y:cycles, x, y and cycles can be ranges (first-last)
+		 */
+		static Bubble parse(String spec) {
+			String[] parts = spec.split(":");
+			if (parts.length != 5)
+				throw new IllegalArgumentException("Bubble '" + spec + "' is not in the format lane:tile:x:y:cycles");
+
+			try {
+				Bubble b = new Bubble();
+				b.lane = Integer.parseInt(parts[0]);
+				b.tile = Integer.parseInt(parts[1]);
+				int[] range = parseRange(parts[2]);
+				b.minX = range[0];
+				b.maxX = range[1];
+				range = parseRange(parts[3]);
+				b.minY = range[0];
+				b.maxY = range[1];
+				range = parseRange(parts[4]);
+				b.firstCycle = range[0];
+				b.lastCycle = range[1];
+				return b;
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Bubble '" + spec + "' is not in the format lane:tile:x:y:cycles");
+			}
+		}
+
+		private static int[] parseRange(String s) {
+			int dash = s.indexOf('-');
+			if (dash < 0)
+				return new int[] {Integer.parseInt(s), Integer.parseInt(s)};
+			return new int[] {Integer.parseInt(s.substring(0, dash)), Integer.parseInt(s.substring(dash + 1))};
+		}
+
+		boolean contains(int x, int y) {
+			return x >= minX && x <= maxX && y >= minY && y <= maxY;
+		}
+
+		@Override
+		public String toString() {
+			return lane + ":" + tile + ":" + minX + "-" + maxX + ":" + minY + "-" + maxY + ":" + firstCycle + "-" + lastCycle;
+		}
+	}
+
+	private interface ReadWriter {
+
+		public void startTile(int lane, int tile) throws IOException;
+
+		public void write(int x, int y, byte[] bases, byte[] qualities, int mappingQuality) throws IOException;
+
+		public void close() throws IOException;
+	}
+
+	/**
+	 * Writes the FASTQ records directly as bytes, no strings are created for the reads
+	 */
+	private class FastQReadWriter implements ReadWriter {
+
+		private final OutputStream out;
+		private byte[] namePrefix;
+		private final byte[] nameSuffix;
+		private byte[] record = new byte[1024];
+		private int length;
+
+		FastQReadWriter(OutputStream out) {
+			this.out = out;
+			nameSuffix = (platform.isCasava18() ? " 1:N:0:ATCACG\n" : "#0/1\n").getBytes();
+		}
+
+		@Override
+		public void startTile(int lane, int tile) {
+			String prefix = platform.isCasava18() ?
+					"@SIM:1:" + flowCell + ":" + lane + ":" + tile + ":" :
+					"@SIM-EAS100R:" + lane + ":" + tile + ":";
+			namePrefix = prefix.getBytes();
+		}
+
+		@Override
+		public void write(int x, int y, byte[] bases, byte[] qualities, int mappingQuality) throws IOException {
+			int maxLength = namePrefix.length + nameSuffix.length + 2 * bases.length + 32;
+			if (record.length < maxLength)
+				record = new byte[maxLength];
+
+			length = 0;
+			append(namePrefix, namePrefix.length);
+			appendInt(x);
+			record[length++] = ':';
+			appendInt(y);
+			append(nameSuffix, nameSuffix.length);
+			append(bases, bases.length);
+			record[length++] = '\n';
+			record[length++] = '+';
+			record[length++] = '\n';
+			append(qualities, qualities.length);
+			record[length++] = '\n';
+
+			out.write(record, 0, length);
+		}
+
+		private void append(byte[] bytes, int count) {
+			System.arraycopy(bytes, 0, record, length, count);
+			length += count;
+		}
+
+		private void appendInt(int value) {
+			int start = length;
+			do {
+				record[length++] = (byte) ('0' + value % 10);
+				value /= 10;
+			} while (value > 0);
+
+			// reverse the digits
+			for (int i = start, j = length - 1; i < j; i++, j--)
+			{
+				byte b = record[i];
+				record[i] = record[j];
+				record[j] = b;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (out == System.out)
+				out.flush();
+			else
+				out.close();
+		}
+	}
+
+	/**
+	 * Writes the reads as mapped records of one synthetic reference (the mapping quality is kept in the BAM file only)
+	 */
+	private class BAMReadWriter implements ReadWriter {
+
+		private final SAMFileHeader header;
+		private final SAMFileWriter writer;
+		private final String cigar;
+		private String namePrefix;
+
+		BAMReadWriter(File file) {
+			header = new SAMFileHeader();
+			header.setSortOrder(SAMFileHeader.SortOrder.unsorted);
+			header.addSequence(new SAMSequenceRecord(REFERENCE_NAME, REFERENCE_LENGTH));
+			writer = new SAMFileWriterFactory().makeBAMWriter(header, true, file);
+			cigar = readLength + "M";
+		}
+
+		@Override
+		public void startTile(int lane, int tile) {
+			namePrefix = platform.isCasava18() ?
+					"SIM:1:" + flowCell + ":" + lane + ":" + tile + ":" :
+					"SIM-EAS100R:" + lane + ":" + tile + ":";
+		}
+
+		@Override
+		public void write(int x, int y, byte[] bases, byte[] qualities, int mappingQuality) {
+			SAMRecord record = new SAMRecord(header);
+			record.setReadName(namePrefix + x + ":" + y);
+			record.setReadString(new String(bases));
+			record.setBaseQualityString(new String(qualities));
+			record.setReferenceName(REFERENCE_NAME);
+			record.setAlignmentStart(1 + nextInt(REFERENCE_LENGTH - bases.length));
+			record.setCigarString(cigar);
+			record.setMappingQuality(mappingQuality);
+			writer.addAlignment(record);
+		}
+
+		@Override
+		public void close() {
+			writer.close();
+		}
+	}
+
+	private static class LevelGZIPOutputStream extends GZIPOutputStream {
+
+		LevelGZIPOutputStream(OutputStream out, int level) throws IOException {
+			super(out, BUFFER_SIZE);
+			def.setLevel(level);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.sequence;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Class TileIndex
+ *
+ * Assigns a dense ordinal (0, 1, 2, ...) to each tile (flow cell, lane, tile) in the order the tiles are added,
+ * so the per-tile data can be kept in lists indexed by the ordinal instead of maps keyed by TileCoordinates.
+ *
+ * The lookup is an open-addressing table keyed on the flow cell ID and the packed lane and tile numbers -
+ * it neither hashes boxed keys nor allocates.
+ *
+ * The ordinals of one index never change, a new index is created when the tiles are reset.
+ *
+ */
+public class TileIndex implements Serializable {
+
+	private static final long serialVersionUID = -1383460752744108165L;
+
+	public static final int NO_TILE = -1;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	/**
+	 * flow cell IDs, packed lane/tile numbers and ordinal + 1 of the tiles (0 marks an empty slot)
+	 */
+	private int[] flowCells = new int[INITIAL_CAPACITY];
+	private long[] keys = new long[INITIAL_CAPACITY];
+	private int[] slots = new int[INITIAL_CAPACITY];
+
+	private List<TileCoordinates> tiles = new ArrayList<TileCoordinates>();
+
+	/**
+	 * @return the ordinal of the tile or NO_TILE, if the tile was not added
+	 */
+	public int indexOf(TileCoordinates tileCoordinates) {
+		int flowCell = tileCoordinates.flowCellID;
+		long key = pack(tileCoordinates);
+		int mask = slots.length - 1;
+		for (int i = hash(flowCell, key) & mask; slots[i] != 0; i = (i + 1) & mask)
+		{
+			if (keys[i] == key && flowCells[i] == flowCell)
+				return slots[i] - 1;
+		}
+		return NO_TILE;
+	}
+
+	/**
+	 * @return the ordinal of the tile - a new one, if the tile was not added before
+	 */
+	public int add(TileCoordinates tileCoordinates) {
+		int result = indexOf(tileCoordinates);
+		if (result != NO_TILE)
+			return result;
+
+		// keep the table at most half full
+		if (2 * (tiles.size() + 1) > slots.length)
+			rehash(slots.length * 2);
+
+		result = tiles.size();
+		tiles.add(tileCoordinates);
+		insert(tileCoordinates.flowCellID, pack(tileCoordinates), result + 1);
+		return result;
+	}
+
+	public TileCoordinates get(int ordinal) {
+		return tiles.get(ordinal);
+	}
+
+	public int size() {
+		return tiles.size();
+	}
+
+	private void insert(int flowCell, long key, int slot) {
+		int mask = slots.length - 1;
+		int i = hash(flowCell, key) & mask;
+		while (slots[i] != 0)
+			i = (i + 1) & mask;
+		flowCells[i] = flowCell;
+		keys[i] = key;
+		slots[i] = slot;
+	}
+
+	private void rehash(int capacity) {
+		int[] oldFlowCells = flowCells;
+		long[] oldKeys = keys;
+		int[] oldSlots = slots;
+		flowCells = new int[capacity];
+		keys = new long[capacity];
+		slots = new int[capacity];
+		for (int i = 0; i < oldSlots.length; i++)
+		{
+			if (oldSlots[i] != 0)
+				insert(oldFlowCells[i], oldKeys[i], oldSlots[i]);
+		}
+	}
+
+	private static long pack(TileCoordinates tileCoordinates) {
+		return ((long) tileCoordinates.lane.intValue() << 32) | (tileCoordinates.tile.intValue() & 0xFFFFFFFFL);
+	}
+
+	private static int hash(int flowCell, long key) {
+		key = (key ^ flowCell) * 0x9E3779B97F4A7C15L;
+		return (int) (key >>> 32);
+	}
+}
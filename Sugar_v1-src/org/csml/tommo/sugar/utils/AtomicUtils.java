@@ -0,0 +1,69 @@
+/**
+ *    Copyright Masao Nagasaki
+ *    Nagasaki Lab
+ *    Laboratory of Biomedical Information Analysis,
+ *    Department of Integrative Genomics,
+ *    Tohoku Medical Megabank Organization, Tohoku University 
+ *    @since 2013
+ *
+ *    This file is part of SUGAR (Subtile-based GUI-Assisted Refiner).
+ *    SUGAR is an extension of FastQC (copyright 2010-12 Simon Andrews)
+ *
+ *    FastQC is free software; you can redistribute it and/or modify
+ *    it under the terms of the GNU General Public License as published by
+ *    the Free Software Foundation; either version 3 of the License, or
+ *    (at your option) any later version.
+ *
+ *    FastQC is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *    GNU General Public License for more details.
+ *
+ *    You should have received a copy of the GNU General Public License
+ *    along with FastQC; if not, write to the Free Software
+ *    Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
+ */
+package org.csml.tommo.sugar.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AtomicUtils {
+
+	/**
+	 * the maximum number of the stripes of the striped counters (see getStripe), a power of two
+	 */
+	public static final int MAX_STRIPES = 8;
+
+	/**
+	 * Sets the maximum to the value, if the value is greater (compare and set, no locks)
+	 */
+	public static void updateMaximum(AtomicInteger maximum, int value) {
+		int current = maximum.get();
+		while (value > current && !maximum.compareAndSet(current, value))
+			current = maximum.get();
+	}
+
+	/**
+	 * @return the number of the stripes for the threads, which update the counters at once 
+	 * (the power of two not less than the threads, at most MAX_STRIPES)
+	 */
+	public static int getStripes(int threads) {
+		int stripes = Integer.highestOneBit(Math.max(1, Math.min(threads, MAX_STRIPES)));
+		return stripes < threads ? Math.min(stripes * 2, MAX_STRIPES) : stripes;
+	}
+
+	/**
+	 * The striped counters keep a copy of each counter for each stripe, which are summed up at the end. 
+	 * A StripedThread (e.g. a worker of the ModulePipeline) uses the stripe of its index, so up to 'stripes' workers
+	 * never increment the same counters. Other threads are spread by their IDs.
+	 * 
+	 * @param stripes - a power of two (see getStripes)
+	 * @return the stripe of the current thread
+	 */
+	public static int getStripe(int stripes) {
+		Thread thread = Thread.currentThread();
+		int index = (thread instanceof StripedThread) ? ((StripedThread) thread).getStripeIndex() : (int) thread.getId();
+		return index & (stripes - 1);
+	}
+
+}
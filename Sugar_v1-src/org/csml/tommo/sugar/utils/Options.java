@@ -44,7 +44,20 @@ public class Options {
 	public static final String HEATMAP_IMAGE_SIZE_OPTION = "sugar.heatmap_image_size";
 	public static final String READ_RATE_OPTION = "sugar.read_rate";
 	public static final String NO_CACHE = "sugar.nocache";
+	public static final String SINGLE_PASS = "sugar.single_pass";
+	public static final String SHARED_ACCUMULATORS = "sugar.shared_accumulators";
+	public static final String TILE_PARTITIONING = "sugar.tile_partitioning";
+	public static final String SHARD_INPUT = "sugar.shard_input";
+	public static final String CELL_SAMPLE = "sugar.cell_sample";
+	public static final String CONVERGE = "sugar.converge";
+	public static final String BAM_PREVIEW = "sugar.bam_preview";
+	public static final String PARTIAL = "sugar.partial";
+	public static final String MERGE = "sugar.merge";
+	public static final String TILE_RANGES = "sugar.tile_ranges";
+	public static final String WRITE_TILE_RANGES = "sugar.write_tile_ranges";
+	public static final String METRICS = "sugar.metrics";
 	public static final String CLEAR_LOWQ_CLUSTERS = "sugar.clear_lowq_clusters";
+	public static final String SAMTOOLS = "sugar.samtools";
 	public static final String CLEAR_LOWQ_CLUSTERS_FILE = "sugar.clear_lowq_clusters_file";
 	
 	public static final String HEADLESS_ENVIRONMENT = "java.awt.headless";
@@ -183,6 +196,101 @@ public class Options {
 		return TRUE.equals(System.getProperty(NO_CACHE));
 	}
 
+	public static boolean getSinglePass(){
+		return TRUE.equals(System.getProperty(SINGLE_PASS));
+	}
+
+	public static boolean getSharedAccumulators(){
+		return TRUE.equals(System.getProperty(SHARED_ACCUMULATORS));
+	}
+
+	public static boolean getTilePartitioning(){
+		return TRUE.equals(System.getProperty(TILE_PARTITIONING));
+	}
+
+	public static boolean getShardInput(){
+		return TRUE.equals(System.getProperty(SHARD_INPUT));
+	}
+
+	public static boolean getMetrics(){
+		return TRUE.equals(System.getProperty(METRICS));
+	}
+
+	public static boolean isSamTools(){
+		return TRUE.equals(System.getProperty(SAMTOOLS));
+	}
+
+	/**
+	 * @return the reads per subtile of the quick-look heatmaps or 0, if all reads are used
+	 */
+	public static int getCellSample(){
+		int result = 0;
+		if(System.getProperty(CELL_SAMPLE) != null){
+			try {
+				result = Integer.parseInt(System.getProperty(CELL_SAMPLE));
+			} catch (NumberFormatException e) {
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the confidence level (between 0 and 1) of the early termination or 0, if the whole file is read
+	 */
+	public static double getConvergence(){
+		double result = 0;
+		if(System.getProperty(CONVERGE) != null){
+			try {
+				result = Double.parseDouble(System.getProperty(CONVERGE)) / 100;
+			} catch (NumberFormatException e) {
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the reads of the BAM preview or 0, if the whole file is read
+	 */
+	public static int getBamPreview(){
+		int result = 0;
+		if(System.getProperty(BAM_PREVIEW) != null){
+			try {
+				result = Integer.parseInt(System.getProperty(BAM_PREVIEW));
+			} catch (NumberFormatException e) {
+			}
+		}
+		return result;
+	}
+
+	public static boolean getPartial(){
+		return TRUE.equals(System.getProperty(PARTIAL));
+	}
+
+	/**
+	 * @return the name of the merged report or null, if the partial results are not merged
+	 */
+	public static String getMerge(){
+		return System.getProperty(MERGE);
+	}
+
+	/**
+	 * @return the file with the tile ranges shared by the shards or null, if the ranges are found in the input
+	 */
+	public static File getTileRanges() {
+		return System.getProperty(TILE_RANGES) != null ?
+				new File(System.getProperty(TILE_RANGES)) :
+				null;
+	}
+
+	/**
+	 * @return the file, which the tile ranges of the input files are written to, or null
+	 */
+	public static File getWriteTileRanges() {
+		return System.getProperty(WRITE_TILE_RANGES) != null ?
+				new File(System.getProperty(WRITE_TILE_RANGES)) :
+				null;
+	}
+
 	public static EClearLowQClustersMethod getClearLowQClustersMethod(){
 		return EClearLowQClustersMethod.fromString(System.getProperty(CLEAR_LOWQ_CLUSTERS));
 	}
@@ -230,6 +338,18 @@ public class Options {
 		{
 			errorMessage = "Invalid read rate. Read rate must be an integer number greater than zero";
 		}
+		else if (getCellSample() < 0)
+		{
+			errorMessage = "Invalid cell sample. Cell sample must be an integer number greater than zero";
+		}
+		else if (getConvergence() < 0 || getConvergence() >= 1)
+		{
+			errorMessage = "Invalid convergence confidence. The confidence must be a percentage between 0 and 100";
+		}
+		else if (getBamPreview() < 0)
+		{
+			errorMessage = "Invalid BAM preview. The preview reads must be an integer number greater than zero";
+		}
 		
 		return errorMessage;		
 			